@@ -0,0 +1,50 @@
+package org.hma.bitcoin.benchmark;
+
+import org.hma.bitcoin.model.Address;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AddressBenchmark {
+    /** 1 for addr, 2 for addrv2. */
+    @Param({"1", "2"})
+    public int protocolVariant;
+
+    @Param({"203.0.113.7", "2001:db8::7"})
+    public String host;
+
+    private Address address;
+    private byte[] serialized;
+
+    @Setup
+    public void setup() throws Exception {
+        address = new Address(InetAddress.getByName(host), 8333, 1033, protocolVariant);
+        serialized = address.serialize();
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return address.serialize();
+    }
+
+    @Benchmark
+    public Address parse() throws Exception {
+        return new Address(serialized, 0, protocolVariant);
+    }
+
+    @Benchmark
+    public Address roundTrip() throws Exception {
+        return new Address(address.serialize(), 0, protocolVariant);
+    }
+}
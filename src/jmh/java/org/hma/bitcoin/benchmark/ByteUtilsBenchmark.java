@@ -0,0 +1,81 @@
+package org.hma.bitcoin.benchmark;
+
+import org.hma.bitcoin.util.ByteUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ByteUtilsBenchmark {
+    private final byte[] buf = new byte[64];
+    private final ByteArrayOutputStream stream = new ByteArrayOutputStream(64);
+    private long value;
+    private BigInteger services;
+
+    @Setup
+    public void setup() {
+        ThreadLocalRandom.current().nextBytes(buf);
+        value = ThreadLocalRandom.current().nextLong();
+        services = BigInteger.valueOf(value & Long.MAX_VALUE);
+    }
+
+    @Benchmark
+    public int readUint16() {
+        return ByteUtils.readUint16(buf, 7);
+    }
+
+    @Benchmark
+    public long readUint32() {
+        return ByteUtils.readUint32(buf, 7);
+    }
+
+    @Benchmark
+    public long readInt64() {
+        return ByteUtils.readInt64(buf, 7);
+    }
+
+    @Benchmark
+    public byte[] uint32ToByteArrayLE() {
+        ByteUtils.uint32ToByteArrayLE(value, buf, 9);
+        return buf;
+    }
+
+    @Benchmark
+    public byte[] int64ToByteArrayLE() {
+        ByteUtils.int64ToByteArrayLE(value, buf, 9);
+        return buf;
+    }
+
+    @Benchmark
+    public ByteArrayOutputStream uint32ToByteStreamLE() throws IOException {
+        stream.reset();
+        ByteUtils.uint32ToByteStreamLE(value, stream);
+        return stream;
+    }
+
+    @Benchmark
+    public ByteArrayOutputStream int64ToByteStreamLE() throws IOException {
+        stream.reset();
+        ByteUtils.int64ToByteStreamLE(value, stream);
+        return stream;
+    }
+
+    @Benchmark
+    public ByteArrayOutputStream uint64ToByteStreamLE() throws IOException {
+        stream.reset();
+        ByteUtils.uint64ToByteStreamLE(services, stream);
+        return stream;
+    }
+}
@@ -0,0 +1,52 @@
+package org.hma.bitcoin.benchmark;
+
+import org.hma.bitcoin.network.Network;
+import org.hma.bitcoin.network.message.Headers;
+import org.hma.bitcoin.network.message.VersionMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MessageFramingBenchmark {
+    private static final int MAGIC = Network.mainnet().getMagic();
+
+    private final ByteArrayOutputStream stream = new ByteArrayOutputStream(256);
+    private VersionMessage version;
+    private byte[] frame;
+
+    @Setup
+    public void setup() throws IOException {
+        version = new VersionMessage();
+        version.networkSerialize(stream, MAGIC);
+        frame = stream.toByteArray();
+    }
+
+    @Benchmark
+    public long parseHeader() {
+        Headers header = new Headers(frame);
+        return header.getPayloadLength() + header.getCommand().length();
+    }
+
+    @Benchmark
+    public byte[] versionSerialize() {
+        return version.serialize();
+    }
+
+    @Benchmark
+    public ByteArrayOutputStream versionNetworkSerialize() throws IOException {
+        stream.reset();
+        version.networkSerialize(stream, MAGIC);
+        return stream;
+    }
+}
@@ -0,0 +1,36 @@
+package org.hma.bitcoin.benchmark;
+
+import org.hma.bitcoin.crypto.Sha256;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class Sha256Benchmark {
+    /** A block header and a 1 MB block. */
+    @Param({"80", "1048576"})
+    public int size;
+
+    private byte[] input;
+
+    @Setup
+    public void setup() {
+        input = new byte[size];
+        ThreadLocalRandom.current().nextBytes(input);
+    }
+
+    @Benchmark
+    public byte[] hashTwice() {
+        return Sha256.hashTwice(input);
+    }
+}
@@ -0,0 +1,55 @@
+package org.hma.bitcoin.benchmark;
+
+import org.hma.bitcoin.util.VarInt;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class VarIntBenchmark {
+    /** One value per encoded size: 1, 3, 5 and 9 bytes. */
+    @Param({"100", "40000", "3000000000", "5000000000000"})
+    public long value;
+
+    private byte[] encoded;
+    private final byte[] scratch = new byte[9];
+
+    @Setup
+    public void setup() {
+        encoded = new VarInt(value).encode();
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return new VarInt(value).encode();
+    }
+
+    @Benchmark
+    public long decode() {
+        return new VarInt(encoded, 0).longValue();
+    }
+
+    @Benchmark
+    public int writeStatic() {
+        return VarInt.write(scratch, 0, value);
+    }
+
+    @Benchmark
+    public long readStatic() throws Exception {
+        return VarInt.read(encoded, 0);
+    }
+
+    @Benchmark
+    public int sizeOf() {
+        return VarInt.sizeOf(value);
+    }
+}
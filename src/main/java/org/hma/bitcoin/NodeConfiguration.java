@@ -0,0 +1,15 @@
+package org.hma.bitcoin;
+
+import org.hma.bitcoin.network.Network;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class NodeConfiguration {
+
+    @Bean
+    public Network network(@Value("${node.network:testnet}") String name) {
+        return Network.byName(name);
+    }
+}
@@ -0,0 +1,499 @@
+package org.hma.bitcoin.analytics;
+
+import jakarta.annotation.PreDestroy;
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.output.MigrateResult;
+import org.hma.bitcoin.chain.BlockIndex;
+import org.hma.bitcoin.chain.BlockUndo;
+import org.hma.bitcoin.chain.ChainListener;
+import org.hma.bitcoin.chain.ChainState;
+import org.hma.bitcoin.crypto.Sha256;
+import org.hma.bitcoin.model.Block;
+import org.hma.bitcoin.model.Transaction;
+import org.hma.bitcoin.model.TransactionInput;
+import org.hma.bitcoin.model.TransactionOutput;
+import org.hma.bitcoin.model.Utxo;
+import org.hma.bitcoin.storage.BlockFileStore;
+import org.hma.bitcoin.storage.FilePosition;
+import org.hma.bitcoin.storage.UndoFileStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Optional copy of the active chain into a SQL database for analytics, enabled with {@code node.analytics=true}. The
+ * schema is migrated by Flyway from {@code db/analytics} on startup, against {@code node.analytics.url} rather than an
+ * application data source. Any JDBC database taking MySQL syntax will do, e.g. a local H2 in MySQL mode for testing.
+ * <p>
+ * Connected and disconnected blocks are queued to writer threads, each with its own connection and bounded queue. A
+ * block goes to the writer of its height, so everything done at one height is applied in order. A writer takes what is
+ * queued and writes it as one transaction of batched inserts, flushed every {@code node.analytics.batch-rows} rows;
+ * with the MySQL driver's {@code rewriteBatchedStatements} each flush is a few multi-row {@code INSERT}s. Full queues
+ * block the chain, so a slow database throttles sync instead of leaving gaps.
+ * <p>
+ * A failing database must not stall the chain though: a batch that still fails after
+ * {@code node.analytics.max-retries} retries is dropped, and until a write succeeds again blocks that don't fit the
+ * queues are dropped too rather than waited on. Dropped heights are backfilled once the database is back.
+ * <p>
+ * On startup the stored blocks are compared with the active chain and missing or stale heights are written again from
+ * the block files in the background.
+ */
+@Component
+@ConditionalOnProperty(name = "node.analytics", havingValue = "true")
+public class AnalyticsIngester implements ChainListener {
+    private static final Logger LOG = LoggerFactory.getLogger(AnalyticsIngester.class);
+
+    private static final String[] TABLES = {"blocks", "transactions", "inputs", "outputs"};
+
+    private final ChainState chain;
+    private final BlockFileStore blockStore;
+    private final UndoFileStore undoStore;
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int batchRows;
+    private final int queueBlocks;
+    private final int maxRetries;
+    private final long retryDelayMillis;
+    private final List<BlockingQueue<Task>> queues = new ArrayList<>();
+    private final ExecutorService writers;
+    private final ExecutorService backfills;
+    /** Heights dropped while the database was failing, to backfill once it works again. */
+    private final NavigableSet<Integer> dropped = new ConcurrentSkipListSet<>();
+    private volatile boolean failing;
+    private volatile boolean closing;
+
+    public AnalyticsIngester(ChainState chain, BlockFileStore blockStore, UndoFileStore undoStore,
+                             @Value("${node.analytics.url}") String url,
+                             @Value("${node.analytics.user:}") String user,
+                             @Value("${node.analytics.password:}") String password,
+                             @Value("${node.analytics.writer-threads:2}") int writerThreads,
+                             @Value("${node.analytics.queue-blocks:16}") int queueBlocks,
+                             @Value("${node.analytics.batch-rows:10000}") int batchRows,
+                             @Value("${node.analytics.max-retries:3}") int maxRetries,
+                             @Value("${node.analytics.retry-delay-ms:5000}") long retryDelayMillis)
+            throws SQLException {
+        this.chain = chain;
+        this.blockStore = blockStore;
+        this.undoStore = undoStore;
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.batchRows = batchRows;
+        this.queueBlocks = queueBlocks;
+        this.maxRetries = maxRetries;
+        this.retryDelayMillis = retryDelayMillis;
+
+        MigrateResult migration = Flyway.configure()
+                .dataSource(url, user, password)
+                .locations("classpath:db/analytics")
+                .load()
+                .migrate();
+        LOG.info("Analytics schema at version {}, {} migrations applied", migration.targetSchemaVersion,
+                migration.migrationsExecuted);
+
+        // The writers must be running before reconcile registers for notifications.
+        int threads = writerThreads > 0 ? writerThreads : Runtime.getRuntime().availableProcessors();
+        this.writers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "analytics-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < threads; i++) {
+            BlockingQueue<Task> queue = new ArrayBlockingQueue<>(queueBlocks);
+            queues.add(queue);
+            writers.execute(() -> write(queue));
+        }
+        this.backfills = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "analytics-backfill");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        int[] stale = reconcile();
+        LOG.info("Analytics database is missing {} blocks of the active chain", stale.length);
+        backfills.execute(() -> backfill(stale));
+    }
+
+    /**
+     * Deletes stored blocks above the tip, registers for chain updates and returns the heights up to the tip whose
+     * stored block is missing or no longer active.
+     */
+    private int[] reconcile() throws SQLException {
+        List<byte[]> stored = new ArrayList<>();
+        try (Connection connection = connect();
+             Statement statement = connection.createStatement();
+             ResultSet rows = statement.executeQuery("SELECT height, hash FROM blocks")) {
+            while (rows.next()) {
+                int height = rows.getInt(1);
+                while (stored.size() <= height) {
+                    stored.add(null);
+                }
+                stored.set(height, rows.getBytes(2));
+            }
+        }
+        // Registering under the chain lock makes every later block a notification, and every earlier one a backfill.
+        synchronized (chain) {
+            int tip = chain.getHeight();
+            if (stored.size() > tip + 1) {
+                try (Connection connection = connect()) {
+                    connection.setAutoCommit(true);
+                    for (String table : TABLES) {
+                        try (PreparedStatement delete = connection.prepareStatement(
+                                "DELETE FROM " + table + " WHERE height > ?")) {
+                            delete.setInt(1, tip);
+                            delete.executeUpdate();
+                        }
+                    }
+                }
+            }
+            int[] stale = new int[tip + 1];
+            int count = 0;
+            for (int height = 0; height <= tip; height++) {
+                byte[] hash = height < stored.size() ? stored.get(height) : null;
+                if (hash == null || !Arrays.equals(hash, chain.getByHeight(height).getHash().getBytes())) {
+                    stale[count++] = height;
+                }
+            }
+            chain.addListener(this);
+            return Arrays.copyOf(stale, count);
+        }
+    }
+
+    private void backfill(int[] heights) {
+        for (int height : heights) {
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            BlockIndex index;
+            FilePosition blockPosition;
+            FilePosition undoPosition;
+            synchronized (chain) {
+                index = chain.getByHeight(height);
+                if (index == null) {
+                    // Above the tip, e.g. a dropped disconnect; what is left to write is the removal of the height.
+                    submit(new Task(height, null, null, null));
+                    continue;
+                }
+                blockPosition = index.getBlockPosition();
+                undoPosition = index.getUndoPosition();
+            }
+            try {
+                Block block = blockStore.loadBlock(blockPosition);
+                BlockUndo undo = undoPosition != null
+                        ? BlockUndo.parse(undoStore.readUndo(undoPosition, index.getHash())) : null;
+                // Queued under the chain lock, like notifications, so a reorg in the meantime can't be overwritten.
+                synchronized (chain) {
+                    if (chain.getByHeight(height) == index) {
+                        submit(new Task(height, index.getHash(), block, undo));
+                    }
+                }
+            } catch (IOException e) {
+                LOG.error("Failed to read block {} for the analytics database", index, e);
+            }
+        }
+        LOG.info("Analytics backfill of {} blocks done", heights.length);
+    }
+
+    @Override
+    public void onBlockConnected(Block block, BlockIndex index, BlockUndo undo) {
+        submit(new Task(index.getHeight(), index.getHash(), block, undo));
+    }
+
+    @Override
+    public void onBlockDisconnected(Block block, BlockIndex index, BlockUndo undo) {
+        submit(new Task(index.getHeight(), index.getHash(), null, null));
+    }
+
+    /** Queues the task for its writer, waiting for room unless the database is failing. */
+    private void submit(Task task) {
+        if (closing) {
+            return;
+        }
+        BlockingQueue<Task> queue = queues.get(task.height % queues.size());
+        try {
+            if (!failing) {
+                queue.put(task);
+            } else if (!queue.offer(task)) {
+                dropped.add(task.height);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.warn("Interrupted queueing block {} for the analytics database", task.hash);
+        }
+    }
+
+    /**
+     * Writer loop: drains the queue into transactions, reconnecting and retrying a failed one up to the max retries
+     * before dropping it.
+     */
+    private void write(BlockingQueue<Task> queue) {
+        List<Task> tasks = new ArrayList<>();
+        int retries = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            try (Connection connection = connect()) {
+                connection.setAutoCommit(false);
+                while (true) {
+                    if (tasks.isEmpty()) {
+                        Task first = queue.poll(1, TimeUnit.SECONDS);
+                        if (first == null) {
+                            if (closing) {
+                                return;
+                            }
+                            continue;
+                        }
+                        tasks.add(first);
+                        queue.drainTo(tasks, queueBlocks - 1);
+                    }
+                    try {
+                        apply(connection, tasks);
+                        connection.commit();
+                    } catch (SQLException e) {
+                        connection.rollback();
+                        throw e;
+                    }
+                    tasks.clear();
+                    retries = 0;
+                    recovered();
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (SQLException e) {
+                if (retries++ < maxRetries) {
+                    LOG.error("Failed to write {} blocks to the analytics database, retrying", tasks.size(), e);
+                } else {
+                    LOG.error("Failed to write {} blocks to the analytics database, dropping them until it recovers",
+                            tasks.size(), e);
+                    failing = true;
+                    for (Task task : tasks) {
+                        dropped.add(task.height);
+                    }
+                    tasks.clear();
+                    retries = 0;
+                }
+                try {
+                    Thread.sleep(retryDelayMillis);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /** Writes the tasks in one transaction. Only the last task of a height matters, every task replaces its rows. */
+    private void apply(Connection connection, List<Task> tasks) throws SQLException {
+        Map<Integer, Task> byHeight = new LinkedHashMap<>();
+        for (Task task : tasks) {
+            byHeight.put(task.height, task);
+        }
+        for (String table : TABLES) {
+            try (PreparedStatement delete = connection.prepareStatement("DELETE FROM " + table + " WHERE height = ?")) {
+                for (int height : byHeight.keySet()) {
+                    delete.setInt(1, height);
+                    delete.addBatch();
+                }
+                delete.executeBatch();
+            }
+        }
+        try (Inserts inserts = new Inserts(connection)) {
+            for (Task task : byHeight.values()) {
+                if (task.block != null) {
+                    inserts.add(task);
+                }
+            }
+            inserts.flush();
+        }
+    }
+
+    /** After a successful write: stops dropping blocks and backfills those dropped before. */
+    private void recovered() {
+        if (failing) {
+            failing = false;
+            LOG.info("Analytics database writes succeed again");
+        }
+        if (dropped.isEmpty() || closing) {
+            return;
+        }
+        List<Integer> heights = new ArrayList<>();
+        for (Integer height = dropped.pollFirst(); height != null; height = dropped.pollFirst()) {
+            heights.add(height);
+        }
+        LOG.info("Backfilling {} blocks dropped from the analytics database", heights.size());
+        try {
+            backfills.execute(() -> backfill(heights.stream().mapToInt(Integer::intValue).toArray()));
+        } catch (RejectedExecutionException e) {
+            // Closing; the heights are found missing on the next start.
+        }
+    }
+
+    private Connection connect() throws SQLException {
+        return DriverManager.getConnection(url, user, password);
+    }
+
+    @PreDestroy
+    public void close() throws InterruptedException {
+        // Let the writers finish what is queued; anything left is picked up by the backfill on the next start.
+        closing = true;
+        backfills.shutdownNow();
+        writers.shutdown();
+        if (!writers.awaitTermination(30, TimeUnit.SECONDS)) {
+            LOG.warn("Analytics writers didn't finish in time");
+            writers.shutdownNow();
+        }
+    }
+
+    /** A block to write at its height, or, without a block, the removal of that height. */
+    private static final class Task {
+        final int height;
+        final Sha256 hash;
+        final Block block;
+        final BlockUndo undo;
+
+        Task(int height, Sha256 hash, Block block, BlockUndo undo) {
+            this.height = height;
+            this.hash = hash;
+            this.block = block;
+            this.undo = undo;
+        }
+    }
+
+    /** Batched inserts into all tables, executed whenever {@code batchRows} rows are pending. */
+    private final class Inserts implements AutoCloseable {
+        final PreparedStatement blocks;
+        final PreparedStatement transactions;
+        final PreparedStatement inputs;
+        final PreparedStatement outputs;
+        int pending;
+
+        Inserts(Connection connection) throws SQLException {
+            blocks = connection.prepareStatement("INSERT INTO blocks (height, hash, prev_hash, version, time, bits, "
+                    + "nonce, size, tx_count) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)");
+            transactions = connection.prepareStatement("INSERT INTO transactions (height, position, txid, version, "
+                    + "lock_time, size, input_count, output_count, fee) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)");
+            inputs = connection.prepareStatement("INSERT INTO inputs (height, position, vin, prev_txid, prev_vout, "
+                    + "sequence, script_sig, value, prev_height) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)");
+            outputs = connection.prepareStatement("INSERT INTO outputs (height, position, vout, txid, value, "
+                    + "script_pubkey) VALUES (?, ?, ?, ?, ?, ?)");
+        }
+
+        void add(Task task) throws SQLException {
+            Block block = task.block;
+            List<Transaction> txs = block.getTransactions();
+            blocks.setInt(1, task.height);
+            blocks.setBytes(2, task.hash.getBytes());
+            blocks.setBytes(3, block.getPrevHash().getBytes());
+            blocks.setLong(4, block.getVersion());
+            blocks.setLong(5, block.getTime());
+            blocks.setLong(6, block.getBits());
+            blocks.setLong(7, block.getNonce());
+            blocks.setInt(8, block.getMessageSize());
+            blocks.setInt(9, txs.size());
+            row(blocks);
+
+            for (int position = 0; position < txs.size(); position++) {
+                Transaction tx = txs.get(position);
+                byte[] txId = tx.getTxId().getBytes();
+                // Spent outputs of the transaction, unknown for the coinbase and for blocks without undo data.
+                Utxo[] spent = position > 0 && task.undo != null ? task.undo.getSpent().get(position - 1) : null;
+
+                long outputValue = 0;
+                List<TransactionOutput> txOutputs = tx.getOutputs();
+                for (int vout = 0; vout < txOutputs.size(); vout++) {
+                    TransactionOutput output = txOutputs.get(vout);
+                    outputValue += output.getValue();
+                    outputs.setInt(1, task.height);
+                    outputs.setInt(2, position);
+                    outputs.setInt(3, vout);
+                    outputs.setBytes(4, txId);
+                    outputs.setLong(5, output.getValue());
+                    outputs.setBytes(6, output.getScriptPubKey());
+                    row(outputs);
+                }
+
+                long inputValue = 0;
+                List<TransactionInput> txInputs = tx.getInputs();
+                for (int vin = 0; vin < txInputs.size(); vin++) {
+                    TransactionInput input = txInputs.get(vin);
+                    inputs.setInt(1, task.height);
+                    inputs.setInt(2, position);
+                    inputs.setInt(3, vin);
+                    inputs.setBytes(4, input.getOutpoint().getHash().getBytes());
+                    inputs.setLong(5, input.getOutpoint().getIndex());
+                    inputs.setLong(6, input.getSequence());
+                    inputs.setBytes(7, input.getScriptSig());
+                    if (spent != null) {
+                        inputValue += spent[vin].getValue();
+                        inputs.setLong(8, spent[vin].getValue());
+                        inputs.setInt(9, spent[vin].getHeight());
+                    } else {
+                        inputs.setNull(8, Types.BIGINT);
+                        inputs.setNull(9, Types.INTEGER);
+                    }
+                    row(inputs);
+                }
+
+                transactions.setInt(1, task.height);
+                transactions.setInt(2, position);
+                transactions.setBytes(3, txId);
+                transactions.setLong(4, tx.getVersion());
+                transactions.setLong(5, tx.getLockTime());
+                transactions.setInt(6, tx.getMessageSize());
+                transactions.setInt(7, txInputs.size());
+                transactions.setInt(8, txOutputs.size());
+                if (spent != null) {
+                    transactions.setLong(9, inputValue - outputValue);
+                } else {
+                    transactions.setNull(9, Types.BIGINT);
+                }
+                row(transactions);
+            }
+        }
+
+        private void row(PreparedStatement statement) throws SQLException {
+            statement.addBatch();
+            if (++pending >= batchRows) {
+                flush();
+            }
+        }
+
+        void flush() throws SQLException {
+            blocks.executeBatch();
+            transactions.executeBatch();
+            inputs.executeBatch();
+            outputs.executeBatch();
+            pending = 0;
+        }
+
+        @Override
+        public void close() throws SQLException {
+            blocks.close();
+            transactions.close();
+            inputs.close();
+            outputs.close();
+        }
+    }
+}
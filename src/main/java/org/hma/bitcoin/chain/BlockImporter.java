@@ -0,0 +1,329 @@
+package org.hma.bitcoin.chain;
+
+import jakarta.annotation.PreDestroy;
+import org.hma.bitcoin.crypto.Sha256;
+import org.hma.bitcoin.model.Block;
+import org.hma.bitcoin.network.Network;
+import org.hma.bitcoin.storage.BlockFileStore;
+import org.hma.bitcoin.storage.FilePosition;
+import org.hma.bitcoin.storage.FlatFileStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Connects blocks read from bitcoind compatible {@code blk?????.dat} files, to bootstrap a node from a local copy of
+ * the chain instead of the network.
+ * <p>
+ * Reindexing rebuilds the chain state of an empty node from its own block files, which stay where they are. Loading
+ * ({@code loadblock}) connects blocks from other files on top of the current tip, storing them like blocks from
+ * peers.
+ * <p>
+ * Each file is memory-mapped and scanned front to back by a worker of its own, which finds the records and hashes
+ * their headers. Blocks are stored in the order they were downloaded, not chain order, so the headers are linked up
+ * from the tip to the highest block reachable from it. Workers then parse the blocks of that chain ahead of
+ * validation, which connects them in order on the importing thread.
+ */
+@Component
+public class BlockImporter {
+    private static final Logger LOG = LoggerFactory.getLogger(BlockImporter.class);
+
+    private static final int PROGRESS_INTERVAL = 10_000;
+
+    private final ChainState chain;
+    private final BlockFileStore blockStore;
+    private final int magic;
+    private final int readAhead;
+    private final ExecutorService workers;
+
+    @Value("${node.reindex:false}")
+    private boolean reindex;
+
+    @Value("${node.loadblock:}")
+    private List<String> loadBlockFiles;
+
+    public BlockImporter(ChainState chain, BlockFileStore blockStore, Network network,
+                         @Value("${node.import.threads:0}") int threads,
+                         @Value("${node.import.read-ahead:64}") int readAhead) {
+        this.chain = chain;
+        this.blockStore = blockStore;
+        this.magic = network.getMagic();
+        this.readAhead = readAhead;
+        this.workers = Executors.newFixedThreadPool(
+                threads > 0 ? threads : Runtime.getRuntime().availableProcessors(), runnable -> {
+                    Thread thread = new Thread(runnable, "block-import");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /** Runs a configured import once every component is up, so chain listeners see each imported block. */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        List<Path> files = new ArrayList<>();
+        for (String file : loadBlockFiles) {
+            if (!file.isBlank()) {
+                files.add(Paths.get(file.trim()));
+            }
+        }
+        if (!reindex && files.isEmpty()) {
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                if (reindex) {
+                    reindex();
+                }
+                if (!files.isEmpty()) {
+                    load(files);
+                }
+            } catch (IOException | RuntimeException e) {
+                LOG.error("Block import failed", e);
+            }
+        }, "block-importer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @PreDestroy
+    public void close() {
+        workers.shutdownNow();
+    }
+
+    /**
+     * Rebuilds the chain state of an empty node from its own block files. Blocks are not written again, but their
+     * undo records are appended to the rev files anew. Returns the number of blocks connected.
+     */
+    public int reindex() throws IOException {
+        if (chain.getTip() != null) {
+            throw new IllegalStateException("Can only reindex into an empty chain");
+        }
+        FlatFileStore files = blockStore.getFiles();
+        List<Path> paths = new ArrayList<>();
+        for (int file = 0; file <= files.getCurrentFile() && Files.exists(files.path(file)); file++) {
+            paths.add(files.path(file));
+        }
+        LOG.info("Reindexing {} block files", paths.size());
+        return importFiles(paths, true);
+    }
+
+    /** Connects the blocks of the files that extend the current tip. Returns the number of blocks connected. */
+    public int load(List<Path> paths) throws IOException {
+        LOG.info("Loading blocks from {} files", paths.size());
+        return importFiles(paths, false);
+    }
+
+    /**
+     * Scans the files, then connects the longest chain of their blocks extending the tip.
+     *
+     * @param inPlace whether the files are the block store's own, numbered as the list is, so the blocks are used
+     *                where they are rather than stored again
+     */
+    private int importFiles(List<Path> paths, boolean inPlace) throws IOException {
+        long start = System.nanoTime();
+        List<Future<List<Record>>> scans = new ArrayList<>(paths.size());
+        MappedByteBuffer[] mappings = new MappedByteBuffer[paths.size()];
+        for (int file = 0; file < paths.size(); file++) {
+            mappings[file] = map(paths.get(file));
+            MappedByteBuffer mapping = mappings[file];
+            int number = file;
+            scans.add(workers.submit(() -> scan(mapping, number)));
+        }
+        // First record of a hash wins, in file order.
+        Map<Sha256, Record> records = new HashMap<>();
+        for (Future<List<Record>> scan : scans) {
+            for (Record record : await(scan)) {
+                records.putIfAbsent(record.hash, record);
+            }
+        }
+
+        BlockIndex tip;
+        synchronized (chain) {
+            tip = chain.getTip();
+        }
+        List<Record> path = longestChain(records, tip == null ? Sha256.ZERO_HASH : tip.getHash());
+        LOG.info("Scanned {} blocks in {} ms, {} extend tip {}", records.size(),
+                (System.nanoTime() - start) / 1_000_000, path.size(), tip);
+
+        // A window of parsed blocks ahead of validation, in chain order.
+        ArrayDeque<Future<Block>> parsed = new ArrayDeque<>();
+        int next = 0;
+        int connected = 0;
+        try {
+            while (connected < path.size()) {
+                while (next < path.size() && parsed.size() < readAhead) {
+                    Record record = path.get(next++);
+                    ByteBuffer data = mappings[record.position.getFile()];
+                    parsed.add(workers.submit(() -> parse(data, record)));
+                }
+                Record record = path.get(connected);
+                Block block = await(parsed.poll());
+                synchronized (chain) {
+                    if (inPlace) {
+                        BlockIndex index = chain.getHeaderIndex().accept(block.getHeader());
+                        if (index.getBlockPosition() == null) {
+                            index.setBlockPosition(record.position);
+                        }
+                    }
+                    chain.connectBlock(block);
+                }
+                connected++;
+                if (connected % PROGRESS_INTERVAL == 0) {
+                    LOG.info("Imported {} of {} blocks", connected, path.size());
+                }
+            }
+        } finally {
+            parsed.forEach(future -> future.cancel(false));
+            if (inPlace || connected > 0) {
+                blockStore.flush();
+            }
+        }
+        LOG.info("Imported {} blocks in {} s, tip {}", connected, (System.nanoTime() - start) / 1_000_000_000,
+                chain.getTip());
+        return connected;
+    }
+
+    private static MappedByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Block file " + path + " is too large to map");
+            }
+            // The mapping stays valid after the channel is closed.
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Finds the block records of a file and hashes their headers. Like bitcoind, skips ahead to the next network magic
+     * after anything else, such as the zeros a preallocated file ends in.
+     */
+    private List<Record> scan(MappedByteBuffer mapping, int file) {
+        ByteBuffer buf = mapping.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        MessageDigest digest = Sha256.newDigest();
+        List<Record> records = new ArrayList<>();
+        int limit = buf.limit();
+        int offset = 0;
+        while (offset + FlatFileStore.RECORD_HEADER_SIZE + Block.HEADER_SIZE <= limit) {
+            if (Integer.reverseBytes(buf.getInt(offset)) != magic) {
+                offset++;
+                continue;
+            }
+            int length = buf.getInt(offset + 4);
+            int dataOffset = offset + FlatFileStore.RECORD_HEADER_SIZE;
+            if (length < Block.HEADER_SIZE || length > limit - dataOffset) {
+                offset++;
+                continue;
+            }
+            digest.update(buf.slice(dataOffset, Block.HEADER_SIZE));
+            byte[] hash = digest.digest(digest.digest());
+            byte[] prevHash = new byte[Sha256.LENGTH];
+            buf.get(dataOffset + 4, prevHash);
+            records.add(new Record(Sha256.wrap(hash), Sha256.wrap(prevHash),
+                    new FilePosition(file, dataOffset, length)));
+            offset = dataOffset + length;
+        }
+        return records;
+    }
+
+    private static Block parse(ByteBuffer mapping, Record record) throws IOException {
+        byte[] data = new byte[record.position.getLength()];
+        mapping.get((int) record.position.getOffset(), data);
+        try {
+            return new Block(data);
+        } catch (Exception e) {
+            throw new IOException("Corrupt block " + record.hash + " at " + record.position, e);
+        }
+    }
+
+    /** The records on the way from the base to the highest record descending from it, in chain order. */
+    private static List<Record> longestChain(Map<Sha256, Record> records, Sha256 base) {
+        // Height above the base of every record reaching it, the base itself at 0, -1 for the others.
+        Map<Sha256, Integer> depths = new HashMap<>(records.size() * 2);
+        depths.put(base, 0);
+        Record best = null;
+        int bestDepth = 0;
+        List<Record> walk = new ArrayList<>();
+        for (Record record : records.values()) {
+            walk.clear();
+            Integer depth = depths.get(record.hash);
+            for (Record current = record; depth == null; ) {
+                walk.add(current);
+                depth = depths.get(current.prevHash);
+                if (depth == null) {
+                    current = records.get(current.prevHash);
+                    if (current == null) {
+                        depth = -1;
+                    }
+                }
+            }
+            for (int i = walk.size() - 1; i >= 0; i--) {
+                depth = depth < 0 ? -1 : depth + 1;
+                depths.put(walk.get(i).hash, depth);
+            }
+            if (depth > bestDepth) {
+                best = record;
+                bestDepth = depth;
+            }
+        }
+        List<Record> path = new ArrayList<>(bestDepth);
+        for (Record record = best; record != null && !record.hash.equals(base); record = records.get(record.prevHash)) {
+            path.add(record);
+        }
+        Collections.reverse(path);
+        return path;
+    }
+
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private static class Record {
+        final Sha256 hash;
+        final Sha256 prevHash;
+        final FilePosition position;
+
+        Record(Sha256 hash, Sha256 prevHash, FilePosition position) {
+            this.hash = hash;
+            this.prevHash = prevHash;
+            this.position = position;
+        }
+    }
+}
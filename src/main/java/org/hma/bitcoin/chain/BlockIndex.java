@@ -0,0 +1,135 @@
+package org.hma.bitcoin.chain;
+
+import org.hma.bitcoin.crypto.Sha256;
+import org.hma.bitcoin.model.Block;
+import org.hma.bitcoin.storage.FilePosition;
+import org.hma.bitcoin.util.ByteUtils;
+
+import java.math.BigInteger;
+
+/**
+ * In-memory entry of the {@link HeaderIndex}: a header, its place in the header tree and where its data is stored.
+ * <p>
+ * Besides its parent every entry keeps a skip pointer to an ancestor further down, chosen like Bitcoin Core's
+ * {@code pskip} so that {@link #getAncestor(int)} takes O(log n) steps instead of one per block.
+ */
+public class BlockIndex {
+    private static final BigInteger TWO_POW_256 = BigInteger.ONE.shiftLeft(256);
+
+    private final Sha256 hash;
+    private final Block header;
+    private final BlockIndex prev;
+    private final BlockIndex skip;
+    private final int height;
+    private final BigInteger chainWork;
+    private volatile FilePosition blockPosition;
+    private volatile FilePosition undoPosition;
+
+    BlockIndex(Sha256 hash, Block header, BlockIndex prev) {
+        this.hash = hash;
+        this.header = header;
+        this.prev = prev;
+        this.height = prev == null ? 0 : prev.height + 1;
+        this.skip = prev == null ? null : prev.getAncestor(skipHeight(height));
+        BigInteger work = blockWork(header.getBits());
+        this.chainWork = prev == null ? work : prev.chainWork.add(work);
+    }
+
+    /** Expected number of hashes to find a block with the given compact target: 2^256 / (target + 1). */
+    static BigInteger blockWork(long bits) {
+        BigInteger target = ByteUtils.decodeCompactBits(bits);
+        if (target.signum() <= 0) {
+            return BigInteger.ZERO;
+        }
+        return TWO_POW_256.divide(target.add(BigInteger.ONE));
+    }
+
+    public Sha256 getHash() {
+        return hash;
+    }
+
+    /** The header, parsed without transactions. */
+    public Block getHeader() {
+        return header;
+    }
+
+    public BlockIndex getPrev() {
+        return prev;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public BigInteger getChainWork() {
+        return chainWork;
+    }
+
+    /** Position of the raw block in the blk files, null if only the header is known. */
+    public FilePosition getBlockPosition() {
+        return blockPosition;
+    }
+
+    public void setBlockPosition(FilePosition blockPosition) {
+        this.blockPosition = blockPosition;
+    }
+
+    /** Position of the undo record in the rev files, null until the block was connected. */
+    public FilePosition getUndoPosition() {
+        return undoPosition;
+    }
+
+    public void setUndoPosition(FilePosition undoPosition) {
+        this.undoPosition = undoPosition;
+    }
+
+    /** Ancestor this entry's skip pointer points to, null for the genesis entry. */
+    public BlockIndex getSkip() {
+        return skip;
+    }
+
+    /** Returns the ancestor at the given height, or null if the height is above this entry. */
+    public BlockIndex getAncestor(int height) {
+        if (height > this.height || height < 0) {
+            return null;
+        }
+        BlockIndex walk = this;
+        int heightWalk = this.height;
+        while (heightWalk > height) {
+            int heightSkip = skipHeight(heightWalk);
+            int heightSkipPrev = skipHeight(heightWalk - 1);
+            // Only follow the skip pointer if the previous entry's one wouldn't be a better shortcut.
+            if (walk.skip != null && (heightSkip == height
+                    || (heightSkip > height && !(heightSkipPrev < heightSkip - 2 && heightSkipPrev >= height)))) {
+                walk = walk.skip;
+                heightWalk = heightSkip;
+            } else {
+                walk = walk.prev;
+                heightWalk--;
+            }
+        }
+        return walk;
+    }
+
+    /**
+     * Height the skip pointer of an entry at the given height points to. Any number of steps down the tree are
+     * covered by O(log n) such jumps.
+     */
+    static int skipHeight(int height) {
+        if (height < 2) {
+            return 0;
+        }
+        // Odd heights jump a little less far than even ones so that consecutive entries don't share targets.
+        return (height & 1) != 0 ? invertLowestOne(invertLowestOne(height - 1)) + 1 : invertLowestOne(height);
+    }
+
+    /** Clears the lowest set bit. */
+    private static int invertLowestOne(int n) {
+        return n & (n - 1);
+    }
+
+    @Override
+    public String toString() {
+        return height + "/" + hash.toDisplayString();
+    }
+}
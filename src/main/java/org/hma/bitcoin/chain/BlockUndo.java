@@ -0,0 +1,61 @@
+package org.hma.bitcoin.chain;
+
+import org.hma.bitcoin.model.Utxo;
+import org.hma.bitcoin.util.VarInt;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The outputs a block spent, needed to disconnect it again. One entry per non-coinbase transaction, in block order,
+ * holding the spent outputs in input order.
+ */
+public class BlockUndo {
+    private final List<Utxo[]> spent;
+
+    public BlockUndo(List<Utxo[]> spent) {
+        this.spent = spent;
+    }
+
+    /** Spent outputs per non-coinbase transaction, i.e. entry i belongs to transaction i + 1 of the block. */
+    public List<Utxo[]> getSpent() {
+        return spent;
+    }
+
+    public byte[] serialize() {
+        int size = VarInt.sizeOf(spent.size());
+        for (Utxo[] tx : spent) {
+            size += VarInt.sizeOf(tx.length);
+            for (Utxo utxo : tx) size += utxo.serializedSize();
+        }
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        VarInt.write(buf, spent.size());
+        for (Utxo[] tx : spent) {
+            VarInt.write(buf, tx.length);
+            for (Utxo utxo : tx) utxo.write(buf);
+        }
+        return buf.array();
+    }
+
+    public static BlockUndo parse(ByteBuffer buf) throws ProtocolException {
+        long txCount = VarInt.read(buf);
+        if (txCount > buf.remaining()) {
+            throw new ProtocolException("Undo transaction count " + txCount + " exceeds record");
+        }
+        List<Utxo[]> spent = new ArrayList<>((int) txCount);
+        for (long i = 0; i < txCount; i++) {
+            long inputs = VarInt.read(buf);
+            if (inputs > buf.remaining()) {
+                throw new ProtocolException("Undo input count " + inputs + " exceeds record");
+            }
+            Utxo[] tx = new Utxo[(int) inputs];
+            for (int j = 0; j < tx.length; j++) {
+                tx[j] = Utxo.read(buf);
+            }
+            spent.add(tx);
+        }
+        return new BlockUndo(spent);
+    }
+}
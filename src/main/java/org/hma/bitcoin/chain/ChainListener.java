@@ -0,0 +1,15 @@
+package org.hma.bitcoin.chain;
+
+import org.hma.bitcoin.model.Block;
+
+/**
+ * Notified synchronously, under the chain lock, when the active chain changes. Implementations should hand
+ * expensive work to their own threads.
+ */
+public interface ChainListener {
+
+    void onBlockConnected(Block block, BlockIndex index, BlockUndo undo);
+
+    default void onBlockDisconnected(Block block, BlockIndex index, BlockUndo undo) {
+    }
+}
@@ -0,0 +1,491 @@
+package org.hma.bitcoin.chain;
+
+import org.hma.bitcoin.crypto.Sha256;
+import org.hma.bitcoin.jfr.BlockConnectEvent;
+import org.hma.bitcoin.metrics.NodeMetrics;
+import org.hma.bitcoin.model.Block;
+import org.hma.bitcoin.model.OutPoint;
+import org.hma.bitcoin.model.Transaction;
+import org.hma.bitcoin.model.TransactionInput;
+import org.hma.bitcoin.model.TransactionOutput;
+import org.hma.bitcoin.model.Utxo;
+import org.hma.bitcoin.network.Network;
+import org.hma.bitcoin.script.ScriptFlags;
+import org.hma.bitcoin.script.ScriptVerifier;
+import org.hma.bitcoin.storage.BlockFileStore;
+import org.hma.bitcoin.storage.UndoFileStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The active chain and the UTXO set at its tip.
+ * <p>
+ * Connecting a block writes the outputs it spends as an undo record to the rev file next to its blk file.
+ * Disconnecting reads that record back and restores the spent outputs, so a reorganization costs time proportional
+ * to the blocks it replaces instead of a rescan of history.
+ * <p>
+ * Every input is script verified with the rules in force at the block's height, except in blocks below the
+ * {@code node.assume-valid} block, whose signatures are trusted the way Bitcoin Core's {@code -assumevalid} trusts
+ * them. Everything else is still checked for those blocks.
+ */
+@Service
+public class ChainState {
+    private static final Logger LOG = LoggerFactory.getLogger(ChainState.class);
+
+    /** Blocks a coinbase output must be buried under before it can be spent. */
+    public static final int COINBASE_MATURITY = 100;
+    /** Most satoshis that can ever exist, bounding any single value or sum of values. */
+    public static final long MAX_MONEY = 21_000_000L * 100_000_000L;
+    /** Blocks that broke a rule before it was enforced, verified with the flags given instead (Core's chainparams). */
+    private static final Map<Sha256, Integer> SCRIPT_FLAG_EXCEPTIONS = Map.of(
+            // BIP-16 exceptions on mainnet and testnet
+            Sha256.fromDisplayString("00000000000002dc756eebf4f49723ed8d30cc28a5f108eb94b1ba88ac4f9c22"), 0,
+            Sha256.fromDisplayString("00000000dd30457c001f4095d208cc1296b0eed002427aa599874af7a432b105"), 0,
+            // Taproot exception on mainnet
+            Sha256.fromDisplayString("0000000000000000000f14c35b2d841e986ab5441de8c585d5ffe55ea1e395ad"),
+            ScriptFlags.P2SH | ScriptFlags.WITNESS);
+
+    private final Network network;
+    private final HeaderIndex headerIndex;
+    private final UtxoSet utxos;
+    private final BlockFileStore blockStore;
+    private final UndoFileStore undoStore;
+    private final NodeMetrics metrics;
+    private final ScriptVerifier scriptVerifier;
+    private final Sha256 assumeValid;
+    private final List<BlockIndex> activeChain = new ArrayList<>();
+    private final List<ChainListener> listeners = new CopyOnWriteArrayList<>();
+    private BlockIndex snapshotBase;
+    private long scriptTime;
+
+    /**
+     * @param assumeValid display hash of a block whose ancestors' scripts are not verified, empty to verify all
+     */
+    public ChainState(Network network, HeaderIndex headerIndex, UtxoSet utxos, BlockFileStore blockStore,
+                      UndoFileStore undoStore, NodeMetrics metrics, ScriptVerifier scriptVerifier,
+                      @Value("${node.assume-valid:}") String assumeValid) {
+        this.network = network;
+        this.headerIndex = headerIndex;
+        this.utxos = utxos;
+        this.blockStore = blockStore;
+        this.undoStore = undoStore;
+        this.metrics = metrics;
+        this.scriptVerifier = scriptVerifier;
+        this.assumeValid = assumeValid.isBlank() ? null : Sha256.fromDisplayString(assumeValid.strip());
+    }
+
+    public void addListener(ChainListener listener) {
+        listeners.add(listener);
+    }
+
+    public synchronized BlockIndex getTip() {
+        return activeChain.isEmpty() ? null : activeChain.get(activeChain.size() - 1);
+    }
+
+    /** Height of the tip, -1 for an empty chain. */
+    public synchronized int getHeight() {
+        return activeChain.size() - 1;
+    }
+
+    /** Returns the active chain entry at the height, or null. */
+    public synchronized BlockIndex getByHeight(int height) {
+        return height >= 0 && height < activeChain.size() ? activeChain.get(height) : null;
+    }
+
+    public synchronized boolean contains(BlockIndex index) {
+        return getByHeight(index.getHeight()) == index;
+    }
+
+    /**
+     * Base of the UTXO snapshot the chain was bootstrapped from, null if every block was connected locally. Blocks
+     * up to the base have not been validated by this node.
+     */
+    public synchronized BlockIndex getSnapshotBase() {
+        return snapshotBase;
+    }
+
+    /**
+     * Makes the snapshot base the tip. The UTXO set must already hold the snapshot's coins; the chain below the base
+     * is made of headers only.
+     */
+    synchronized void activateSnapshot(BlockIndex base) {
+        if (!activeChain.isEmpty()) {
+            throw new IllegalStateException("Can only activate a snapshot on an empty chain");
+        }
+        for (int height = 0; height <= base.getHeight(); height++) {
+            activeChain.add(base.getAncestor(height));
+        }
+        snapshotBase = base;
+        LOG.info("Activated UTXO snapshot at {} with {} coins", base, utxos.size());
+    }
+
+    public HeaderIndex getHeaderIndex() {
+        return headerIndex;
+    }
+
+    public UtxoSet getUtxos() {
+        return utxos;
+    }
+
+    /**
+     * Connects a block on top of the active tip, storing it first if it isn't yet.
+     *
+     * @throws VerificationException if the block doesn't extend the tip, its header lacks the proof of work, its
+     *                               transactions don't match the merkle root or are malformed, spend missing or
+     *                               immature outputs or more than they spend, fail script verification, or the
+     *                               coinbase claims more than the subsidy and fees
+     */
+    public synchronized BlockIndex connectBlock(Block block) {
+        if (!block.hasTransactions() || block.getTransactions().isEmpty()) {
+            throw new VerificationException("Block " + block.getHash() + " has no transactions");
+        }
+        Sha256 merkleRoot = merkleRoot(block.getTransactions());
+        if (merkleRoot == null) {
+            throw new VerificationException("Block " + block.getHash() + " has duplicate transactions");
+        }
+        if (!merkleRoot.equals(block.getMerkleRoot())) {
+            throw new VerificationException("Block " + block.getHash() + " doesn't match its merkle root");
+        }
+        for (Transaction tx : block.getTransactions()) {
+            checkTransaction(tx);
+        }
+        BlockIndex index = headerIndex.accept(block);
+        BlockIndex tip = getTip();
+        if (index.getPrev() != tip) {
+            throw new VerificationException("Block " + index + " does not extend the tip " + tip);
+        }
+        BlockConnectEvent event = new BlockConnectEvent();
+        event.begin();
+        try {
+            long start = System.nanoTime();
+            if (index.getBlockPosition() == null) {
+                index.setBlockPosition(blockStore.writeBlock(block.deserialize()));
+            }
+            long stored = System.nanoTime();
+            BlockUndo undo = applyBlock(block, index.getHeight(), scriptFlags(index));
+            long applied = System.nanoTime();
+            try {
+                index.setUndoPosition(undoStore.writeUndo(index.getBlockPosition().getFile(), index.getHash(),
+                        undo.serialize()));
+            } catch (IOException | RuntimeException e) {
+                // Without its undo record the block could never be disconnected, so don't keep it applied.
+                rollback(block.getTransactions(), block.getTransactions().size(), undo.getSpent());
+                throw e;
+            }
+            long written = System.nanoTime();
+            activeChain.add(index);
+
+            metrics.recordValidationPhase("utxo", applied - stored - scriptTime);
+            metrics.recordValidationPhase("script", scriptTime);
+            metrics.recordValidationPhase("write", (stored - start) + (written - applied));
+            if (event.shouldCommit()) {
+                event.height = index.getHeight();
+                event.hash = index.getHash().toDisplayString();
+                event.txCount = block.getTransactions().size();
+                event.inputCount = undo.getSpent().stream().mapToInt(spent -> spent.length).sum();
+                event.utxoTime = applied - stored - scriptTime;
+                event.writeTime = (stored - start) + (written - applied);
+                event.commit();
+            }
+            for (ChainListener listener : listeners) {
+                listener.onBlockConnected(block, index, undo);
+            }
+            return index;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to store block " + index, e);
+        }
+    }
+
+    /** Disconnects the tip, restoring the outputs it spent from its undo record. */
+    public synchronized BlockIndex disconnectTip() {
+        BlockIndex tip = getTip();
+        if (tip == null) {
+            throw new IllegalStateException("Chain is empty");
+        }
+        if (tip == snapshotBase) {
+            throw new VerificationException("Cannot disconnect the snapshot base " + tip);
+        }
+        try {
+            Block block = blockStore.loadBlock(tip.getBlockPosition());
+            BlockUndo undo = BlockUndo.parse(undoStore.readUndo(tip.getUndoPosition(), tip.getHash()));
+            List<Transaction> txs = block.getTransactions();
+            if (undo.getSpent().size() != txs.size() - 1) {
+                throw new IOException("Undo record of " + tip + " doesn't match its block");
+            }
+            for (int i = txs.size() - 1; i >= 0; i--) {
+                Transaction tx = txs.get(i);
+                for (int j = 0; j < tx.getOutputs().size(); j++) {
+                    utxos.remove(new OutPoint(tx.getTxId(), j));
+                }
+                if (i > 0) {
+                    Utxo[] spent = undo.getSpent().get(i - 1);
+                    List<TransactionInput> inputs = tx.getInputs();
+                    for (int j = inputs.size() - 1; j >= 0; j--) {
+                        utxos.add(inputs.get(j).getOutpoint(), spent[j]);
+                    }
+                }
+            }
+            activeChain.remove(activeChain.size() - 1);
+            for (ChainListener listener : listeners) {
+                listener.onBlockDisconnected(block, tip, undo);
+            }
+            return tip;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to disconnect " + tip, e);
+        }
+    }
+
+    /**
+     * Makes the given entry the tip: disconnects back to the fork point and connects the new branch from the blocks
+     * already stored on disk.
+     */
+    public synchronized void reorganize(BlockIndex newTip) {
+        BlockIndex tip = getTip();
+        BlockIndex fork = tip == null ? null : HeaderIndex.findFork(tip, newTip);
+        List<BlockIndex> connect = new ArrayList<>();
+        for (BlockIndex walk = newTip; walk != fork; walk = walk.getPrev()) {
+            if (walk.getBlockPosition() == null) {
+                throw new VerificationException("Missing block data for " + walk);
+            }
+            connect.add(walk);
+        }
+        int disconnected = 0;
+        while (getTip() != fork) {
+            disconnectTip();
+            disconnected++;
+        }
+        try {
+            for (int i = connect.size() - 1; i >= 0; i--) {
+                connectBlock(blockStore.loadBlock(connect.get(i).getBlockPosition()));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to load block during reorganization", e);
+        }
+        LOG.info("Reorganized from {} to {}: {} blocks disconnected, {} connected", tip, newTip, disconnected,
+                connect.size());
+    }
+
+    /**
+     * The script flags a block is verified with: P2SH, WITNESS and TAPROOT for every block but the exceptions, and
+     * the others from their activation heights on. -1 if the block is an ancestor of the assume-valid block.
+     */
+    private int scriptFlags(BlockIndex index) {
+        if (assumeValid != null) {
+            BlockIndex trusted = headerIndex.get(assumeValid);
+            if (trusted != null && trusted.getAncestor(index.getHeight()) == index) {
+                return -1;
+            }
+        }
+        int height = index.getHeight();
+        int flags = SCRIPT_FLAG_EXCEPTIONS.getOrDefault(index.getHash(),
+                ScriptFlags.P2SH | ScriptFlags.WITNESS | ScriptFlags.TAPROOT);
+        if (height >= network.getBip66Height()) {
+            flags |= ScriptFlags.DERSIG;
+        }
+        if (height >= network.getBip65Height()) {
+            flags |= ScriptFlags.CHECKLOCKTIMEVERIFY;
+        }
+        if (height >= network.getCsvHeight()) {
+            flags |= ScriptFlags.CHECKSEQUENCEVERIFY;
+        }
+        if (height >= network.getSegwitHeight()) {
+            flags |= ScriptFlags.NULLDUMMY;
+        }
+        return flags;
+    }
+
+    /**
+     * Spends the inputs and adds the outputs of every transaction, rolling back on failure. Output values were range
+     * checked by {@link #checkTransaction}; the values spent are checked here, as they are looked up, and so are the
+     * scripts, with the flags given or not at all if they are -1. Sets {@link #scriptTime} to the time the scripts
+     * took.
+     */
+    private BlockUndo applyBlock(Block block, int height, int scriptFlags) {
+        List<Transaction> txs = block.getTransactions();
+        List<Utxo[]> spent = new ArrayList<>(txs.size() - 1);
+        int applied = 0;
+        long fees = 0;
+        scriptTime = 0;
+        try {
+            for (Transaction tx : txs) {
+                if (applied > 0) {
+                    if (tx.isCoinBase()) {
+                        throw new VerificationException("Second coinbase in block " + block.getHash());
+                    }
+                    List<TransactionInput> inputs = tx.getInputs();
+                    Utxo[] txSpent = new Utxo[inputs.size()];
+                    spent.add(txSpent);
+                    long in = 0;
+                    for (int j = 0; j < txSpent.length; j++) {
+                        OutPoint outpoint = inputs.get(j).getOutpoint();
+                        txSpent[j] = utxos.spend(outpoint);
+                        if (txSpent[j] == null) {
+                            throw new VerificationException("Transaction " + tx.getTxId() + " spends missing output "
+                                    + outpoint);
+                        }
+                        if (txSpent[j].isCoinbase() && height - txSpent[j].getHeight() < COINBASE_MATURITY) {
+                            throw new VerificationException("Transaction " + tx.getTxId()
+                                    + " spends immature coinbase " + outpoint);
+                        }
+                        in += txSpent[j].getValue();
+                        if (txSpent[j].getValue() < 0 || in > MAX_MONEY) {
+                            throw new VerificationException("Transaction " + tx.getTxId()
+                                    + " has input values out of range");
+                        }
+                    }
+                    long out = valueOut(tx);
+                    if (in < out) {
+                        throw new VerificationException("Transaction " + tx.getTxId() + " pays " + out
+                                + " but spends only " + in);
+                    }
+                    fees += in - out;
+                    if (fees > MAX_MONEY) {
+                        throw new VerificationException("Fees of block " + block.getHash() + " out of range");
+                    }
+                    if (scriptFlags != -1) {
+                        long start = System.nanoTime();
+                        TransactionOutput[] spentOutputs = new TransactionOutput[txSpent.length];
+                        for (int j = 0; j < txSpent.length; j++) {
+                            Utxo utxo = txSpent[j];
+                            spentOutputs[j] = new TransactionOutput(utxo.getValue(), utxo.getScriptPubKey());
+                        }
+                        scriptVerifier.verify(tx, spentOutputs, scriptFlags);
+                        scriptTime += System.nanoTime() - start;
+                    }
+                } else if (!tx.isCoinBase()) {
+                    throw new VerificationException("First transaction of block " + block.getHash()
+                            + " is not a coinbase");
+                }
+                // As in Bitcoin Core, the genesis coinbase is never spendable.
+                List<TransactionOutput> outputs = height > 0 ? tx.getOutputs() : List.of();
+                for (int j = 0; j < outputs.size(); j++) {
+                    TransactionOutput output = outputs.get(j);
+                    if (!output.isUnspendable()) {
+                        utxos.add(new OutPoint(tx.getTxId(), j),
+                                new Utxo(output.getValue(), output.getScriptPubKey(), height, applied == 0));
+                    }
+                }
+                applied++;
+            }
+            long claimed = valueOut(txs.get(0));
+            long allowed = network.getBlockSubsidy(height) + fees;
+            if (claimed > allowed) {
+                throw new VerificationException("Coinbase of block " + block.getHash() + " claims " + claimed
+                        + ", more than the " + allowed + " of subsidy and fees");
+            }
+        } catch (VerificationException e) {
+            rollback(txs, applied, spent);
+            throw e;
+        }
+        return new BlockUndo(spent);
+    }
+
+    /**
+     * Checks that don't depend on the chain: inputs and outputs present, output values within range on their own and
+     * summed, a coinbase scriptSig of 2 to 100 bytes, and no other transaction spending a null outpoint or the same
+     * outpoint twice, which would otherwise count its value twice (CVE-2018-17144).
+     *
+     * @throws VerificationException if a check fails
+     */
+    public static void checkTransaction(Transaction tx) {
+        Sha256 txid = tx.getTxId();
+        if (tx.getInputs().isEmpty()) {
+            throw new VerificationException(txid + " has no inputs");
+        }
+        if (tx.getOutputs().isEmpty()) {
+            throw new VerificationException(txid + " has no outputs");
+        }
+        long out = 0;
+        for (TransactionOutput output : tx.getOutputs()) {
+            long value = output.getValue();
+            if (value < 0 || value > MAX_MONEY) {
+                throw new VerificationException(txid + " has an output value out of range: " + value);
+            }
+            out += value;
+            if (out > MAX_MONEY) {
+                throw new VerificationException(txid + " has output values summing out of range");
+            }
+        }
+        if (tx.isCoinBase()) {
+            int length = tx.getInputs().get(0).getScriptSig().length;
+            if (length < 2 || length > 100) {
+                throw new VerificationException(txid + " has a coinbase scriptSig of " + length + " bytes");
+            }
+            return;
+        }
+        Set<OutPoint> outpoints = new HashSet<>(tx.getInputs().size() * 2);
+        for (TransactionInput input : tx.getInputs()) {
+            OutPoint outpoint = input.getOutpoint();
+            if (outpoint.isNull()) {
+                throw new VerificationException(txid + " spends a null outpoint");
+            }
+            if (!outpoints.add(outpoint)) {
+                throw new VerificationException(txid + " spends " + outpoint + " twice");
+            }
+        }
+    }
+
+    /** Sum of the output values, which {@link #checkTransaction} has bounded by {@link #MAX_MONEY}. */
+    private static long valueOut(Transaction tx) {
+        long out = 0;
+        for (TransactionOutput output : tx.getOutputs()) {
+            out += output.getValue();
+        }
+        return out;
+    }
+
+    /**
+     * The merkle root of the transactions, or null if a level pairs two identical hashes. Such a tree has the same
+     * root as one with the duplicated transactions removed (CVE-2012-2459), so the block is invalid either way.
+     */
+    static Sha256 merkleRoot(List<Transaction> txs) {
+        byte[][] level = new byte[txs.size()][];
+        for (int i = 0; i < level.length; i++) {
+            level[i] = txs.get(i).getTxId().getBytes();
+        }
+        int size = level.length;
+        while (size > 1) {
+            for (int i = 0; i < size; i += 2) {
+                int right = Math.min(i + 1, size - 1);
+                if (right != i && Arrays.equals(level[i], level[right])) {
+                    return null;
+                }
+                level[i / 2] = Sha256.hashTwice(level[i], level[right]);
+            }
+            size = (size + 1) / 2;
+        }
+        return Sha256.wrap(level[0]);
+    }
+
+    /** Reverts the first {@code applied} transactions plus the partially spent inputs of the failing one. */
+    private void rollback(List<Transaction> txs, int applied, List<Utxo[]> spent) {
+        for (int i = Math.min(applied, txs.size() - 1); i >= 0; i--) {
+            Transaction tx = txs.get(i);
+            if (i < applied) {
+                for (int j = 0; j < tx.getOutputs().size(); j++) {
+                    utxos.remove(new OutPoint(tx.getTxId(), j));
+                }
+            }
+            if (i > 0 && i - 1 < spent.size()) {
+                Utxo[] txSpent = spent.get(i - 1);
+                for (int j = 0; j < txSpent.length; j++) {
+                    if (txSpent[j] != null) {
+                        utxos.add(tx.getInputs().get(j).getOutpoint(), txSpent[j]);
+                    }
+                }
+            }
+        }
+    }
+}
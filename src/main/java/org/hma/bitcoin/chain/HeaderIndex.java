@@ -0,0 +1,146 @@
+package org.hma.bitcoin.chain;
+
+import org.hma.bitcoin.crypto.Sha256;
+import org.hma.bitcoin.model.Block;
+import org.hma.bitcoin.network.Network;
+import org.hma.bitcoin.util.ByteUtils;
+import org.springframework.stereotype.Component;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Tree of every known header, keyed by block hash. Only headers are kept, never transactions. */
+@Component
+public class HeaderIndex {
+    private final Map<Sha256, BlockIndex> entries = new ConcurrentHashMap<>();
+    /** Highest target a header of the network may claim. */
+    private final BigInteger powLimit;
+    private final Sha256 genesisHash;
+    private volatile BlockIndex bestHeader;
+
+    public HeaderIndex(Network network) {
+        this.powLimit = ByteUtils.decodeCompactBits(Long.decode(network.getMaxNbits()));
+        this.genesisHash = network.getGenesisHeader().getHash();
+    }
+
+    /**
+     * Adds a header whose parent is known (or the network's genesis header), returning the existing entry if it was added
+     * before. A full block may be passed; only its header is kept.
+     *
+     * @throws VerificationException if the header doesn't connect, claims to be the genesis header of another chain
+     *                               or its hash doesn't meet the target it claims
+     */
+    public synchronized BlockIndex accept(Block header) {
+        Sha256 hash = header.getHash();
+        BlockIndex existing = entries.get(hash);
+        if (existing != null) {
+            return existing;
+        }
+        BlockIndex prev = null;
+        if (!header.getPrevHash().equals(Sha256.ZERO_HASH)) {
+            prev = entries.get(header.getPrevHash());
+            if (prev == null) {
+                throw new VerificationException("Header " + hash.toDisplayString() + " doesn't connect to a known header");
+            }
+        } else if (!hash.equals(genesisHash)) {
+            throw new VerificationException("Header " + hash.toDisplayString() + " is not the genesis header");
+        }
+        checkProofOfWork(hash, header.getBits());
+        BlockIndex entry = new BlockIndex(hash, header.getHeader(), prev);
+        entries.put(hash, entry);
+        if (bestHeader == null || entry.getChainWork().compareTo(bestHeader.getChainWork()) > 0) {
+            bestHeader = entry;
+        }
+        return entry;
+    }
+
+    /**
+     * Checks that the target is within the network's limit and the hash, read as a little endian number, is at most
+     * the target. Whether the target is the one the difficulty adjustment asks for is not checked.
+     */
+    private void checkProofOfWork(Sha256 hash, long bits) {
+        BigInteger target = ByteUtils.decodeCompactBits(bits);
+        if (target.signum() <= 0 || target.compareTo(powLimit) > 0) {
+            throw new VerificationException("Header " + hash.toDisplayString() + " has an invalid target "
+                    + Long.toHexString(bits));
+        }
+        if (new BigInteger(1, hash.getReversedBytes()).compareTo(target) > 0) {
+            throw new VerificationException("Header " + hash.toDisplayString() + " doesn't meet its target");
+        }
+    }
+
+    public BlockIndex get(Sha256 hash) {
+        return entries.get(hash);
+    }
+
+    /** The header with the most accumulated work. */
+    public BlockIndex getBestHeader() {
+        return bestHeader;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the last common ancestor of two entries, or null if they are in different trees.
+     * <p>
+     * Skip pointers depend only on the height, so two entries at the same height can jump together as long as their
+     * skip targets still differ.
+     */
+    public static BlockIndex findFork(BlockIndex a, BlockIndex b) {
+        if (a.getHeight() > b.getHeight()) {
+            a = a.getAncestor(b.getHeight());
+        } else if (b.getHeight() > a.getHeight()) {
+            b = b.getAncestor(a.getHeight());
+        }
+        while (a != b) {
+            if (a.getSkip() != b.getSkip()) {
+                a = a.getSkip();
+                b = b.getSkip();
+            } else {
+                a = a.getPrev();
+                b = b.getPrev();
+            }
+        }
+        return a;
+    }
+
+    /**
+     * Builds a block locator for {@code getheaders}/{@code getblocks}: the hashes of the entry and its last 10
+     * ancestors, then exponentially sparser ones back to genesis, which is always included.
+     */
+    public static List<Sha256> getLocator(BlockIndex index) {
+        List<Sha256> locator = new ArrayList<>(32);
+        int step = 1;
+        while (index != null) {
+            locator.add(index.getHash());
+            if (index.getHeight() == 0) {
+                break;
+            }
+            int height = Math.max(index.getHeight() - step, 0);
+            index = index.getAncestor(height);
+            if (locator.size() > 10) {
+                step *= 2;
+            }
+        }
+        return locator;
+    }
+
+    /**
+     * Returns the first entry of the locator found in the given chain, i.e. the point a peer's chain forks from
+     * ours. Null if none is known.
+     */
+    public BlockIndex findLocatorFork(List<Sha256> locator, ChainState chain) {
+        for (Sha256 hash : locator) {
+            BlockIndex entry = entries.get(hash);
+            if (entry != null && chain.contains(entry)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,115 @@
+package org.hma.bitcoin.chain;
+
+import org.hma.bitcoin.crypto.Sha256;
+import org.hma.bitcoin.model.Block;
+import org.hma.bitcoin.network.Client;
+import org.hma.bitcoin.network.MessageDispatcher;
+import org.hma.bitcoin.network.Network;
+import org.hma.bitcoin.network.message.GetHeadersMessage;
+import org.hma.bitcoin.network.message.HeadersMessage;
+import org.hma.bitcoin.network.message.VerackMessage;
+import org.hma.bitcoin.network.message.VersionMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Downloads the header chains of peers into the {@link HeaderIndex} with {@code getheaders}, and answers the
+ * {@code getheaders} of peers from the active chain.
+ * <p>
+ * Sync with a peer starts when it acknowledges our version. The locator of our best header lets the peer find where
+ * our chains fork, and it answers with up to 2000 headers past that point; a full batch means it has more, so the
+ * next request starts from the last header received. A peer sending headers that fail the header checks is
+ * disconnected, while a batch that doesn't connect to any known header, like an announcement after we missed a few
+ * blocks, is answered with a fresh request. A peer's {@code version} is acknowledged, preceded by ours for inbound
+ * peers, which haven't been sent one yet.
+ */
+@Component
+public class HeaderSync {
+    private static final Logger LOG = LoggerFactory.getLogger(HeaderSync.class);
+
+    private final ChainState chain;
+    private final HeaderIndex headers;
+    private final Network network;
+
+    public HeaderSync(ChainState chain, Network network, MessageDispatcher dispatcher) {
+        this.chain = chain;
+        this.headers = chain.getHeaderIndex();
+        this.network = network;
+        dispatcher.register("version", this::onVersion);
+        dispatcher.register("verack", this::onVerack);
+        dispatcher.register("getheaders", this::onGetHeaders);
+        dispatcher.register("headers", this::onHeaders);
+    }
+
+    /** Asks the peer for the headers following our best header, starting from genesis on an empty index. */
+    public void requestHeaders(Client peer) {
+        BlockIndex best = headers.getBestHeader();
+        if (best == null) {
+            best = headers.accept(network.getGenesisHeader());
+        }
+        peer.send(new GetHeadersMessage(VersionMessage.PROTOCOL_VERSION, HeaderIndex.getLocator(best),
+                Sha256.ZERO_HASH));
+    }
+
+    private void onVersion(Client peer, byte[] payload) {
+        if (peer.isInbound()) {
+            VersionMessage version = new VersionMessage();
+            version.bestHeight = Math.max(chain.getHeight(), 0);
+            peer.send(version);
+        }
+        peer.send(new VerackMessage());
+    }
+
+    private void onVerack(Client peer, byte[] payload) {
+        requestHeaders(peer);
+    }
+
+    /**
+     * Sends the headers of the active chain after the first locator entry on it, up to the stop hash or 2000 headers.
+     * Without a common entry the headers after genesis are sent, as Bitcoin Core does.
+     */
+    private void onGetHeaders(Client peer, byte[] payload) throws Exception {
+        GetHeadersMessage request = new GetHeadersMessage(payload);
+        List<Block> reply = new ArrayList<>();
+        synchronized (chain) {
+            BlockIndex fork = headers.findLocatorFork(request.getLocator(), chain);
+            int height = fork == null ? 1 : fork.getHeight() + 1;
+            BlockIndex index = chain.getByHeight(height);
+            while (index != null && reply.size() < HeadersMessage.MAX_HEADERS) {
+                reply.add(index.getHeader());
+                if (index.getHash().equals(request.getStopHash())) {
+                    break;
+                }
+                index = chain.getByHeight(++height);
+            }
+        }
+        peer.send(new HeadersMessage(reply));
+    }
+
+    private void onHeaders(Client peer, byte[] payload) throws Exception {
+        List<Block> received = new HeadersMessage(payload).getHeaders();
+        if (received.isEmpty()) {
+            return;
+        }
+        if (headers.get(received.get(0).getPrevHash()) == null) {
+            LOG.debug("Headers from {} don't connect, asking for ours", peer);
+            requestHeaders(peer);
+            return;
+        }
+        BlockIndex last = null;
+        for (Block header : received) {
+            last = headers.accept(header);
+        }
+        if (received.size() == HeadersMessage.MAX_HEADERS) {
+            LOG.info("Synced headers up to {} from {}, asking for more", last, peer);
+            peer.send(new GetHeadersMessage(VersionMessage.PROTOCOL_VERSION, HeaderIndex.getLocator(last),
+                    Sha256.ZERO_HASH));
+        } else {
+            LOG.info("Synced headers up to {} from {}", last, peer);
+        }
+    }
+}
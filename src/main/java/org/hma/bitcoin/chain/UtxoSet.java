@@ -0,0 +1,52 @@
+package org.hma.bitcoin.chain;
+
+import org.hma.bitcoin.metrics.NodeMetrics;
+import org.hma.bitcoin.model.OutPoint;
+import org.hma.bitcoin.model.Utxo;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * The set of unspent outputs at the active tip, held in memory. Access is guarded by the {@link ChainState} lock.
+ */
+@Component
+public class UtxoSet {
+    private final Map<OutPoint, Utxo> utxos = new HashMap<>();
+
+    public UtxoSet(NodeMetrics metrics) {
+        // Sampled without the lock; a gauge can live with a size that is a block behind.
+        metrics.bindUtxoSetSize(utxos::size);
+    }
+
+    public Utxo get(OutPoint outpoint) {
+        return utxos.get(outpoint);
+    }
+
+    public void add(OutPoint outpoint, Utxo utxo) {
+        utxos.put(outpoint, utxo);
+    }
+
+    /** Removes and returns the output, or null if it isn't unspent. */
+    public Utxo spend(OutPoint outpoint) {
+        return utxos.remove(outpoint);
+    }
+
+    public void remove(OutPoint outpoint) {
+        utxos.remove(outpoint);
+    }
+
+    public int size() {
+        return utxos.size();
+    }
+
+    public void forEach(BiConsumer<OutPoint, Utxo> action) {
+        utxos.forEach(action);
+    }
+
+    public void clear() {
+        utxos.clear();
+    }
+}
@@ -0,0 +1,325 @@
+package org.hma.bitcoin.chain;
+
+import jakarta.annotation.PreDestroy;
+import org.hma.bitcoin.crypto.Sha256;
+import org.hma.bitcoin.model.OutPoint;
+import org.hma.bitcoin.model.Utxo;
+import org.hma.bitcoin.network.Network;
+import org.hma.bitcoin.storage.FlatFileStore;
+import org.hma.bitcoin.util.ByteCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Exports the UTXO set at the tip to a snapshot file and bootstraps an empty node from one, in the spirit of
+ * Bitcoin Core's assumeutxo.
+ * <p>
+ * Coins are sorted by outpoint and cut into chunks of a fixed number of coins, each hashed on its own so chunks can
+ * be read, verified and parsed in parallel. The content hash is the double SHA-256 of the base block hash followed by
+ * the chunk hashes, so it commits to the base as well as the coins and only depends on those and the chunk size.
+ * Loading requires it to match the trusted value configured for the node. Layout, integers little endian unless
+ * noted:
+ * <pre>
+ * header  "utxo" (big endian), version u16, network magic (big endian) u32, base hash, base height u32,
+ *         coin count u64, coins per chunk u32, chunk count u32, content hash
+ * table   per chunk: offset u64, length u32, coins u32, hash
+ * chunks  per coin: outpoint, compact {@link Utxo}
+ * </pre>
+ */
+@Component
+public class UtxoSnapshot {
+    private static final Logger LOG = LoggerFactory.getLogger(UtxoSnapshot.class);
+
+    private static final int MAGIC = 0x7574786f; // "utxo"
+    private static final int VERSION = 1;
+    static final int HEADER_SIZE = 4 + 2 + 4 + Sha256.LENGTH + 4 + 8 + 4 + 4 + Sha256.LENGTH;
+    static final int CHUNK_ENTRY_SIZE = 8 + 4 + 4 + Sha256.LENGTH;
+    private static final Comparator<Map.Entry<OutPoint, Utxo>> OUTPOINT_ORDER = Map.Entry.comparingByKey(
+            Comparator.comparing(OutPoint::getHash).thenComparingLong(OutPoint::getIndex));
+
+    private final ChainState chain;
+    private final Network network;
+    private final ExecutorService loaders;
+
+    @Value("${node.snapshot.coins-per-chunk:100000}")
+    private int coinsPerChunk;
+
+    @Value("${node.snapshot.trusted-hash:}")
+    private String trustedHash;
+
+    public UtxoSnapshot(ChainState chain, Network network,
+                        @Value("${node.snapshot.load-threads:0}") int loadThreads) {
+        this.chain = chain;
+        this.network = network;
+        this.loaders = Executors.newFixedThreadPool(
+                loadThreads > 0 ? loadThreads : Runtime.getRuntime().availableProcessors(), runnable -> {
+                    Thread thread = new Thread(runnable, "snapshot-loader");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    @PreDestroy
+    public void close() {
+        loaders.shutdownNow();
+    }
+
+    /**
+     * Writes the UTXO set at the current tip to the file. The chain lock is only held while the coins are copied out;
+     * sorting and writing them runs while blocks keep connecting.
+     */
+    public Summary write(Path file) throws IOException {
+        BlockIndex base;
+        List<Map.Entry<OutPoint, Utxo>> coins;
+        synchronized (chain) {
+            base = chain.getTip();
+            if (base == null) {
+                throw new IllegalStateException("Chain is empty");
+            }
+            UtxoSet utxos = chain.getUtxos();
+            coins = new ArrayList<>(utxos.size());
+            utxos.forEach((outpoint, utxo) -> coins.add(Map.entry(outpoint, utxo)));
+        }
+        coins.sort(OUTPOINT_ORDER);
+
+        int chunkCount = (coins.size() + coinsPerChunk - 1) / coinsPerChunk;
+        ByteBuffer table = ByteBuffer.allocate(chunkCount * CHUNK_ENTRY_SIZE);
+        byte[] hashed = new byte[(chunkCount + 1) * Sha256.LENGTH];
+        System.arraycopy(base.getHash().getBytes(), 0, hashed, 0, Sha256.LENGTH);
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long offset = HEADER_SIZE + table.capacity();
+            for (int chunk = 0; chunk < chunkCount; chunk++) {
+                List<Map.Entry<OutPoint, Utxo>> slice =
+                        coins.subList(chunk * coinsPerChunk, Math.min((chunk + 1) * coinsPerChunk, coins.size()));
+                int size = 0;
+                for (Map.Entry<OutPoint, Utxo> coin : slice) {
+                    size += OutPoint.SIZE + coin.getValue().serializedSize();
+                }
+                ByteBuffer buf = ByteBuffer.allocate(size);
+                for (Map.Entry<OutPoint, Utxo> coin : slice) {
+                    buf.put(coin.getKey().getHash().getBytes());
+                    ByteCodec.writeInt32LE(buf, coin.getKey().getIndex());
+                    coin.getValue().write(buf);
+                }
+                byte[] hash = Sha256.hashTwice(buf.array());
+                System.arraycopy(hash, 0, hashed, (chunk + 1) * Sha256.LENGTH, Sha256.LENGTH);
+                ByteCodec.writeInt64LE(table, offset);
+                ByteCodec.writeInt32LE(table, size);
+                ByteCodec.writeInt32LE(table, slice.size());
+                table.put(hash);
+                buf.flip();
+                offset += writeFully(channel, buf, offset);
+            }
+
+            Sha256 contentHash = Sha256.wrap(Sha256.hashTwice(hashed));
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            ByteCodec.writeInt32BE(header, MAGIC);
+            ByteCodec.writeInt16LE(header, VERSION);
+            ByteCodec.writeInt32BE(header, network.getMagic());
+            header.put(base.getHash().getBytes());
+            ByteCodec.writeInt32LE(header, base.getHeight());
+            ByteCodec.writeInt64LE(header, coins.size());
+            ByteCodec.writeInt32LE(header, coinsPerChunk);
+            ByteCodec.writeInt32LE(header, chunkCount);
+            header.put(contentHash.getBytes());
+            header.flip();
+            table.flip();
+            writeFully(channel, header, 0);
+            writeFully(channel, table, HEADER_SIZE);
+            channel.force(true);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            LOG.info("Wrote UTXO snapshot of {} coins at {} to {}, content hash {}", coins.size(), base, file,
+                    contentHash.toDisplayString());
+            return new Summary(base, coins.size(), contentHash);
+        }
+    }
+
+    /**
+     * Loads a snapshot into an empty node and makes its base the tip. The base header must already be in the header
+     * index. Chunks are read, verified and parsed in parallel and added to the UTXO set as they complete.
+     *
+     * @throws VerificationException if the snapshot doesn't match the network, the known headers or the trusted hash,
+     *                               or no trusted hash is configured
+     */
+    public BlockIndex load(Path file) throws IOException {
+        if (trustedHash.isEmpty()) {
+            throw new VerificationException("No node.snapshot.trusted-hash configured, refusing to load " + file);
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            FlatFileStore.readFully(channel, header, 0);
+            header.flip();
+            if (ByteCodec.readUint32BE(header) != MAGIC || ByteCodec.readUint16LE(header) != VERSION) {
+                throw new ProtocolException("Not a version " + VERSION + " UTXO snapshot: " + file);
+            }
+            if ((int) ByteCodec.readUint32BE(header) != network.getMagic()) {
+                throw new VerificationException("Snapshot " + file + " is not for " + network.getName());
+            }
+            Sha256 baseHash = readHash(header);
+            long baseHeight = ByteCodec.readUint32LE(header);
+            long coinCount = ByteCodec.readInt64LE(header);
+            ByteCodec.readUint32LE(header); // coins per chunk, only needed to reproduce the content hash
+            int chunkCount = (int) ByteCodec.readUint32LE(header);
+            Sha256 contentHash = readHash(header);
+
+            ByteBuffer table = ByteBuffer.allocate(chunkCount * CHUNK_ENTRY_SIZE);
+            FlatFileStore.readFully(channel, table, HEADER_SIZE);
+            table.flip().order(ByteOrder.LITTLE_ENDIAN);
+            byte[] hashed = new byte[(chunkCount + 1) * Sha256.LENGTH];
+            System.arraycopy(baseHash.getBytes(), 0, hashed, 0, Sha256.LENGTH);
+            for (int chunk = 0; chunk < chunkCount; chunk++) {
+                table.get(chunk * CHUNK_ENTRY_SIZE + 16, hashed, (chunk + 1) * Sha256.LENGTH, Sha256.LENGTH);
+            }
+            if (!Sha256.wrap(Sha256.hashTwice(hashed)).equals(contentHash)) {
+                throw new VerificationException("Chunk table of snapshot " + file + " doesn't match its content hash");
+            }
+            if (!Sha256.fromDisplayString(trustedHash).equals(contentHash)) {
+                throw new VerificationException("Snapshot content hash " + contentHash.toDisplayString()
+                        + " is not the trusted hash");
+            }
+            BlockIndex base = chain.getHeaderIndex().get(baseHash);
+            if (base == null || base.getHeight() != baseHeight) {
+                throw new VerificationException("Snapshot base " + baseHash.toDisplayString() + " at height "
+                        + baseHeight + " is not in the header index, sync headers first");
+            }
+
+            List<Future<Chunk>> chunks = new ArrayList<>(chunkCount);
+            for (int chunk = 0; chunk < chunkCount; chunk++) {
+                int entry = chunk * CHUNK_ENTRY_SIZE;
+                long offset = table.getLong(entry);
+                int length = table.getInt(entry + 8);
+                int coins = table.getInt(entry + 12);
+                byte[] hash = Arrays.copyOfRange(hashed, (chunk + 1) * Sha256.LENGTH, (chunk + 2) * Sha256.LENGTH);
+                chunks.add(loaders.submit(() -> readChunk(channel, offset, length, coins, hash)));
+            }
+
+            synchronized (chain) {
+                UtxoSet utxos = chain.getUtxos();
+                if (chain.getTip() != null || utxos.size() > 0) {
+                    chunks.forEach(chunk -> chunk.cancel(false));
+                    throw new IllegalStateException("Can only load a snapshot into an empty node");
+                }
+                try {
+                    for (Future<Chunk> future : chunks) {
+                        Chunk chunk = future.get();
+                        for (int i = 0; i < chunk.outpoints.length; i++) {
+                            utxos.add(chunk.outpoints[i], chunk.utxos[i]);
+                        }
+                    }
+                    if (utxos.size() != coinCount) {
+                        throw new VerificationException("Snapshot holds " + utxos.size() + " coins, header says "
+                                + coinCount);
+                    }
+                } catch (InterruptedException | ExecutionException | RuntimeException e) {
+                    chunks.forEach(chunk -> chunk.cancel(false));
+                    utxos.clear();
+                    if (e instanceof InterruptedException) {
+                        Thread.currentThread().interrupt();
+                    }
+                    Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    }
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw new IOException("Failed to load snapshot " + file, cause);
+                }
+                chain.activateSnapshot(base);
+                return base;
+            }
+        }
+    }
+
+    private static Chunk readChunk(FileChannel channel, long offset, int length, int coins, byte[] hash)
+            throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        FlatFileStore.readFully(channel, buf, offset);
+        if (!Arrays.equals(Sha256.hashTwice(buf.array()), hash)) {
+            throw new VerificationException("Snapshot chunk at " + offset + " doesn't match its hash");
+        }
+        buf.flip();
+        Chunk chunk = new Chunk(coins);
+        for (int i = 0; i < coins; i++) {
+            Sha256 txid = readHash(buf);
+            chunk.outpoints[i] = new OutPoint(txid, ByteCodec.readUint32LE(buf));
+            chunk.utxos[i] = Utxo.read(buf);
+        }
+        if (buf.hasRemaining()) {
+            throw new ProtocolException("Trailing bytes in snapshot chunk at " + offset);
+        }
+        return chunk;
+    }
+
+    private static Sha256 readHash(ByteBuffer buf) {
+        byte[] hash = new byte[Sha256.LENGTH];
+        buf.get(hash);
+        return Sha256.wrap(hash);
+    }
+
+    private static int writeFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        int written = 0;
+        while (buf.hasRemaining()) {
+            written += channel.write(buf, position + written);
+        }
+        return written;
+    }
+
+    /** What {@link #write(Path)} wrote: the base block, the number of coins and the content hash. */
+    public static class Summary {
+        private final BlockIndex base;
+        private final long coinCount;
+        private final Sha256 contentHash;
+
+        Summary(BlockIndex base, long coinCount, Sha256 contentHash) {
+            this.base = base;
+            this.coinCount = coinCount;
+            this.contentHash = contentHash;
+        }
+
+        public BlockIndex getBase() {
+            return base;
+        }
+
+        public long getCoinCount() {
+            return coinCount;
+        }
+
+        public Sha256 getContentHash() {
+            return contentHash;
+        }
+    }
+
+    private static class Chunk {
+        final OutPoint[] outpoints;
+        final Utxo[] utxos;
+
+        Chunk(int coins) {
+            outpoints = new OutPoint[coins];
+            utxos = new Utxo[coins];
+        }
+    }
+}
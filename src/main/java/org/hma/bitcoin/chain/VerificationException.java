@@ -0,0 +1,12 @@
+package org.hma.bitcoin.chain;
+
+/** Thrown when a block or transaction breaks a rule and can't be added to the chain. */
+public class VerificationException extends RuntimeException {
+    public VerificationException(String message) {
+        super(message);
+    }
+
+    public VerificationException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,178 @@
+package org.hma.bitcoin.crypto;
+
+import org.bouncycastle.crypto.params.ECDomainParameters;
+import org.bouncycastle.crypto.params.ECPublicKeyParameters;
+import org.bouncycastle.crypto.signers.ECDSASigner;
+import org.bouncycastle.math.ec.ECAlgorithms;
+import org.bouncycastle.math.ec.ECPoint;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * Signature checks on secp256k1 as scripts need them: ECDSA over DER signatures for legacy and segwit v0 scripts,
+ * BIP-340 Schnorr and the BIP-341 key tweak for taproot. Every check returns false on malformed input rather than
+ * throwing.
+ */
+public final class Secp256k1 {
+    private static final ECDomainParameters CURVE = ExtendedKey.CURVE;
+    private static final BigInteger N = CURVE.getN();
+    private static final BigInteger HALF_N = N.shiftRight(1);
+    private static final BigInteger P = CURVE.getCurve().getField().getCharacteristic();
+
+    private Secp256k1() {
+    }
+
+    /**
+     * Whether the signature, followed by its hash type byte, is strictly DER encoded as BIP-66 requires: a sequence of
+     * two minimally encoded positive integers and nothing else.
+     */
+    public static boolean isValidSignatureEncoding(byte[] sig) {
+        // 0x30 [total-length] 0x02 [R-length] [R] 0x02 [S-length] [S] [sighash]
+        if (sig.length < 9 || sig.length > 73) {
+            return false;
+        }
+        if ((sig[0] & 0xFF) != 0x30) {
+            return false;
+        }
+        if ((sig[1] & 0xFF) != sig.length - 3) {
+            return false;
+        }
+        int lenR = sig[3] & 0xFF;
+        if (5 + lenR >= sig.length) {
+            return false;
+        }
+        int lenS = sig[5 + lenR] & 0xFF;
+        if (lenR + lenS + 7 != sig.length) {
+            return false;
+        }
+
+        if (sig[2] != 0x02) {
+            return false;
+        }
+        if (lenR == 0) {
+            return false;
+        }
+        if ((sig[4] & 0x80) != 0) {
+            return false;
+        }
+        if (lenR > 1 && sig[4] == 0x00 && (sig[5] & 0x80) == 0) {
+            return false;
+        }
+
+        if (sig[lenR + 4] != 0x02) {
+            return false;
+        }
+        if (lenS == 0) {
+            return false;
+        }
+        if ((sig[lenR + 6] & 0x80) != 0) {
+            return false;
+        }
+        if (lenS > 1 && sig[lenR + 6] == 0x00 && (sig[lenR + 7] & 0x80) == 0) {
+            return false;
+        }
+        return true;
+    }
+
+    /** Whether S of a strictly encoded signature is at most half the group order (BIP-146). */
+    public static boolean isLowS(byte[] sig) {
+        return s(sig).compareTo(HALF_N) <= 0;
+    }
+
+    /** Whether the public key is a well formed compressed (33 byte) or uncompressed (65 byte) encoding. */
+    public static boolean isValidPubKeyEncoding(byte[] pubKey) {
+        if (pubKey.length == 33) {
+            return pubKey[0] == 0x02 || pubKey[0] == 0x03;
+        }
+        return pubKey.length == 65 && pubKey[0] == 0x04;
+    }
+
+    public static boolean isCompressedPubKey(byte[] pubKey) {
+        return pubKey.length == 33 && (pubKey[0] == 0x02 || pubKey[0] == 0x03);
+    }
+
+    /**
+     * Verifies an ECDSA signature over the 32 byte hash. The signature must be strictly DER encoded and followed by its
+     * hash type byte; signatures only the pre-BIP-66 lax parser accepted are reported invalid.
+     */
+    public static boolean verifyEcdsa(byte[] pubKey, byte[] sig, byte[] hash) {
+        if (!isValidSignatureEncoding(sig)) {
+            return false;
+        }
+        ECPoint point;
+        try {
+            point = CURVE.getCurve().decodePoint(pubKey);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        int lenR = sig[3] & 0xFF;
+        BigInteger r = new BigInteger(1, Arrays.copyOfRange(sig, 4, 4 + lenR));
+        ECDSASigner signer = new ECDSASigner();
+        signer.init(false, new ECPublicKeyParameters(point, CURVE));
+        return signer.verifySignature(hash, r, s(sig));
+    }
+
+    /** Verifies a 64 byte BIP-340 signature of the message by the 32 byte x-only public key. */
+    public static boolean verifySchnorr(byte[] key, byte[] sig, byte[] message) {
+        ECPoint p = liftX(key);
+        if (p == null || sig.length < 64) {
+            return false;
+        }
+        BigInteger r = new BigInteger(1, Arrays.copyOfRange(sig, 0, 32));
+        BigInteger s = new BigInteger(1, Arrays.copyOfRange(sig, 32, 64));
+        if (r.compareTo(P) >= 0 || s.compareTo(N) >= 0) {
+            return false;
+        }
+        MessageDigest challenge = TaggedHash.BIP340_CHALLENGE.begin();
+        challenge.update(sig, 0, 32);
+        challenge.update(key);
+        challenge.update(message);
+        BigInteger e = new BigInteger(1, challenge.digest()).mod(N);
+        ECPoint point = ECAlgorithms.sumOfTwoMultiplies(CURVE.getG(), s, p, N.subtract(e)).normalize();
+        return !point.isInfinity()
+                && !point.getAffineYCoord().testBitZero()
+                && point.getAffineXCoord().toBigInteger().equals(r);
+    }
+
+    /**
+     * Whether the output key is the internal key tweaked with the merkle root (empty for key path only outputs), and
+     * its Y has the given parity, as a BIP-341 script path spend must show.
+     */
+    public static boolean checkTapTweak(byte[] internalKey, byte[] merkleRoot, byte[] outputKey, boolean oddY) {
+        ECPoint p = liftX(internalKey);
+        if (p == null) {
+            return false;
+        }
+        BigInteger t = new BigInteger(1, TaggedHash.TAP_TWEAK.hash(internalKey, merkleRoot));
+        if (t.compareTo(N) >= 0) {
+            return false;
+        }
+        ECPoint q = p.add(CURVE.getG().multiply(t)).normalize();
+        return !q.isInfinity()
+                && q.getAffineYCoord().testBitZero() == oddY
+                && Arrays.equals(q.getAffineXCoord().getEncoded(), outputKey);
+    }
+
+    /** The point with the x coordinate and an even Y, or null if there is none. */
+    private static ECPoint liftX(byte[] key) {
+        if (key.length != 32 || new BigInteger(1, key).compareTo(P) >= 0) {
+            return null;
+        }
+        byte[] compressed = new byte[33];
+        compressed[0] = 0x02;
+        System.arraycopy(key, 0, compressed, 1, 32);
+        try {
+            return CURVE.getCurve().decodePoint(compressed);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static BigInteger s(byte[] sig) {
+        int lenR = sig[3] & 0xFF;
+        int lenS = sig[5 + lenR] & 0xFF;
+        return new BigInteger(1, Arrays.copyOfRange(sig, 6 + lenR, 6 + lenR + lenS));
+    }
+}
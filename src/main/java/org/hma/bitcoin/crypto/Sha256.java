@@ -7,6 +7,7 @@ import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
@@ -14,6 +15,9 @@ public class Sha256 implements Comparable<Sha256>  {
     public static final int LENGTH = 32; // bytes
     public static final Sha256 ZERO_HASH = wrap(new byte[LENGTH]);
 
+    private static final LongAdder HASHED_BYTES = new LongAdder();
+    private static final LongAdder HASH_CALLS = new LongAdder();
+
     private final byte[] bytes;
 
     private Sha256(byte[] rawHashBytes) {
@@ -34,6 +38,7 @@ public class Sha256 implements Comparable<Sha256>  {
     }
 
     public static byte[] hashTwice(byte[] input1, byte[] input2) {
+        count(input1.length + input2.length);
         MessageDigest digest = newDigest();
         digest.update(input1);
         digest.update(input2);
@@ -41,6 +46,7 @@ public class Sha256 implements Comparable<Sha256>  {
     }
 
     public static byte[] hashTwice(byte[] input, int offset, int length) {
+        count(length);
         MessageDigest digest = newDigest();
         digest.update(input, offset, length);
         return digest.digest(digest.digest());
@@ -48,9 +54,36 @@ public class Sha256 implements Comparable<Sha256>  {
 
     public static byte[] hashTwice(byte[] input1, int offset1, int length1,
                                    byte[] input2, int offset2, int length2) {
+        count(length1 + length2);
+        MessageDigest digest = newDigest();
+        digest.update(input1, offset1, length1);
+        digest.update(input2, offset2, length2);
+        return digest.digest(digest.digest());
+    }
+
+    /** Total number of bytes run through {@code hashTwice} since startup. */
+    public static long getHashedBytes() {
+        return HASHED_BYTES.sum();
+    }
+
+    /** Total number of {@code hashTwice} computations since startup. */
+    public static long getHashCalls() {
+        return HASH_CALLS.sum();
+    }
+
+    private static void count(int length) {
+        HASHED_BYTES.add(length);
+        HASH_CALLS.increment();
+    }
+
+    public static byte[] hashTwice(byte[] input1, int offset1, int length1,
+                                   byte[] input2, int offset2, int length2,
+                                   byte[] input3, int offset3, int length3) {
+        count(length1 + length2 + length3);
         MessageDigest digest = newDigest();
         digest.update(input1, offset1, length1);
         digest.update(input2, offset2, length2);
+        digest.update(input3, offset3, length3);
         return digest.digest(digest.digest());
     }
 
@@ -66,7 +99,7 @@ public class Sha256 implements Comparable<Sha256>  {
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
-        return Arrays.equals(bytes, ((Sha256Hash)o).bytes);
+        return Arrays.equals(bytes, ((Sha256)o).bytes);
     }
 
     /**
@@ -85,6 +118,20 @@ public class Sha256 implements Comparable<Sha256>  {
         return ByteUtils.HEX.encode(bytes);
     }
 
+    /**
+     * Returns the hex of the reversed bytes, the order block explorers and Bitcoin Core's RPC display hashes in.
+     */
+    public String toDisplayString() {
+        return ByteUtils.HEX.encode(getReversedBytes());
+    }
+
+    /**
+     * Parses a hash given in display order, see {@link #toDisplayString()}.
+     */
+    public static Sha256 fromDisplayString(String hex) {
+        return wrap(ByteUtils.reverseBytes(ByteUtils.HEX.decode(hex)));
+    }
+
     /**
      * Returns the bytes interpreted as a positive integer.
      */
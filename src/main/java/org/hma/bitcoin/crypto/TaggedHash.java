@@ -0,0 +1,42 @@
+package org.hma.bitcoin.crypto;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * BIP-340 tagged SHA-256: {@code SHA256(SHA256(tag) || SHA256(tag) || data)}. The 64 byte prefix is one compression
+ * block, so each tag keeps a digest with the prefix already absorbed and clones it instead of hashing it again.
+ */
+public final class TaggedHash {
+    public static final TaggedHash BIP340_CHALLENGE = new TaggedHash("BIP0340/challenge");
+    public static final TaggedHash TAP_LEAF = new TaggedHash("TapLeaf");
+    public static final TaggedHash TAP_BRANCH = new TaggedHash("TapBranch");
+    public static final TaggedHash TAP_TWEAK = new TaggedHash("TapTweak");
+    public static final TaggedHash TAP_SIGHASH = new TaggedHash("TapSighash");
+
+    private final MessageDigest prefixed;
+
+    public TaggedHash(String tag) {
+        byte[] tagHash = Sha256.newDigest().digest(tag.getBytes(StandardCharsets.UTF_8));
+        prefixed = Sha256.newDigest();
+        prefixed.update(tagHash);
+        prefixed.update(tagHash);
+    }
+
+    /** Returns a digest with the tag prefix absorbed, ready for the data. */
+    public MessageDigest begin() {
+        try {
+            return (MessageDigest) prefixed.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e);  // Can't happen, the JDK's SHA-256 is cloneable.
+        }
+    }
+
+    public byte[] hash(byte[]... parts) {
+        MessageDigest digest = begin();
+        for (byte[] part : parts) {
+            digest.update(part);
+        }
+        return digest.digest();
+    }
+}
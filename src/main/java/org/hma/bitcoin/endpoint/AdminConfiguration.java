@@ -0,0 +1,54 @@
+package org.hma.bitcoin.endpoint;
+
+import com.google.common.net.InetAddresses;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Guards the {@link AdminEndpoint}, which can write and load snapshots. With {@code node.admin.token} set, requests
+ * must carry it as a bearer token; without one only requests from a loopback address are served. A reverse proxy on
+ * the same host makes every request look local, so set a token when running behind one.
+ */
+@Configuration
+public class AdminConfiguration implements WebMvcConfigurer, HandlerInterceptor {
+    private static final String BEARER = "Bearer ";
+
+    private final byte[] token;
+
+    public AdminConfiguration(@Value("${node.admin.token:}") String token) {
+        this.token = token.isEmpty() ? null : token.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(this).addPathPatterns("/admin/**");
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (token == null) {
+            if (!InetAddresses.forString(request.getRemoteAddr()).isLoopbackAddress()) {
+                throw new ResponseStatusException(HttpStatus.FORBIDDEN, "Admin endpoints are only served locally");
+            }
+            return true;
+        }
+        String authorization = request.getHeader(HttpHeaders.AUTHORIZATION);
+        if (authorization == null || !authorization.startsWith(BEARER) || !MessageDigest.isEqual(token,
+                authorization.substring(BEARER.length()).getBytes(StandardCharsets.UTF_8))) {
+            response.setHeader(HttpHeaders.WWW_AUTHENTICATE, "Bearer");
+            throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Missing or wrong admin token");
+        }
+        return true;
+    }
+}
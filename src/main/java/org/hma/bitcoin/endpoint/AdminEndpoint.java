@@ -1,4 +1,185 @@
 package org.hma.bitcoin.endpoint;
 
+import org.hma.bitcoin.chain.BlockIndex;
+import org.hma.bitcoin.chain.ChainState;
+import org.hma.bitcoin.chain.UtxoSnapshot;
+import org.hma.bitcoin.chain.VerificationException;
+import org.hma.bitcoin.crypto.Sha256;
+import org.hma.bitcoin.index.TxIndex;
+import org.hma.bitcoin.storage.BlockFileStore;
+import org.hma.bitcoin.storage.DataDirectory;
+import org.hma.bitcoin.storage.FilePosition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+/**
+ * REST access to stored blocks and transactions, streamed from the block files as raw bytes or hex. Hashes are in
+ * display (reversed) order. Blocks requested by hash never change and may be cached forever; everything else carries
+ * a strong ETag to revalidate with.
+ * <p>
+ * UTXO snapshots are written to and loaded from the {@code snapshots} subdirectory of the data directory, by file name.
+ * {@link AdminConfiguration} restricts who may call any of it.
+ */
+@RestController
+@RequestMapping("/admin")
 public class AdminEndpoint {
+    private static final Pattern SNAPSHOT_NAME = Pattern.compile("[A-Za-z0-9_-][A-Za-z0-9_.-]*");
+
+    private final ChainState chain;
+    private final BlockFileStore blockStore;
+    private final Optional<TxIndex> txIndex;
+    private final UtxoSnapshot snapshot;
+    private final DataDirectory dataDirectory;
+
+    public AdminEndpoint(ChainState chain, BlockFileStore blockStore, Optional<TxIndex> txIndex, UtxoSnapshot snapshot,
+                         DataDirectory dataDirectory) {
+        this.chain = chain;
+        this.blockStore = blockStore;
+        this.txIndex = txIndex;
+        this.snapshot = snapshot;
+        this.dataDirectory = dataDirectory;
+    }
+
+    @GetMapping("/blocks/{hash}")
+    public ResponseEntity<StreamingResponseBody> block(@PathVariable String hash,
+                                                       @RequestParam(defaultValue = "raw") String format,
+                                                       @RequestHeader(value = HttpHeaders.RANGE, required = false)
+                                                       String range,
+                                                       @RequestHeader(value = HttpHeaders.IF_NONE_MATCH,
+                                                               required = false) String ifNoneMatch) {
+        boolean hex = RawResponses.isHex(format);
+        BlockIndex index = chain.getHeaderIndex().get(parseHash(hash));
+        return serveBlock(index, hex, RawResponses.IMMUTABLE, range, ifNoneMatch);
+    }
+
+    /** The block at a height of the active chain, which a reorg may replace, so it is only cached with revalidation. */
+    @GetMapping("/blocks/height/{height}")
+    public ResponseEntity<StreamingResponseBody> blockAtHeight(@PathVariable int height,
+                                                               @RequestParam(defaultValue = "raw") String format,
+                                                               @RequestHeader(value = HttpHeaders.RANGE,
+                                                                       required = false) String range,
+                                                               @RequestHeader(value = HttpHeaders.IF_NONE_MATCH,
+                                                                       required = false) String ifNoneMatch) {
+        boolean hex = RawResponses.isHex(format);
+        return serveBlock(chain.getByHeight(height), hex, RawResponses.REVALIDATE, range, ifNoneMatch);
+    }
+
+    /** A confirmed transaction, looked up in the transaction index. */
+    @GetMapping("/tx/{txid}")
+    public ResponseEntity<StreamingResponseBody> transaction(@PathVariable String txid,
+                                                             @RequestParam(defaultValue = "raw") String format,
+                                                             @RequestHeader(value = HttpHeaders.RANGE,
+                                                                     required = false) String range,
+                                                             @RequestHeader(value = HttpHeaders.IF_NONE_MATCH,
+                                                                     required = false) String ifNoneMatch) {
+        boolean hex = RawResponses.isHex(format);
+        TxIndex index = txIndex.orElseThrow(() ->
+                new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Transaction index is disabled"));
+        Sha256 hash = parseHash(txid);
+        TxIndex.Entry entry = index.find(hash);
+        if (entry == null && index.hasFailed()) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Transaction index stopped at "
+                    + index.getBestBlock() + " after a write failure");
+        }
+        if (entry == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Transaction not found");
+        }
+        // A reorg can move the transaction to another block, so the tag names both and clients revalidate.
+        String tag = entry.getBlockHash().toDisplayString() + "-" + hash.toDisplayString();
+        return RawResponses.serve(blockStore.getFiles(), entry.getPosition(), hex, tag, RawResponses.REVALIDATE,
+                range, ifNoneMatch);
+    }
+
+    /** Writes the UTXO set at the tip to a snapshot, like {@code dumptxoutset}. */
+    @PostMapping("/snapshot")
+    public Map<String, Object> writeSnapshot(@RequestParam(defaultValue = "utxo.dat") String name) throws IOException {
+        UtxoSnapshot.Summary summary;
+        try {
+            summary = snapshot.write(snapshotFile(name));
+        } catch (IllegalStateException e) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, e.getMessage());
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("name", name);
+        result.put("base", summary.getBase().getHash().toDisplayString());
+        result.put("height", summary.getBase().getHeight());
+        result.put("coins", summary.getCoinCount());
+        result.put("contentHash", summary.getContentHash().toDisplayString());
+        return result;
+    }
+
+    /**
+     * Loads a snapshot into an empty node, like {@code loadtxoutset}. Its base header must have been synced and its
+     * content hash must be the configured trusted hash.
+     */
+    @PostMapping("/snapshot/load")
+    public Map<String, Object> loadSnapshot(@RequestParam String name) throws IOException {
+        BlockIndex base;
+        try {
+            base = snapshot.load(snapshotFile(name));
+        } catch (NoSuchFileException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No snapshot " + name);
+        } catch (VerificationException | ProtocolException e) {
+            throw new ResponseStatusException(HttpStatus.UNPROCESSABLE_ENTITY, e.getMessage());
+        } catch (IllegalStateException e) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, e.getMessage());
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("base", base.getHash().toDisplayString());
+        result.put("height", base.getHeight());
+        return result;
+    }
+
+    private Path snapshotFile(String name) {
+        if (!SNAPSHOT_NAME.matcher(name).matches()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid snapshot name: " + name);
+        }
+        return dataDirectory.resolve("snapshots").resolve(name);
+    }
+
+    private ResponseEntity<StreamingResponseBody> serveBlock(BlockIndex index, boolean hex, String cacheControl,
+                                                             String range, String ifNoneMatch) {
+        FilePosition position = null;
+        if (index != null) {
+            // Written under the chain lock when the block is connected.
+            synchronized (chain) {
+                position = index.getBlockPosition();
+            }
+        }
+        if (position == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Block not found");
+        }
+        return RawResponses.serve(blockStore.getFiles(), position, hex, index.getHash().toDisplayString(),
+                cacheControl, range, ifNoneMatch);
+    }
+
+    static Sha256 parseHash(String hash) {
+        if (hash.length() != 2 * Sha256.LENGTH) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid hash: " + hash);
+        }
+        try {
+            return Sha256.fromDisplayString(hash);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid hash: " + hash);
+        }
+    }
 }
@@ -0,0 +1,31 @@
+package org.hma.bitcoin.endpoint;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+
+import java.util.Arrays;
+
+/**
+ * Registers the {@link FeedEndpoint} WebSocket handler. Browsers may only open it from the node's own origin unless
+ * {@code node.feed.allowed-origins} lists other origin patterns, or {@code *} for any.
+ */
+@Configuration
+@EnableWebSocket
+public class FeedConfiguration implements WebSocketConfigurer {
+    private final FeedEndpoint feed;
+    private final String[] allowedOrigins;
+
+    public FeedConfiguration(FeedEndpoint feed, @Value("${node.feed.allowed-origins:}") String[] allowedOrigins) {
+        this.feed = feed;
+        this.allowedOrigins = Arrays.stream(allowedOrigins).map(String::trim).filter(origin -> !origin.isEmpty())
+                .toArray(String[]::new);
+    }
+
+    @Override
+    public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+        registry.addHandler(feed, "/feed").setAllowedOriginPatterns(allowedOrigins);
+    }
+}
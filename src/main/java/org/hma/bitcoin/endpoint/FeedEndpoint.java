@@ -0,0 +1,275 @@
+package org.hma.bitcoin.endpoint;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.hma.bitcoin.chain.BlockIndex;
+import org.hma.bitcoin.chain.BlockUndo;
+import org.hma.bitcoin.chain.ChainListener;
+import org.hma.bitcoin.chain.ChainState;
+import org.hma.bitcoin.mempool.Mempool;
+import org.hma.bitcoin.mempool.MempoolEntry;
+import org.hma.bitcoin.mempool.MempoolListener;
+import org.hma.bitcoin.model.Block;
+import org.hma.bitcoin.model.TransactionOutput;
+import org.hma.bitcoin.script.AddressCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * WebSocket feed at {@code /feed} pushing new tips, connected blocks and accepted mempool transactions. Clients pick
+ * their topics with {@code ?topics=tips,blocks,mempool}, all by default.
+ * <p>
+ * Every event is serialized once and queued to its subscribers. A flusher sends each subscriber everything queued
+ * since its last frame as one JSON array, with consecutive tips coalesced into the latest. A subscriber whose previous
+ * frame is still being written is skipped, so its events accumulate; once more than {@code node.feed.max-pending}
+ * are waiting it is disconnected rather than buffered without bound.
+ */
+@Component
+public class FeedEndpoint extends TextWebSocketHandler implements ChainListener, MempoolListener {
+    private static final Logger LOG = LoggerFactory.getLogger(FeedEndpoint.class);
+
+    static final String TIPS = "tips";
+    static final String BLOCKS = "blocks";
+    static final String MEMPOOL = "mempool";
+
+    private final ObjectMapper json;
+    private final AddressCodec addresses;
+    private final int maxPending;
+    private final Map<String, Subscriber> subscribers = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher;
+    private final ExecutorService senders;
+
+    public FeedEndpoint(ChainState chain, Mempool mempool, ObjectMapper json, AddressCodec addresses,
+                        @Value("${node.feed.max-pending:10000}") int maxPending,
+                        @Value("${node.feed.flush-interval-ms:250}") long flushIntervalMillis,
+                        @Value("${node.feed.sender-threads:4}") int senderThreads) {
+        this.json = json;
+        this.addresses = addresses;
+        this.maxPending = maxPending;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "feed-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.senders = Executors.newFixedThreadPool(senderThreads, runnable -> {
+            Thread thread = new Thread(runnable, "feed-sender");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        chain.addListener(this);
+        mempool.addListener(this);
+    }
+
+    @PreDestroy
+    public void close() {
+        flusher.shutdownNow();
+        senders.shutdownNow();
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) {
+        Set<String> topics = Set.of(TIPS, BLOCKS, MEMPOOL);
+        String query = session.getUri() != null ? session.getUri().getQuery() : null;
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                if (parameter.startsWith("topics=")) {
+                    topics = Set.of(parameter.substring(7).toLowerCase(Locale.ROOT).split(","));
+                }
+            }
+        }
+        subscribers.put(session.getId(), new Subscriber(session, topics));
+        LOG.debug("Feed subscriber {} connected for {}", session.getRemoteAddress(), topics);
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        subscribers.remove(session.getId());
+    }
+
+    @Override
+    public void onBlockConnected(Block block, BlockIndex index, BlockUndo undo) {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        publishTip(index);
+        Map<String, Object> event = new LinkedHashMap<>();
+        event.put("type", "block");
+        event.put("hash", index.getHash().toDisplayString());
+        event.put("height", index.getHeight());
+        event.put("time", block.getTime());
+        event.put("size", block.getMessageSize());
+        event.put("transactions", block.getTransactions().size());
+        publish(BLOCKS, event);
+    }
+
+    @Override
+    public void onBlockDisconnected(Block block, BlockIndex index, BlockUndo undo) {
+        if (!subscribers.isEmpty() && index.getPrev() != null) {
+            publishTip(index.getPrev());
+        }
+    }
+
+    @Override
+    public void onTransactionAccepted(MempoolEntry entry) {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        Map<String, Object> event = new LinkedHashMap<>();
+        event.put("type", "tx");
+        event.put("txid", entry.getTxId().toDisplayString());
+        event.put("vsize", entry.getVSize());
+        event.put("fee", entry.getFee());
+        event.put("feeRate", entry.getFeeRate());
+        List<TransactionOutput> txOutputs = entry.getTransaction().getOutputs();
+        List<Map<String, Object>> outputs = new ArrayList<>(txOutputs.size());
+        for (TransactionOutput txOutput : txOutputs) {
+            Map<String, Object> output = new LinkedHashMap<>();
+            output.put("value", txOutput.getValue());
+            output.put("address", addresses.toAddress(txOutput.getScriptPubKey()));
+            outputs.add(output);
+        }
+        event.put("outputs", outputs);
+        publish(MEMPOOL, event);
+    }
+
+    private void publishTip(BlockIndex tip) {
+        Map<String, Object> event = new LinkedHashMap<>();
+        event.put("type", "tip");
+        event.put("hash", tip.getHash().toDisplayString());
+        event.put("height", tip.getHeight());
+        String serialized = serialize(event);
+        for (Subscriber subscriber : subscribers.values()) {
+            if (subscriber.topics.contains(TIPS)) {
+                subscriber.tip.set(serialized);
+            }
+        }
+    }
+
+    private void publish(String topic, Map<String, Object> event) {
+        String serialized = serialize(event);
+        for (Subscriber subscriber : subscribers.values()) {
+            if (subscriber.topics.contains(topic) && !subscriber.offer(serialized)) {
+                drop(subscriber);
+            }
+        }
+    }
+
+    private String serialize(Map<String, Object> event) {
+        try {
+            return json.writeValueAsString(event);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);  // Can't happen.
+        }
+    }
+
+    /** Starts a send to every subscriber that has something queued and no frame in flight. */
+    private void flush() {
+        for (Subscriber subscriber : subscribers.values()) {
+            if (!subscriber.hasPending() || !subscriber.sending.compareAndSet(false, true)) {
+                continue;
+            }
+            String frame = subscriber.drain();
+            senders.execute(() -> {
+                try {
+                    subscriber.session.sendMessage(new TextMessage(frame));
+                } catch (IOException | RuntimeException e) {
+                    LOG.debug("Failed to send feed to {}", subscriber.session.getRemoteAddress(), e);
+                    drop(subscriber);
+                } finally {
+                    subscriber.sending.set(false);
+                }
+            });
+        }
+    }
+
+    private void drop(Subscriber subscriber) {
+        if (subscribers.remove(subscriber.session.getId()) == null) {
+            return;
+        }
+        LOG.info("Dropping feed subscriber {}, {} events pending", subscriber.session.getRemoteAddress(),
+                subscriber.pending.get());
+        // Closing may write a close frame, which must not happen on the publishing thread.
+        senders.execute(() -> {
+            try {
+                subscriber.session.close(CloseStatus.SESSION_NOT_RELIABLE.withReason("Too slow"));
+            } catch (IOException e) {
+                LOG.debug("Failed to close feed session", e);
+            }
+        });
+    }
+
+    private final class Subscriber {
+        final WebSocketSession session;
+        final Set<String> topics;
+        final AtomicReference<String> tip = new AtomicReference<>();
+        final Queue<String> events = new ConcurrentLinkedQueue<>();
+        final AtomicInteger pending = new AtomicInteger();
+        final AtomicBoolean sending = new AtomicBoolean();
+
+        Subscriber(WebSocketSession session, Set<String> topics) {
+            this.session = session;
+            this.topics = topics;
+        }
+
+        /** Queues the event, returning false if the subscriber is too far behind to take it. */
+        boolean offer(String event) {
+            if (pending.incrementAndGet() > maxPending) {
+                return false;
+            }
+            events.add(event);
+            return true;
+        }
+
+        boolean hasPending() {
+            return tip.get() != null || pending.get() > 0;
+        }
+
+        /** Takes the latest tip and the queued events as one JSON array. */
+        String drain() {
+            StringBuilder frame = new StringBuilder("[");
+            String latestTip = tip.getAndSet(null);
+            if (latestTip != null) {
+                frame.append(latestTip);
+            }
+            String event;
+            while ((event = events.poll()) != null) {
+                pending.decrementAndGet();
+                if (frame.length() > 1) {
+                    frame.append(',');
+                }
+                frame.append(event);
+            }
+            return frame.append(']').toString();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package org.hma.bitcoin.endpoint;
+
+import org.hma.bitcoin.storage.FilePosition;
+import org.hma.bitcoin.storage.FlatFileStore;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HexFormat;
+import java.util.Locale;
+
+/**
+ * Streams slices of block files as HTTP responses, raw or hex encoded, with strong ETags and byte ranges.
+ * <p>
+ * Raw slices go from the file channel to the response with {@link FileChannel#transferTo}, never through a heap
+ * buffer of their own; hex is encoded in small chunks from the store's mapping. Either way a 2 MB block costs no
+ * object graph and no buffer of its size. Only raw responses honour {@code Range}, as a single range; hex responses
+ * always carry the whole body.
+ */
+final class RawResponses {
+    /** Served for content addressed by a block hash, which never changes. */
+    static final String IMMUTABLE = "public, max-age=31536000, immutable";
+    /** Served for content whose location may change in a reorg; clients revalidate with the ETag. */
+    static final String REVALIDATE = "no-cache";
+
+    private static final int HEX_CHUNK = 8192;
+
+    private RawResponses() {
+    }
+
+    /** Validates the {@code format} request parameter. */
+    static boolean isHex(String format) {
+        switch (format.toLowerCase(Locale.ROOT)) {
+            case "raw":
+            case "bin":
+                return false;
+            case "hex":
+                return true;
+            default:
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown format " + format);
+        }
+    }
+
+    /**
+     * Builds the response for the bytes at the position of the store.
+     *
+     * @param tag         opaque ETag value without quotes, unique for the bytes served
+     * @param range       the {@code Range} header, or null
+     * @param ifNoneMatch the {@code If-None-Match} header, or null
+     */
+    static ResponseEntity<StreamingResponseBody> serve(FlatFileStore files, FilePosition position, boolean hex,
+                                                        String tag, String cacheControl, String range,
+                                                        String ifNoneMatch) {
+        String etag = "\"" + tag + (hex ? "-hex" : "") + "\"";
+        if (ifNoneMatch != null && (ifNoneMatch.trim().equals("*") || ifNoneMatch.contains(etag))) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(etag)
+                    .header(HttpHeaders.CACHE_CONTROL, cacheControl)
+                    .build();
+        }
+        int length = position.getLength();
+        FileChannel channel;
+        ByteBuffer slice;
+        try {
+            channel = files.channel(position.getFile());
+            slice = hex ? files.map(position) : null;
+        } catch (IOException e) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to read " + position, e);
+        }
+        if (hex) {
+            return ResponseEntity.status(HttpStatus.OK)
+                    .eTag(etag)
+                    .header(HttpHeaders.CACHE_CONTROL, cacheControl)
+                    .contentType(MediaType.TEXT_PLAIN)
+                    .contentLength(2L * length)
+                    .body(out -> {
+                        HexFormat format = HexFormat.of();
+                        byte[] chunk = new byte[HEX_CHUNK];
+                        while (slice.hasRemaining()) {
+                            int n = Math.min(chunk.length, slice.remaining());
+                            slice.get(chunk, 0, n);
+                            out.write(format.formatHex(chunk, 0, n).getBytes(StandardCharsets.US_ASCII));
+                        }
+                    });
+        }
+
+        long start = 0;
+        long end = length - 1;
+        HttpStatus status = HttpStatus.OK;
+        if (range != null) {
+            long[] parsed = parseRange(range, length);
+            if (parsed == null) {
+                return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                        .header(HttpHeaders.CONTENT_RANGE, "bytes */" + length)
+                        .build();
+            }
+            if (parsed.length == 2) {
+                start = parsed[0];
+                end = parsed[1];
+                status = HttpStatus.PARTIAL_CONTENT;
+            }
+        }
+        long from = position.getOffset() + start;
+        long to = position.getOffset() + end + 1;
+        ResponseEntity.BodyBuilder builder = ResponseEntity.status(status)
+                .eTag(etag)
+                .header(HttpHeaders.CACHE_CONTROL, cacheControl)
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .contentLength(end - start + 1);
+        if (status == HttpStatus.PARTIAL_CONTENT) {
+            builder.header(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+        }
+        return builder.body(out -> {
+            WritableByteChannel target = Channels.newChannel(out);
+            long next = from;
+            while (next < to) {
+                long sent = channel.transferTo(next, to - next, target);
+                if (sent <= 0) {
+                    // Past the end of the file, which shrank since the position was read.
+                    throw new IOException("Block file ended at " + next + " of " + to);
+                }
+                next += sent;
+            }
+        });
+    }
+
+    /**
+     * Parses a {@code bytes=} range against the length. Returns the first and last byte, an empty array when the
+     * header should be ignored (other units, several ranges, malformed), or null when the range is unsatisfiable.
+     */
+    static long[] parseRange(String header, long length) {
+        String value = header.trim();
+        if (!value.startsWith("bytes=") || value.indexOf(',') >= 0) {
+            return new long[0];
+        }
+        String spec = value.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return new long[0];
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                // Suffix range: the last N bytes.
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0) {
+                    return null;
+                }
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+                if (end < start) {
+                    return start < length ? new long[0] : null;
+                }
+            }
+            if (start >= length) {
+                return null;
+            }
+            return new long[] {start, end};
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+}
@@ -1,4 +1,285 @@
 package org.hma.bitcoin.endpoint;
 
+import org.hma.bitcoin.chain.BlockIndex;
+import org.hma.bitcoin.chain.ChainState;
+import org.hma.bitcoin.crypto.ExtendedKey;
+import org.hma.bitcoin.crypto.Sha256;
+import org.hma.bitcoin.index.TxIndex;
+import org.hma.bitcoin.mempool.FeeEstimate;
+import org.hma.bitcoin.mempool.FeeEstimator;
+import org.hma.bitcoin.model.Block;
+import org.hma.bitcoin.model.OutPoint;
+import org.hma.bitcoin.model.Transaction;
+import org.hma.bitcoin.model.Utxo;
+import org.hma.bitcoin.script.AddressCodec;
+import org.hma.bitcoin.storage.BlockFileStore;
+import org.hma.bitcoin.storage.FilePosition;
+import org.hma.bitcoin.util.Base58;
+import org.hma.bitcoin.util.ByteUtils;
+import org.hma.bitcoin.wallet.CoinSelection;
+import org.hma.bitcoin.wallet.CoinSelector;
+import org.hma.bitcoin.wallet.HdKeyDerivation;
+import org.hma.bitcoin.wallet.Wallet;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * REST access to the watch-only {@link Wallet}. Scripts are hex encoded scriptPubKeys or addresses of the active
+ * network, amounts are in satoshis.
+ */
+@RestController
+@RequestMapping("/wallet")
 public class WalletEndpoint {
+    private final Wallet wallet;
+    private final CoinSelector coinSelector;
+    private final HdKeyDerivation hdKeys;
+    private final ChainState chain;
+    private final BlockFileStore blockStore;
+    private final Optional<TxIndex> txIndex;
+    private final FeeEstimator feeEstimator;
+    private final AddressCodec addresses;
+
+    public WalletEndpoint(Wallet wallet, CoinSelector coinSelector, HdKeyDerivation hdKeys, ChainState chain,
+                          BlockFileStore blockStore, Optional<TxIndex> txIndex, FeeEstimator feeEstimator,
+                          AddressCodec addresses) {
+        this.wallet = wallet;
+        this.coinSelector = coinSelector;
+        this.hdKeys = hdKeys;
+        this.chain = chain;
+        this.blockStore = blockStore;
+        this.txIndex = txIndex;
+        this.feeEstimator = feeEstimator;
+        this.addresses = addresses;
+    }
+
+    @GetMapping
+    public Map<String, Object> summary() {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("scripts", wallet.getScriptCount());
+        summary.put("utxos", wallet.getUtxoCount());
+        summary.put("balance", wallet.getTotalBalance());
+        return summary;
+    }
+
+    /** Watches a batch of scripts. Large imports should be sent in few big batches, each costs a UTXO set scan. */
+    @PostMapping("/scripts")
+    public Map<String, Object> watch(@RequestBody List<String> scripts) {
+        List<byte[]> decoded = new ArrayList<>(scripts.size());
+        for (String script : scripts) {
+            decoded.add(decode(script));
+        }
+        int added = wallet.watch(decoded);
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("added", added);
+        result.put("scripts", wallet.getScriptCount());
+        return result;
+    }
+
+    @GetMapping("/scripts/{script}")
+    public Map<String, Object> balance(@PathVariable String script) {
+        byte[] decoded = decode(script);
+        long balance = wallet.getBalance(decoded);
+        if (balance < 0) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Script is not watched");
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("script", ByteUtils.HEX.encode(decoded));
+        result.put("address", addresses.toAddress(decoded));
+        result.put("balance", balance);
+        return result;
+    }
+
+    @GetMapping("/scripts/{script}/utxos")
+    public List<Map<String, Object>> utxos(@PathVariable String script) {
+        Map<OutPoint, Utxo> utxos = wallet.getUtxos(decode(script));
+        if (utxos == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Script is not watched");
+        }
+        List<Map<String, Object>> result = new ArrayList<>(utxos.size());
+        for (Map.Entry<OutPoint, Utxo> entry : utxos.entrySet()) {
+            Map<String, Object> utxo = new LinkedHashMap<>();
+            utxo.put("txid", entry.getKey().getHash().toDisplayString());
+            utxo.put("vout", entry.getKey().getIndex());
+            utxo.put("value", entry.getValue().getValue());
+            utxo.put("height", entry.getValue().getHeight());
+            utxo.put("coinbase", entry.getValue().isCoinbase());
+            result.add(utxo);
+        }
+        return result;
+    }
+
+    /**
+     * Watches the receive and change chains of an account key, given as its 78 byte BIP-32 serialization in hex or
+     * Base58Check (xpub), up to the gap limit past the last address holding coins.
+     */
+    @PostMapping("/accounts")
+    public Map<String, Object> watchAccount(@RequestBody String accountKey,
+                                            @RequestParam(defaultValue = "20") int gapLimit) {
+        ExtendedKey account;
+        try {
+            String key = accountKey.strip();
+            account = ExtendedKey.parse(isHex(key) ? ByteUtils.HEX.decode(key.toLowerCase(Locale.ROOT))
+                    : Base58.decodeChecked(key));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+        if (gapLimit <= 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Gap limit must be positive");
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("receive", hdKeys.scan(hdKeys.derive(account, HdKeyDerivation.RECEIVE_CHAIN), gapLimit));
+        result.put("change", hdKeys.scan(hdKeys.derive(account, HdKeyDerivation.CHANGE_CHAIN), gapLimit));
+        result.put("scripts", wallet.getScriptCount());
+        return result;
+    }
+
+    /**
+     * Selects inputs from all watched outputs to pay the amount at the fee rate, in satoshis per vbyte. Nothing is
+     * reserved; the inputs can be selected again until a transaction spending them confirms.
+     */
+    @PostMapping("/select")
+    public Map<String, Object> select(@RequestParam long amount, @RequestParam double feeRate) {
+        if (amount <= 0 || !Double.isFinite(feeRate) || feeRate < 0 || feeRate * 1000 > CoinSelector.MAX_FEE_RATE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid amount or fee rate");
+        }
+        CoinSelection selection = coinSelector.select(wallet.getAllUtxos(), amount, Math.round(feeRate * 1000),
+                chain.getHeight() + 1);
+        if (selection == null) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Insufficient spendable funds");
+        }
+        List<Map<String, Object>> inputs = new ArrayList<>(selection.getInputs().size());
+        for (OutPoint outpoint : selection.getInputs()) {
+            Map<String, Object> input = new LinkedHashMap<>();
+            input.put("txid", outpoint.getHash().toDisplayString());
+            input.put("vout", outpoint.getIndex());
+            inputs.add(input);
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("algorithm", selection.getAlgorithm());
+        result.put("inputs", inputs);
+        result.put("inputValue", selection.getInputValue());
+        result.put("fee", selection.getFee());
+        result.put("change", selection.getChange());
+        result.put("waste", selection.getWaste());
+        return result;
+    }
+
+    /**
+     * Estimates the fee rate, in satoshis per vbyte, for a transaction to confirm within the target number of blocks,
+     * like {@code estimatesmartfee}. The answer names the target it is for, which is later than the one asked for
+     * when that lacks data. Mode is "economical" or "conservative".
+     */
+    @GetMapping("/fee-estimate")
+    public Map<String, Object> estimateFee(@RequestParam(defaultValue = "6") int target,
+                                           @RequestParam(defaultValue = "economical") String mode) {
+        boolean conservative = "conservative".equalsIgnoreCase(mode);
+        if (target < 1 || !conservative && !"economical".equalsIgnoreCase(mode)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid target or mode");
+        }
+        FeeEstimate estimate = feeEstimator.estimateSmartFee(target, conservative);
+        if (estimate == null) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Insufficient data for a fee estimate");
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("feeRate", estimate.getFeeRate() / 1000.0);
+        result.put("blocks", estimate.getBlocks());
+        return result;
+    }
+
+    /**
+     * Streams a transaction with an unspent watched output from its block file, raw or hex. Found through the
+     * transaction index when enabled, otherwise through the wallet's record of the confirming block.
+     */
+    @GetMapping("/transactions/{txid}")
+    public ResponseEntity<StreamingResponseBody> transaction(@PathVariable String txid,
+                                                             @RequestParam(defaultValue = "raw") String format,
+                                                             @RequestHeader(value = HttpHeaders.RANGE,
+                                                                     required = false) String range,
+                                                             @RequestHeader(value = HttpHeaders.IF_NONE_MATCH,
+                                                                     required = false) String ifNoneMatch) {
+        boolean hex = RawResponses.isHex(format);
+        Sha256 txId = AdminEndpoint.parseHash(txid);
+        int height = wallet.getHeight(txId);
+        if (height < 0) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Transaction not in wallet");
+        }
+        BlockIndex block;
+        FilePosition blockPosition;
+        synchronized (chain) {
+            block = chain.getByHeight(height);
+            blockPosition = block != null ? block.getBlockPosition() : null;
+        }
+        if (blockPosition == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Block not found");
+        }
+        TxIndex.Entry entry = txIndex.isPresent() ? txIndex.get().find(txId) : null;
+        FilePosition position = entry != null ? entry.getPosition() : null;
+        if (position == null) {
+            position = locate(blockPosition, txId);
+        }
+        // A reorg can move the transaction to another block, so the tag names both and clients revalidate.
+        String tag = block.getHash().toDisplayString() + "-" + txid;
+        return RawResponses.serve(blockStore.getFiles(), position, hex, tag, RawResponses.REVALIDATE, range,
+                ifNoneMatch);
+    }
+
+    private FilePosition locate(FilePosition blockPosition, Sha256 txId) {
+        Block block;
+        try {
+            block = blockStore.loadBlock(blockPosition);
+        } catch (IOException e) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to read block", e);
+        }
+        for (Transaction tx : block.getTransactions()) {
+            if (tx.getTxId().equals(txId)) {
+                return new FilePosition(blockPosition.getFile(), blockPosition.getOffset() + tx.getOffset(),
+                        tx.getMessageSize());
+            }
+        }
+        throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Transaction not found");
+    }
+
+    /** A hex encoded script, or the script paying an address. */
+    private byte[] decode(String script) {
+        try {
+            if (isHex(script)) {
+                return ByteUtils.HEX.decode(script.toLowerCase(Locale.ROOT));
+            }
+            return addresses.toScriptPubKey(script);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid script or address " + script + ": "
+                    + e.getMessage());
+        }
+    }
+
+    private static boolean isHex(String value) {
+        if (value.length() % 2 != 0) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (Character.digit(value.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
 }
@@ -0,0 +1,172 @@
+package org.hma.bitcoin.index;
+
+import org.hma.bitcoin.chain.BlockUndo;
+import org.hma.bitcoin.crypto.Sha256;
+import org.hma.bitcoin.crypto.SipHash;
+import org.hma.bitcoin.model.Block;
+import org.hma.bitcoin.model.Transaction;
+import org.hma.bitcoin.model.TransactionOutput;
+import org.hma.bitcoin.model.Utxo;
+import org.hma.bitcoin.util.ByteCodec;
+import org.hma.bitcoin.util.VarInt;
+
+import java.util.Arrays;
+
+/**
+ * BIP-158 basic block filter: a Golomb-coded set of the output scripts a block creates and the previous output
+ * scripts it spends.
+ * <p>
+ * Building a filter allocates a {@code long[]} for the hashed items and the output buffer, nothing per item. Items are
+ * deduplicated by their full 64-bit SipHash before they are mapped into the filter range; equal scripts hash equally
+ * and distinct scripts colliding on 64 bits is negligible, while collisions in the much smaller filter range are
+ * legitimate and kept.
+ */
+public class BlockFilter {
+    public static final int TYPE_BASIC = 0;
+
+    static final int P = 19;
+    static final long M = 784931;
+    private static final byte OP_RETURN = 0x6a;
+
+    private final Sha256 blockHash;
+    private final byte[] encoded;
+
+    public BlockFilter(Sha256 blockHash, byte[] encoded) {
+        this.blockHash = blockHash;
+        this.encoded = encoded;
+    }
+
+    /** Builds the basic filter of a connected block, taking the spent scripts from its undo data. */
+    public static BlockFilter buildBasic(Block block, BlockUndo undo) {
+        int count = 0;
+        for (Transaction tx : block.getTransactions()) {
+            count += tx.getOutputs().size();
+        }
+        for (Utxo[] spent : undo.getSpent()) {
+            count += spent.length;
+        }
+
+        byte[] hash = block.getHash().getBytes();
+        long k0 = ByteCodec.readInt64LE(hash, 0);
+        long k1 = ByteCodec.readInt64LE(hash, 8);
+        long[] items = new long[count];
+        int n = 0;
+        for (Transaction tx : block.getTransactions()) {
+            for (TransactionOutput output : tx.getOutputs()) {
+                byte[] script = output.getScriptPubKey();
+                if (script.length > 0 && script[0] != OP_RETURN) {
+                    items[n++] = SipHash.hash24(k0, k1, script);
+                }
+            }
+        }
+        for (Utxo[] spent : undo.getSpent()) {
+            for (Utxo utxo : spent) {
+                byte[] script = utxo.getScriptPubKey();
+                if (script.length > 0) {
+                    items[n++] = SipHash.hash24(k0, k1, script);
+                }
+            }
+        }
+
+        // Sort as unsigned by flipping the sign bit, then drop duplicate items.
+        for (int i = 0; i < n; i++) {
+            items[i] ^= Long.MIN_VALUE;
+        }
+        Arrays.sort(items, 0, n);
+        int unique = 0;
+        for (int i = 0; i < n; i++) {
+            if (unique == 0 || items[i] != items[unique - 1]) {
+                items[unique++] = items[i];
+            }
+        }
+
+        // Mapping into [0, N * M) is monotonic, so the mapped values come out sorted.
+        long range = unique * M;
+        BitWriter out = new BitWriter(VarInt.sizeOf(unique) + (unique * (P + 2) + 7) / 8);
+        out.writeVarInt(unique);
+        long last = 0;
+        for (int i = 0; i < unique; i++) {
+            long value = Math.unsignedMultiplyHigh(items[i] ^ Long.MIN_VALUE, range);
+            out.writeGolombRice(value - last);
+            last = value;
+        }
+        return new BlockFilter(block.getHash(), out.toByteArray());
+    }
+
+    public Sha256 getBlockHash() {
+        return blockHash;
+    }
+
+    /** The serialized filter: the item count as a VarInt followed by the Golomb-Rice coded deltas. */
+    public byte[] getEncoded() {
+        return encoded;
+    }
+
+    public Sha256 getFilterHash() {
+        return Sha256.wrap(Sha256.hashTwice(encoded));
+    }
+
+    /** Filter header chaining this filter to the previous block's header, zero before genesis. */
+    public Sha256 computeHeader(Sha256 previousHeader) {
+        return computeHeader(getFilterHash(), previousHeader);
+    }
+
+    public static Sha256 computeHeader(Sha256 filterHash, Sha256 previousHeader) {
+        return Sha256.wrap(Sha256.hashTwice(filterHash.getBytes(), previousHeader.getBytes()));
+    }
+
+    /** Big endian bit stream into a growable array. */
+    private static class BitWriter {
+        private byte[] buf;
+        private int length;
+        private long bits;
+        private int bitCount;
+
+        BitWriter(int capacity) {
+            buf = new byte[Math.max(capacity, 16)];
+        }
+
+        void writeVarInt(long value) {
+            ensure(9);
+            length += VarInt.write(buf, length, value);
+        }
+
+        void writeGolombRice(long delta) {
+            long quotient = delta >>> P;
+            while (quotient >= 32) {
+                writeBits(0xFFFFFFFFL, 32);
+                quotient -= 32;
+            }
+            // Remaining ones of the unary quotient, its terminating zero and the P bit remainder.
+            writeBits((1L << quotient) - 1 << 1, (int) quotient + 1);
+            writeBits(delta & ((1L << P) - 1), P);
+        }
+
+        private void writeBits(long value, int count) {
+            bits = (bits << count) | value;
+            bitCount += count;
+            while (bitCount >= 8) {
+                ensure(1);
+                bitCount -= 8;
+                buf[length++] = (byte) (bits >>> bitCount);
+            }
+            bits &= (1L << bitCount) - 1;
+        }
+
+        private void ensure(int bytes) {
+            if (length + bytes > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, length + bytes));
+            }
+        }
+
+        byte[] toByteArray() {
+            if (bitCount > 0) {
+                ensure(1);
+                buf[length++] = (byte) (bits << (8 - bitCount));
+                bitCount = 0;
+                bits = 0;
+            }
+            return Arrays.copyOf(buf, length);
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package org.hma.bitcoin.index;
+
+import jakarta.annotation.PreDestroy;
+import org.hma.bitcoin.chain.BlockIndex;
+import org.hma.bitcoin.chain.BlockUndo;
+import org.hma.bitcoin.chain.ChainListener;
+import org.hma.bitcoin.chain.ChainState;
+import org.hma.bitcoin.crypto.Sha256;
+import org.hma.bitcoin.model.Block;
+import org.hma.bitcoin.network.Client;
+import org.hma.bitcoin.network.MessageDispatcher;
+import org.hma.bitcoin.network.Network;
+import org.hma.bitcoin.network.message.CFCheckptMessage;
+import org.hma.bitcoin.network.message.CFHeadersMessage;
+import org.hma.bitcoin.network.message.CFilterMessage;
+import org.hma.bitcoin.network.message.GetCFCheckptMessage;
+import org.hma.bitcoin.network.message.GetCFiltersMessage;
+import org.hma.bitcoin.storage.DataDirectory;
+import org.hma.bitcoin.storage.FilePosition;
+import org.hma.bitcoin.storage.FlatFileStore;
+import org.hma.bitcoin.util.ByteCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * BIP-157/158 basic block filters, built while blocks are connected and served to light clients through
+ * {@code getcfilters}, {@code getcfheaders} and {@code getcfcheckpt}. Enabled with {@code node.blockfilterindex=true}.
+ * <p>
+ * Filters are appended to {@code fltr?????.dat} flat files. A fixed size record per height in {@code index.dat}
+ * holds the block hash, the filter's position, its hash and its header, so a request is answered with one positional
+ * read per block and no filter is ever recomputed. After a reorg the records of the new blocks overwrite the old ones.
+ */
+@Component
+@ConditionalOnProperty(name = "node.blockfilterindex", havingValue = "true")
+public class BlockFilterIndex implements ChainListener {
+    private static final Logger LOG = LoggerFactory.getLogger(BlockFilterIndex.class);
+
+    static final int MAX_GETCFILTERS_SIZE = 1000;
+    static final int MAX_GETCFHEADERS_SIZE = 2000;
+    static final int CHECKPOINT_INTERVAL = 1000;
+    private static final long MAX_FILTER_FILE_SIZE = 0x1000000; // 16 MiB, as Bitcoin Core
+    /** Block hash, filter file, offset and length, filter hash, filter header. */
+    static final int RECORD_SIZE = Sha256.LENGTH + 4 + 4 + 4 + Sha256.LENGTH + Sha256.LENGTH;
+
+    private final ChainState chain;
+    private final FlatFileStore filters;
+    private final FileChannel records;
+    private volatile int bestHeight = -1;
+
+    public BlockFilterIndex(ChainState chain, DataDirectory dataDirectory, Network network,
+                            MessageDispatcher dispatcher) throws IOException {
+        this.chain = chain;
+        Path directory = dataDirectory.resolve("indexes").resolve("blockfilter");
+        Files.createDirectories(directory);
+        this.filters = new FlatFileStore(directory, "fltr", MAX_FILTER_FILE_SIZE, network.getMagic());
+        this.records = FileChannel.open(directory.resolve("index.dat"), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        chain.addListener(this);
+        dispatcher.register("getcfilters", this::onGetCFilters);
+        dispatcher.register("getcfheaders", this::onGetCFHeaders);
+        dispatcher.register("getcfcheckpt", this::onGetCFCheckpt);
+    }
+
+    @Override
+    public void onBlockConnected(Block block, BlockIndex index, BlockUndo undo) {
+        int height = index.getHeight();
+        try {
+            Sha256 previousHeader = Sha256.ZERO_HASH;
+            if (height > 0) {
+                Record previous = readRecord(height - 1);
+                if (previous == null || !previous.blockHash.equals(index.getPrev().getHash())) {
+                    // E.g. the chain was bootstrapped from a UTXO snapshot and lacks the blocks below.
+                    LOG.debug("Not indexing filter of {}, previous filter unknown", index);
+                    return;
+                }
+                previousHeader = previous.header;
+            }
+            BlockFilter filter = BlockFilter.buildBasic(block, undo);
+            FilePosition position = filters.append(filter.getEncoded());
+            Sha256 filterHash = filter.getFilterHash();
+            writeRecord(height, new Record(index.getHash(), position, filterHash,
+                    BlockFilter.computeHeader(filterHash, previousHeader)));
+            bestHeight = height;
+        } catch (IOException e) {
+            LOG.error("Failed to index filter of block {}", index, e);
+        }
+    }
+
+    @Override
+    public void onBlockDisconnected(Block block, BlockIndex index, BlockUndo undo) {
+        if (bestHeight >= index.getHeight()) {
+            bestHeight = index.getHeight() - 1;
+        }
+    }
+
+    /** Returns the filter of a block on the active chain, or null if it isn't indexed. */
+    public BlockFilter getFilter(BlockIndex index) throws IOException {
+        Record record = readRecord(index.getHeight());
+        if (record == null || !record.blockHash.equals(index.getHash())) {
+            return null;
+        }
+        return new BlockFilter(record.blockHash, filters.read(record.position));
+    }
+
+    public int getBestHeight() {
+        return bestHeight;
+    }
+
+    private void onGetCFilters(Client peer, byte[] payload) throws Exception {
+        GetCFiltersMessage request = new GetCFiltersMessage("getcfilters", payload);
+        BlockIndex stop = resolveStop(request.getFilterType(), request.getStopHash(), request.getStartHeight(),
+                MAX_GETCFILTERS_SIZE);
+        if (stop == null) {
+            return;
+        }
+        List<Record> found = readRange(stop, (int) request.getStartHeight());
+        if (found == null) {
+            return;
+        }
+        for (Record record : found) {
+            peer.send(new CFilterMessage(BlockFilter.TYPE_BASIC, record.blockHash, filters.read(record.position)));
+        }
+    }
+
+    private void onGetCFHeaders(Client peer, byte[] payload) throws Exception {
+        GetCFiltersMessage request = new GetCFiltersMessage("getcfheaders", payload);
+        BlockIndex stop = resolveStop(request.getFilterType(), request.getStopHash(), request.getStartHeight(),
+                MAX_GETCFHEADERS_SIZE);
+        if (stop == null) {
+            return;
+        }
+        int start = (int) request.getStartHeight();
+        Sha256 previousHeader = Sha256.ZERO_HASH;
+        if (start > 0) {
+            Record previous = readRecord(start - 1);
+            if (previous == null) {
+                return;
+            }
+            previousHeader = previous.header;
+        }
+        List<Record> found = readRange(stop, start);
+        if (found == null) {
+            return;
+        }
+        List<Sha256> filterHashes = new ArrayList<>(found.size());
+        for (Record record : found) {
+            filterHashes.add(record.filterHash);
+        }
+        peer.send(new CFHeadersMessage(BlockFilter.TYPE_BASIC, stop.getHash(), previousHeader, filterHashes));
+    }
+
+    private void onGetCFCheckpt(Client peer, byte[] payload) throws Exception {
+        GetCFCheckptMessage request = new GetCFCheckptMessage(payload);
+        BlockIndex stop = resolveStop(request.getFilterType(), request.getStopHash(), 0, Integer.MAX_VALUE);
+        if (stop == null) {
+            return;
+        }
+        List<Sha256> headers = new ArrayList<>(stop.getHeight() / CHECKPOINT_INTERVAL);
+        for (int height = CHECKPOINT_INTERVAL; height <= stop.getHeight(); height += CHECKPOINT_INTERVAL) {
+            Record record = readRecord(height);
+            if (record == null || !record.blockHash.equals(stop.getAncestor(height).getHash())) {
+                return;
+            }
+            headers.add(record.header);
+        }
+        peer.send(new CFCheckptMessage(BlockFilter.TYPE_BASIC, stop.getHash(), headers));
+    }
+
+    /**
+     * Validates a request and returns its stop block, or null if the filters aren't indexed up to it yet.
+     *
+     * @throws ProtocolException for requests a well-behaved client doesn't send, which disconnects the peer
+     */
+    private BlockIndex resolveStop(int filterType, Sha256 stopHash, long startHeight, int maxCount)
+            throws ProtocolException {
+        if (filterType != BlockFilter.TYPE_BASIC) {
+            throw new ProtocolException("Unsupported filter type " + filterType);
+        }
+        BlockIndex stop = chain.getHeaderIndex().get(stopHash);
+        if (stop == null || !chain.contains(stop)) {
+            throw new ProtocolException("Stop hash " + stopHash.toDisplayString() + " not in the active chain");
+        }
+        if (startHeight > stop.getHeight() || stop.getHeight() - startHeight >= maxCount) {
+            throw new ProtocolException("Invalid filter range " + startHeight + " to " + stop.getHeight());
+        }
+        return stop.getHeight() <= bestHeight ? stop : null;
+    }
+
+    /** Reads the records from the start height to the stop block, or null if one doesn't match the chain. */
+    private List<Record> readRange(BlockIndex stop, int start) throws IOException {
+        Record[] found = new Record[stop.getHeight() - start + 1];
+        BlockIndex walk = stop;
+        for (int i = found.length - 1; i >= 0; i--, walk = walk.getPrev()) {
+            Record record = readRecord(walk.getHeight());
+            if (record == null || !record.blockHash.equals(walk.getHash())) {
+                return null;
+            }
+            found[i] = record;
+        }
+        return List.of(found);
+    }
+
+    private Record readRecord(int height) throws IOException {
+        if (height > bestHeight) {
+            return null;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(RECORD_SIZE);
+        FlatFileStore.readFully(records, buf, (long) height * RECORD_SIZE);
+        byte[] bytes = buf.array();
+        return new Record(
+                Sha256.wrap(Arrays.copyOfRange(bytes, 0, 32)),
+                new FilePosition((int) ByteCodec.readUint32LE(bytes, 32), ByteCodec.readUint32LE(bytes, 36),
+                        (int) ByteCodec.readUint32LE(bytes, 40)),
+                Sha256.wrap(Arrays.copyOfRange(bytes, 44, 76)),
+                Sha256.wrap(Arrays.copyOfRange(bytes, 76, 108)));
+    }
+
+    private void writeRecord(int height, Record record) throws IOException {
+        byte[] bytes = new byte[RECORD_SIZE];
+        System.arraycopy(record.blockHash.getBytes(), 0, bytes, 0, Sha256.LENGTH);
+        ByteCodec.writeInt32LE(bytes, 32, record.position.getFile());
+        ByteCodec.writeInt32LE(bytes, 36, record.position.getOffset());
+        ByteCodec.writeInt32LE(bytes, 40, record.position.getLength());
+        System.arraycopy(record.filterHash.getBytes(), 0, bytes, 44, Sha256.LENGTH);
+        System.arraycopy(record.header.getBytes(), 0, bytes, 76, Sha256.LENGTH);
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        long position = (long) height * RECORD_SIZE;
+        while (buf.hasRemaining()) {
+            position += records.write(buf, position);
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        filters.close();
+        records.close();
+    }
+
+    private static final class Record {
+        final Sha256 blockHash;
+        final FilePosition position;
+        final Sha256 filterHash;
+        final Sha256 header;
+
+        Record(Sha256 blockHash, FilePosition position, Sha256 filterHash, Sha256 header) {
+            this.blockHash = blockHash;
+            this.position = position;
+            this.filterHash = filterHash;
+            this.header = header;
+        }
+    }
+}
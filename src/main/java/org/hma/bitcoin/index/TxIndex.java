@@ -0,0 +1,181 @@
+package org.hma.bitcoin.index;
+
+import jakarta.annotation.PreDestroy;
+import org.hma.bitcoin.chain.BlockIndex;
+import org.hma.bitcoin.chain.BlockUndo;
+import org.hma.bitcoin.chain.ChainListener;
+import org.hma.bitcoin.chain.ChainState;
+import org.hma.bitcoin.crypto.Sha256;
+import org.hma.bitcoin.model.Block;
+import org.hma.bitcoin.model.Transaction;
+import org.hma.bitcoin.storage.BlockFileStore;
+import org.hma.bitcoin.storage.DataDirectory;
+import org.hma.bitcoin.storage.FilePosition;
+import org.hma.bitcoin.storage.SortedRunStore;
+import org.hma.bitcoin.util.ByteCodec;
+import org.hma.bitcoin.util.VarInt;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Optional index from txid to the confirming block and the location of the transaction in the blk files, enabled
+ * with {@code node.txindex=true}.
+ * <p>
+ * Each connected block is written as one batch to a {@link SortedRunStore}. Entries of disconnected blocks are kept
+ * on disk, since a later block including the transaction again overwrites them, but lookups ignore entries whose block
+ * is no longer on the active chain.
+ * <p>
+ * If a batch fails to write, the index stops at the last block it indexed rather than leave a gap, and reports it
+ * through {@link #getBestBlock()} until the node is restarted.
+ */
+@Component
+@ConditionalOnProperty(name = "node.txindex", havingValue = "true")
+public class TxIndex implements ChainListener {
+    private static final Logger LOG = LoggerFactory.getLogger(TxIndex.class);
+
+    /** Hash of the confirming block, then block file number, offset and length of the transaction, little endian. */
+    static final int VALUE_SIZE = Sha256.LENGTH + 4 + 4 + 4;
+    static final int RECORD_SIZE = Sha256.LENGTH + VALUE_SIZE;
+
+    private final ChainState chain;
+    private final BlockFileStore blockStore;
+    private final SortedRunStore store;
+    private volatile BlockIndex bestBlock;
+    private volatile boolean failed;
+
+    public TxIndex(ChainState chain, BlockFileStore blockStore, DataDirectory dataDirectory,
+                   @Value("${node.txindex.memtable-entries:1000000}") int memtableEntries,
+                   @Value("${node.txindex.max-runs:8}") int maxRuns) throws IOException {
+        this.chain = chain;
+        this.blockStore = blockStore;
+        this.store = new SortedRunStore(dataDirectory.resolve("indexes").resolve("txindex"), Sha256.LENGTH,
+                VALUE_SIZE, memtableEntries, maxRuns);
+        chain.addListener(this);
+    }
+
+    @Override
+    public void onBlockConnected(Block block, BlockIndex index, BlockUndo undo) {
+        if (failed) {
+            return;
+        }
+        FilePosition blockPosition = index.getBlockPosition();
+        List<Transaction> txs = block.getTransactions();
+        byte[] batch = new byte[txs.size() * RECORD_SIZE];
+        // Transactions follow the header and the transaction count.
+        long offset = blockPosition.getOffset() + Block.HEADER_SIZE + VarInt.sizeOf(txs.size());
+        int position = 0;
+        for (Transaction tx : txs) {
+            int size = tx.getMessageSize();
+            System.arraycopy(tx.getTxId().getBytes(), 0, batch, position, Sha256.LENGTH);
+            System.arraycopy(index.getHash().getBytes(), 0, batch, position + Sha256.LENGTH, Sha256.LENGTH);
+            ByteCodec.writeInt32LE(batch, position + 2 * Sha256.LENGTH, blockPosition.getFile());
+            ByteCodec.writeInt32LE(batch, position + 2 * Sha256.LENGTH + 4, offset);
+            ByteCodec.writeInt32LE(batch, position + 2 * Sha256.LENGTH + 8, size);
+            position += RECORD_SIZE;
+            offset += size;
+        }
+        try {
+            store.writeBatch(batch);
+            bestBlock = index;
+        } catch (IOException e) {
+            failed = true;
+            LOG.error("Failed to index transactions of block {}, transaction index stopped at {}", index, bestBlock,
+                    e);
+        }
+    }
+
+    @Override
+    public void onBlockDisconnected(Block block, BlockIndex index, BlockUndo undo) {
+        if (index == bestBlock) {
+            bestBlock = index.getPrev();
+        }
+    }
+
+    /** The last block indexed, null if none was since the node started. */
+    public BlockIndex getBestBlock() {
+        return bestBlock;
+    }
+
+    /** Whether a write failed, leaving the blocks after {@link #getBestBlock()} unindexed. */
+    public boolean hasFailed() {
+        return failed;
+    }
+
+    /**
+     * Returns the block of the active chain confirming the transaction and where it is stored, or null if it isn't
+     * indexed or the block it was indexed in has been disconnected.
+     */
+    public Entry find(Sha256 txid) {
+        byte[] value = store.get(txid.getBytes());
+        if (value == null) {
+            return null;
+        }
+        Sha256 blockHash = Sha256.wrap(Arrays.copyOf(value, Sha256.LENGTH));
+        BlockIndex block = chain.getHeaderIndex().get(blockHash);
+        if (block == null || !chain.contains(block)) {
+            return null;
+        }
+        return new Entry(blockHash, new FilePosition((int) ByteCodec.readUint32LE(value, Sha256.LENGTH),
+                ByteCodec.readUint32LE(value, Sha256.LENGTH + 4),
+                (int) ByteCodec.readUint32LE(value, Sha256.LENGTH + 8)));
+    }
+
+    /** Returns a read-only view of the raw transaction, or null if it isn't indexed. */
+    public ByteBuffer readTransaction(Sha256 txid) throws IOException {
+        Entry entry = find(txid);
+        return entry != null ? blockStore.map(entry.getPosition()) : null;
+    }
+
+    /** Returns the parsed transaction, or null if it isn't indexed. */
+    public Transaction getTransaction(Sha256 txid) throws IOException {
+        ByteBuffer raw = readTransaction(txid);
+        if (raw == null) {
+            return null;
+        }
+        byte[] bytes = new byte[raw.remaining()];
+        raw.get(bytes);
+        Transaction tx;
+        try {
+            tx = new Transaction(bytes, 0);
+        } catch (Exception e) {
+            throw new IOException("Corrupt transaction " + txid.toDisplayString() + " at " + find(txid).getPosition(),
+                    e);
+        }
+        if (!tx.getTxId().equals(txid)) {
+            throw new IOException("Index entry of " + txid.toDisplayString() + " points to another transaction");
+        }
+        return tx;
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        store.close();
+    }
+
+    /** An indexed transaction: the block confirming it and its location in the block files. */
+    public static class Entry {
+        private final Sha256 blockHash;
+        private final FilePosition position;
+
+        Entry(Sha256 blockHash, FilePosition position) {
+            this.blockHash = blockHash;
+            this.position = position;
+        }
+
+        public Sha256 getBlockHash() {
+            return blockHash;
+        }
+
+        public FilePosition getPosition() {
+            return position;
+        }
+    }
+}
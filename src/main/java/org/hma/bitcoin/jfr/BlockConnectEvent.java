@@ -0,0 +1,36 @@
+package org.hma.bitcoin.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+@Name("org.hma.bitcoin.BlockConnect")
+@Label("Block Connect")
+@Category({"Bitcoin", "Validation"})
+@Description("Connection of a block to the active chain, with the time spent in each phase")
+@StackTrace(false)
+public class BlockConnectEvent extends Event {
+    @Label("Height")
+    public int height;
+
+    @Label("Block Hash")
+    public String hash;
+
+    @Label("Transactions")
+    public int txCount;
+
+    @Label("Inputs")
+    public int inputCount;
+
+    @Label("UTXO Update Time")
+    @Timespan(Timespan.NANOSECONDS)
+    public long utxoTime;
+
+    @Label("Write Time")
+    @Timespan(Timespan.NANOSECONDS)
+    public long writeTime;
+}
@@ -0,0 +1,26 @@
+package org.hma.bitcoin.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("org.hma.bitcoin.FrameDecode")
+@Label("Frame Decode")
+@Category({"Bitcoin", "P2P"})
+@Description("Inbound frame, from its complete header to its last payload byte")
+@StackTrace(false)
+public class FrameDecodeEvent extends Event {
+    @Label("Command")
+    public String command;
+
+    @Label("Payload Size")
+    @DataAmount
+    public long size;
+
+    @Label("Peer")
+    public String peer;
+}
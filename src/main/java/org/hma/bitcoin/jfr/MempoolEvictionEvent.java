@@ -0,0 +1,30 @@
+package org.hma.bitcoin.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("org.hma.bitcoin.MempoolEviction")
+@Label("Mempool Eviction")
+@Category({"Bitcoin", "Mempool"})
+@Description("Removal of transactions from the mempool to respect its size limit or expiry")
+@StackTrace(false)
+public class MempoolEvictionEvent extends Event {
+    @Label("Reason")
+    public String reason;
+
+    @Label("Transactions")
+    public int count;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+
+    @Label("Highest Fee Rate Evicted")
+    @Description("sat/kvB")
+    public long maxFeeRate;
+}
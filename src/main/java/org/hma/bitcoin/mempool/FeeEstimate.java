@@ -0,0 +1,22 @@
+package org.hma.bitcoin.mempool;
+
+/** A fee rate from the {@link FeeEstimator} and the confirmation target it was found for. */
+public class FeeEstimate {
+    private final long feeRate;
+    private final int blocks;
+
+    FeeEstimate(long feeRate, int blocks) {
+        this.feeRate = feeRate;
+        this.blocks = blocks;
+    }
+
+    /** Fee rate in satoshis per 1000 vbytes. */
+    public long getFeeRate() {
+        return feeRate;
+    }
+
+    /** The target the estimate is for, which may be later than the one asked for if that lacked data. */
+    public int getBlocks() {
+        return blocks;
+    }
+}
@@ -0,0 +1,302 @@
+package org.hma.bitcoin.mempool;
+
+import org.hma.bitcoin.chain.BlockIndex;
+import org.hma.bitcoin.chain.BlockUndo;
+import org.hma.bitcoin.chain.ChainListener;
+import org.hma.bitcoin.chain.ChainState;
+import org.hma.bitcoin.crypto.Sha256;
+import org.hma.bitcoin.model.Block;
+import org.hma.bitcoin.model.Transaction;
+import org.hma.bitcoin.model.TransactionInput;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Estimates the fee rate a transaction needs to confirm within a number of blocks, from how long the transactions
+ * seen in the mempool took to confirm, roughly following Bitcoin Core's {@code estimatesmartfee}.
+ * <p>
+ * Transactions are tracked in exponentially spaced fee rate buckets from acceptance until they confirm or leave the
+ * pool. Per bucket the estimator keeps exponentially decaying counts of the transactions confirmed, of those
+ * confirmed within each target and of those that left unconfirmed after waiting at least that long, plus counts of
+ * the transactions still waiting by the height they arrived at. Rather than decaying every count each block, new
+ * observations are weighted up by the inverse of the decay so far, which makes a block cost O(buckets) for moving
+ * the waiting counts along. An estimate scans the buckets from the highest fee rate down, merging buckets until they
+ * hold enough data, and answers with the average fee rate of the lowest range in which enough transactions confirmed
+ * in time. Estimates are computed at most once per target and block, and served from a cache in between.
+ * <p>
+ * Transactions spending outputs of tracked ones are left out, as their fee rate doesn't tell when they confirm.
+ * Thread-safe; listener calls take the estimator lock after the chain and mempool locks.
+ */
+@Component
+public class FeeEstimator implements ChainListener, MempoolListener {
+    /** Lowest bucket boundary, in satoshis per 1000 vbytes. Lower fee rates count towards the first bucket. */
+    private static final double MIN_BUCKET_FEE_RATE = 1000;
+    /** Highest bucket boundary. Higher fee rates count towards the last bucket. */
+    private static final double MAX_BUCKET_FEE_RATE = 1e7;
+    private static final double FEE_SPACING = 1.05;
+    private static final double LOG_FEE_SPACING = Math.log(FEE_SPACING);
+    private static final int BUCKETS =
+            (int) Math.ceil(Math.log(MAX_BUCKET_FEE_RATE / MIN_BUCKET_FEE_RATE) / LOG_FEE_SPACING) + 1;
+    /** Decayed confirmed transactions per block a bucket range needs before it is judged. */
+    private static final double SUFFICIENT_TXS_PER_BLOCK = 0.1;
+    /** Share of transactions that must confirm in time for a range to pass. */
+    private static final double ECONOMICAL_SUCCESS = 0.85;
+    private static final double CONSERVATIVE_SUCCESS = 0.95;
+    /** Weight above which the decaying counts are scaled back down. */
+    private static final double MAX_WEIGHT = 1e100;
+
+    private final ChainState chain;
+    private final int maxTarget;
+    private final double decay;
+
+    // Decaying counts, each observation added with the current weight.
+    private final double[] confirmed = new double[BUCKETS];
+    private final double[] feeRateSums = new double[BUCKETS];
+    /** Per target - 1 and bucket, confirmed within the target. */
+    private final double[][] confirmedWithin;
+    /** Per target - 1 and bucket, left the pool unconfirmed after waiting at least the target. */
+    private final double[][] failedWithin;
+    private double weight = 1;
+
+    /** Waiting transactions per arrival height modulo the max target and bucket, for the last max target heights. */
+    private final int[][] waiting;
+    /** Waiting transactions that arrived earlier. */
+    private final int[] waitingLong = new int[BUCKETS];
+    private final Map<Sha256, Tracked> tracked = new HashMap<>();
+    private int bestHeight = -1;
+
+    // Estimates by target - 1, valid while their generation is the current one.
+    private final long[][] estimates = new long[2][];
+    private final long[][] estimateGenerations = new long[2][];
+    private long generation = 1;
+
+    public FeeEstimator(ChainState chain, Mempool mempool,
+                        @Value("${node.fees.max-target:48}") int maxTarget,
+                        @Value("${node.fees.decay:0.998}") double decay) {
+        if (maxTarget < 2 || !(decay > 0 && decay < 1)) {
+            throw new IllegalArgumentException("Invalid fee estimator max target " + maxTarget + " or decay " + decay);
+        }
+        this.chain = chain;
+        this.maxTarget = maxTarget;
+        this.decay = decay;
+        this.confirmedWithin = new double[maxTarget][BUCKETS];
+        this.failedWithin = new double[maxTarget][BUCKETS];
+        this.waiting = new int[maxTarget][BUCKETS];
+        for (int mode = 0; mode < 2; mode++) {
+            estimates[mode] = new long[maxTarget];
+            estimateGenerations[mode] = new long[maxTarget];
+        }
+        chain.addListener(this);
+        mempool.addListener(this);
+    }
+
+    /**
+     * Estimates the fee rate to confirm within the target, or the nearest later target with enough data. A target of
+     * 1 is treated as 2, as in Bitcoin Core, and targets beyond the max target as the max target.
+     *
+     * @param conservative whether 95% of the transactions at the fee rate must have confirmed in time, rather than 85%
+     * @return the estimate, or null if no target up to the max target has enough data
+     */
+    public synchronized FeeEstimate estimateSmartFee(int target, boolean conservative) {
+        int mode = conservative ? 1 : 0;
+        double success = conservative ? CONSERVATIVE_SUCCESS : ECONOMICAL_SUCCESS;
+        for (int blocks = Math.min(Math.max(target, 2), maxTarget); blocks <= maxTarget; blocks++) {
+            if (estimateGenerations[mode][blocks - 1] != generation) {
+                estimates[mode][blocks - 1] = estimate(blocks, success);
+                estimateGenerations[mode][blocks - 1] = generation;
+            }
+            long feeRate = estimates[mode][blocks - 1];
+            if (feeRate > 0) {
+                return new FeeEstimate(feeRate, blocks);
+            }
+        }
+        return null;
+    }
+
+    /** Highest target estimates are made for. */
+    public int getMaxTarget() {
+        return maxTarget;
+    }
+
+    /** Number of mempool transactions being tracked. */
+    public synchronized int getTrackedCount() {
+        return tracked.size();
+    }
+
+    @Override
+    public void onTransactionAccepted(MempoolEntry entry) {
+        // Called under the chain lock, so the height is the one the transaction arrived at.
+        int height = chain.getHeight();
+        synchronized (this) {
+            for (TransactionInput input : entry.getTransaction().getInputs()) {
+                if (tracked.containsKey(input.getOutpoint().getHash())) {
+                    return;
+                }
+            }
+            advance(height);
+            Tracked tx = new Tracked(height, entry.getFeeRate());
+            tracked.put(entry.getTxId(), tx);
+            if (bestHeight - height >= maxTarget) {
+                waitingLong[tx.bucket]++;
+            } else {
+                waiting[Math.floorMod(height, maxTarget)][tx.bucket]++;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void onTransactionRemoved(MempoolEntry entry) {
+        Tracked tx = tracked.remove(entry.getTxId());
+        if (tx == null) {
+            return;
+        }
+        stopWaiting(tx);
+        int waited = Math.min(bestHeight - tx.height, maxTarget);
+        for (int t = 0; t < waited; t++) {
+            failedWithin[t][tx.bucket] += weight;
+        }
+        generation++;
+    }
+
+    @Override
+    public synchronized void onBlockConnected(Block block, BlockIndex index, BlockUndo undo) {
+        int height = index.getHeight();
+        List<Transaction> txs = block.getTransactions();
+        if (height <= bestHeight) {
+            // Reconnected after a reorg; counted already.
+            for (int i = 1; i < txs.size(); i++) {
+                Tracked tx = tracked.remove(txs.get(i).getTxId());
+                if (tx != null) {
+                    stopWaiting(tx);
+                }
+            }
+            return;
+        }
+        advance(height - 1);
+        weight /= decay;
+        if (weight > MAX_WEIGHT) {
+            rescale();
+        }
+        for (int i = 1; i < txs.size(); i++) {
+            Tracked tx = tracked.remove(txs.get(i).getTxId());
+            if (tx == null) {
+                continue;
+            }
+            stopWaiting(tx);
+            int blocks = height - tx.height;
+            confirmed[tx.bucket] += weight;
+            feeRateSums[tx.bucket] += weight * tx.feeRate;
+            for (int t = blocks - 1; t < maxTarget; t++) {
+                confirmedWithin[t][tx.bucket] += weight;
+            }
+        }
+        advance(height);
+        generation++;
+    }
+
+    /**
+     * The fee rate for the target at the success rate, or -1 without enough data. Buckets are merged from the highest
+     * fee rate down until the range has enough confirmed transactions, and the range passes if enough of the
+     * transactions in it confirmed within the target, counting those still waiting longer than the target as
+     * failures.
+     */
+    private long estimate(int target, double success) {
+        double sufficient = SUFFICIENT_TXS_PER_BLOCK / (1 - decay) * weight;
+        double inTime = 0;
+        double total = 0;
+        double failed = 0;
+        double waitedTooLong = 0;
+        double feeRateSum = 0;
+        long feeRate = -1;
+        for (int bucket = BUCKETS - 1; bucket >= 0; bucket--) {
+            inTime += confirmedWithin[target - 1][bucket];
+            total += confirmed[bucket];
+            failed += failedWithin[target - 1][bucket];
+            waitedTooLong += waitingAtLeast(target, bucket) * weight;
+            feeRateSum += feeRateSums[bucket];
+            if (total < sufficient) {
+                continue;
+            }
+            if (inTime / (total + failed + waitedTooLong) < success) {
+                break;
+            }
+            feeRate = Math.round(feeRateSum / total);
+            inTime = 0;
+            total = 0;
+            failed = 0;
+            waitedTooLong = 0;
+            feeRateSum = 0;
+        }
+        return feeRate;
+    }
+
+    /** Transactions of the bucket that have been waiting for the target or longer. */
+    private int waitingAtLeast(int target, int bucket) {
+        int count = waitingLong[bucket];
+        for (int age = target; age < maxTarget; age++) {
+            count += waiting[Math.floorMod(bestHeight - age, maxTarget)][bucket];
+        }
+        return count;
+    }
+
+    /** Moves the best height up, rolling the waiting counts older than the max target over into the long ones. */
+    private void advance(int height) {
+        if (height <= bestHeight) {
+            return;
+        }
+        int steps = bestHeight < 0 ? 0 : Math.min(height - bestHeight, maxTarget);
+        for (int i = 0; i < steps; i++) {
+            int[] slot = waiting[Math.floorMod(height - i, maxTarget)];
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                waitingLong[bucket] += slot[bucket];
+            }
+            Arrays.fill(slot, 0);
+        }
+        bestHeight = height;
+    }
+
+    private void stopWaiting(Tracked tx) {
+        if (bestHeight - tx.height >= maxTarget) {
+            waitingLong[tx.bucket]--;
+        } else {
+            waiting[Math.floorMod(tx.height, maxTarget)][tx.bucket]--;
+        }
+    }
+
+    /** Divides the decaying counts by the weight, which starts over at 1. */
+    private void rescale() {
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            confirmed[bucket] /= weight;
+            feeRateSums[bucket] /= weight;
+            for (int t = 0; t < maxTarget; t++) {
+                confirmedWithin[t][bucket] /= weight;
+                failedWithin[t][bucket] /= weight;
+            }
+        }
+        weight = 1;
+    }
+
+    private static int bucket(long feeRate) {
+        if (feeRate <= MIN_BUCKET_FEE_RATE) {
+            return 0;
+        }
+        return Math.min((int) (Math.log(feeRate / MIN_BUCKET_FEE_RATE) / LOG_FEE_SPACING), BUCKETS - 1);
+    }
+
+    private static class Tracked {
+        final int height;
+        final long feeRate;
+        final int bucket;
+
+        Tracked(int height, long feeRate) {
+            this.height = height;
+            this.feeRate = feeRate;
+            this.bucket = bucket(feeRate);
+        }
+    }
+}
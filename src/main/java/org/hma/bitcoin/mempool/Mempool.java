@@ -0,0 +1,339 @@
+package org.hma.bitcoin.mempool;
+
+import org.hma.bitcoin.chain.BlockIndex;
+import org.hma.bitcoin.chain.BlockUndo;
+import org.hma.bitcoin.chain.ChainListener;
+import org.hma.bitcoin.chain.ChainState;
+import org.hma.bitcoin.chain.VerificationException;
+import org.hma.bitcoin.crypto.Sha256;
+import org.hma.bitcoin.jfr.MempoolEvictionEvent;
+import org.hma.bitcoin.metrics.NodeMetrics;
+import org.hma.bitcoin.model.Block;
+import org.hma.bitcoin.model.OutPoint;
+import org.hma.bitcoin.model.Transaction;
+import org.hma.bitcoin.model.TransactionInput;
+import org.hma.bitcoin.model.TransactionOutput;
+import org.hma.bitcoin.model.Utxo;
+import org.hma.bitcoin.network.Client;
+import org.hma.bitcoin.network.MessageDispatcher;
+import org.hma.bitcoin.network.message.InventoryMessage;
+import org.hma.bitcoin.script.ScriptFlags;
+import org.hma.bitcoin.script.ScriptVerifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Unconfirmed transactions relayed by peers, spending confirmed outputs or outputs of other unconfirmed transactions.
+ * <p>
+ * Announced transactions are requested with {@code getdata} unless already known, requested or rejected recently.
+ * Acceptance first checks the transaction on its own, as Bitcoin Core's {@code CheckTransaction}, then that inputs
+ * exist and aren't spent by another entry, that coinbase outputs are mature and that the fee rate covers the relay
+ * minimum, and that the scripts verify under the standard flags. Transactions confirmed by a block leave the pool,
+ * conflicting ones leave it with their descendants. Above the size limit the lowest fee rate entries are evicted.
+ * <p>
+ * Lock order is the chain lock, then the mempool lock.
+ */
+@Service
+public class Mempool implements ChainListener {
+    private static final Logger LOG = LoggerFactory.getLogger(Mempool.class);
+
+    private static final int RECENT_CAPACITY = 100_000;
+    private static final Comparator<MempoolEntry> EVICTION_ORDER = Comparator
+            .comparingLong(MempoolEntry::getFeeRate)
+            .thenComparingLong(MempoolEntry::getSequence);
+
+    private final ChainState chain;
+    private final ScriptVerifier scriptVerifier;
+    private final List<MempoolListener> listeners = new CopyOnWriteArrayList<>();
+    private final Map<Sha256, MempoolEntry> entries = new HashMap<>();
+    /** Entry spending each outpoint, to find conflicts and descendants. */
+    private final Map<OutPoint, MempoolEntry> spenders = new HashMap<>();
+    private final TreeSet<MempoolEntry> byFeeRate = new TreeSet<>(EVICTION_ORDER);
+    /** Txids requested from a peer or rejected, not requested again until they age out. */
+    private final Map<Sha256, Boolean> recent = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Sha256, Boolean> eldest) {
+            return size() > RECENT_CAPACITY;
+        }
+    };
+    private final long maxBytes;
+    private final long minRelayFeeRate;
+    private long totalBytes;
+    private long sequence;
+
+    public Mempool(ChainState chain, MessageDispatcher dispatcher, NodeMetrics metrics, ScriptVerifier scriptVerifier,
+                   @Value("${node.mempool.max-bytes:300000000}") long maxBytes,
+                   @Value("${node.mempool.min-relay-fee-rate:1000}") long minRelayFeeRate) {
+        this.chain = chain;
+        this.scriptVerifier = scriptVerifier;
+        this.maxBytes = maxBytes;
+        this.minRelayFeeRate = minRelayFeeRate;
+        chain.addListener(this);
+        dispatcher.register("inv", this::onInv);
+        dispatcher.register("tx", this::onTx);
+        metrics.bindMempoolSize(this::size);
+    }
+
+    public void addListener(MempoolListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Adds the transaction to the pool. Returns false if it is already in it.
+     *
+     * @throws VerificationException if the transaction is invalid or doesn't pay enough to be relayed
+     */
+    public boolean accept(Transaction tx) {
+        synchronized (chain) {
+            synchronized (this) {
+                Sha256 txid = tx.getTxId();
+                if (entries.containsKey(txid)) {
+                    return false;
+                }
+                if (tx.isCoinBase()) {
+                    throw new VerificationException("Coinbase " + txid + " outside a block");
+                }
+                ChainState.checkTransaction(tx);
+                int spendHeight = chain.getHeight() + 1;
+                List<TransactionInput> inputs = tx.getInputs();
+                TransactionOutput[] spent = new TransactionOutput[inputs.size()];
+                long in = 0;
+                for (int i = 0; i < spent.length; i++) {
+                    OutPoint outpoint = inputs.get(i).getOutpoint();
+                    MempoolEntry conflict = spenders.get(outpoint);
+                    if (conflict != null) {
+                        throw new VerificationException(txid + " conflicts with " + conflict.getTxId());
+                    }
+                    spent[i] = spentOutput(outpoint, spendHeight, txid);
+                    in += spent[i].getValue();
+                }
+                long out = 0;
+                for (TransactionOutput output : tx.getOutputs()) {
+                    out += output.getValue();
+                }
+                long fee = in - out;
+                if (fee < 0) {
+                    throw new VerificationException(txid + " spends more than its inputs");
+                }
+                int size = tx.getMessageSize();
+                int stripped = tx.hasWitness() ? tx.serializeWithoutWitness().length : size;
+                int vsize = (stripped * 3 + size + 3) / 4;
+                MempoolEntry entry = new MempoolEntry(tx, fee, vsize, System.currentTimeMillis(), sequence++);
+                if (entry.getFeeRate() < minRelayFeeRate) {
+                    throw new VerificationException(txid + " fee rate " + entry.getFeeRate() + " below minimum");
+                }
+                if (totalBytes + size > maxBytes && !byFeeRate.isEmpty()
+                        && EVICTION_ORDER.compare(entry, byFeeRate.first()) < 0) {
+                    throw new VerificationException(txid + " fee rate " + entry.getFeeRate() + " too low, pool full");
+                }
+                // Last, as the most expensive check.
+                scriptVerifier.verify(tx, spent, ScriptFlags.STANDARD);
+
+                entries.put(txid, entry);
+                byFeeRate.add(entry);
+                for (TransactionInput input : tx.getInputs()) {
+                    spenders.put(input.getOutpoint(), entry);
+                }
+                totalBytes += size;
+                for (MempoolListener listener : listeners) {
+                    listener.onTransactionAccepted(entry);
+                }
+                if (totalBytes > maxBytes) {
+                    trimToSize();
+                }
+                return true;
+            }
+        }
+    }
+
+    public synchronized MempoolEntry get(Sha256 txid) {
+        return entries.get(txid);
+    }
+
+    public synchronized boolean contains(Sha256 txid) {
+        return entries.containsKey(txid);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /** Serialized size of all transactions in the pool. */
+    public synchronized long getBytes() {
+        return totalBytes;
+    }
+
+    /** Returns a snapshot of all entries, in no particular order. */
+    public synchronized List<MempoolEntry> getEntries() {
+        return new ArrayList<>(entries.values());
+    }
+
+    @Override
+    public void onBlockConnected(Block block, BlockIndex index, BlockUndo undo) {
+        synchronized (this) {
+            if (entries.isEmpty()) {
+                return;
+            }
+            List<Transaction> txs = block.getTransactions();
+            int confirmed = 0;
+            for (int i = 1; i < txs.size(); i++) {
+                Transaction tx = txs.get(i);
+                MempoolEntry entry = entries.get(tx.getTxId());
+                if (entry != null) {
+                    // Its descendants now spend confirmed outputs and stay.
+                    remove(entry);
+                    confirmed++;
+                }
+                for (TransactionInput input : tx.getInputs()) {
+                    MempoolEntry conflict = spenders.get(input.getOutpoint());
+                    if (conflict != null) {
+                        evict(conflict, "conflict");
+                    }
+                }
+            }
+            if (confirmed > 0) {
+                LOG.debug("{} transactions confirmed in {}, {} left", confirmed, index, entries.size());
+            }
+        }
+    }
+
+    @Override
+    public void onBlockDisconnected(Block block, BlockIndex index, BlockUndo undo) {
+        synchronized (this) {
+            // Transactions of the block aren't resubmitted, so whatever spends their outputs can't stay.
+            for (Transaction tx : block.getTransactions()) {
+                for (int j = 0; j < tx.getOutputs().size(); j++) {
+                    MempoolEntry spender = spenders.get(new OutPoint(tx.getTxId(), j));
+                    if (spender != null) {
+                        evict(spender, "reorg");
+                    }
+                }
+            }
+        }
+    }
+
+    private void onInv(Client peer, byte[] payload) throws Exception {
+        InventoryMessage inv = new InventoryMessage("inv", payload);
+        int[] types = new int[inv.size()];
+        List<Sha256> wanted = new ArrayList<>();
+        synchronized (this) {
+            for (int i = 0; i < inv.size(); i++) {
+                int type = inv.getType(i) & ~InventoryMessage.MSG_WITNESS_FLAG;
+                Sha256 txid = inv.getHash(i);
+                if (type == InventoryMessage.MSG_TX && !entries.containsKey(txid) && !recent.containsKey(txid)) {
+                    recent.put(txid, Boolean.TRUE);
+                    types[wanted.size()] = InventoryMessage.MSG_WITNESS_TX;
+                    wanted.add(txid);
+                }
+            }
+        }
+        if (!wanted.isEmpty()) {
+            peer.send(new InventoryMessage("getdata", Arrays.copyOf(types, wanted.size()), wanted));
+        }
+    }
+
+    private void onTx(Client peer, byte[] payload) throws Exception {
+        Transaction tx = new Transaction(payload, 0);
+        try {
+            accept(tx);
+        } catch (VerificationException e) {
+            // Usually policy or a missing parent rather than misbehaviour, so the peer stays connected.
+            LOG.debug("Rejected transaction from {}: {}", peer, e.getMessage());
+        }
+    }
+
+    /** The output the input spends, from the pool or the UTXO set. */
+    private TransactionOutput spentOutput(OutPoint outpoint, int spendHeight, Sha256 txid) {
+        MempoolEntry parent = entries.get(outpoint.getHash());
+        if (parent != null) {
+            List<TransactionOutput> outputs = parent.getTransaction().getOutputs();
+            if (outpoint.getIndex() >= outputs.size()) {
+                throw new VerificationException(txid + " spends missing output " + outpoint);
+            }
+            return outputs.get((int) outpoint.getIndex());
+        }
+        Utxo utxo = chain.getUtxos().get(outpoint);
+        if (utxo == null) {
+            throw new VerificationException(txid + " spends missing output " + outpoint);
+        }
+        if (utxo.isCoinbase() && spendHeight - utxo.getHeight() < ChainState.COINBASE_MATURITY) {
+            throw new VerificationException(txid + " spends immature coinbase " + outpoint);
+        }
+        return new TransactionOutput(utxo.getValue(), utxo.getScriptPubKey());
+    }
+
+    /** Evicts the lowest fee rate entries with their descendants until the pool fits its limit. */
+    private void trimToSize() {
+        MempoolEvictionEvent event = new MempoolEvictionEvent();
+        event.begin();
+        int count = entries.size();
+        long bytes = totalBytes;
+        long maxFeeRate = 0;
+        while (totalBytes > maxBytes && !byFeeRate.isEmpty()) {
+            MempoolEntry lowest = byFeeRate.first();
+            maxFeeRate = Math.max(maxFeeRate, lowest.getFeeRate());
+            removeWithDescendants(lowest);
+        }
+        LOG.debug("Evicted {} transactions to fit {} bytes", count - entries.size(), maxBytes);
+        commit(event, "size", count - entries.size(), bytes - totalBytes, maxFeeRate);
+    }
+
+    private void evict(MempoolEntry entry, String reason) {
+        MempoolEvictionEvent event = new MempoolEvictionEvent();
+        event.begin();
+        int count = entries.size();
+        long bytes = totalBytes;
+        removeWithDescendants(entry);
+        commit(event, reason, count - entries.size(), bytes - totalBytes, entry.getFeeRate());
+    }
+
+    private static void commit(MempoolEvictionEvent event, String reason, int count, long bytes, long maxFeeRate) {
+        if (event.shouldCommit()) {
+            event.reason = reason;
+            event.count = count;
+            event.bytes = bytes;
+            event.maxFeeRate = maxFeeRate;
+            event.commit();
+        }
+    }
+
+    private void removeWithDescendants(MempoolEntry entry) {
+        if (!remove(entry)) {
+            return;
+        }
+        for (MempoolListener listener : listeners) {
+            listener.onTransactionRemoved(entry);
+        }
+        Sha256 txid = entry.getTxId();
+        for (int j = 0; j < entry.getTransaction().getOutputs().size(); j++) {
+            MempoolEntry child = spenders.get(new OutPoint(txid, j));
+            if (child != null) {
+                removeWithDescendants(child);
+            }
+        }
+    }
+
+    private boolean remove(MempoolEntry entry) {
+        if (entries.remove(entry.getTxId()) == null) {
+            return false;
+        }
+        byFeeRate.remove(entry);
+        for (TransactionInput input : entry.getTransaction().getInputs()) {
+            spenders.remove(input.getOutpoint(), entry);
+        }
+        totalBytes -= entry.getSize();
+        return true;
+    }
+}
@@ -0,0 +1,59 @@
+package org.hma.bitcoin.mempool;
+
+import org.hma.bitcoin.crypto.Sha256;
+import org.hma.bitcoin.model.Transaction;
+
+/** An unconfirmed transaction with the fee it pays and its virtual size. */
+public class MempoolEntry {
+    private final Transaction transaction;
+    private final long fee;
+    private final int vsize;
+    private final long time;
+    private final long sequence;
+
+    MempoolEntry(Transaction transaction, long fee, int vsize, long time, long sequence) {
+        this.transaction = transaction;
+        this.fee = fee;
+        this.vsize = vsize;
+        this.time = time;
+        this.sequence = sequence;
+    }
+
+    public Transaction getTransaction() {
+        return transaction;
+    }
+
+    public Sha256 getTxId() {
+        return transaction.getTxId();
+    }
+
+    /** Inputs minus outputs, in satoshis. */
+    public long getFee() {
+        return fee;
+    }
+
+    /** Weight divided by four, rounded up. */
+    public int getVSize() {
+        return vsize;
+    }
+
+    /** Fee rate in satoshis per 1000 vbytes. */
+    public long getFeeRate() {
+        return fee * 1000 / vsize;
+    }
+
+    /** Acceptance time in milliseconds since the epoch. */
+    public long getTime() {
+        return time;
+    }
+
+    /** Order of acceptance, breaking fee rate ties. */
+    long getSequence() {
+        return sequence;
+    }
+
+    /** Serialized size in bytes, including witness data. */
+    public int getSize() {
+        return transaction.getMessageSize();
+    }
+}
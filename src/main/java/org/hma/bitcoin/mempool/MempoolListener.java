@@ -0,0 +1,14 @@
+package org.hma.bitcoin.mempool;
+
+/**
+ * Notified synchronously, under the mempool lock, when a transaction is accepted or leaves the pool unconfirmed.
+ * Implementations should hand expensive work to their own threads.
+ */
+public interface MempoolListener {
+
+    void onTransactionAccepted(MempoolEntry entry);
+
+    /** The entry was evicted for size, conflicted with a block or spent outputs a reorg took away. */
+    default void onTransactionRemoved(MempoolEntry entry) {
+    }
+}
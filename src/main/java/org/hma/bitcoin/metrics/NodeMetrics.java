@@ -0,0 +1,141 @@
+package org.hma.bitcoin.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.hma.bitcoin.crypto.Sha256;
+import org.hma.bitcoin.network.Client;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Micrometer instrumentation of the P2P, validation and storage hot paths, published through Spring Boot Actuator.
+ * <p>
+ * Command tags are restricted to the commands of the protocol, anything else a peer sends is counted as
+ * {@code other} so a misbehaving peer can't blow up the number of time series. Per-peer meters only exist while the
+ * peer is connected.
+ */
+@Component
+public class NodeMetrics {
+    private static final Set<String> COMMANDS = Set.of(
+            "version", "verack", "addr", "addrv2", "sendaddrv2", "inv", "getdata", "notfound", "getblocks",
+            "getheaders", "tx", "block", "headers", "getaddr", "mempool", "ping", "pong", "reject", "filterload",
+            "filteradd", "filterclear", "merkleblock", "sendheaders", "feefilter", "sendcmpct", "cmpctblock",
+            "getblocktxn", "blocktxn", "getcfilters", "cfilter", "getcfheaders", "cfheaders", "getcfcheckpt",
+            "cfcheckpt", "wtxidrelay");
+    private static final String OTHER = "other";
+
+    private final MeterRegistry registry;
+    private final Map<String, Counter> messagesIn = new ConcurrentHashMap<>();
+    private final Map<String, Counter> messagesOut = new ConcurrentHashMap<>();
+    private final Map<String, Counter> bytesIn = new ConcurrentHashMap<>();
+    private final Map<String, Counter> bytesOut = new ConcurrentHashMap<>();
+    private final Map<String, Timer> handlers = new ConcurrentHashMap<>();
+    private final Map<String, Timer> validationPhases = new ConcurrentHashMap<>();
+    private final Map<Client, List<Meter>> peerMeters = new ConcurrentHashMap<>();
+    private final Timer frameDecode;
+
+    public NodeMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.frameDecode = Timer.builder("bitcoin.p2p.frame.decode")
+                .description("Time spent framing and decoding inbound bytes")
+                .publishPercentileHistogram()
+                .register(registry);
+        FunctionCounter.builder("bitcoin.crypto.sha256.bytes", this, m -> Sha256.getHashedBytes())
+                .description("Bytes run through double SHA-256")
+                .baseUnit("bytes")
+                .register(registry);
+        FunctionCounter.builder("bitcoin.crypto.sha256.calls", this, m -> Sha256.getHashCalls())
+                .description("Double SHA-256 computations")
+                .register(registry);
+    }
+
+    public void messageReceived(String command, int payloadBytes) {
+        String tag = commandTag(command);
+        messagesIn.computeIfAbsent(tag, c -> counter("bitcoin.p2p.messages", "in", c, null)).increment();
+        bytesIn.computeIfAbsent(tag, c -> counter("bitcoin.p2p.bytes", "in", c, "bytes")).increment(payloadBytes);
+    }
+
+    public void messageSent(String command, int frameBytes) {
+        String tag = commandTag(command);
+        messagesOut.computeIfAbsent(tag, c -> counter("bitcoin.p2p.messages", "out", c, null)).increment();
+        bytesOut.computeIfAbsent(tag, c -> counter("bitcoin.p2p.bytes", "out", c, "bytes")).increment(frameBytes);
+    }
+
+    public void recordFrameDecode(long nanos) {
+        frameDecode.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordHandler(String command, long nanos) {
+        handlers.computeIfAbsent(commandTag(command), c -> Timer.builder("bitcoin.p2p.handler")
+                .tag("command", c)
+                .publishPercentileHistogram()
+                .register(registry)).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /** Records the time a block spent in one validation phase, "utxo" or "write". */
+    public void recordValidationPhase(String phase, long nanos) {
+        validationPhases.computeIfAbsent(phase, p -> Timer.builder("bitcoin.validation.phase")
+                .tag("phase", p)
+                .publishPercentileHistogram()
+                .register(registry)).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /** Publishes the number of unspent outputs, sampled from the given supplier. */
+    public void bindUtxoSetSize(Supplier<Number> size) {
+        Gauge.builder("bitcoin.utxo.size", size, s -> s.get().doubleValue())
+                .description("Unspent transaction outputs at the tip")
+                .register(registry);
+    }
+
+    /** Publishes the mempool transaction count, sampled from the given supplier. */
+    public void bindMempoolSize(Supplier<Number> size) {
+        Gauge.builder("bitcoin.mempool.size", size, s -> s.get().doubleValue())
+                .description("Transactions in the mempool")
+                .register(registry);
+    }
+
+    /** Registers byte counters for a connected peer, removed again by {@link #unbindPeer(Client)}. */
+    public void bindPeer(Client peer) {
+        String address = String.valueOf(peer.getAddress());
+        peerMeters.put(peer, List.of(
+                FunctionCounter.builder("bitcoin.p2p.peer.bytes", peer, Client::getBytesReceived)
+                        .tag("peer", address)
+                        .tag("direction", "in")
+                        .baseUnit("bytes")
+                        .register(registry),
+                FunctionCounter.builder("bitcoin.p2p.peer.bytes", peer, Client::getBytesSent)
+                        .tag("peer", address)
+                        .tag("direction", "out")
+                        .baseUnit("bytes")
+                        .register(registry)));
+    }
+
+    public void unbindPeer(Client peer) {
+        List<Meter> meters = peerMeters.remove(peer);
+        if (meters != null) {
+            meters.forEach(registry::remove);
+        }
+    }
+
+    private Counter counter(String name, String direction, String command, String baseUnit) {
+        return Counter.builder(name)
+                .tag("direction", direction)
+                .tag("command", command)
+                .baseUnit(baseUnit)
+                .register(registry);
+    }
+
+    private static String commandTag(String command) {
+        return COMMANDS.contains(command) ? command : OTHER;
+    }
+}
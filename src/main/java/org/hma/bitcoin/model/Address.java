@@ -3,12 +3,12 @@ package org.hma.bitcoin.model;
 import com.google.common.io.BaseEncoding;
 import org.bouncycastle.jcajce.provider.digest.SHA3;
 import org.hma.bitcoin.network.message.Message;
+import org.hma.bitcoin.util.ByteCodec;
 import org.hma.bitcoin.util.ByteUtils;
 import org.hma.bitcoin.util.VarInt;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.math.BigInteger;
 import java.net.*;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
@@ -23,17 +23,37 @@ public class Address extends Message  {
     private InetAddress addr;   // Used for IPV4, IPV6, null otherwise or if not-yet-parsed
     private String hostname;    // Used for (.onion addresses) TORV2, TORV3, null otherwise or if not-yet-parsed
     private int port;
-    private BigInteger services;
+    private long services;      // unsigned 64-bit service bits
     private long time;
+    // 0 inside a version message (no time), 1 for addr, 2 for addrv2 (BIP-155)
+    private final int protocolVariant;
 
     private static final BaseEncoding BASE32 = BaseEncoding.base32().omitPadding().lowerCase();
     private static final byte[] ONIONCAT_PREFIX = ByteUtils.HEX.decode("fd87d87eeb43");
 
-    public Address(InetAddress addr, int port, BigInteger services) {
+    public Address(InetAddress addr, int port, long services) {
+        this(addr, port, services, 0);
+    }
+
+    public Address(InetAddress addr, int port, long services, int protocolVariant) {
         this.addr = addr;
         this.port = port;
         this.services = services;
         this.time = System.currentTimeMillis() / 1000;
+        this.protocolVariant = protocolVariant;
+    }
+
+    /**
+     * Parses an address from the payload, starting at the offset.
+     *
+     * @param protocolVariant 0 inside a version message, 1 for addr and 2 for addrv2 messages
+     */
+    public Address(byte[] payload, int offset, int protocolVariant) throws Exception {
+        this.payload = payload;
+        this.offset = offset;
+        this.cursor = offset;
+        this.protocolVariant = protocolVariant;
+        parse();
     }
 
     @Override
@@ -41,6 +61,12 @@ public class Address extends Message  {
         return new byte[0];
     }
 
+    /** Addresses travel inside version and addr messages, never framed on their own. */
+    @Override
+    public String getCommand() {
+        throw new UnsupportedOperationException("An address is not sent as a message of its own");
+    }
+
     // BIP-155 reserved network IDs, see: https://github.com/bitcoin/bips/blob/master/bip-0155.mediawiki
     private enum NetworkId {
         IPV4(1),
@@ -66,23 +92,22 @@ public class Address extends Message  {
 
     @Override
     public void serialize(OutputStream stream) throws IOException {
-        int protocolVersion = 70014;
-        if (protocolVersion < 0 || protocolVersion > 2)
-            throw new IllegalStateException("invalid protocolVersion: " + protocolVersion);
+        if (protocolVariant < 0 || protocolVariant > 2)
+            throw new IllegalStateException("invalid protocolVariant: " + protocolVariant);
 
-        if (protocolVersion >= 1) {
-            ByteUtils.uint32ToByteStreamLE(time, stream);
+        if (protocolVariant >= 1) {
+            ByteCodec.writeInt32LE(stream, time);
         }
-        if (protocolVersion == 2) {
-            stream.write(new VarInt(services.longValue()).encode());
+        if (protocolVariant == 2) {
+            VarInt.write(stream, services);
             if (addr != null) {
                 if (addr instanceof Inet4Address) {
                     stream.write(0x01);
-                    stream.write(new VarInt(4).encode());
+                    VarInt.write(stream, 4);
                     stream.write(addr.getAddress());
                 } else if (addr instanceof Inet6Address) {
                     stream.write(0x02);
-                    stream.write(new VarInt(16).encode());
+                    VarInt.write(stream, 16);
                     stream.write(addr.getAddress());
                 } else {
                     throw new IllegalStateException();
@@ -92,12 +117,12 @@ public class Address extends Message  {
                 if (onionAddress.length == 10) {
                     // TORv2
                     stream.write(0x03);
-                    stream.write(new VarInt(10).encode());
+                    VarInt.write(stream, 10);
                     stream.write(onionAddress);
                 } else if (onionAddress.length == 32 + 2 + 1) {
                     // TORv3
                     stream.write(0x04);
-                    stream.write(new VarInt(32).encode());
+                    VarInt.write(stream, 32);
                     byte[] pubkey = Arrays.copyOfRange(onionAddress, 0, 32);
                     byte[] checksum = Arrays.copyOfRange(onionAddress, 32, 34);
                     byte torVersion = onionAddress[34];
@@ -113,7 +138,7 @@ public class Address extends Message  {
                 throw new IllegalStateException();
             }
         } else {
-            ByteUtils.uint64ToByteStreamLE(services, stream);  // nServices.
+            ByteCodec.writeInt64LE(stream, services);  // nServices.
             if (addr != null) {
                 // Java does not provide any utility to map an IPv4 address into IPv6 space, so we have to do it by
                 // hand.
@@ -140,25 +165,23 @@ public class Address extends Message  {
             }
         }
         // And write out the port. Unlike the rest of the protocol, address and port is in big endian byte order.
-        ByteUtils.uint16ToByteStreamBE(port, stream);
+        ByteCodec.writeInt16BE(stream, port);
     }
 
     protected void parse() throws Exception {
-        int protocolVersion = 70014;
-        if (protocolVersion < 0 || protocolVersion > 2)
-            throw new IllegalStateException("invalid protocolVersion: " + protocolVersion);
+        if (protocolVariant < 0 || protocolVariant > 2)
+            throw new IllegalStateException("invalid protocolVariant: " + protocolVariant);
 
         length = 0;
-        if (protocolVersion >= 1) {
+        if (protocolVariant >= 1) {
             time = readUint32();
             length += 4;
         } else {
             time = -1;
         }
-        if (protocolVersion == 2) {
-            VarInt servicesVarInt = readVarInt();
-            length += servicesVarInt.getSizeInBytes();
-            services = BigInteger.valueOf(servicesVarInt.longValue());
+        if (protocolVariant == 2) {
+            services = readVarInt();
+            length += VarInt.sizeOf(services);
             int networkId = readByte();
             length += 1;
             byte[] addrBytes = readByteArray();
@@ -221,7 +244,7 @@ public class Address extends Message  {
                 hostname = null;
             }
         }
-        port = ByteUtils.readUint16BE(payload, cursor);
+        port = ByteCodec.readUint16BE(payload, cursor);
         cursor += 2;
         length += 2;
     }
@@ -260,7 +283,7 @@ public class Address extends Message  {
         return port;
     }
 
-    public BigInteger getServices() {
+    public long getServices() {
         return services;
     }
 
@@ -288,7 +311,7 @@ public class Address extends Message  {
         return  Objects.equals(addr, other.addr) &&
                 Objects.equals(hostname, other.hostname) &&
                 port == other.port &&
-                Objects.equals(services, other.services);
+                services == other.services;
     }
 
     @Override
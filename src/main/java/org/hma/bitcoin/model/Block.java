@@ -1,9 +1,175 @@
 package org.hma.bitcoin.model;
 
-public class Block {
+import org.hma.bitcoin.crypto.Sha256;
+import org.hma.bitcoin.network.message.Message;
+import org.hma.bitcoin.util.ByteCodec;
+import org.hma.bitcoin.util.VarInt;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A block header and, unless only the header was parsed, its transactions. Hashes are kept in internal byte order;
+ * use {@link Sha256#getReversedBytes()} for the usual display order.
+ */
+public class Block extends Message {
+    public static final int HEADER_SIZE = 80;
+
+    private long version;
+    private Sha256 prevHash;
+    private Sha256 merkleRoot;
+    private long time;
+    private long bits;
     private long nonce;
-    private String hash;
-    private String prevHash;
-    private String date;
-    private String time;
+    private Sha256 hash;
+    private List<Transaction> transactions;   // null if only the header is known
+
+    public Block(long version, Sha256 prevHash, Sha256 merkleRoot, long time, long bits, long nonce,
+                 List<Transaction> transactions) {
+        this.version = version;
+        this.prevHash = prevHash;
+        this.merkleRoot = merkleRoot;
+        this.time = time;
+        this.bits = bits;
+        this.nonce = nonce;
+        this.transactions = transactions;
+    }
+
+    /**
+     * Parses a block from the payload, starting at the offset. If the payload ends right after the 80 header bytes
+     * only the header is parsed.
+     */
+    public Block(byte[] payload, int offset) throws Exception {
+        this.payload = payload;
+        this.offset = offset;
+        this.cursor = offset;
+        parse();
+    }
+
+    public Block(byte[] payload) throws Exception {
+        this(payload, 0);
+    }
+
+    protected void parse() throws Exception {
+        version = readUint32();
+        prevHash = readHash();
+        merkleRoot = readHash();
+        time = readUint32();
+        bits = readUint32();
+        nonce = readUint32();
+        hash = Sha256.wrap(Sha256.hashTwice(payload, offset, HEADER_SIZE));
+        if (hasMoreBytes()) {
+            long count = readVarInt();
+            if (count > MAX_SIZE || count < 0) {
+                throw new Exception("Claimed transaction count too large: " + count);
+            }
+            transactions = new ArrayList<>((int) count);
+            for (long i = 0; i < count; i++) {
+                Transaction tx = new Transaction(payload, cursor);
+                cursor += tx.getMessageSize();
+                transactions.add(tx);
+            }
+        }
+        length = cursor - offset;
+    }
+
+    public Sha256 getHash() {
+        if (hash == null) {
+            hash = Sha256.wrap(Sha256.hashTwice(serializeHeader()));
+        }
+        return hash;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public Sha256 getPrevHash() {
+        return prevHash;
+    }
+
+    public Sha256 getMerkleRoot() {
+        return merkleRoot;
+    }
+
+    /** Block timestamp in seconds since the epoch. */
+    public long getTime() {
+        return time;
+    }
+
+    /** Difficulty target in compact form, see {@link org.hma.bitcoin.util.ByteUtils#decodeCompactBits(long)}. */
+    public long getBits() {
+        return bits;
+    }
+
+    public long getNonce() {
+        return nonce;
+    }
+
+    /** Returns the transactions, or null if only the header is known. */
+    public List<Transaction> getTransactions() {
+        return transactions;
+    }
+
+    public boolean hasTransactions() {
+        return transactions != null;
+    }
+
+    /**
+     * The header alone, as a block without transactions or parsed payload, so that keeping it doesn't keep the
+     * transactions reachable.
+     */
+    public Block getHeader() {
+        if (transactions == null && payload == null) {
+            return this;
+        }
+        Block header = new Block(version, prevHash, merkleRoot, time, bits, nonce, null);
+        header.hash = getHash();
+        return header;
+    }
+
+    /** Serialized size in bytes. */
+    public int getMessageSize() {
+        return length != UNKNOWN_LENGTH ? length : serialize().length;
+    }
+
+    public byte[] serializeHeader() {
+        byte[] header = new byte[HEADER_SIZE];
+        ByteCodec.writeInt32LE(header, 0, version);
+        System.arraycopy(prevHash.getBytes(), 0, header, 4, Sha256.LENGTH);
+        System.arraycopy(merkleRoot.getBytes(), 0, header, 36, Sha256.LENGTH);
+        ByteCodec.writeInt32LE(header, 68, time);
+        ByteCodec.writeInt32LE(header, 72, bits);
+        ByteCodec.writeInt32LE(header, 76, nonce);
+        return header;
+    }
+
+    @Override
+    public void serialize(OutputStream stream) throws IOException {
+        stream.write(serializeHeader());
+        if (transactions != null) {
+            VarInt.write(stream, transactions.size());
+            for (Transaction tx : transactions) {
+                tx.serialize(stream);
+            }
+        }
+    }
+
+    @Override
+    public String getCommand() {
+        return "block";
+    }
+
+    @Override
+    public byte[] deserialize() {
+        return payload != null ? Arrays.copyOfRange(payload, offset, offset + length) : serialize();
+    }
+
+    @Override
+    public String toString() {
+        return "Block " + getHash().toDisplayString();
+    }
 }
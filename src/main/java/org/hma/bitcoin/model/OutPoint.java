@@ -0,0 +1,57 @@
+package org.hma.bitcoin.model;
+
+import org.hma.bitcoin.crypto.Sha256;
+import org.hma.bitcoin.util.ByteCodec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Objects;
+
+/** Reference to an output of a previous transaction: its txid and output index. */
+public class OutPoint {
+    public static final int SIZE = Sha256.LENGTH + 4;
+
+    private final Sha256 hash;
+    private final long index;
+
+    public OutPoint(Sha256 hash, long index) {
+        this.hash = hash;
+        this.index = index;
+    }
+
+    public Sha256 getHash() {
+        return hash;
+    }
+
+    public long getIndex() {
+        return index;
+    }
+
+    /** The outpoint of coinbase inputs, which don't spend anything. */
+    public boolean isNull() {
+        return index == 0xFFFFFFFFL && hash.equals(Sha256.ZERO_HASH);
+    }
+
+    public void serialize(OutputStream stream) throws IOException {
+        stream.write(hash.getBytes());
+        ByteCodec.writeInt32LE(stream, index);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        OutPoint other = (OutPoint) o;
+        return index == other.index && hash.equals(other.hash);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * hash.hashCode() + (int) index;
+    }
+
+    @Override
+    public String toString() {
+        return hash + ":" + index;
+    }
+}
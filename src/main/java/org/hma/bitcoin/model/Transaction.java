@@ -1,4 +1,208 @@
 package org.hma.bitcoin.model;
 
-public class Transaction {
+import org.hma.bitcoin.crypto.Sha256;
+import org.hma.bitcoin.network.message.Message;
+import org.hma.bitcoin.util.ByteCodec;
+import org.hma.bitcoin.util.VarInt;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A transaction, parsed from (or serialized to) the wire format including the BIP-144 witness extension.
+ * <p>
+ * When parsed, the transaction keeps a reference to the payload it was read from and remembers its offset and
+ * size, so the txid can be hashed straight from those bytes and the raw transaction found again inside its block.
+ */
+public class Transaction extends Message {
+    private long version;
+    private List<TransactionInput> inputs;
+    private List<TransactionOutput> outputs;
+    private long lockTime;
+    private boolean segwit;
+    // Parsed layout, used to hash the txid without re-serializing. -1 if not parsed.
+    private int ioStart = -1;
+    private int ioEnd = -1;
+    private Sha256 txid;
+    private Sha256 wtxid;
+
+    public Transaction(long version, List<TransactionInput> inputs, List<TransactionOutput> outputs, long lockTime) {
+        this.version = version;
+        this.inputs = inputs;
+        this.outputs = outputs;
+        this.lockTime = lockTime;
+        this.segwit = inputs.stream().anyMatch(TransactionInput::hasWitness);
+    }
+
+    /** Parses a transaction from the payload, starting at the offset. */
+    public Transaction(byte[] payload, int offset) throws Exception {
+        this.payload = payload;
+        this.offset = offset;
+        this.cursor = offset;
+        parse();
+    }
+
+    protected void parse() throws Exception {
+        version = readUint32();
+        int afterVersion = cursor;
+        long inCount = readVarInt();
+        if (inCount == 0 && hasMoreBytes() && payload[cursor] == 0x01) {
+            // BIP-144 marker (the zero "count") followed by the flag
+            cursor++;
+            segwit = true;
+            inCount = readVarInt();
+        }
+        ioStart = segwit ? afterVersion + 2 : afterVersion;
+        inputs = new ArrayList<>(capacity(inCount));
+        for (long i = 0; i < inCount; i++) {
+            OutPoint outpoint = new OutPoint(readHash(), readUint32());
+            byte[] scriptSig = readByteArray();
+            inputs.add(new TransactionInput(outpoint, scriptSig, readUint32()));
+        }
+        long outCount = readVarInt();
+        outputs = new ArrayList<>(capacity(outCount));
+        for (long i = 0; i < outCount; i++) {
+            long value = readInt64();
+            outputs.add(new TransactionOutput(value, readByteArray()));
+        }
+        ioEnd = cursor;
+        if (segwit) {
+            for (TransactionInput input : inputs) {
+                long items = readVarInt();
+                byte[][] witness = new byte[capacity(items)][];
+                for (int i = 0; i < witness.length; i++) {
+                    witness[i] = readByteArray();
+                }
+                input.setWitness(witness);
+            }
+        }
+        lockTime = readUint32();
+        length = cursor - offset;
+    }
+
+    private static int capacity(long count) throws Exception {
+        // Every element takes at least one byte, so a count larger than a message can't be honest.
+        if (count < 0 || count > MAX_SIZE) {
+            throw new Exception("Claimed element count too large: " + Long.toUnsignedString(count));
+        }
+        return (int) count;
+    }
+
+    /** Returns the txid, the double SHA-256 of the serialization without witness data. */
+    public Sha256 getTxId() {
+        if (txid == null) {
+            if (ioStart >= 0) {
+                int end = offset + length;
+                txid = Sha256.wrap(Sha256.hashTwice(payload, offset, 4, payload, ioStart, ioEnd - ioStart,
+                        payload, end - 4, 4));
+            } else {
+                txid = Sha256.wrap(Sha256.hashTwice(serializeWithoutWitness()));
+            }
+        }
+        return txid;
+    }
+
+    /** Returns the wtxid, the double SHA-256 of the full serialization. Equal to the txid without witness. */
+    public Sha256 getWTxId() {
+        if (wtxid == null) {
+            if (!segwit) {
+                wtxid = getTxId();
+            } else if (ioStart >= 0) {
+                wtxid = Sha256.wrap(Sha256.hashTwice(payload, offset, length));
+            } else {
+                wtxid = Sha256.wrap(Sha256.hashTwice(serialize()));
+            }
+        }
+        return wtxid;
+    }
+
+    public boolean isCoinBase() {
+        return inputs.size() == 1 && inputs.get(0).getOutpoint().isNull();
+    }
+
+    public boolean hasWitness() {
+        return segwit;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public List<TransactionInput> getInputs() {
+        return inputs;
+    }
+
+    public List<TransactionOutput> getOutputs() {
+        return outputs;
+    }
+
+    public long getLockTime() {
+        return lockTime;
+    }
+
+    /** Offset of the transaction inside the payload it was parsed from. */
+    public int getOffset() {
+        return offset;
+    }
+
+    /** Serialized size in bytes, including witness data. */
+    public int getMessageSize() {
+        return length != UNKNOWN_LENGTH ? length : serialize().length;
+    }
+
+    @Override
+    public void serialize(OutputStream stream) throws IOException {
+        serialize(stream, segwit);
+    }
+
+    public byte[] serializeWithoutWitness() {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        try {
+            serialize(stream, false);
+        } catch (IOException e) {
+            throw new RuntimeException(e);  // Can't happen.
+        }
+        return stream.toByteArray();
+    }
+
+    private void serialize(OutputStream stream, boolean withWitness) throws IOException {
+        ByteCodec.writeInt32LE(stream, version);
+        if (withWitness) {
+            stream.write(0x00);
+            stream.write(0x01);
+        }
+        VarInt.write(stream, inputs.size());
+        for (TransactionInput input : inputs) {
+            input.serialize(stream);
+        }
+        VarInt.write(stream, outputs.size());
+        for (TransactionOutput output : outputs) {
+            output.serialize(stream);
+        }
+        if (withWitness) {
+            for (TransactionInput input : inputs) {
+                input.serializeWitness(stream);
+            }
+        }
+        ByteCodec.writeInt32LE(stream, lockTime);
+    }
+
+    @Override
+    public String getCommand() {
+        return "tx";
+    }
+
+    @Override
+    public byte[] deserialize() {
+        return ioStart >= 0 ? Arrays.copyOfRange(payload, offset, offset + length) : serialize();
+    }
+
+    @Override
+    public String toString() {
+        return "Transaction " + getTxId();
+    }
 }
@@ -0,0 +1,63 @@
+package org.hma.bitcoin.model;
+
+import org.hma.bitcoin.util.ByteCodec;
+import org.hma.bitcoin.util.VarInt;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+public class TransactionInput {
+    public static final long NO_SEQUENCE = 0xFFFFFFFFL;
+    private static final byte[][] EMPTY_WITNESS = new byte[0][];
+
+    private final OutPoint outpoint;
+    private final byte[] scriptSig;
+    private final long sequence;
+    private byte[][] witness = EMPTY_WITNESS;
+
+    public TransactionInput(OutPoint outpoint, byte[] scriptSig, long sequence) {
+        this.outpoint = outpoint;
+        this.scriptSig = scriptSig;
+        this.sequence = sequence;
+    }
+
+    public OutPoint getOutpoint() {
+        return outpoint;
+    }
+
+    public byte[] getScriptSig() {
+        return scriptSig;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    /** Returns the witness stack items, an empty array for inputs without witness. */
+    public byte[][] getWitness() {
+        return witness;
+    }
+
+    public void setWitness(byte[][] witness) {
+        this.witness = witness;
+    }
+
+    public boolean hasWitness() {
+        return witness.length > 0;
+    }
+
+    public void serialize(OutputStream stream) throws IOException {
+        outpoint.serialize(stream);
+        VarInt.write(stream, scriptSig.length);
+        stream.write(scriptSig);
+        ByteCodec.writeInt32LE(stream, sequence);
+    }
+
+    public void serializeWitness(OutputStream stream) throws IOException {
+        VarInt.write(stream, witness.length);
+        for (byte[] item : witness) {
+            VarInt.write(stream, item.length);
+            stream.write(item);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package org.hma.bitcoin.model;
+
+import org.hma.bitcoin.util.ByteCodec;
+import org.hma.bitcoin.util.VarInt;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+public class TransactionOutput {
+    private final long value;          // satoshis
+    private final byte[] scriptPubKey;
+
+    public TransactionOutput(long value, byte[] scriptPubKey) {
+        this.value = value;
+        this.scriptPubKey = scriptPubKey;
+    }
+
+    public long getValue() {
+        return value;
+    }
+
+    public byte[] getScriptPubKey() {
+        return scriptPubKey;
+    }
+
+    /** Outputs starting with OP_RETURN can never be spent and are not added to the UTXO set. */
+    public boolean isUnspendable() {
+        return scriptPubKey.length > 0 && scriptPubKey[0] == 0x6a;
+    }
+
+    public void serialize(OutputStream stream) throws IOException {
+        ByteCodec.writeInt64LE(stream, value);
+        VarInt.write(stream, scriptPubKey.length);
+        stream.write(scriptPubKey);
+    }
+}
@@ -1,5 +1,70 @@
 package org.hma.bitcoin.model;
 
+import org.hma.bitcoin.util.ByteCodec;
+import org.hma.bitcoin.util.VarInt;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+/**
+ * An unspent transaction output together with the metadata validation needs: the height of the block that created
+ * it and whether it came from a coinbase.
+ */
 public class Utxo {
+    private final long value;
+    private final byte[] scriptPubKey;
+    private final int height;
+    private final boolean coinbase;
+
+    public Utxo(long value, byte[] scriptPubKey, int height, boolean coinbase) {
+        this.value = value;
+        this.scriptPubKey = scriptPubKey;
+        this.height = height;
+        this.coinbase = coinbase;
+    }
+
+    public long getValue() {
+        return value;
+    }
+
+    public byte[] getScriptPubKey() {
+        return scriptPubKey;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public boolean isCoinbase() {
+        return coinbase;
+    }
+
+    /** Size of {@link #write(ByteBuffer)}'s output. */
+    public int serializedSize() {
+        return VarInt.sizeOf(code()) + 8 + VarInt.sizeOf(scriptPubKey.length) + scriptPubKey.length;
+    }
+
+    /** Writes the compact form used by undo records and snapshots: height and coinbase flag, value, script. */
+    public void write(ByteBuffer buf) {
+        VarInt.write(buf, code());
+        ByteCodec.writeInt64LE(buf, value);
+        VarInt.write(buf, scriptPubKey.length);
+        buf.put(scriptPubKey);
+    }
+
+    public static Utxo read(ByteBuffer buf) throws ProtocolException {
+        long code = VarInt.read(buf);
+        long value = ByteCodec.readInt64LE(buf);
+        long scriptLength = VarInt.read(buf);
+        if (scriptLength > buf.remaining()) {
+            throw new ProtocolException("Script length " + scriptLength + " exceeds record");
+        }
+        byte[] script = new byte[(int) scriptLength];
+        buf.get(script);
+        return new Utxo(value, script, (int) (code >>> 1), (code & 1) != 0);
+    }
 
+    private long code() {
+        return ((long) height << 1) | (coinbase ? 1 : 0);
+    }
 }
@@ -1,54 +1,114 @@
 package org.hma.bitcoin.network;
 
+import org.hma.bitcoin.crypto.Sha256;
+import org.hma.bitcoin.jfr.FrameDecodeEvent;
+import org.hma.bitcoin.jfr.MessageHandlerEvent;
 import org.hma.bitcoin.network.message.Headers;
 import org.hma.bitcoin.network.message.Message;
 import org.hma.bitcoin.network.message.VersionMessage;
+import org.hma.bitcoin.util.ByteCodec;
+import org.hma.bitcoin.util.ByteUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.net.SocketFactory;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.Socket;
+import java.net.ProtocolException;
 import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 
-
-
+/**
+ * A non-blocking peer connection driven by a {@link ConnectionEngine}.
+ * <p>
+ * Outbound messages go through a bounded {@link SendQueue} and are flushed by the I/O thread with gathering
+ * writes. Inbound bytes are framed into header + payload on the I/O thread and queued in a {@link ReceiveQueue};
+ * a handler thread verifies each frame's checksum and hands it to the {@link PeerListener}, in order. While the send
+ * queue is above its high-water mark, or the receive queue above its limit, the connection stops reading, which
+ * pushes back on peers that request more than they consume or send more than we handle.
+ */
 public class Client {
 
     private static final Logger LOG = LoggerFactory.getLogger(Client.class);
 
-    private SocketAddress address;
-    private SocketFactory socketFactory;
-    private Socket socket;
-    private int connectTimeout;
+    static final int HEADER_SIZE = 4 + 12 + 4 + 4;
+    /** Frames handled per turn on the handler pool, before the peer goes to the back of the line. */
+    private static final int HANDLER_BATCH = 16;
+
+    private final SocketAddress address;
+    private final boolean inbound;
+    private final ConnectionEngine engine;
+    private final SendQueue sendQueue;
+    private final ReceiveQueue receiveQueue = new ReceiveQueue();
+    private final PeerListener listener;
+    private final int connectTimeout;
+    private SocketChannel channel;
+    private SelectionKey key;
+    private ByteBuffer readBuffer;
+    private long connectDeadline;
+    private volatile long connectedAt;
+    private volatile long lastUsefulMessageAt;
+    private volatile long bytesReceived;
+    private volatile long bytesSent;
+    private boolean readPaused;
+    private volatile boolean closed;
+
+    // Framing state, only touched by the I/O thread.
+    private final byte[] header = new byte[HEADER_SIZE];
+    private int headerFill;
+    private Headers currentHeader;
+    private FrameDecodeEvent frameEvent;
+    private byte[] payload;
+    private int payloadFill;
 
     public Client(
             final SocketAddress serverAddress,
-            final SocketFactory socketFactory,
+            final ConnectionEngine engine,
+            final SendQueue sendQueue,
+            final PeerListener listener,
             final int connectTimeout
     ) {
-        this.socketFactory = socketFactory;
         this.address = serverAddress;
+        this.inbound = false;
+        this.engine = engine;
+        this.sendQueue = sendQueue;
+        this.listener = listener;
         this.connectTimeout = connectTimeout;
     }
 
+    /** Wraps a connection accepted by the {@link Server}. */
+    Client(
+            final SocketChannel channel,
+            final SocketAddress remoteAddress,
+            final ConnectionEngine engine,
+            final SendQueue sendQueue,
+            final PeerListener listener
+    ) {
+        this.channel = channel;
+        this.address = remoteAddress;
+        this.inbound = true;
+        this.engine = engine;
+        this.sendQueue = sendQueue;
+        this.listener = listener;
+        this.connectTimeout = 0;
+        // Already connected; eviction ranks inbound peers by this before the I/O thread registers them.
+        this.connectedAt = System.currentTimeMillis();
+    }
+
     public Client openConnection() {
         try {
-            socket = socketFactory.createSocket();
-            Thread t = new Thread(() -> {
-                try {
-                    socket.connect(address, connectTimeout);
-                    read(socket);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            });
-            t.setName("Testing ...");
-            t.setDaemon(true);
-            t.start();
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            connectDeadline = System.currentTimeMillis() + connectTimeout;
+            boolean connected = channel.connect(address);
+            send(new VersionMessage());
+            engine.register(this, connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT);
         } catch (Throwable t) {
             LOG.error("Unable to open socket channel connection");
             throw new RuntimeException(t);
@@ -57,19 +117,311 @@ public class Client {
         return this;
     }
 
-    private void read(Socket socket) throws IOException {
-        final InputStream stream = socket.getInputStream();
-        final OutputStream ostream = socket.getOutputStream();
-        while (true) {
+    /** Starts serving an accepted connection; the remote side speaks first. */
+    void openInbound() throws IOException {
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        engine.register(this, SelectionKey.OP_READ);
+    }
+
+    /**
+     * Serializes the message and queues it for sending.
+     *
+     * @return false if the peer's send queue is full, in which case the connection is closed
+     */
+    public boolean send(Message message) {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        try {
+            message.networkSerialize(stream, engine.getMagic());
+        } catch (IOException e) {
+            throw new RuntimeException(e);  // Can't happen.
+        }
+        return send(ByteBuffer.wrap(stream.toByteArray()));
+    }
+
+    /** Queues an already framed message for sending. */
+    public boolean send(ByteBuffer frame) {
+        if (closed) {
+            return false;
+        }
+        int size = frame.remaining();
+        String command = commandOf(frame);
+        if (!sendQueue.enqueue(frame)) {
+            LOG.warn("Send queue of {} is full ({} bytes), disconnecting", this, sendQueue.getQueuedBytes());
+            close();
+            return false;
+        }
+        engine.getMetrics().messageSent(command, size);
+        engine.requestInterestUpdate(this);
+        return true;
+    }
+
+    public void close() {
+        if (!closed) {
+            engine.execute(this::closeNow);
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public SocketAddress getAddress() {
+        return address;
+    }
+
+    public boolean isInbound() {
+        return inbound;
+    }
+
+    /**
+     * Milliseconds since the epoch at which the connection was established, 0 while connecting. Inbound connections
+     * count from when they were accepted.
+     */
+    public long getConnectedAt() {
+        return connectedAt;
+    }
+
+    /** Milliseconds since the epoch of the last block, transaction or headers message received, 0 if none. */
+    public long getLastUsefulMessageAt() {
+        return lastUsefulMessageAt;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    public long getQueuedBytes() {
+        return sendQueue.getQueuedBytes();
+    }
+
+    /** Bytes of received messages not handled yet. */
+    public long getReceivedQueuedBytes() {
+        return receiveQueue.getQueuedBytes();
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    void attach(SelectionKey key) {
+        this.key = key;
+        if (channel.isConnected()) {
+            if (connectedAt == 0) {
+                connectedAt = System.currentTimeMillis();
+            }
+            engine.getMetrics().bindPeer(this);
+            readBuffer = engine.getBufferPool().acquire();
+            updateInterest();
+        }
+    }
+
+    boolean isConnectExpired(long now) {
+        return channel.isConnectionPending() && now > connectDeadline;
+    }
+
+    void onConnectable() throws IOException {
+        if (channel.finishConnect()) {
+            LOG.debug("Connected to {}", address);
+            connectedAt = System.currentTimeMillis();
+            engine.getMetrics().bindPeer(this);
+            readBuffer = engine.getBufferPool().acquire();
+            updateInterest();
+        }
+    }
+
+    void onReadable() throws IOException {
+        int read = channel.read(readBuffer);
+        if (read < 0) {
+            closeNow();
+            return;
+        }
+        bytesReceived += read;
+        readBuffer.flip();
+        long start = System.nanoTime();
+        decode(readBuffer);
+        engine.getMetrics().recordFrameDecode(System.nanoTime() - start);
+        readBuffer.clear();
+        updateInterest();
+    }
+
+    void onWritable() throws IOException {
+        bytesSent += sendQueue.writeTo(channel);
+        updateInterest();
+    }
+
+    /** Recomputes the selector interest from the send queue state. Must run on the I/O thread. */
+    void updateInterest() {
+        if (closed || key == null || !key.isValid() || !channel.isConnected()) {
+            return;
+        }
+        if (readPaused && sendQueue.isBelowLowWater()) {
+            readPaused = false;
+            LOG.debug("Resuming reads from {}", address);
+        } else if (!readPaused && sendQueue.isAboveHighWater()) {
+            readPaused = true;
+            LOG.debug("Pausing reads from {}, {} bytes queued", address, sendQueue.getQueuedBytes());
+        }
+        int ops = 0;
+        if (!readPaused && receiveQueue.getQueuedBytes() < engine.getReceiveQueueMax()) ops |= SelectionKey.OP_READ;
+        if (!sendQueue.isEmpty()) ops |= SelectionKey.OP_WRITE;
+        key.interestOps(ops);
+    }
+
+    void closeNow() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (key != null) key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOG.debug("Error closing channel to {}", address, e);
+        }
+        sendQueue.clear();
+        receiveQueue.clear();
+        engine.getBufferPool().release(readBuffer);
+        readBuffer = null;
+        engine.getMetrics().unbindPeer(this);
+        listener.onDisconnected(this);
+    }
+
+    private void decode(ByteBuffer in) throws ProtocolException {
+        while (in.hasRemaining()) {
+            if (payload == null) {
+                int n = Math.min(HEADER_SIZE - headerFill, in.remaining());
+                in.get(header, headerFill, n);
+                headerFill += n;
+                if (headerFill < HEADER_SIZE) {
+                    return;
+                }
+                if ((int) ByteCodec.readUint32BE(header, 0) != engine.getMagic()) {
+                    throw new ProtocolException("Message start " + ByteUtils.HEX.encode(header, 0, 4)
+                            + " is not of this network");
+                }
+                currentHeader = new Headers(header);
+                frameEvent = new FrameDecodeEvent();
+                frameEvent.begin();
+                long size = currentHeader.getPayloadLength();
+                if (size > Message.MAX_SIZE) {
+                    throw new ProtocolException("Message size too large: " + size);
+                }
+                payload = new byte[(int) size];
+                payloadFill = 0;
+            }
+            int n = Math.min(payload.length - payloadFill, in.remaining());
+            in.get(payload, payloadFill, n);
+            payloadFill += n;
+            if (payloadFill == payload.length) {
+                Headers frameHeader = currentHeader;
+                byte[] framePayload = payload;
+                if (frameEvent.shouldCommit()) {
+                    frameEvent.command = frameHeader.getCommand();
+                    frameEvent.size = framePayload.length;
+                    frameEvent.peer = toString();
+                    frameEvent.commit();
+                }
+                frameEvent = null;
+                currentHeader = null;
+                payload = null;
+                headerFill = 0;
+                receive(frameHeader, framePayload);
+            }
+        }
+    }
+
+    /** Queues a framed message for the handler pool. Runs on the I/O thread. */
+    private void receive(Headers frameHeader, byte[] framePayload) {
+        String command = frameHeader.getCommand();
+        if (isUseful(command)) {
+            lastUsefulMessageAt = System.currentTimeMillis();
+        }
+        engine.getMetrics().messageReceived(command, framePayload.length);
+        if (receiveQueue.add(new ReceiveQueue.Frame(frameHeader, framePayload))) {
+            engine.executeHandler(this::handleReceived);
+        }
+    }
+
+    /**
+     * Handles queued messages in order, a batch at a time so one busy peer can't keep the handler pool from the
+     * others. Runs on the handler pool, never for two batches of the same peer at once.
+     */
+    private void handleReceived() {
+        for (int i = 0; i < HANDLER_BATCH; i++) {
+            ReceiveQueue.Frame frame = receiveQueue.poll();
+            if (frame == null) {
+                return;
+            }
             try {
-                final Message m = new VersionMessage();
-                m.networkSerialize(ostream);
-                ostream.flush();
-                byte[] bytes = stream.readAllBytes();
-                new Headers(bytes);
-            } catch (Exception e) {
-                LOG.error("Unable to read data from the stream", e);
+                if (!closed) {
+                    handle(frame.header, frame.payload);
+                }
+            } catch (RuntimeException e) {
+                LOG.warn("Closing connection to {}: {}", this, e.toString());
+                close();
+            }
+            if (receiveQueue.release(frame, engine.getReceiveQueueMax())) {
+                engine.requestInterestUpdate(this);
             }
         }
+        engine.executeHandler(this::handleReceived);
+    }
+
+    private void handle(Headers frameHeader, byte[] framePayload) {
+        String command = frameHeader.getCommand();
+        // Sent, but never checked until now.
+        byte[] hash = Sha256.hashTwice(framePayload);
+        if (!Arrays.equals(hash, 0, 4, frameHeader.getChecksum(), 0, 4)) {
+            // As Bitcoin Core, drop the message but keep the peer.
+            LOG.debug("Dropping {} from {} with a bad checksum", command, this);
+            return;
+        }
+        MessageHandlerEvent event = new MessageHandlerEvent();
+        event.begin();
+        long start = System.nanoTime();
+        listener.onMessage(this, frameHeader, framePayload);
+        long elapsed = System.nanoTime() - start;
+        if (event.shouldCommit()) {
+            event.command = command;
+            event.size = framePayload.length;
+            event.peer = toString();
+            event.commit();
+        }
+        engine.getMetrics().recordHandler(command, elapsed);
+    }
+
+    /** Reads the command name out of a serialized frame without consuming it. */
+    private static String commandOf(ByteBuffer frame) {
+        if (frame.remaining() < HEADER_SIZE) {
+            return "";
+        }
+        int start = frame.position() + 4;
+        int end = start;
+        while (end < start + 12 && frame.get(end) != 0) end++;
+        byte[] name = new byte[end - start];
+        frame.get(start, name);
+        return new String(name, StandardCharsets.US_ASCII);
+    }
+
+    private static boolean isUseful(String command) {
+        switch (command) {
+            case "block":
+            case "tx":
+            case "headers":
+            case "cmpctblock":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(address);
     }
 }
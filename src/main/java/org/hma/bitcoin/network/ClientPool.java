@@ -1,30 +1,61 @@
 package org.hma.bitcoin.network;
 
-import jakarta.annotation.PostConstruct;
+import org.hma.bitcoin.network.message.Headers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
-import javax.net.SocketFactory;
 import java.net.SocketAddress;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 @Service
-public class ClientPool {
-    private final SocketFactory socketFactory = SocketFactory.getDefault();
+public class ClientPool implements PeerListener {
+    private static final Logger LOG = LoggerFactory.getLogger(ClientPool.class);
+
+    private final ConnectionEngine engine;
+    private final MessageDispatcher dispatcher;
 
     private final Set<Client> clients = Collections.synchronizedSet(new HashSet<>());
 
     private int connectTimeOut = 1000;
 
+    public ClientPool(ConnectionEngine engine, MessageDispatcher dispatcher) {
+        this.engine = engine;
+        this.dispatcher = dispatcher;
+    }
+
     public Client connect(final SocketAddress serverAddress) {
+        Client client = new Client(serverAddress, engine, engine.newSendQueue(), this, connectTimeOut);
+        clients.add(client);
         try {
-            Client client = new Client(serverAddress, socketFactory, connectTimeOut);
-            clients.add(client);
             client.openConnection();
             return client;
         } catch (Exception e) {
+            clients.remove(client);
             throw new RuntimeException(e);
         }
     }
+
+    /** The outbound connections, established or still connecting. */
+    public List<Client> getClients() {
+        synchronized (clients) {
+            return new ArrayList<>(clients);
+        }
+    }
+
+    @Override
+    public void onMessage(Client peer, Headers header, byte[] payload) {
+        if (!dispatcher.dispatch(peer, header, payload)) {
+            LOG.debug("{} from {} ({} bytes)", header.getCommand(), peer, payload.length);
+        }
+    }
+
+    @Override
+    public void onDisconnected(Client peer) {
+        clients.remove(peer);
+    }
 }
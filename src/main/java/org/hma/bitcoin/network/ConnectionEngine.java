@@ -0,0 +1,237 @@
+package org.hma.bitcoin.network;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.hma.bitcoin.metrics.NodeMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Single selector thread multiplexing every peer connection, inbound and outbound. All channel I/O and interest
+ * changes happen on this thread; other threads hand work over with {@link #execute(Runnable)} or
+ * {@link #requestInterestUpdate(Client)}.
+ * <p>
+ * The I/O thread only frames inbound bytes. Checksums are verified and messages handled by a pool of handler
+ * threads, so hashing and decoding a large block doesn't hold up the other peers on the selector.
+ */
+@Component
+public class ConnectionEngine {
+    private static final Logger LOG = LoggerFactory.getLogger(ConnectionEngine.class);
+
+    private static final long SELECT_TIMEOUT_MS = 250;
+
+    private final BufferPool bufferPool;
+    private final NodeMetrics metrics;
+    private final int magic;
+    private final long sendQueueLowWater;
+    private final long sendQueueHighWater;
+    private final long sendQueueMax;
+    private final long receiveQueueMax;
+    private final ExecutorService handlers;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Set<Client> interestUpdates = ConcurrentHashMap.newKeySet();
+    private Selector selector;
+    private Thread thread;
+    private volatile boolean running;
+
+    public ConnectionEngine(
+            NodeMetrics metrics,
+            Network network,
+            @Value("${node.p2p.read-buffer-size:65536}") int readBufferSize,
+            @Value("${node.p2p.max-pooled-buffers:256}") int maxPooledBuffers,
+            @Value("${node.p2p.send-queue.low-water:262144}") long sendQueueLowWater,
+            @Value("${node.p2p.send-queue.high-water:1048576}") long sendQueueHighWater,
+            @Value("${node.p2p.send-queue.max:67108864}") long sendQueueMax,
+            @Value("${node.p2p.receive-queue.max:5000000}") long receiveQueueMax,
+            @Value("${node.p2p.handler-threads:0}") int handlerThreads
+    ) {
+        this.metrics = metrics;
+        this.magic = network.getMagic();
+        this.bufferPool = new BufferPool(readBufferSize, maxPooledBuffers);
+        this.sendQueueLowWater = sendQueueLowWater;
+        this.sendQueueHighWater = sendQueueHighWater;
+        this.sendQueueMax = sendQueueMax;
+        this.receiveQueueMax = receiveQueueMax;
+        this.handlers = Executors.newFixedThreadPool(
+                handlerThreads > 0 ? handlerThreads : Runtime.getRuntime().availableProcessors(), runnable -> {
+                    Thread thread = new Thread(runnable, "p2p-handler");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        selector = Selector.open();
+        running = true;
+        thread = new Thread(this::run, "p2p-io");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (selector != null) selector.wakeup();
+        handlers.shutdownNow();
+    }
+
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    public NodeMetrics getMetrics() {
+        return metrics;
+    }
+
+    /** Start string of the network, framing every message sent and expected on every message received. */
+    public int getMagic() {
+        return magic;
+    }
+
+    /** Creates a send queue with the configured water marks, shared by inbound and outbound peers. */
+    public SendQueue newSendQueue() {
+        return new SendQueue(sendQueueLowWater, sendQueueHighWater, sendQueueMax);
+    }
+
+    /**
+     * Bytes of received messages a peer may have waiting for its handler before the connection stops reading from
+     * it, as Bitcoin Core's receive flood size.
+     */
+    long getReceiveQueueMax() {
+        return receiveQueueMax;
+    }
+
+    /** Runs the task on the handler pool. */
+    void executeHandler(Runnable task) {
+        handlers.execute(task);
+    }
+
+    /** Runs the task on the I/O thread. */
+    public void execute(Runnable task) {
+        tasks.add(task);
+        wakeup();
+    }
+
+    void register(Client client, int ops) {
+        execute(() -> {
+            try {
+                client.attach(client.getChannel().register(selector, ops, client));
+            } catch (ClosedChannelException e) {
+                client.closeNow();
+            }
+        });
+    }
+
+    void registerAcceptor(Server server, ServerSocketChannel channel) {
+        execute(() -> {
+            try {
+                channel.register(selector, SelectionKey.OP_ACCEPT, server);
+            } catch (ClosedChannelException e) {
+                LOG.warn("Listener channel closed before registration");
+            }
+        });
+    }
+
+    /** Asks the I/O thread to recompute the interest set of the client, e.g. after queueing a message. */
+    void requestInterestUpdate(Client client) {
+        if (interestUpdates.add(client)) {
+            wakeup();
+        }
+    }
+
+    private void wakeup() {
+        // The I/O thread drains its queues before selecting again, no need to interrupt itself.
+        if (Thread.currentThread() != thread) {
+            selector.wakeup();
+        }
+    }
+
+    private void run() {
+        long lastTimeoutCheck = System.currentTimeMillis();
+        while (running) {
+            try {
+                runTasks();
+                selector.select(SELECT_TIMEOUT_MS);
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    handle(key);
+                }
+                long now = System.currentTimeMillis();
+                if (now - lastTimeoutCheck >= SELECT_TIMEOUT_MS) {
+                    closeExpiredConnects(now);
+                    lastTimeoutCheck = now;
+                }
+            } catch (IOException e) {
+                LOG.error("Selector failure", e);
+            }
+        }
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof Client client) client.closeNow();
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            LOG.debug("Error closing selector", e);
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                LOG.error("I/O task failed", e);
+            }
+        }
+        Iterator<Client> it = interestUpdates.iterator();
+        while (it.hasNext()) {
+            Client client = it.next();
+            it.remove();
+            client.updateInterest();
+        }
+    }
+
+    private void handle(SelectionKey key) {
+        if (key.attachment() instanceof Server server) {
+            if (key.isValid() && key.isAcceptable()) server.onAcceptable((ServerSocketChannel) key.channel());
+            return;
+        }
+        Client client = (Client) key.attachment();
+        try {
+            if (key.isValid() && key.isConnectable()) client.onConnectable();
+            if (key.isValid() && key.isReadable()) client.onReadable();
+            if (key.isValid() && key.isWritable()) client.onWritable();
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Closing connection to {}: {}", client, e.toString());
+            client.closeNow();
+        }
+    }
+
+    private void closeExpiredConnects(long now) {
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof Client client && client.isConnectExpired(now)) {
+                LOG.debug("Connect to {} timed out", client);
+                client.closeNow();
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package org.hma.bitcoin.network;
+
+import org.hma.bitcoin.network.message.Headers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Routes inbound messages to the component serving their command, for inbound and outbound peers alike. A handler
+ * that throws is treated as a malformed or abusive request and the peer is disconnected.
+ */
+@Component
+public class MessageDispatcher {
+    private static final Logger LOG = LoggerFactory.getLogger(MessageDispatcher.class);
+
+    /**
+     * Serves one command. Runs on the handler pool like {@link PeerListener#onMessage}: messages of different peers
+     * are handled concurrently, so handlers must be thread-safe, and a long handler delays its peer's next messages.
+     */
+    public interface Handler {
+        void handle(Client peer, byte[] payload) throws Exception;
+    }
+
+    private final Map<String, Handler> handlers = new ConcurrentHashMap<>();
+
+    public void register(String command, Handler handler) {
+        if (handlers.putIfAbsent(command, handler) != null) {
+            throw new IllegalStateException("Handler for " + command + " already registered");
+        }
+    }
+
+    /** Hands the message to its handler. Returns false if no handler is registered for the command. */
+    public boolean dispatch(Client peer, Headers header, byte[] payload) {
+        Handler handler = handlers.get(header.getCommand());
+        if (handler == null) {
+            return false;
+        }
+        try {
+            handler.handle(peer, payload);
+        } catch (Exception e) {
+            LOG.debug("Invalid {} from {}, disconnecting", header.getCommand(), peer, e);
+            peer.close();
+        }
+        return true;
+    }
+}
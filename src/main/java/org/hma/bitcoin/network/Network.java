@@ -1,18 +1,176 @@
 package org.hma.bitcoin.network;
 
+import org.hma.bitcoin.crypto.Sha256;
+import org.hma.bitcoin.model.Block;
+import org.hma.bitcoin.model.OutPoint;
+import org.hma.bitcoin.model.Transaction;
+import org.hma.bitcoin.model.TransactionInput;
+import org.hma.bitcoin.model.TransactionOutput;
+import org.hma.bitcoin.util.ByteUtils;
+
+import java.util.List;
+import java.util.Locale;
+
 public class Network {
+    /** Merkle root of the genesis coinbase, which every network shares. */
+    private static final Sha256 GENESIS_MERKLE_ROOT =
+            Sha256.fromDisplayString("4a5e1e4baab89f3a32518a88c31bc87f618f76673e2cc77ab2127b7afdeda33b");
+    /** The genesis coinbase's scriptSig: the target, an extra nonce and The Times headline of 3 January 2009. */
+    private static final String GENESIS_SCRIPT_SIG = "04ffff001d0104455468652054696d65732030332f4a616e2f32303039204368"
+            + "616e63656c6c6f72206f6e206272696e6b206f66207365636f6e64206261696c6f757420666f722062616e6b73";
+    private static final String GENESIS_OUTPUT_SCRIPT = "4104678afdb0fe5548271967f1a67130b7105cd6a828e03909a67962e0ea"
+            + "1f61deb649f6bc3f4cef38c4f35504e51ec112de5c384df7ba0b8d578a4c702b6bf11d5fac";
+    private static final long COIN = 100_000_000L;
+
     private int port;
     private String name;
     private String startString;
     private String maxNbits;
+    private List<String> dnsSeeds = List.of();
+    private int pubKeyHashVersion;
+    private int scriptHashVersion;
+    private String bech32Hrp;
+    private long genesisTime;
+    private long genesisNonce;
+    private int subsidyHalvingInterval = 210_000;
+    private int bip66Height;
+    private int bip65Height;
+    private int csvHeight;
+    private int segwitHeight;
 
     public Network() {}
 
-    public Network(int port, String name, String startString, String maxNbits) {
+    /** A network without DNS seeds, with the address prefixes of the test networks. */
+    public Network(int port, String name, String startString, String maxNbits, long genesisTime, long genesisNonce,
+                   int subsidyHalvingInterval) {
+        this(port, name, startString, maxNbits, genesisTime, genesisNonce, subsidyHalvingInterval, List.of(), 0x6f,
+                0xc4, "bcrt");
+    }
+
+    public Network(int port, String name, String startString, String maxNbits, long genesisTime, long genesisNonce,
+                   int subsidyHalvingInterval, List<String> dnsSeeds, int pubKeyHashVersion, int scriptHashVersion,
+                   String bech32Hrp) {
         this.port = port;
         this.name = name;
         this.startString = startString;
         this.maxNbits = maxNbits;
+        this.genesisTime = genesisTime;
+        this.genesisNonce = genesisNonce;
+        this.subsidyHalvingInterval = subsidyHalvingInterval;
+        this.dnsSeeds = dnsSeeds;
+        this.pubKeyHashVersion = pubKeyHashVersion;
+        this.scriptHashVersion = scriptHashVersion;
+        this.bech32Hrp = bech32Hrp;
+    }
+
+    /** Returns the network with the given name, ignoring case. */
+    public static Network byName(String name) {
+        switch (name.toLowerCase(Locale.ROOT)) {
+            case "mainnet":
+                return mainnet();
+            case "testnet":
+                return testnet();
+            case "regtest":
+                return regtest();
+            default:
+                throw new IllegalArgumentException("Unknown network: " + name);
+        }
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getStartString() {
+        return startString;
+    }
+
+    /** The start string as an int, written big endian it gives the magic bytes in wire order. */
+    public int getMagic() {
+        return Integer.parseUnsignedInt(startString.substring(2), 16);
+    }
+
+    public String getMaxNbits() {
+        return maxNbits;
+    }
+
+    /** The header of the network's first block, which claims the highest target the network allows. */
+    public Block getGenesisHeader() {
+        return new Block(1, Sha256.ZERO_HASH, GENESIS_MERKLE_ROOT, genesisTime, Long.decode(maxNbits), genesisNonce,
+                null);
+    }
+
+    /** The genesis block, whose coinbase pays 50 coins to an output that was never added to the UTXO set. */
+    public Block getGenesisBlock() {
+        Transaction coinbase = new Transaction(1, List.of(new TransactionInput(new OutPoint(Sha256.ZERO_HASH,
+                0xFFFFFFFFL), ByteUtils.HEX.decode(GENESIS_SCRIPT_SIG), 0xFFFFFFFFL)),
+                List.of(new TransactionOutput(50 * COIN, ByteUtils.HEX.decode(GENESIS_OUTPUT_SCRIPT))), 0);
+        return new Block(1, Sha256.ZERO_HASH, GENESIS_MERKLE_ROOT, genesisTime, Long.decode(maxNbits), genesisNonce,
+                List.of(coinbase));
+    }
+
+    /** Blocks after which the block subsidy halves. */
+    public int getSubsidyHalvingInterval() {
+        return subsidyHalvingInterval;
+    }
+
+    /** Satoshis a coinbase at the height may create on top of the fees of its block. */
+    public long getBlockSubsidy(int height) {
+        int halvings = height / subsidyHalvingInterval;
+        return halvings >= 64 ? 0 : 50 * COIN >> halvings;
+    }
+
+    /** First height requiring strict DER signatures (BIP-66). */
+    public int getBip66Height() {
+        return bip66Height;
+    }
+
+    /** First height enforcing OP_CHECKLOCKTIMEVERIFY (BIP-65). */
+    public int getBip65Height() {
+        return bip65Height;
+    }
+
+    /** First height enforcing OP_CHECKSEQUENCEVERIFY (BIP-68, 112 and 113). */
+    public int getCsvHeight() {
+        return csvHeight;
+    }
+
+    /** First height enforcing segregated witness and the NULLDUMMY rule (BIP-141, 143 and 147). */
+    public int getSegwitHeight() {
+        return segwitHeight;
+    }
+
+    /** Sets the soft fork activation heights, which are 0 (active from genesis) unless set. */
+    private Network withDeployments(int bip66Height, int bip65Height, int csvHeight, int segwitHeight) {
+        this.bip66Height = bip66Height;
+        this.bip65Height = bip65Height;
+        this.csvHeight = csvHeight;
+        this.segwitHeight = segwitHeight;
+        return this;
+    }
+
+    /** Host names answering DNS queries with addresses of reachable nodes, as listed by Bitcoin Core. */
+    public List<String> getDnsSeeds() {
+        return dnsSeeds;
+    }
+
+    /** Version byte of Base58Check P2PKH addresses. */
+    public int getPubKeyHashVersion() {
+        return pubKeyHashVersion;
+    }
+
+    /** Version byte of Base58Check P2SH addresses. */
+    public int getScriptHashVersion() {
+        return scriptHashVersion;
+    }
+
+    /** Human readable part of segwit addresses. */
+    public String getBech32Hrp() {
+        return bech32Hrp;
     }
 
     public static Network mainnet() {
@@ -20,8 +178,25 @@ public class Network {
                 8333,
                 "Mainnet",
                 "0xf9beb4d9",
-                "0x1d00ffff"
-        );
+                "0x1d00ffff",
+                1231006505,
+                2083236893,
+                210_000,
+                List.of(
+                        "seed.bitcoin.sipa.be",
+                        "dnsseed.bluematt.me",
+                        "dnsseed.bitcoin.dashjr.org",
+                        "seed.bitcoinstats.com",
+                        "seed.bitcoin.jonasschnelli.ch",
+                        "seed.btc.petertodd.net",
+                        "seed.bitcoin.sprovoost.nl",
+                        "dnsseed.emzy.de",
+                        "seed.bitcoin.wiz.biz"
+                ),
+                0x00,
+                0x05,
+                "bc"
+        ).withDeployments(363_725, 388_381, 419_328, 481_824);
     }
 
     public static Network testnet() {
@@ -29,8 +204,20 @@ public class Network {
                 18333,
                 "Testnet",
                 "0x0b110907",
-                "0x1d00ffff"
-        );
+                "0x1d00ffff",
+                1296688602,
+                414098458,
+                210_000,
+                List.of(
+                        "testnet-seed.bitcoin.jonasschnelli.ch",
+                        "seed.tbtc.petertodd.net",
+                        "seed.testnet.bitcoin.sprovoost.nl",
+                        "testnet-seed.bluematt.me"
+                ),
+                0x6f,
+                0xc4,
+                "tb"
+        ).withDeployments(330_776, 581_885, 770_112, 834_624);
     }
 
     public static Network regtest() {
@@ -38,8 +225,11 @@ public class Network {
                 18444,
                 "Regtest",
                 "0xfabfb5da",
-                "0x207fffff"
-        );
+                "0x207fffff",
+                1296688602,
+                2,
+                150
+        ).withDeployments(1, 1, 1, 0);
     }
 }
 
@@ -0,0 +1,241 @@
+package org.hma.bitcoin.network;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds the first outbound peers of a node from the DNS seeds of its network.
+ * <p>
+ * All seeds are queried at once, each on a thread of its own, and their answers are tried as they arrive rather than
+ * after the slowest seed. Connection attempts race in the manner of happy eyeballs (RFC 8305): every open outbound
+ * slot gets an attempt straight away, and while attempts are pending another one starts every stagger interval,
+ * alternating IPv6 and IPv4 addresses. Once the target number of peers is connected the attempts still pending are
+ * abandoned, so unreachable addresses cost a stagger interval rather than a connect timeout each.
+ */
+@Component
+public class PeerBootstrap {
+    private static final Logger LOG = LoggerFactory.getLogger(PeerBootstrap.class);
+
+    /** How often pending connection attempts are checked on. */
+    private static final long POLL_MILLIS = 20;
+
+    private final Network network;
+    private final ClientPool pool;
+    private final SeedResolver resolver;
+    private final int targetOutbound;
+    private final long staggerNanos;
+    private volatile boolean stopped;
+    private Thread thread;
+
+    @Value("${node.p2p.dns-seed:true}")
+    private boolean dnsSeed;
+
+    public PeerBootstrap(Network network, ClientPool pool, ObjectProvider<SeedResolver> resolver,
+                         @Value("${node.p2p.target-outbound:8}") int targetOutbound,
+                         @Value("${node.p2p.connect-stagger-ms:250}") long staggerMillis) {
+        this.network = network;
+        this.pool = pool;
+        this.resolver = resolver.getIfAvailable(() -> SeedResolver.SYSTEM);
+        this.targetOutbound = targetOutbound;
+        this.staggerNanos = TimeUnit.MILLISECONDS.toNanos(staggerMillis);
+    }
+
+    /** Starts bootstrapping once every component is up, without holding up startup. */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!dnsSeed || targetOutbound <= 0) {
+            return;
+        }
+        thread = new Thread(() -> {
+            try {
+                bootstrap();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                LOG.error("Peer bootstrap failed", e);
+            }
+        }, "peer-bootstrap");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        stopped = true;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Connects to peers from the DNS seeds until the target number of outbound peers is connected, or every address
+     * has been tried. Returns the number of outbound peers connected.
+     */
+    public int bootstrap() throws InterruptedException {
+        List<String> seeds = network.getDnsSeeds();
+        if (seeds.isEmpty()) {
+            LOG.info("{} has no DNS seeds, not bootstrapping", network.getName());
+            return connected(pool.getClients());
+        }
+        long start = System.nanoTime();
+        BlockingQueue<List<InetSocketAddress>> answers = new LinkedBlockingQueue<>();
+        ExecutorService lookups = Executors.newFixedThreadPool(seeds.size(), runnable -> {
+            Thread lookup = new Thread(runnable, "dns-seed");
+            lookup.setDaemon(true);
+            return lookup;
+        });
+        for (String seed : seeds) {
+            lookups.execute(() -> answers.add(lookup(seed)));
+        }
+        lookups.shutdown();
+
+        int pendingSeeds = seeds.size();
+        ArrayDeque<InetSocketAddress> candidates = new ArrayDeque<>();
+        Set<InetSocketAddress> seen = new HashSet<>();
+        List<Client> attempts = new ArrayList<>();
+        long lastAttempt = 0;
+        try {
+            while (!stopped) {
+                List<InetSocketAddress> answer = answers.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                for (; answer != null; answer = answers.poll()) {
+                    pendingSeeds--;
+                    addCandidates(answer, candidates, seen);
+                }
+
+                List<Client> clients = pool.getClients();
+                int connected = connected(clients);
+                int connecting = 0;
+                for (Client client : clients) {
+                    if (!client.isClosed() && client.getConnectedAt() == 0) {
+                        connecting++;
+                    }
+                }
+                if (connected >= targetOutbound) {
+                    LOG.info("Connected to {} peers in {} ms, {} addresses tried", connected,
+                            (System.nanoTime() - start) / 1_000_000, attempts.size());
+                    return connected;
+                }
+                if (candidates.isEmpty()) {
+                    if (pendingSeeds == 0 && connecting == 0) {
+                        LOG.warn("Ran out of addresses from the DNS seeds with {} of {} peers connected", connected,
+                                targetOutbound);
+                        return connected;
+                    }
+                    continue;
+                }
+
+                // Fill open slots at once; race another attempt per interval while pending ones haven't connected.
+                long now = System.nanoTime();
+                boolean openSlot = connected + connecting < targetOutbound;
+                boolean race = connecting < 2 * targetOutbound && now - lastAttempt >= staggerNanos;
+                if (openSlot || race) {
+                    InetSocketAddress address = candidates.poll();
+                    try {
+                        attempts.add(pool.connect(address));
+                        lastAttempt = now;
+                    } catch (RuntimeException e) {
+                        LOG.debug("Unable to connect to {}: {}", address, e.getMessage());
+                    }
+                }
+            }
+            return connected(pool.getClients());
+        } finally {
+            lookups.shutdownNow();
+            abandon(attempts);
+        }
+    }
+
+    private List<InetSocketAddress> lookup(String seed) {
+        long start = System.nanoTime();
+        try {
+            List<InetSocketAddress> addresses = new ArrayList<>();
+            for (InetAddress address : resolver.resolve(seed)) {
+                addresses.add(new InetSocketAddress(address, network.getPort()));
+            }
+            LOG.debug("{} answered {} addresses in {} ms", seed, addresses.size(),
+                    (System.nanoTime() - start) / 1_000_000);
+            return addresses;
+        } catch (UnknownHostException | RuntimeException e) {
+            LOG.debug("Unable to resolve {}: {}", seed, e.toString());
+            return List.of();
+        }
+    }
+
+    /** Queues the new addresses of an answer in random order, alternating between IPv6 and IPv4. */
+    private static void addCandidates(List<InetSocketAddress> answer, ArrayDeque<InetSocketAddress> candidates,
+                                      Set<InetSocketAddress> seen) {
+        List<InetSocketAddress> v6 = new ArrayList<>();
+        List<InetSocketAddress> v4 = new ArrayList<>();
+        for (InetSocketAddress address : answer) {
+            if (seen.add(address)) {
+                (address.getAddress() instanceof Inet6Address ? v6 : v4).add(address);
+            }
+        }
+        Collections.shuffle(v6);
+        Collections.shuffle(v4);
+        for (int i = 0; i < Math.max(v6.size(), v4.size()); i++) {
+            if (i < v6.size()) {
+                candidates.add(v6.get(i));
+            }
+            if (i < v4.size()) {
+                candidates.add(v4.get(i));
+            }
+        }
+    }
+
+    /**
+     * Closes the attempts that lost the race: those still connecting, and the newest connected ones beyond the
+     * target.
+     */
+    private void abandon(List<Client> attempts) {
+        List<Client> won = new ArrayList<>();
+        for (Client client : attempts) {
+            if (client.isClosed()) {
+                continue;
+            }
+            if (client.getConnectedAt() == 0) {
+                client.close();
+            } else {
+                won.add(client);
+            }
+        }
+        int excess = connected(pool.getClients()) - targetOutbound;
+        won.sort(Comparator.comparingLong(Client::getConnectedAt).reversed());
+        for (int i = 0; i < excess && i < won.size(); i++) {
+            won.get(i).close();
+        }
+    }
+
+    private static int connected(List<Client> clients) {
+        int connected = 0;
+        for (Client client : clients) {
+            if (!client.isClosed() && client.getConnectedAt() != 0) {
+                connected++;
+            }
+        }
+        return connected;
+    }
+}
@@ -0,0 +1,16 @@
+package org.hma.bitcoin.network;
+
+import org.hma.bitcoin.network.message.Headers;
+
+/**
+ * Receives the framed messages of a peer connection. Messages are delivered on the connection engine's handler
+ * pool, one at a time and in order for each peer, with their checksum verified. {@link #onDisconnected} runs on the
+ * I/O thread, possibly while a message of the peer is still being handled.
+ */
+public interface PeerListener {
+
+    void onMessage(Client peer, Headers header, byte[] payload);
+
+    default void onDisconnected(Client peer) {
+    }
+}
@@ -0,0 +1,74 @@
+package org.hma.bitcoin.network;
+
+import org.hma.bitcoin.network.message.Headers;
+
+import java.util.ArrayDeque;
+
+/**
+ * Framed messages of a single peer waiting for the handler pool, handled one at a time in arrival order.
+ * <p>
+ * Frames are accounted by their payload size until handled. Above the limit the connection stops reading from the
+ * peer, so a peer sending faster than its messages are handled can't make us buffer unbounded input.
+ */
+class ReceiveQueue {
+    static class Frame {
+        final Headers header;
+        final byte[] payload;
+
+        Frame(Headers header, byte[] payload) {
+            this.header = header;
+            this.payload = payload;
+        }
+    }
+
+    private final ArrayDeque<Frame> frames = new ArrayDeque<>();
+    private long queuedBytes;
+    private boolean scheduled;
+
+    /**
+     * Queues a frame.
+     *
+     * @return true if no handler is working through the queue, so the caller must schedule one
+     */
+    synchronized boolean add(Frame frame) {
+        frames.addLast(frame);
+        queuedBytes += frame.payload.length;
+        if (scheduled) {
+            return false;
+        }
+        scheduled = true;
+        return true;
+    }
+
+    /** Takes the next frame, or returns null and ends the scheduled run if there is none. */
+    synchronized Frame poll() {
+        Frame frame = frames.pollFirst();
+        if (frame == null) {
+            scheduled = false;
+        }
+        return frame;
+    }
+
+    /**
+     * Releases the bytes of a handled frame.
+     *
+     * @return true if that brought the queue back under the limit
+     */
+    synchronized boolean release(Frame frame, long limit) {
+        boolean wasFull = queuedBytes >= limit;
+        queuedBytes -= frame.payload.length;
+        return wasFull && queuedBytes < limit;
+    }
+
+    synchronized long getQueuedBytes() {
+        return queuedBytes;
+    }
+
+    /** Drops the waiting frames, e.g. once the connection is closed. A scheduled run ends at its next poll. */
+    synchronized void clear() {
+        for (Frame frame : frames) {
+            queuedBytes -= frame.payload.length;
+        }
+        frames.clear();
+    }
+}
@@ -0,0 +1,17 @@
+package org.hma.bitcoin.network;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+
+/**
+ * Looks up the addresses a DNS seed answers with. The {@link PeerBootstrap} resolves through the system resolver
+ * unless another one is configured as a bean, such as a stub answering with local nodes.
+ */
+@FunctionalInterface
+public interface SeedResolver {
+
+    SeedResolver SYSTEM = host -> List.of(InetAddress.getAllByName(host));
+
+    List<InetAddress> resolve(String host) throws UnknownHostException;
+}
@@ -0,0 +1,103 @@
+package org.hma.bitcoin.network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayDeque;
+
+/**
+ * Bounded outbound queue of serialized frames for a single peer.
+ * <p>
+ * Frames are accounted by their remaining bytes. Once the queued bytes pass the high-water mark the connection
+ * stops reading from the peer until the queue drains below the low-water mark, so a slow receiver can't make us
+ * buffer unbounded responses. Frames that would grow the queue past the hard limit are refused.
+ * <p>
+ * {@link #writeTo(GatheringByteChannel)} merges all pending frames (inv, pong, headers, ...) into one gathering
+ * write instead of a write and flush per message.
+ */
+public class SendQueue {
+    /** Upper bound of buffers handed to a single gathering write, roughly the IOV_MAX of most kernels. */
+    static final int MAX_GATHER = 64;
+
+    private final ArrayDeque<ByteBuffer> frames = new ArrayDeque<>();
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+    private final long lowWaterMark;
+    private final long highWaterMark;
+    private final long maxBytes;
+    private long queuedBytes;
+
+    public SendQueue(long lowWaterMark, long highWaterMark, long maxBytes) {
+        if (lowWaterMark > highWaterMark || highWaterMark > maxBytes)
+            throw new IllegalArgumentException("expected low <= high <= max water marks");
+        this.lowWaterMark = lowWaterMark;
+        this.highWaterMark = highWaterMark;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Queues a frame for sending.
+     *
+     * @return false if the frame would push the queue over its hard limit, in which case it is not queued
+     */
+    public synchronized boolean enqueue(ByteBuffer frame) {
+        int size = frame.remaining();
+        if (queuedBytes + size > maxBytes) {
+            return false;
+        }
+        frames.addLast(frame);
+        queuedBytes += size;
+        return true;
+    }
+
+    /**
+     * Writes as many queued frames as the channel accepts with a single gathering write.
+     *
+     * @return the number of bytes written
+     */
+    public synchronized long writeTo(GatheringByteChannel channel) throws IOException {
+        int count = 0;
+        for (ByteBuffer frame : frames) {
+            if (count == MAX_GATHER) {
+                break;
+            }
+            gather[count++] = frame;
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long written;
+        try {
+            written = channel.write(gather, 0, count);
+        } finally {
+            for (int i = 0; i < count; i++) gather[i] = null;
+        }
+        queuedBytes -= written;
+        while (!frames.isEmpty() && !frames.peekFirst().hasRemaining()) {
+            frames.pollFirst();
+        }
+        return written;
+    }
+
+    public synchronized boolean isEmpty() {
+        return frames.isEmpty();
+    }
+
+    public synchronized long getQueuedBytes() {
+        return queuedBytes;
+    }
+
+    /** True once the queue holds more than the high-water mark; reads from the peer should be paused. */
+    public synchronized boolean isAboveHighWater() {
+        return queuedBytes > highWaterMark;
+    }
+
+    /** True once the queue drained to the low-water mark; paused reads may resume. */
+    public synchronized boolean isBelowLowWater() {
+        return queuedBytes <= lowWaterMark;
+    }
+
+    public synchronized void clear() {
+        frames.clear();
+        queuedBytes = 0;
+    }
+}
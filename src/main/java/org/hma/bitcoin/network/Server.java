@@ -1,4 +1,183 @@
 package org.hma.bitcoin.network;
 
-public class Server {
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.hma.bitcoin.network.message.Headers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Inbound P2P listener. Accepted sockets run on the same {@link ConnectionEngine}, buffer pool and send queue
+ * configuration as outbound clients, so serving hundreds of peers doesn't cost a thread per socket.
+ * <p>
+ * Admission is bounded globally and per subnet (/16 for IPv4, /32 for IPv6). When all inbound slots are taken, the
+ * least useful inbound peer is evicted to make room, roughly following Bitcoin Core: the peers that most recently
+ * relayed blocks, transactions or headers and the longest connected ones are protected, and the newest peer of the
+ * subnet holding the most connections is dropped.
+ */
+@Service
+public class Server implements PeerListener {
+    private static final Logger LOG = LoggerFactory.getLogger(Server.class);
+
+    /** Peers protected from eviction for recently relaying useful data. */
+    private static final int PROTECT_USEFUL = 8;
+    /** Peers protected from eviction for being connected the longest. */
+    private static final int PROTECT_OLDEST = 8;
+
+    private final Network network;
+    private final ConnectionEngine engine;
+    private final MessageDispatcher dispatcher;
+    private final Set<Client> inbound = ConcurrentHashMap.newKeySet();
+    private final Map<Long, Integer> connectionsPerGroup = new ConcurrentHashMap<>();
+    private ServerSocketChannel channel;
+
+    @Value("${node.p2p.listen:true}")
+    private boolean listen;
+
+    @Value("${node.p2p.bind:0.0.0.0}")
+    private String bindAddress;
+
+    @Value("${node.p2p.max-inbound:117}")
+    private int maxInbound;
+
+    @Value("${node.p2p.max-inbound-per-subnet:8}")
+    private int maxInboundPerSubnet;
+
+    public Server(Network network, ConnectionEngine engine, MessageDispatcher dispatcher) {
+        this.network = network;
+        this.engine = engine;
+        this.dispatcher = dispatcher;
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        if (!listen) {
+            return;
+        }
+        channel = ServerSocketChannel.open();
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        channel.bind(new InetSocketAddress(bindAddress, network.getPort()), 128);
+        engine.registerAcceptor(this, channel);
+        LOG.info("Listening for {} peers on {}:{}", network.getName(), bindAddress, network.getPort());
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    public int getInboundCount() {
+        return inbound.size();
+    }
+
+    /** Accepts every pending connection. Runs on the I/O thread. */
+    void onAcceptable(ServerSocketChannel server) {
+        SocketChannel accepted;
+        try {
+            while ((accepted = server.accept()) != null) {
+                admit(accepted);
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to accept inbound connection", e);
+        }
+    }
+
+    private void admit(SocketChannel accepted) throws IOException {
+        InetSocketAddress remote = (InetSocketAddress) accepted.getRemoteAddress();
+        long group = netGroup(remote.getAddress());
+        if (connectionsPerGroup.getOrDefault(group, 0) >= maxInboundPerSubnet) {
+            LOG.debug("Rejecting {}: subnet connection limit reached", remote);
+            accepted.close();
+            return;
+        }
+        if (inbound.size() >= maxInbound && !evictOne()) {
+            LOG.debug("Rejecting {}: inbound slots full and no peer to evict", remote);
+            accepted.close();
+            return;
+        }
+        Client client = new Client(accepted, remote, engine, engine.newSendQueue(), this);
+        inbound.add(client);
+        connectionsPerGroup.merge(group, 1, Integer::sum);
+        client.openInbound();
+        LOG.debug("Accepted inbound peer {}", remote);
+    }
+
+    /** Closes the least useful inbound peer. Returns false if every peer is protected. */
+    private boolean evictOne() {
+        List<Client> candidates = new ArrayList<>(inbound);
+        candidates.removeIf(Client::isClosed);
+        candidates.sort(Comparator.comparingLong(Client::getLastUsefulMessageAt).reversed());
+        protect(candidates, PROTECT_USEFUL);
+        candidates.sort(Comparator.comparingLong(Client::getConnectedAt));
+        protect(candidates, PROTECT_OLDEST);
+        if (candidates.isEmpty()) {
+            return false;
+        }
+
+        Map<Long, List<Client>> byGroup = new HashMap<>();
+        for (Client candidate : candidates) {
+            byGroup.computeIfAbsent(groupOf(candidate), g -> new ArrayList<>()).add(candidate);
+        }
+        List<Client> largest = null;
+        for (List<Client> peers : byGroup.values()) {
+            if (largest == null || peers.size() > largest.size()) {
+                largest = peers;
+            }
+        }
+        Client victim = largest.stream().max(Comparator.comparingLong(Client::getConnectedAt)).orElseThrow();
+        LOG.debug("Evicting inbound peer {} to make room", victim);
+        victim.closeNow();
+        return true;
+    }
+
+    private static void protect(List<Client> sorted, int count) {
+        sorted.subList(0, Math.min(count, sorted.size())).clear();
+    }
+
+    @Override
+    public void onMessage(Client peer, Headers header, byte[] payload) {
+        if (!dispatcher.dispatch(peer, header, payload)) {
+            LOG.debug("{} from inbound {} ({} bytes)", header.getCommand(), peer, payload.length);
+        }
+    }
+
+    @Override
+    public void onDisconnected(Client peer) {
+        if (inbound.remove(peer)) {
+            connectionsPerGroup.computeIfPresent(groupOf(peer), (g, n) -> n > 1 ? n - 1 : null);
+        }
+    }
+
+    private static long groupOf(Client peer) {
+        return netGroup(((InetSocketAddress) peer.getAddress()).getAddress());
+    }
+
+    /** Groups addresses by /16 for IPv4 and /32 for IPv6, the prefix sizes Bitcoin Core buckets peers by. */
+    static long netGroup(InetAddress address) {
+        byte[] bytes = address.getAddress();
+        if (bytes.length == 4) {
+            return (4L << 32) | ((bytes[0] & 0xffL) << 8) | (bytes[1] & 0xffL);
+        }
+        return (6L << 32) | ((bytes[0] & 0xffL) << 24) | ((bytes[1] & 0xffL) << 16)
+                | ((bytes[2] & 0xffL) << 8) | (bytes[3] & 0xffL);
+    }
 }
@@ -0,0 +1,41 @@
+package org.hma.bitcoin.network.message;
+
+import org.hma.bitcoin.crypto.Sha256;
+import org.hma.bitcoin.util.VarInt;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/** BIP-157 {@code cfcheckpt}: the filter headers at every 1000th block up to the stop hash. */
+public class CFCheckptMessage extends Message {
+    private final int filterType;
+    private final Sha256 stopHash;
+    private final List<Sha256> filterHeaders;
+
+    public CFCheckptMessage(int filterType, Sha256 stopHash, List<Sha256> filterHeaders) {
+        this.filterType = filterType;
+        this.stopHash = stopHash;
+        this.filterHeaders = filterHeaders;
+    }
+
+    @Override
+    public void serialize(OutputStream stream) throws IOException {
+        stream.write(filterType);
+        stream.write(stopHash.getBytes());
+        VarInt.write(stream, filterHeaders.size());
+        for (Sha256 header : filterHeaders) {
+            stream.write(header.getBytes());
+        }
+    }
+
+    @Override
+    public String getCommand() {
+        return "cfcheckpt";
+    }
+
+    @Override
+    public byte[] deserialize() {
+        return serialize();
+    }
+}
@@ -0,0 +1,47 @@
+package org.hma.bitcoin.network.message;
+
+import org.hma.bitcoin.crypto.Sha256;
+import org.hma.bitcoin.util.VarInt;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * BIP-157 {@code cfheaders}: the filter header before the first requested block and the filter hashes of the
+ * requested blocks, from which the client recomputes their headers.
+ */
+public class CFHeadersMessage extends Message {
+    private final int filterType;
+    private final Sha256 stopHash;
+    private final Sha256 previousHeader;
+    private final List<Sha256> filterHashes;
+
+    public CFHeadersMessage(int filterType, Sha256 stopHash, Sha256 previousHeader, List<Sha256> filterHashes) {
+        this.filterType = filterType;
+        this.stopHash = stopHash;
+        this.previousHeader = previousHeader;
+        this.filterHashes = filterHashes;
+    }
+
+    @Override
+    public void serialize(OutputStream stream) throws IOException {
+        stream.write(filterType);
+        stream.write(stopHash.getBytes());
+        stream.write(previousHeader.getBytes());
+        VarInt.write(stream, filterHashes.size());
+        for (Sha256 hash : filterHashes) {
+            stream.write(hash.getBytes());
+        }
+    }
+
+    @Override
+    public String getCommand() {
+        return "cfheaders";
+    }
+
+    @Override
+    public byte[] deserialize() {
+        return serialize();
+    }
+}
@@ -0,0 +1,38 @@
+package org.hma.bitcoin.network.message;
+
+import org.hma.bitcoin.crypto.Sha256;
+import org.hma.bitcoin.util.VarInt;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/** BIP-157 {@code cfilter}: the filter of one block. */
+public class CFilterMessage extends Message {
+    private final int filterType;
+    private final Sha256 blockHash;
+    private final byte[] filter;
+
+    public CFilterMessage(int filterType, Sha256 blockHash, byte[] filter) {
+        this.filterType = filterType;
+        this.blockHash = blockHash;
+        this.filter = filter;
+    }
+
+    @Override
+    public void serialize(OutputStream stream) throws IOException {
+        stream.write(filterType);
+        stream.write(blockHash.getBytes());
+        VarInt.write(stream, filter.length);
+        stream.write(filter);
+    }
+
+    @Override
+    public String getCommand() {
+        return "cfilter";
+    }
+
+    @Override
+    public byte[] deserialize() {
+        return serialize();
+    }
+}
@@ -0,0 +1,43 @@
+package org.hma.bitcoin.network.message;
+
+import org.hma.bitcoin.crypto.Sha256;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/** BIP-157 {@code getcfcheckpt}: the filter headers at every 1000th block up to the stop hash. */
+public class GetCFCheckptMessage extends Message {
+    private final int filterType;
+    private final Sha256 stopHash;
+
+    public GetCFCheckptMessage(byte[] payload) throws Exception {
+        this.payload = payload;
+        this.filterType = readByte() & 0xff;
+        this.stopHash = readHash();
+        this.length = cursor;
+    }
+
+    public int getFilterType() {
+        return filterType;
+    }
+
+    public Sha256 getStopHash() {
+        return stopHash;
+    }
+
+    @Override
+    public void serialize(OutputStream stream) throws IOException {
+        stream.write(filterType);
+        stream.write(stopHash.getBytes());
+    }
+
+    @Override
+    public String getCommand() {
+        return "getcfcheckpt";
+    }
+
+    @Override
+    public byte[] deserialize() {
+        return serialize();
+    }
+}
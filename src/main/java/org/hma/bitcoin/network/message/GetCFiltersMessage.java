@@ -0,0 +1,56 @@
+package org.hma.bitcoin.network.message;
+
+import org.hma.bitcoin.crypto.Sha256;
+import org.hma.bitcoin.util.ByteCodec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * BIP-157 {@code getcfilters} or {@code getcfheaders}, which share their layout: filter type, start height and the
+ * hash of the last block wanted.
+ */
+public class GetCFiltersMessage extends Message {
+    private final String command;
+    private final int filterType;
+    private final long startHeight;
+    private final Sha256 stopHash;
+
+    public GetCFiltersMessage(String command, byte[] payload) throws Exception {
+        this.command = command;
+        this.payload = payload;
+        this.filterType = readByte() & 0xff;
+        this.startHeight = readUint32();
+        this.stopHash = readHash();
+        this.length = cursor;
+    }
+
+    public int getFilterType() {
+        return filterType;
+    }
+
+    public long getStartHeight() {
+        return startHeight;
+    }
+
+    public Sha256 getStopHash() {
+        return stopHash;
+    }
+
+    @Override
+    public void serialize(OutputStream stream) throws IOException {
+        stream.write(filterType);
+        ByteCodec.writeInt32LE(stream, startHeight);
+        stream.write(stopHash.getBytes());
+    }
+
+    @Override
+    public String getCommand() {
+        return command;
+    }
+
+    @Override
+    public byte[] deserialize() {
+        return serialize();
+    }
+}
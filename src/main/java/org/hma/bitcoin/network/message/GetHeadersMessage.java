@@ -0,0 +1,77 @@
+package org.hma.bitcoin.network.message;
+
+import org.hma.bitcoin.crypto.Sha256;
+import org.hma.bitcoin.util.ByteCodec;
+import org.hma.bitcoin.util.VarInt;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Asks a peer for up to 2000 headers following the first locator hash it has on its best chain, up to the stop hash
+ * (zero for "as many as possible").
+ */
+public class GetHeadersMessage extends Message {
+    /** Locators longer than this are rejected, as in Bitcoin Core. */
+    public static final int MAX_LOCATOR_SIZE = 101;
+
+    private final long version;
+    private final List<Sha256> locator;
+    private final Sha256 stopHash;
+
+    public GetHeadersMessage(long version, List<Sha256> locator, Sha256 stopHash) {
+        this.version = version;
+        this.locator = locator;
+        this.stopHash = stopHash;
+    }
+
+    public GetHeadersMessage(byte[] payload) throws Exception {
+        this.payload = payload;
+        this.version = readUint32();
+        long count = readVarInt();
+        if (count > MAX_LOCATOR_SIZE) {
+            throw new Exception("Locator too large: " + Long.toUnsignedString(count));
+        }
+        this.locator = new ArrayList<>((int) count);
+        for (int i = 0; i < count; i++) {
+            locator.add(readHash());
+        }
+        this.stopHash = readHash();
+        this.length = cursor;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /** Hashes from the sender's tip back to genesis, densest near the tip. */
+    public List<Sha256> getLocator() {
+        return locator;
+    }
+
+    public Sha256 getStopHash() {
+        return stopHash;
+    }
+
+    @Override
+    public void serialize(OutputStream stream) throws IOException {
+        ByteCodec.writeInt32LE(stream, version);
+        VarInt.write(stream, locator.size());
+        for (Sha256 hash : locator) {
+            stream.write(hash.getBytes());
+        }
+        stream.write(stopHash.getBytes());
+    }
+
+    @Override
+    public String getCommand() {
+        return "getheaders";
+    }
+
+    @Override
+    public byte[] deserialize() {
+        return serialize();
+    }
+}
@@ -1,8 +1,11 @@
 package org.hma.bitcoin.network.message;
 
+import org.hma.bitcoin.util.ByteCodec;
+import org.hma.bitcoin.util.ByteUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 
 public class Headers {
@@ -36,15 +39,27 @@ public class Headers {
         if (data.length == 0) throw new RuntimeException("Headers size cannot be 0");
         if (data.length < 24) throw new RuntimeException("Data size should be at least 24 bytes");
 
-        startString = Arrays.copyOfRange(data, 0, 3);
-        commandName = Arrays.copyOfRange(data, 4, 15);
-        payloadSize = Arrays.copyOfRange(data, 16, 19);
-        checksum = Arrays.copyOfRange(data, 20, 23);
+        startString = Arrays.copyOfRange(data, 0, 4);
+        commandName = Arrays.copyOfRange(data, 4, 16);
+        payloadSize = Arrays.copyOfRange(data, 16, 20);
+        checksum = Arrays.copyOfRange(data, 20, 24);
 
-        LOG.info("{} ... start string: {}", startString, "TODO");
-        LOG.info("{} ... command name: {}", commandName, "TODO");
-        LOG.info("{} ... byte count: {}", payloadSize, "TODO");
-        LOG.info("{} ... checksum: {}", checksum, "TODO");
+        if (LOG.isTraceEnabled()) {
+            LOG.trace("start string: {}, command name: {}, byte count: {}, checksum: {}",
+                    ByteUtils.HEX.encode(startString), getCommand(), getPayloadLength(), ByteUtils.HEX.encode(checksum));
+        }
+    }
+
+    /** Returns the command name without the trailing null padding. */
+    public String getCommand() {
+        int end = 0;
+        while (end < commandName.length && commandName[end] != 0) end++;
+        return new String(commandName, 0, end, StandardCharsets.US_ASCII);
+    }
+
+    /** Returns the payload size as an unsigned 32-bit value. */
+    public long getPayloadLength() {
+        return ByteCodec.readUint32LE(payloadSize, 0);
     }
 
     public byte[] getStartString() {
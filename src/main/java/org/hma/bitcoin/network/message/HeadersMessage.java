@@ -0,0 +1,61 @@
+package org.hma.bitcoin.network.message;
+
+import org.hma.bitcoin.model.Block;
+import org.hma.bitcoin.util.VarInt;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Answer to {@code getheaders}: consecutive block headers, each followed by a transaction count of zero. */
+public class HeadersMessage extends Message {
+    /** Most headers sent in one message, as in Bitcoin Core. A full message means the sender has more. */
+    public static final int MAX_HEADERS = 2000;
+
+    private final List<Block> headers;
+
+    public HeadersMessage(List<Block> headers) {
+        this.headers = headers;
+    }
+
+    public HeadersMessage(byte[] payload) throws Exception {
+        this.payload = payload;
+        long count = readVarInt();
+        if (count > MAX_HEADERS) {
+            throw new Exception("Too many headers: " + Long.toUnsignedString(count));
+        }
+        this.headers = new ArrayList<>((int) count);
+        for (int i = 0; i < count; i++) {
+            headers.add(new Block(readBytes(Block.HEADER_SIZE)));
+            if (readVarInt() != 0) {
+                throw new Exception("Header with transactions");
+            }
+        }
+        this.length = cursor;
+    }
+
+    /** Headers only, without transactions. */
+    public List<Block> getHeaders() {
+        return headers;
+    }
+
+    @Override
+    public void serialize(OutputStream stream) throws IOException {
+        VarInt.write(stream, headers.size());
+        for (Block header : headers) {
+            stream.write(header.serializeHeader());
+            stream.write(0);
+        }
+    }
+
+    @Override
+    public String getCommand() {
+        return "headers";
+    }
+
+    @Override
+    public byte[] deserialize() {
+        return serialize();
+    }
+}
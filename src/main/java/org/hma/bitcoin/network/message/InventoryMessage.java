@@ -0,0 +1,79 @@
+package org.hma.bitcoin.network.message;
+
+import org.hma.bitcoin.crypto.Sha256;
+import org.hma.bitcoin.util.ByteCodec;
+import org.hma.bitcoin.util.VarInt;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@code inv}, {@code getdata} or {@code notfound}, which share their layout: a list of typed object hashes.
+ */
+public class InventoryMessage extends Message {
+    public static final int MSG_TX = 1;
+    public static final int MSG_BLOCK = 2;
+    public static final int MSG_WITNESS_FLAG = 1 << 30;
+    public static final int MSG_WITNESS_TX = MSG_TX | MSG_WITNESS_FLAG;
+    /** Longer lists are rejected, as in Bitcoin Core. */
+    public static final int MAX_INV_SIZE = 50000;
+
+    private final String command;
+    private final int[] types;
+    private final List<Sha256> hashes;
+
+    public InventoryMessage(String command, int[] types, List<Sha256> hashes) {
+        this.command = command;
+        this.types = types;
+        this.hashes = hashes;
+    }
+
+    public InventoryMessage(String command, byte[] payload) throws Exception {
+        this.command = command;
+        this.payload = payload;
+        long count = readVarInt();
+        if (count < 0 || count > MAX_INV_SIZE) {
+            throw new Exception("Inventory too large: " + Long.toUnsignedString(count));
+        }
+        this.types = new int[(int) count];
+        this.hashes = new ArrayList<>((int) count);
+        for (int i = 0; i < count; i++) {
+            types[i] = (int) readUint32();
+            hashes.add(readHash());
+        }
+        this.length = cursor;
+    }
+
+    public int size() {
+        return types.length;
+    }
+
+    public int getType(int i) {
+        return types[i];
+    }
+
+    public Sha256 getHash(int i) {
+        return hashes.get(i);
+    }
+
+    @Override
+    public void serialize(OutputStream stream) throws IOException {
+        VarInt.write(stream, types.length);
+        for (int i = 0; i < types.length; i++) {
+            ByteCodec.writeInt32LE(stream, types[i]);
+            stream.write(hashes.get(i).getBytes());
+        }
+    }
+
+    @Override
+    public String getCommand() {
+        return command;
+    }
+
+    @Override
+    public byte[] deserialize() {
+        return serialize();
+    }
+}
@@ -1,14 +1,14 @@
 package org.hma.bitcoin.network.message;
 
 import org.hma.bitcoin.crypto.Sha256;
-import org.hma.bitcoin.util.ByteUtils;
+import org.hma.bitcoin.util.ByteCodec;
 import org.hma.bitcoin.util.VarInt;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.math.BigInteger;
 import java.nio.charset.StandardCharsets;
 
 public abstract class Message {
@@ -23,17 +23,30 @@ public abstract class Message {
     protected byte[] payload;
     protected boolean recached = false;
 
-    public abstract byte[] serialize();
+    public abstract void serialize(OutputStream stream) throws IOException;
+
+    public byte[] serialize() {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        try {
+            serialize(stream);
+        } catch (IOException e) {
+            throw new RuntimeException(e);  // Can't happen.
+        }
+        return stream.toByteArray();
+    }
 
     public abstract byte[] deserialize();
 
+    /** The command name this message is framed with, e.g. "version". */
+    public abstract String getCommand();
 
-    public void networkSerialize(OutputStream buf) throws IOException {
+    /** Writes the message framed for the network with the given start string, see {@link #getCommand()}. */
+    public void networkSerialize(OutputStream buf, int magic) throws IOException {
         byte[] header = new byte[4 + COMMAND_LEN + 4 + 4 /* checksum */];
-        ByteUtils.uint32ToByteArrayBE(0x0b110907, header, 0);
+        ByteCodec.writeInt32BE(header, 0, magic);
 
 
-        String name = "version";
+        String name = getCommand();
 
         byte[] message = serialize();
 
@@ -41,7 +54,7 @@ public abstract class Message {
             header[4 + i] = (byte) (name.codePointAt(i) & 0xFF);
         }
 
-        ByteUtils.uint32ToByteArrayLE(message.length, header, 4 + COMMAND_LEN);
+        ByteCodec.writeInt32LE(header, 4 + COMMAND_LEN, message.length);
 
         byte[] hash = Sha256.hashTwice(message);
         System.arraycopy(hash, 0, header, 4 + COMMAND_LEN + 4, 4);
@@ -52,43 +65,52 @@ public abstract class Message {
 
     protected long readUint32() throws Exception {
         try {
-            long u = ByteUtils.readUint32(payload, cursor);
+            long u = ByteCodec.readUint32LE(payload, cursor);
             cursor += 4;
             return u;
-        } catch (ArrayIndexOutOfBoundsException e) {
+        } catch (IndexOutOfBoundsException e) {
             throw new Exception(e);
         }
     }
 
     protected long readInt64() throws Exception {
         try {
-            long u = ByteUtils.readInt64(payload, cursor);
+            long u = ByteCodec.readInt64LE(payload, cursor);
             cursor += 8;
             return u;
-        } catch (ArrayIndexOutOfBoundsException e) {
+        } catch (IndexOutOfBoundsException e) {
             throw new Exception(e);
         }
     }
 
-    protected BigInteger readUint64() throws Exception {
-        // Java does not have an unsigned 64 bit type. So scrape it off the wire then flip.
-        return new BigInteger(ByteUtils.reverseBytes(readBytes(8)));
+    /** Reads an unsigned 64-bit value, carried in a long with the same bits. */
+    protected long readUint64() throws Exception {
+        return readInt64();
     }
 
-    protected VarInt readVarInt() throws Exception {
+    protected long readVarInt() throws Exception {
         return readVarInt(0);
     }
 
-    protected VarInt readVarInt(int offset) throws Exception {
+    protected long readVarInt(int offset) throws Exception {
         try {
-            VarInt varint = new VarInt(payload, cursor + offset);
-            cursor += offset + varint.getOriginalSizeInBytes();
-            return varint;
-        } catch (ArrayIndexOutOfBoundsException e) {
+            long value = VarInt.read(payload, cursor + offset);
+            cursor += offset + VarInt.sizeOf(value);
+            return value;
+        } catch (IndexOutOfBoundsException e) {
             throw new Exception(e);
         }
     }
 
+    /** Reads a VarInt used as the length of the data that follows it. */
+    private int readLength() throws Exception {
+        long length = readVarInt();
+        if (length < 0 || length > MAX_SIZE) {
+            throw new Exception("Claimed value length too large: " + Long.toUnsignedString(length));
+        }
+        return (int) length;
+    }
+
     private void checkReadLength(int length) throws Exception {
         if ((length > MAX_SIZE) || (cursor + length > payload.length)) {
             throw new Exception("Claimed value length too large: " + length);
@@ -113,20 +135,19 @@ public abstract class Message {
     }
 
     protected byte[] readByteArray() throws Exception {
-        final int length = readVarInt().intValue();
+        final int length = readLength();
         return readBytes(length);
     }
 
     protected String readStr() throws Exception {
-        int length = readVarInt().intValue();
+        int length = readLength();
         return length == 0 ? "" : new String(readBytes(length), StandardCharsets.UTF_8); // optimization for empty strings
     }
 
-    //protected Sha256Hash readHash() throws Exception {
-        // We have to flip it around, as it's been read off the wire in little endian.
-        // Not the most efficient way to do this but the clearest.
-    //    return Sha256Hash.wrapReversed(readBytes(32));
-    //}
+    /** Reads a 32 byte hash, kept in the internal (wire) byte order. */
+    protected Sha256 readHash() throws Exception {
+        return Sha256.wrap(readBytes(Sha256.LENGTH));
+    }
 
     protected boolean hasMoreBytes() {
         return cursor < payload.length;
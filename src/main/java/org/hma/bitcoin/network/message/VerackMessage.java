@@ -0,0 +1,21 @@
+package org.hma.bitcoin.network.message;
+
+import java.io.OutputStream;
+
+/** Acknowledges a peer's {@code version}. Has no payload. */
+public class VerackMessage extends Message {
+
+    @Override
+    public void serialize(OutputStream stream) {
+    }
+
+    @Override
+    public String getCommand() {
+        return "verack";
+    }
+
+    @Override
+    public byte[] deserialize() {
+        return new byte[0];
+    }
+}
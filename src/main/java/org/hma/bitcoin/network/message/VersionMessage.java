@@ -2,12 +2,11 @@ package org.hma.bitcoin.network.message;
 
 import com.google.common.net.InetAddresses;
 import org.hma.bitcoin.model.Address;
-import org.hma.bitcoin.util.ByteUtils;
+import org.hma.bitcoin.util.ByteCodec;
 import org.hma.bitcoin.util.VarInt;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.math.BigInteger;
 import java.net.InetAddress;
 import java.nio.charset.StandardCharsets;
 
@@ -15,6 +14,8 @@ public class VersionMessage extends Message {
 
     public static final String LIBRARY_VERSION = "0.0.1";
     public static final String LIBRARY_SUBVER = "/bitcoinj:" + LIBRARY_VERSION + "/";
+    /** Protocol version we speak, also sent in {@code getheaders}. */
+    public static final int PROTOCOL_VERSION = 70014;
 
     /**
      * This node can be asked for full blocks instead of just headers.
@@ -45,6 +46,11 @@ public class VersionMessage extends Message {
     /**
      * See BIP 0157
      */
+    public static final int NODE_COMPACT_FILTERS = 1 << 6;
+
+    /**
+     * See BIP 0159
+     */
     public static final int NODE_NETWORK_LIMITED = 1 << 10;
 
     /**
@@ -61,16 +67,16 @@ public class VersionMessage extends Message {
     public boolean relayTxesBeforeFilter;
 
     public VersionMessage() {
-        clientVersion = 70014;
+        clientVersion = PROTOCOL_VERSION;
         localServices = 0;
         time = System.currentTimeMillis() / 1000;
         // Note that the Bitcoin Core doesn't do anything with these, and finding out your own external IP address
         // is kind of tricky anyway, so we just put nonsense here for now.
         InetAddress localhost = InetAddresses.forString("127.0.0.1");
         //MessageSerializer serializer = this.serializer.withProtocolVersion(0);
-        receivingAddr = new Address(localhost, 18333, BigInteger.ZERO);
+        receivingAddr = new Address(localhost, 18333, 0);
         //receivingAddr.setParent(this);
-        fromAddr = new Address(localhost, 18333, BigInteger.ZERO);
+        fromAddr = new Address(localhost, 18333, 0);
         //fromAddr.setParent(this);
         subVer = LIBRARY_SUBVER;
         bestHeight = 0;
@@ -80,26 +86,28 @@ public class VersionMessage extends Message {
 
     @Override
     public void serialize(OutputStream buf) throws IOException {
-        ByteUtils.uint32ToByteStreamLE(clientVersion, buf);
-        ByteUtils.uint32ToByteStreamLE(localServices, buf);
-        ByteUtils.uint32ToByteStreamLE(localServices >> 32, buf);
-        ByteUtils.uint32ToByteStreamLE(time, buf);
-        ByteUtils.uint32ToByteStreamLE(time >> 32, buf);
+        ByteCodec.writeInt32LE(buf, clientVersion);
+        ByteCodec.writeInt64LE(buf, localServices);
+        ByteCodec.writeInt64LE(buf, time);
         receivingAddr.serialize(buf);
         fromAddr.serialize(buf);
-        ByteUtils.uint32ToByteStreamLE(0, buf);
-        ByteUtils.uint32ToByteStreamLE(0, buf);
+        ByteCodec.writeInt64LE(buf, 0);
         // Now comes subVer.
         byte[] subVerBytes = subVer.getBytes(StandardCharsets.UTF_8);
-        buf.write(new VarInt(subVerBytes.length).encode());
+        VarInt.write(buf, subVerBytes.length);
         buf.write(subVerBytes);
         // Size of known block chain.
-        ByteUtils.uint32ToByteStreamLE(bestHeight, buf);
+        ByteCodec.writeInt32LE(buf, bestHeight);
         //if (clientVersion >= params.getProtocolVersionNum(NetworkParameters.ProtocolVersion.BLOOM_FILTER)) {
             buf.write(relayTxesBeforeFilter ? 1 : 0);
         //}
     }
 
+    @Override
+    public String getCommand() {
+        return "version";
+    }
+
     @Override
     public byte[] deserialize() {
         return new byte[0];
@@ -0,0 +1,154 @@
+package org.hma.bitcoin.script;
+
+import org.hma.bitcoin.network.Network;
+import org.hma.bitcoin.util.Base58;
+import org.hma.bitcoin.util.Bech32;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Converts between scriptPubKeys and the addresses of the active network: Base58Check for P2PKH and P2SH, Bech32 for
+ * segwit v0 and Bech32m for later witness versions such as taproot.
+ * <p>
+ * Rendered addresses are cached by script, least recently used dropped, since the same few scripts (exchanges, pools,
+ * busy wallets) make up a large share of the outputs any listing shows.
+ */
+@Component
+public class AddressCodec {
+    private final Network network;
+    private final Map<ByteBuffer, String> addresses;
+
+    public AddressCodec(Network network, @Value("${node.address-cache.entries:100000}") int cacheEntries) {
+        this.network = network;
+        this.addresses = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, String> eldest) {
+                return size() > cacheEntries;
+            }
+        };
+    }
+
+    /** The address paid by the script, or null if it has no address form. */
+    public String toAddress(byte[] scriptPubKey) {
+        ByteBuffer key = ByteBuffer.wrap(scriptPubKey);
+        synchronized (addresses) {
+            String address = addresses.get(key);
+            if (address != null) {
+                return address;
+            }
+        }
+        String address = encode(scriptPubKey);
+        if (address != null) {
+            synchronized (addresses) {
+                addresses.put(ByteBuffer.wrap(scriptPubKey.clone()), address);
+            }
+        }
+        return address;
+    }
+
+    /**
+     * The scriptPubKey paying the address.
+     *
+     * @throws IllegalArgumentException if the string isn't a valid address of the active network
+     */
+    public byte[] toScriptPubKey(String address) {
+        String hrp = network.getBech32Hrp();
+        if (address.length() > hrp.length() && address.regionMatches(true, 0, hrp + "1", 0, hrp.length() + 1)) {
+            return decodeSegwit(address);
+        }
+        byte[] payload = Base58.decodeChecked(address);
+        if (payload.length != 21) {
+            throw new IllegalArgumentException("Invalid address length");
+        }
+        int version = payload[0] & 0xFF;
+        byte[] hash = Arrays.copyOfRange(payload, 1, 21);
+        if (version == network.getPubKeyHashVersion()) {
+            byte[] script = new byte[25];
+            script[0] = (byte) Opcodes.OP_DUP;
+            script[1] = (byte) Opcodes.OP_HASH160;
+            script[2] = 20;
+            System.arraycopy(hash, 0, script, 3, 20);
+            script[23] = (byte) Opcodes.OP_EQUALVERIFY;
+            script[24] = (byte) Opcodes.OP_CHECKSIG;
+            return script;
+        }
+        if (version == network.getScriptHashVersion()) {
+            byte[] script = new byte[23];
+            script[0] = (byte) Opcodes.OP_HASH160;
+            script[1] = 20;
+            System.arraycopy(hash, 0, script, 2, 20);
+            script[22] = (byte) Opcodes.OP_EQUAL;
+            return script;
+        }
+        throw new IllegalArgumentException("Address version " + version + " not of " + network.getName());
+    }
+
+    /** Number of addresses cached. */
+    public int getCacheSize() {
+        synchronized (addresses) {
+            return addresses.size();
+        }
+    }
+
+    private String encode(byte[] script) {
+        switch (ScriptTemplate.of(script)) {
+            case P2PKH:
+                return base58(network.getPubKeyHashVersion(), script, 3);
+            case P2SH:
+                return base58(network.getScriptHashVersion(), script, 2);
+            default:
+                break;
+        }
+        int version = Interpreter.witnessVersion(script);
+        int length = script.length - 2;
+        if (version < 0 || length < 2 || version == 0 && length != 20 && length != 32) {
+            return null;
+        }
+        byte[] program = Bech32.convertBits(script, 2, length, 8, 5, true);
+        byte[] data = new byte[program.length + 1];
+        data[0] = (byte) version;
+        System.arraycopy(program, 0, data, 1, program.length);
+        Bech32.Encoding encoding = version == 0 ? Bech32.Encoding.BECH32 : Bech32.Encoding.BECH32M;
+        return Bech32.encode(encoding, network.getBech32Hrp(), data);
+    }
+
+    private static String base58(int version, byte[] script, int hashOffset) {
+        byte[] payload = new byte[21];
+        payload[0] = (byte) version;
+        System.arraycopy(script, hashOffset, payload, 1, 20);
+        return Base58.encodeChecked(payload);
+    }
+
+    /** BIP-173 and BIP-350 validation of a segwit address, returning its scriptPubKey. */
+    private byte[] decodeSegwit(String address) {
+        Bech32.Decoded decoded = Bech32.decode(address);
+        if (!decoded.getHrp().equals(network.getBech32Hrp().toLowerCase(Locale.ROOT))) {
+            throw new IllegalArgumentException("Address not of " + network.getName());
+        }
+        byte[] data = decoded.getData();
+        if (data.length < 1 || data[0] > 16) {
+            throw new IllegalArgumentException("Invalid witness version");
+        }
+        int version = data[0];
+        Bech32.Encoding expected = version == 0 ? Bech32.Encoding.BECH32 : Bech32.Encoding.BECH32M;
+        if (decoded.getEncoding() != expected) {
+            throw new IllegalArgumentException("Wrong checksum variant for witness version " + version);
+        }
+        byte[] program = Bech32.convertBits(data, 1, data.length - 1, 5, 8, false);
+        if (program == null || program.length < 2 || program.length > 40
+                || version == 0 && program.length != 20 && program.length != 32) {
+            throw new IllegalArgumentException("Invalid witness program");
+        }
+        byte[] script = new byte[program.length + 2];
+        script[0] = (byte) (version == 0 ? Opcodes.OP_0 : Opcodes.OP_1 + version - 1);
+        script[1] = (byte) program.length;
+        System.arraycopy(program, 0, script, 2, program.length);
+        return script;
+    }
+}
@@ -0,0 +1,125 @@
+package org.hma.bitcoin.script;
+
+import java.util.Arrays;
+
+import static org.hma.bitcoin.script.Opcodes.OP_16;
+import static org.hma.bitcoin.script.Opcodes.OP_PUSHDATA1;
+import static org.hma.bitcoin.script.Opcodes.OP_PUSHDATA2;
+import static org.hma.bitcoin.script.Opcodes.OP_PUSHDATA4;
+
+/**
+ * A script split into its operations once: the opcode of each, where its pushed data lies in the script and where the
+ * operation ends. Running it again needs no parsing, and pushes are referenced in the script bytes rather than copied.
+ * Immutable, so a compiled script can be cached and run by several threads.
+ */
+final class CompiledScript {
+    final byte[] script;
+    final int size;
+    final int[] opcodes;
+    final int[] dataOffsets;
+    final int[] dataLengths;
+    final int[] ends;
+    /** Whether the script ends in a push running past its end, after the {@code size} operations that parsed. */
+    final boolean truncated;
+    /** Whether an OP_SUCCESSx comes before any parse error, which makes the script valid as a tapscript. */
+    final boolean hasSuccess;
+
+    private CompiledScript(byte[] script, int size, int[] opcodes, int[] dataOffsets, int[] dataLengths, int[] ends,
+                           boolean truncated, boolean hasSuccess) {
+        this.script = script;
+        this.size = size;
+        this.opcodes = opcodes;
+        this.dataOffsets = dataOffsets;
+        this.dataLengths = dataLengths;
+        this.ends = ends;
+        this.truncated = truncated;
+        this.hasSuccess = hasSuccess;
+    }
+
+    static CompiledScript compile(byte[] script) {
+        int capacity = script.length;
+        int[] opcodes = new int[capacity];
+        int[] dataOffsets = new int[capacity];
+        int[] dataLengths = new int[capacity];
+        int[] ends = new int[capacity];
+        int size = 0;
+        boolean truncated = false;
+        boolean hasSuccess = false;
+        int pc = 0;
+        while (pc < script.length) {
+            int opcode = script[pc++] & 0xFF;
+            long length = 0;
+            if (opcode <= OP_PUSHDATA4) {
+                if (opcode < OP_PUSHDATA1) {
+                    length = opcode;
+                } else {
+                    int lengthSize = opcode == OP_PUSHDATA1 ? 1 : opcode == OP_PUSHDATA2 ? 2 : 4;
+                    if (script.length - pc < lengthSize) {
+                        truncated = true;
+                        break;
+                    }
+                    for (int i = 0; i < lengthSize; i++) {
+                        length |= (long) (script[pc + i] & 0xFF) << (8 * i);
+                    }
+                    pc += lengthSize;
+                }
+                if (script.length - pc < length) {
+                    truncated = true;
+                    break;
+                }
+            } else if (Opcodes.isSuccess(opcode)) {
+                hasSuccess = true;
+            }
+            opcodes[size] = opcode;
+            dataOffsets[size] = pc;
+            dataLengths[size] = (int) length;
+            pc += (int) length;
+            ends[size] = pc;
+            size++;
+        }
+        if (size < capacity) {
+            opcodes = Arrays.copyOf(opcodes, size);
+            dataOffsets = Arrays.copyOf(dataOffsets, size);
+            dataLengths = Arrays.copyOf(dataLengths, size);
+            ends = Arrays.copyOf(ends, size);
+        }
+        return new CompiledScript(script, size, opcodes, dataOffsets, dataLengths, ends, truncated, hasSuccess);
+    }
+
+    /** The position after the operation at the position, or -1 at the end of the script or a truncated push. */
+    static int nextOperation(byte[] script, int pc) {
+        if (pc >= script.length) {
+            return -1;
+        }
+        int opcode = script[pc++] & 0xFF;
+        if (opcode > OP_PUSHDATA4) {
+            return pc;
+        }
+        long length = opcode;
+        if (opcode >= OP_PUSHDATA1) {
+            int lengthSize = opcode == OP_PUSHDATA1 ? 1 : opcode == OP_PUSHDATA2 ? 2 : 4;
+            if (script.length - pc < lengthSize) {
+                return -1;
+            }
+            length = 0;
+            for (int i = 0; i < lengthSize; i++) {
+                length |= (long) (script[pc + i] & 0xFF) << (8 * i);
+            }
+            pc += lengthSize;
+        }
+        return script.length - pc < length ? -1 : pc + (int) length;
+    }
+
+    /** Whether every operation only pushes data, as Core's {@code IsPushOnly} (which counts OP_RESERVED as a push). */
+    boolean isPushOnly() {
+        if (truncated) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            if (opcodes[i] > OP_16) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,1109 @@
+package org.hma.bitcoin.script;
+
+import org.bouncycastle.crypto.digests.RIPEMD160Digest;
+import org.hma.bitcoin.crypto.ExtendedKey;
+import org.hma.bitcoin.crypto.Secp256k1;
+import org.hma.bitcoin.crypto.Sha256;
+import org.hma.bitcoin.crypto.TaggedHash;
+import org.hma.bitcoin.util.VarInt;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import static org.hma.bitcoin.script.Opcodes.*;
+
+/**
+ * Verifies scripts the way Bitcoin Core's {@code VerifyScript} does, failing with a {@link ScriptException}.
+ * <p>
+ * The generic path evaluates the scriptSig, the scriptPubKey and any redeem or witness script opcode by opcode. The
+ * standard templates have entry points of their own that check what those scripts would check directly: the hash of
+ * the key or script, then the signature, with no evaluation at all for P2PKH, P2WPKH and taproot key path spends.
+ * <p>
+ * An interpreter keeps its stacks, conditions and digests from one input to the next, so it must only be used by one
+ * thread at a time.
+ */
+final class Interpreter {
+    static final int MAX_SCRIPT_SIZE = 10_000;
+    static final int MAX_ELEMENT_SIZE = 520;
+    static final int MAX_OPS = 201;
+    static final int MAX_STACK_SIZE = 1000;
+    static final int MAX_PUBKEYS_PER_MULTISIG = 20;
+    private static final int VALIDATION_WEIGHT_PER_SIGOP = 50;
+    private static final int VALIDATION_WEIGHT_OFFSET = 50;
+    private static final int TAPROOT_LEAF_MASK = 0xfe;
+    private static final int TAPROOT_LEAF_TAPSCRIPT = 0xc0;
+    private static final int TAPROOT_CONTROL_BASE_SIZE = 33;
+    private static final int TAPROOT_CONTROL_NODE_SIZE = 32;
+    private static final int TAPROOT_CONTROL_MAX_NODES = 128;
+    private static final int ANNEX_TAG = 0x50;
+    private static final long NO_CODE_SEPARATOR = 0xFFFFFFFFL;
+    private static final long SEQUENCE_DISABLE_FLAG = 1L << 31;
+
+    private final ScriptCache cache;
+    private final ScriptStack stack = new ScriptStack();
+    private final ScriptStack altStack = new ScriptStack();
+    private final ScriptStack savedStack = new ScriptStack();
+    private final MessageDigest sha256 = Sha256.newDigest();
+    private final MessageDigest sha1;
+    private final RIPEMD160Digest ripemd160 = new RIPEMD160Digest();
+    private final byte[] scratch = new byte[Sha256.LENGTH];
+    private boolean[] conditions = new boolean[16];
+    private int conditionDepth;
+    private int falseConditions;
+
+    // The input being verified
+    private int flags;
+    private SignatureChecker checker;
+    // Tapscript execution data
+    private byte[] annex;
+    private byte[] leafHash;
+    private long codeSeparatorPos;
+    private long validationWeightLeft;
+
+    Interpreter(ScriptCache cache) {
+        this.cache = cache;
+        try {
+            this.sha1 = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);  // Can't happen.
+        }
+    }
+
+    private void begin(int flags, SignatureChecker checker) {
+        this.flags = flags;
+        this.checker = checker;
+        this.annex = null;
+        this.leafHash = null;
+        this.codeSeparatorPos = NO_CODE_SEPARATOR;
+        stack.clear();
+        altStack.clear();
+        savedStack.clear();
+    }
+
+    /** The generic path: Core's {@code VerifyScript}. */
+    void verify(byte[] scriptSig, byte[] scriptPubKey, byte[][] witness, int flags, SignatureChecker checker) {
+        begin(flags, checker);
+        CompiledScript sig = CompiledScript.compile(scriptSig);
+        boolean p2sh = (flags & ScriptFlags.P2SH) != 0 && ScriptTemplate.of(scriptPubKey) == ScriptTemplate.P2SH;
+        if (((flags & ScriptFlags.SIGPUSHONLY) != 0 || p2sh) && !sig.isPushOnly()) {
+            throw new ScriptException("Only push operators allowed in scriptSig");
+        }
+        eval(sig, SigVersion.BASE);
+        if (p2sh) {
+            savedStack.copyFrom(stack);
+        }
+        eval(CompiledScript.compile(scriptPubKey), SigVersion.BASE);
+        if (stack.isEmpty() || !stack.toBool(0)) {
+            throw new ScriptException("Script evaluated to false");
+        }
+
+        boolean hadWitness = false;
+        int version = witnessVersion(scriptPubKey);
+        if ((flags & ScriptFlags.WITNESS) != 0 && version >= 0) {
+            hadWitness = true;
+            if (scriptSig.length != 0) {
+                throw new ScriptException("Witness requires empty scriptSig");
+            }
+            verifyWitnessProgram(witness, version, Arrays.copyOfRange(scriptPubKey, 2, scriptPubKey.length), false);
+        } else if (p2sh) {
+            stack.copyFrom(savedStack);
+            byte[] redeemScript = stack.toArray(0);
+            stack.pop();
+            hadWitness = verifyRedeemScript(scriptSig, redeemScript, CompiledScript.compile(redeemScript), witness);
+        }
+        finish(hadWitness, witness);
+    }
+
+    /**
+     * The P2SH template. Returns false, having checked nothing, for scriptSigs pushing with anything but plain data
+     * pushes, which are left to the generic path.
+     */
+    boolean verifyPayToScriptHash(byte[] scriptSig, byte[] scriptPubKey, byte[][] witness, int flags,
+                                  SignatureChecker checker) {
+        CompiledScript sig = CompiledScript.compile(scriptSig);
+        if (sig.truncated || sig.size == 0 || sig.size > MAX_STACK_SIZE || scriptSig.length > MAX_SCRIPT_SIZE) {
+            return false;
+        }
+        for (int i = 0; i < sig.size; i++) {
+            if (sig.opcodes[i] > OP_PUSHDATA4) {
+                return false;
+            }
+        }
+        begin(flags, checker);
+        boolean minimal = (flags & ScriptFlags.MINIMALDATA) != 0;
+        for (int i = 0; i < sig.size; i++) {
+            if (sig.dataLengths[i] > MAX_ELEMENT_SIZE) {
+                throw new ScriptException("Push value size limit exceeded");
+            }
+            if (minimal && !isMinimalPush(sig, i)) {
+                throw new ScriptException("Data push larger than necessary");
+            }
+            pushData(sig, i);
+        }
+        byte[] redeemScript = stack.toArray(0);
+        stack.pop();
+        byte[] scriptHash = sha256.digest(redeemScript);
+        if (!Arrays.equals(ripemd160(scriptHash), 0, 20, scriptPubKey, 2, 22)) {
+            throw new ScriptException("Script evaluated to false");
+        }
+        boolean hadWitness = verifyRedeemScript(scriptSig, redeemScript, cache.get(scriptHash, redeemScript), witness);
+        finish(hadWitness, witness);
+        return true;
+    }
+
+    /**
+     * The P2PKH template. Returns false, having checked nothing, unless the scriptSig is exactly a signature push and
+     * a public key push, which are left to the generic path.
+     */
+    boolean verifyPayToPubKeyHash(byte[] scriptSig, byte[] scriptPubKey, byte[][] witness, int flags,
+                                  SignatureChecker checker) {
+        if (scriptSig.length == 0) {
+            return false;
+        }
+        int sigLength = scriptSig[0] & 0xFF;
+        if (sigLength < 9 || sigLength >= OP_PUSHDATA1 || scriptSig.length < sigLength + 2) {
+            return false;
+        }
+        int keyLength = scriptSig[sigLength + 1] & 0xFF;
+        if (keyLength < 33 || keyLength > 65 || scriptSig.length != sigLength + keyLength + 2) {
+            return false;
+        }
+        begin(flags, checker);
+        if ((flags & ScriptFlags.WITNESS) != 0 && witness.length > 0) {
+            throw new ScriptException("Witness provided for non-witness script");
+        }
+        byte[] sig = Arrays.copyOfRange(scriptSig, 1, 1 + sigLength);
+        byte[] pubKey = Arrays.copyOfRange(scriptSig, sigLength + 2, scriptSig.length);
+        if (!Arrays.equals(ExtendedKey.hash160(pubKey), 0, 20, scriptPubKey, 3, 23)) {
+            throw new ScriptException("Script failed an OP_EQUALVERIFY operation");
+        }
+        byte[] scriptCode = findAndDelete(scriptPubKey, pushEncoding(sig));
+        if (!checkEcdsaSignature(sig, pubKey, scriptCode, SigVersion.BASE)) {
+            throw new ScriptException("Script evaluated to false");
+        }
+        return true;
+    }
+
+    /** The P2WPKH, P2WSH and P2TR templates, for native outputs spent with an empty scriptSig. */
+    void verifyWitnessOutput(byte[] scriptPubKey, byte[][] witness, int flags, SignatureChecker checker) {
+        begin(flags, checker);
+        // Evaluating the scriptPubKey leaves the program on the stack, which must be true.
+        if (!ScriptStack.castToBool(scriptPubKey, 2, scriptPubKey.length - 2)) {
+            throw new ScriptException("Script evaluated to false");
+        }
+        verifyWitnessProgram(witness, witnessVersion(scriptPubKey), Arrays.copyOfRange(scriptPubKey, 2,
+                scriptPubKey.length), false);
+    }
+
+    /** Runs a P2SH redeem script on the stack the scriptSig left. Returns whether it was a witness program. */
+    private boolean verifyRedeemScript(byte[] scriptSig, byte[] redeemScript, CompiledScript compiled,
+                                       byte[][] witness) {
+        eval(compiled, SigVersion.BASE);
+        if (stack.isEmpty() || !stack.toBool(0)) {
+            throw new ScriptException("Script evaluated to false");
+        }
+        int version = witnessVersion(redeemScript);
+        if ((flags & ScriptFlags.WITNESS) == 0 || version < 0) {
+            return false;
+        }
+        // The scriptSig must be the redeem script push alone, or it could be malleated.
+        if (!Arrays.equals(scriptSig, pushEncoding(redeemScript))) {
+            throw new ScriptException("Witness requires only-redeemscript scriptSig");
+        }
+        verifyWitnessProgram(witness, version, Arrays.copyOfRange(redeemScript, 2, redeemScript.length), true);
+        return true;
+    }
+
+    private void finish(boolean hadWitness, byte[][] witness) {
+        // Witness evaluation requires a clean stack itself, so the rule only applies to the outer evaluation.
+        if ((flags & ScriptFlags.CLEANSTACK) != 0 && !hadWitness && stack.size() != 1) {
+            throw new ScriptException("Stack size must be exactly one after execution");
+        }
+        if ((flags & ScriptFlags.WITNESS) != 0 && !hadWitness && witness.length > 0) {
+            throw new ScriptException("Witness provided for non-witness script");
+        }
+    }
+
+    private void verifyWitnessProgram(byte[][] witness, int version, byte[] program, boolean p2sh) {
+        if (version == 0) {
+            if (program.length == 32) {
+                if (witness.length == 0) {
+                    throw new ScriptException("Witness program was passed an empty witness");
+                }
+                byte[] witnessScript = witness[witness.length - 1];
+                byte[] scriptHash = sha256.digest(witnessScript);
+                if (!Arrays.equals(scriptHash, program)) {
+                    throw new ScriptException("Witness program hash mismatch");
+                }
+                executeWitnessScript(witness, witness.length - 1, cache.get(scriptHash, witnessScript),
+                        SigVersion.WITNESS_V0);
+            } else if (program.length == 20) {
+                verifyWitnessPubKeyHash(witness, program);
+            } else {
+                throw new ScriptException("Witness program has incorrect length");
+            }
+        } else if (version == 1 && program.length == 32 && !p2sh) {
+            if ((flags & ScriptFlags.TAPROOT) != 0) {
+                verifyTaproot(witness, program);
+            }
+        }
+        // Other versions and lengths are left to future soft forks and succeed.
+    }
+
+    /** What evaluating {@code OP_DUP OP_HASH160 <program> OP_EQUALVERIFY OP_CHECKSIG} on the witness would check. */
+    private void verifyWitnessPubKeyHash(byte[][] witness, byte[] program) {
+        if (witness.length != 2) {
+            throw new ScriptException("Witness program hash mismatch");
+        }
+        byte[] sig = witness[0];
+        byte[] pubKey = witness[1];
+        if (sig.length > MAX_ELEMENT_SIZE || pubKey.length > MAX_ELEMENT_SIZE) {
+            throw new ScriptException("Push value size limit exceeded");
+        }
+        if (!Arrays.equals(ExtendedKey.hash160(pubKey), program)) {
+            throw new ScriptException("Script failed an OP_EQUALVERIFY operation");
+        }
+        byte[] scriptCode = new byte[25];
+        scriptCode[0] = (byte) OP_DUP;
+        scriptCode[1] = (byte) OP_HASH160;
+        scriptCode[2] = 20;
+        System.arraycopy(program, 0, scriptCode, 3, 20);
+        scriptCode[23] = (byte) OP_EQUALVERIFY;
+        scriptCode[24] = (byte) OP_CHECKSIG;
+        if (!checkEcdsaSignature(sig, pubKey, scriptCode, SigVersion.WITNESS_V0)) {
+            throw new ScriptException("Script evaluated to false");
+        }
+    }
+
+    private void verifyTaproot(byte[][] witness, byte[] program) {
+        int count = witness.length;
+        if (count == 0) {
+            throw new ScriptException("Witness program was passed an empty witness");
+        }
+        if (count >= 2 && witness[count - 1].length > 0 && (witness[count - 1][0] & 0xFF) == ANNEX_TAG) {
+            annex = witness[count - 1];
+            count--;
+        }
+        if (count == 1) {
+            // Key path
+            checker.checkSchnorr(witness[0], program, annex, null, NO_CODE_SEPARATOR);
+            return;
+        }
+        byte[] control = witness[count - 1];
+        byte[] script = witness[count - 2];
+        int pathLength = control.length - TAPROOT_CONTROL_BASE_SIZE;
+        if (pathLength < 0 || pathLength % TAPROOT_CONTROL_NODE_SIZE != 0
+                || pathLength / TAPROOT_CONTROL_NODE_SIZE > TAPROOT_CONTROL_MAX_NODES) {
+            throw new ScriptException("Invalid Taproot control block size");
+        }
+        int leafVersion = control[0] & TAPROOT_LEAF_MASK;
+        byte[] leaf = tapLeafHash(leafVersion, script);
+        if (!verifyTaprootCommitment(control, program, leaf)) {
+            throw new ScriptException("Witness program hash mismatch");
+        }
+        if (leafVersion == TAPROOT_LEAF_TAPSCRIPT) {
+            leafHash = leaf;
+            validationWeightLeft = serializedSize(witness) + VALIDATION_WEIGHT_OFFSET;
+            executeWitnessScript(witness, count - 2, cache.get(leaf, script), SigVersion.TAPSCRIPT);
+        }
+        // Unknown leaf versions are left to future soft forks and succeed.
+    }
+
+    private static byte[] tapLeafHash(int leafVersion, byte[] script) {
+        MessageDigest digest = TaggedHash.TAP_LEAF.begin();
+        digest.update((byte) leafVersion);
+        byte[] length = new byte[VarInt.sizeOf(script.length)];
+        VarInt.write(length, 0, script.length);
+        digest.update(length);
+        digest.update(script);
+        return digest.digest();
+    }
+
+    /** Whether the control block's merkle path leads from the leaf to a root the output key commits to. */
+    private static boolean verifyTaprootCommitment(byte[] control, byte[] program, byte[] leaf) {
+        byte[] node = leaf;
+        for (int offset = TAPROOT_CONTROL_BASE_SIZE; offset < control.length; offset += TAPROOT_CONTROL_NODE_SIZE) {
+            byte[] sibling = Arrays.copyOfRange(control, offset, offset + TAPROOT_CONTROL_NODE_SIZE);
+            // Branches hash their children in lexicographic order.
+            node = Arrays.compareUnsigned(node, sibling) < 0
+                    ? TaggedHash.TAP_BRANCH.hash(node, sibling)
+                    : TaggedHash.TAP_BRANCH.hash(sibling, node);
+        }
+        byte[] internalKey = Arrays.copyOfRange(control, 1, TAPROOT_CONTROL_BASE_SIZE);
+        return Secp256k1.checkTapTweak(internalKey, node, program, (control[0] & 1) != 0);
+    }
+
+    private static long serializedSize(byte[][] witness) {
+        long size = VarInt.sizeOf(witness.length);
+        for (byte[] item : witness) {
+            size += VarInt.sizeOf(item.length) + item.length;
+        }
+        return size;
+    }
+
+    /** Runs a witness script on the first {@code count} witness items, Core's {@code ExecuteWitnessScript}. */
+    private void executeWitnessScript(byte[][] witness, int count, CompiledScript script, SigVersion version) {
+        if (version == SigVersion.TAPSCRIPT) {
+            // OP_SUCCESSx overrides everything, parse errors after it included.
+            if (script.hasSuccess) {
+                return;
+            }
+            if (script.truncated) {
+                throw new ScriptException("Opcode missing or not understood");
+            }
+            if (count > MAX_STACK_SIZE) {
+                throw new ScriptException("Stack size limit exceeded");
+            }
+        }
+        stack.clear();
+        for (int i = 0; i < count; i++) {
+            if (witness[i].length > MAX_ELEMENT_SIZE) {
+                throw new ScriptException("Push value size limit exceeded");
+            }
+            stack.push(witness[i]);
+        }
+        eval(script, version);
+        if (stack.size() != 1) {
+            throw new ScriptException("Stack size must be exactly one after execution");
+        }
+        if (!stack.toBool(0)) {
+            throw new ScriptException("Script evaluated to false");
+        }
+    }
+
+    /** Evaluates the script on the current stack, Core's {@code EvalScript}. */
+    private void eval(CompiledScript script, SigVersion version) {
+        boolean tapscript = version == SigVersion.TAPSCRIPT;
+        if (!tapscript && script.script.length > MAX_SCRIPT_SIZE) {
+            throw new ScriptException("Script is too big");
+        }
+        boolean minimal = (flags & ScriptFlags.MINIMALDATA) != 0;
+        conditionDepth = 0;
+        falseConditions = 0;
+        altStack.clear();
+        int opCount = 0;
+        int codeStart = 0;
+        for (int pc = 0; pc < script.size; pc++) {
+            int opcode = script.opcodes[pc];
+            boolean executing = falseConditions == 0;
+            if (opcode <= OP_PUSHDATA4 && script.dataLengths[pc] > MAX_ELEMENT_SIZE) {
+                throw new ScriptException("Push value size limit exceeded");
+            }
+            if (!tapscript && opcode > OP_16 && ++opCount > MAX_OPS) {
+                throw new ScriptException("Operation limit exceeded");
+            }
+            if (Opcodes.isDisabled(opcode)) {
+                throw new ScriptException("Attempted to use a disabled opcode");
+            }
+
+            if (executing && opcode <= OP_PUSHDATA4) {
+                if (minimal && !isMinimalPush(script, pc)) {
+                    throw new ScriptException("Data push larger than necessary");
+                }
+                pushData(script, pc);
+            } else if (executing || (opcode >= OP_IF && opcode <= OP_ENDIF)) {
+                switch (opcode) {
+                    case OP_1NEGATE:
+                        stack.pushNumber(-1);
+                        break;
+                    case OP_NOP:
+                    case OP_NOP1:
+                    case OP_NOP4:
+                    case OP_NOP4 + 1:
+                    case OP_NOP4 + 2:
+                    case OP_NOP4 + 3:
+                    case OP_NOP4 + 4:
+                    case OP_NOP4 + 5:
+                    case OP_NOP10:
+                        break;
+                    case OP_CHECKLOCKTIMEVERIFY: {
+                        if ((flags & ScriptFlags.CHECKLOCKTIMEVERIFY) == 0) {
+                            break;
+                        }
+                        need(1);
+                        // Five bytes, as lock times reach 2^32 - 1.
+                        long lockTime = number(0, 5);
+                        if (lockTime < 0) {
+                            throw new ScriptException("Negative locktime");
+                        }
+                        if (!checker.checkLockTime(lockTime)) {
+                            throw new ScriptException("Locktime requirement not satisfied");
+                        }
+                        break;
+                    }
+                    case OP_CHECKSEQUENCEVERIFY: {
+                        if ((flags & ScriptFlags.CHECKSEQUENCEVERIFY) == 0) {
+                            break;
+                        }
+                        need(1);
+                        long sequence = number(0, 5);
+                        if (sequence < 0) {
+                            throw new ScriptException("Negative locktime");
+                        }
+                        // With the disable flag set the operand is reserved for future use and passes.
+                        if ((sequence & SEQUENCE_DISABLE_FLAG) == 0 && !checker.checkSequence(sequence)) {
+                            throw new ScriptException("Locktime requirement not satisfied");
+                        }
+                        break;
+                    }
+                    case OP_IF:
+                    case OP_NOTIF: {
+                        boolean value = false;
+                        if (executing) {
+                            if (stack.isEmpty()) {
+                                throw new ScriptException("Invalid OP_IF construction");
+                            }
+                            int length = stack.length(0);
+                            boolean strict = tapscript
+                                    || (version == SigVersion.WITNESS_V0 && (flags & ScriptFlags.MINIMALIF) != 0);
+                            if (strict && (length > 1 || (length == 1 && stack.byteAt(0, 0) != 1))) {
+                                throw new ScriptException("OP_IF/NOTIF argument must be minimal");
+                            }
+                            value = stack.toBool(0) == (opcode == OP_IF);
+                            stack.pop();
+                        }
+                        pushCondition(value);
+                        break;
+                    }
+                    case OP_ELSE:
+                        if (conditionDepth == 0) {
+                            throw new ScriptException("Invalid OP_IF construction");
+                        }
+                        falseConditions += conditions[conditionDepth - 1] ? 1 : -1;
+                        conditions[conditionDepth - 1] = !conditions[conditionDepth - 1];
+                        break;
+                    case OP_ENDIF:
+                        if (conditionDepth == 0) {
+                            throw new ScriptException("Invalid OP_IF construction");
+                        }
+                        if (!conditions[--conditionDepth]) {
+                            falseConditions--;
+                        }
+                        break;
+                    case OP_VERIFY:
+                        need(1);
+                        if (!stack.toBool(0)) {
+                            throw new ScriptException("Script failed an OP_VERIFY operation");
+                        }
+                        stack.pop();
+                        break;
+                    case OP_RETURN:
+                        throw new ScriptException("OP_RETURN was encountered");
+
+                    case OP_TOALTSTACK:
+                        need(1);
+                        stack.moveTo(altStack);
+                        break;
+                    case OP_FROMALTSTACK:
+                        if (altStack.isEmpty()) {
+                            throw new ScriptException("Invalid OP_FROMALTSTACK operation");
+                        }
+                        altStack.moveTo(stack);
+                        break;
+                    case OP_2DROP:
+                        need(2);
+                        stack.pop();
+                        stack.pop();
+                        break;
+                    case OP_2DUP:
+                        need(2);
+                        stack.pushCopy(1);
+                        stack.pushCopy(1);
+                        break;
+                    case OP_3DUP:
+                        need(3);
+                        stack.pushCopy(2);
+                        stack.pushCopy(2);
+                        stack.pushCopy(2);
+                        break;
+                    case OP_2OVER:
+                        need(4);
+                        stack.pushCopy(3);
+                        stack.pushCopy(3);
+                        break;
+                    case OP_2ROT:
+                        need(6);
+                        stack.roll(5);
+                        stack.roll(5);
+                        break;
+                    case OP_2SWAP:
+                        need(4);
+                        stack.swap(3, 1);
+                        stack.swap(2, 0);
+                        break;
+                    case OP_IFDUP:
+                        need(1);
+                        if (stack.toBool(0)) {
+                            stack.pushCopy(0);
+                        }
+                        break;
+                    case OP_DEPTH:
+                        stack.pushNumber(stack.size());
+                        break;
+                    case OP_DROP:
+                        need(1);
+                        stack.pop();
+                        break;
+                    case OP_DUP:
+                        need(1);
+                        stack.pushCopy(0);
+                        break;
+                    case OP_NIP:
+                        need(2);
+                        stack.remove(1);
+                        break;
+                    case OP_OVER:
+                        need(2);
+                        stack.pushCopy(1);
+                        break;
+                    case OP_PICK:
+                    case OP_ROLL: {
+                        need(2);
+                        long n = number(0, 4);
+                        stack.pop();
+                        if (n < 0 || n >= stack.size()) {
+                            throw new ScriptException("Operation not valid with the current stack size");
+                        }
+                        if (opcode == OP_PICK) {
+                            stack.pushCopy((int) n);
+                        } else {
+                            stack.roll((int) n);
+                        }
+                        break;
+                    }
+                    case OP_ROT:
+                        need(3);
+                        stack.roll(2);
+                        break;
+                    case OP_SWAP:
+                        need(2);
+                        stack.swap(1, 0);
+                        break;
+                    case OP_TUCK:
+                        need(2);
+                        stack.insertTopBelow(1);
+                        break;
+                    case OP_SIZE:
+                        need(1);
+                        stack.pushNumber(stack.length(0));
+                        break;
+
+                    case OP_EQUAL:
+                    case OP_EQUALVERIFY: {
+                        need(2);
+                        boolean equal = stack.elementEquals(1, 0);
+                        stack.pop();
+                        stack.pop();
+                        stack.pushBool(equal);
+                        if (opcode == OP_EQUALVERIFY) {
+                            if (!equal) {
+                                throw new ScriptException("Script failed an OP_EQUALVERIFY operation");
+                            }
+                            stack.pop();
+                        }
+                        break;
+                    }
+
+                    case OP_1ADD:
+                    case OP_1SUB:
+                    case OP_NEGATE:
+                    case OP_ABS:
+                    case OP_NOT:
+                    case OP_0NOTEQUAL: {
+                        need(1);
+                        long n = number(0, 4);
+                        stack.pop();
+                        switch (opcode) {
+                            case OP_1ADD: n = n + 1; break;
+                            case OP_1SUB: n = n - 1; break;
+                            case OP_NEGATE: n = -n; break;
+                            case OP_ABS: n = Math.abs(n); break;
+                            case OP_NOT: n = n == 0 ? 1 : 0; break;
+                            default: n = n != 0 ? 1 : 0; break;
+                        }
+                        stack.pushNumber(n);
+                        break;
+                    }
+                    case OP_ADD:
+                    case OP_SUB:
+                    case OP_BOOLAND:
+                    case OP_BOOLOR:
+                    case OP_NUMEQUAL:
+                    case OP_NUMEQUALVERIFY:
+                    case OP_NUMNOTEQUAL:
+                    case OP_LESSTHAN:
+                    case OP_GREATERTHAN:
+                    case OP_LESSTHANOREQUAL:
+                    case OP_GREATERTHANOREQUAL:
+                    case OP_MIN:
+                    case OP_MAX: {
+                        need(2);
+                        long a = number(1, 4);
+                        long b = number(0, 4);
+                        long n;
+                        switch (opcode) {
+                            case OP_ADD: n = a + b; break;
+                            case OP_SUB: n = a - b; break;
+                            case OP_BOOLAND: n = a != 0 && b != 0 ? 1 : 0; break;
+                            case OP_BOOLOR: n = a != 0 || b != 0 ? 1 : 0; break;
+                            case OP_NUMEQUAL:
+                            case OP_NUMEQUALVERIFY: n = a == b ? 1 : 0; break;
+                            case OP_NUMNOTEQUAL: n = a != b ? 1 : 0; break;
+                            case OP_LESSTHAN: n = a < b ? 1 : 0; break;
+                            case OP_GREATERTHAN: n = a > b ? 1 : 0; break;
+                            case OP_LESSTHANOREQUAL: n = a <= b ? 1 : 0; break;
+                            case OP_GREATERTHANOREQUAL: n = a >= b ? 1 : 0; break;
+                            case OP_MIN: n = Math.min(a, b); break;
+                            default: n = Math.max(a, b); break;
+                        }
+                        stack.pop();
+                        stack.pop();
+                        stack.pushNumber(n);
+                        if (opcode == OP_NUMEQUALVERIFY) {
+                            if (n == 0) {
+                                throw new ScriptException("Script failed an OP_NUMEQUALVERIFY operation");
+                            }
+                            stack.pop();
+                        }
+                        break;
+                    }
+                    case OP_WITHIN: {
+                        need(3);
+                        long x = number(2, 4);
+                        long min = number(1, 4);
+                        long max = number(0, 4);
+                        stack.pop();
+                        stack.pop();
+                        stack.pop();
+                        stack.pushBool(min <= x && x < max);
+                        break;
+                    }
+
+                    case OP_RIPEMD160:
+                    case OP_SHA1:
+                    case OP_SHA256:
+                    case OP_HASH160:
+                    case OP_HASH256:
+                        need(1);
+                        hash(opcode);
+                        break;
+                    case OP_CODESEPARATOR:
+                        codeStart = script.ends[pc];
+                        codeSeparatorPos = pc;
+                        break;
+                    case OP_CHECKSIG:
+                    case OP_CHECKSIGVERIFY: {
+                        need(2);
+                        byte[] sig = stack.toArray(1);
+                        byte[] pubKey = stack.toArray(0);
+                        boolean success;
+                        if (tapscript) {
+                            success = checkTapscriptSignature(sig, pubKey);
+                        } else {
+                            byte[] scriptCode = Arrays.copyOfRange(script.script, codeStart, script.script.length);
+                            if (version == SigVersion.BASE) {
+                                scriptCode = findAndDelete(scriptCode, pushEncoding(sig));
+                            }
+                            success = checkEcdsaSignature(sig, pubKey, scriptCode, version);
+                        }
+                        stack.pop();
+                        stack.pop();
+                        stack.pushBool(success);
+                        if (opcode == OP_CHECKSIGVERIFY) {
+                            if (!success) {
+                                throw new ScriptException("Script failed an OP_CHECKSIGVERIFY operation");
+                            }
+                            stack.pop();
+                        }
+                        break;
+                    }
+                    case OP_CHECKSIGADD: {
+                        if (!tapscript) {
+                            throw new ScriptException("Opcode missing or not understood");
+                        }
+                        need(3);
+                        byte[] sig = stack.toArray(2);
+                        long n = number(1, 4);
+                        byte[] pubKey = stack.toArray(0);
+                        boolean success = checkTapscriptSignature(sig, pubKey);
+                        stack.pop();
+                        stack.pop();
+                        stack.pop();
+                        stack.pushNumber(n + (success ? 1 : 0));
+                        break;
+                    }
+                    case OP_CHECKMULTISIG:
+                    case OP_CHECKMULTISIGVERIFY: {
+                        if (tapscript) {
+                            throw new ScriptException("OP_CHECKMULTISIG(VERIFY) is not available in tapscript");
+                        }
+                        opCount = checkMultisig(script, codeStart, version, opcode, opCount);
+                        break;
+                    }
+                    default:
+                        if (opcode >= OP_1 && opcode <= OP_16) {
+                            stack.pushNumber(opcode - (OP_1 - 1));
+                            break;
+                        }
+                        throw new ScriptException("Opcode missing or not understood");
+                }
+            }
+            if (stack.size() + altStack.size() > MAX_STACK_SIZE) {
+                throw new ScriptException("Stack size limit exceeded");
+            }
+        }
+        if (script.truncated) {
+            throw new ScriptException("Opcode missing or not understood");
+        }
+        if (conditionDepth != 0) {
+            throw new ScriptException("Invalid OP_IF construction");
+        }
+    }
+
+    private void pushCondition(boolean value) {
+        if (conditionDepth == conditions.length) {
+            conditions = Arrays.copyOf(conditions, conditionDepth * 2);
+        }
+        conditions[conditionDepth++] = value;
+        if (!value) {
+            falseConditions++;
+        }
+    }
+
+    private void pushData(CompiledScript script, int pc) {
+        stack.push(script.script, script.dataOffsets[pc], script.dataLengths[pc]);
+    }
+
+    private void need(int count) {
+        if (stack.size() < count) {
+            throw new ScriptException("Operation not valid with the current stack size");
+        }
+    }
+
+    private void hash(int opcode) {
+        byte[] array = stack.array(0);
+        int offset = stack.offset(0);
+        int length = stack.length(0);
+        int size = opcode == OP_SHA256 || opcode == OP_HASH256 ? 32 : 20;
+        int out = stack.allocate(size);
+        byte[] arena = stack.arena();
+        try {
+            switch (opcode) {
+                case OP_RIPEMD160:
+                    ripemd160.update(array, offset, length);
+                    ripemd160.doFinal(arena, out);
+                    break;
+                case OP_SHA1:
+                    sha1.update(array, offset, length);
+                    sha1.digest(arena, out, 20);
+                    break;
+                case OP_SHA256:
+                    sha256.update(array, offset, length);
+                    sha256.digest(arena, out, 32);
+                    break;
+                case OP_HASH160:
+                    sha256.update(array, offset, length);
+                    sha256.digest(scratch, 0, 32);
+                    ripemd160.update(scratch, 0, 32);
+                    ripemd160.doFinal(arena, out);
+                    break;
+                default:
+                    sha256.update(array, offset, length);
+                    sha256.digest(scratch, 0, 32);
+                    sha256.update(scratch, 0, 32);
+                    sha256.digest(arena, out, 32);
+                    break;
+            }
+        } catch (DigestException e) {
+            throw new RuntimeException(e);  // Can't happen, the output always fits.
+        }
+        stack.pop();
+        stack.push(arena, out, size);
+    }
+
+    private byte[] ripemd160(byte[] data) {
+        byte[] out = new byte[20];
+        ripemd160.update(data, 0, data.length);
+        ripemd160.doFinal(out, 0);
+        return out;
+    }
+
+    /**
+     * Reads a script number: little endian sign and magnitude of at most {@code maxSize} bytes, minimally encoded if
+     * MINIMALDATA is set.
+     */
+    private long number(int depth, int maxSize) {
+        int length = stack.length(depth);
+        if (length > maxSize) {
+            throw new ScriptException("Script number overflow");
+        }
+        if (length == 0) {
+            return 0;
+        }
+        byte[] array = stack.array(depth);
+        int offset = stack.offset(depth);
+        int last = array[offset + length - 1] & 0xFF;
+        if ((flags & ScriptFlags.MINIMALDATA) != 0 && (last & 0x7f) == 0
+                && (length == 1 || (array[offset + length - 2] & 0x80) == 0)) {
+            throw new ScriptException("Non-minimally encoded script number");
+        }
+        long result = 0;
+        for (int i = 0; i < length; i++) {
+            result |= (long) (array[offset + i] & 0xFF) << (8 * i);
+        }
+        if ((last & 0x80) != 0) {
+            return -(result & ~(0x80L << (8 * (length - 1))));
+        }
+        return result;
+    }
+
+    private static boolean isMinimalPush(CompiledScript script, int pc) {
+        int opcode = script.opcodes[pc];
+        int length = script.dataLengths[pc];
+        if (length == 0) {
+            return opcode == OP_0;
+        }
+        if (length == 1) {
+            int value = script.script[script.dataOffsets[pc]] & 0xFF;
+            if ((value >= 1 && value <= 16) || value == 0x81) {
+                // Should have been OP_1 to OP_16 or OP_1NEGATE.
+                return false;
+            }
+        }
+        if (length < OP_PUSHDATA1) {
+            return opcode == length;
+        }
+        if (length <= 0xFF) {
+            return opcode == OP_PUSHDATA1;
+        }
+        if (length <= 0xFFFF) {
+            return opcode == OP_PUSHDATA2;
+        }
+        return true;
+    }
+
+    /**
+     * Checks an ECDSA signature as OP_CHECKSIG does before tapscript: encoding rules first, failing the script, then
+     * the signature itself. Returns whether it is valid.
+     */
+    private boolean checkEcdsaSignature(byte[] sig, byte[] pubKey, byte[] scriptCode, SigVersion version) {
+        checkEcdsaEncoding(sig, pubKey, version);
+        boolean success = checker.checkEcdsa(sig, pubKey, scriptCode, version);
+        if (!success && (flags & ScriptFlags.NULLFAIL) != 0 && sig.length > 0) {
+            throw new ScriptException("Signature must be zero for failed CHECK(MULTI)SIG operation");
+        }
+        return success;
+    }
+
+    /** The DER, hash type and public key encoding rules of the flags, failing the script if one is broken. */
+    private void checkEcdsaEncoding(byte[] sig, byte[] pubKey, SigVersion version) {
+        if (sig.length > 0) {
+            if ((flags & (ScriptFlags.DERSIG | ScriptFlags.LOW_S | ScriptFlags.STRICTENC)) != 0
+                    && !Secp256k1.isValidSignatureEncoding(sig)) {
+                throw new ScriptException("Non-canonical DER signature");
+            }
+            if ((flags & ScriptFlags.LOW_S) != 0 && !Secp256k1.isLowS(sig)) {
+                throw new ScriptException("Non-canonical signature: S value is unnecessarily high");
+            }
+            if ((flags & ScriptFlags.STRICTENC) != 0) {
+                int hashType = sig[sig.length - 1] & ~SignatureHash.SIGHASH_ANYONECANPAY & 0xFF;
+                if (hashType < SignatureHash.SIGHASH_ALL || hashType > SignatureHash.SIGHASH_SINGLE) {
+                    throw new ScriptException("Signature hash type missing or not understood");
+                }
+            }
+        }
+        if ((flags & ScriptFlags.STRICTENC) != 0 && !Secp256k1.isValidPubKeyEncoding(pubKey)) {
+            throw new ScriptException("Public key is neither compressed or uncompressed");
+        }
+        if ((flags & ScriptFlags.WITNESS_PUBKEYTYPE) != 0 && version == SigVersion.WITNESS_V0
+                && !Secp256k1.isCompressedPubKey(pubKey)) {
+            throw new ScriptException("Using non-compressed keys in segwit");
+        }
+    }
+
+    /** OP_CHECKSIG in tapscript: an empty signature is false, any other must be valid and costs validation weight. */
+    private boolean checkTapscriptSignature(byte[] sig, byte[] pubKey) {
+        boolean success = sig.length > 0;
+        if (success) {
+            validationWeightLeft -= VALIDATION_WEIGHT_PER_SIGOP;
+            if (validationWeightLeft < 0) {
+                throw new ScriptException("Too much signature validation relative to witness weight");
+            }
+        }
+        if (pubKey.length == 0) {
+            throw new ScriptException("Public key is neither compressed or uncompressed");
+        }
+        if (pubKey.length == 32 && success) {
+            checker.checkSchnorr(sig, pubKey, annex, leafHash, codeSeparatorPos);
+        }
+        // Other key sizes are reserved for future soft forks, and their signatures succeed.
+        return success;
+    }
+
+    /** OP_CHECKMULTISIG(VERIFY) before tapscript. Returns the operation count including the keys. */
+    private int checkMultisig(CompiledScript script, int codeStart, SigVersion version, int opcode, int opCount) {
+        int i = 1;
+        need(i);
+        long keyCount = number(i - 1, 4);
+        if (keyCount < 0 || keyCount > MAX_PUBKEYS_PER_MULTISIG) {
+            throw new ScriptException("Pubkey count out of range");
+        }
+        opCount += (int) keyCount;
+        if (opCount > MAX_OPS) {
+            throw new ScriptException("Operation limit exceeded");
+        }
+        int key = ++i;
+        // For NULLFAIL, the number of elements to pop before the signatures.
+        int keysLeft = (int) keyCount + 2;
+        i += (int) keyCount;
+        need(i);
+        long sigCount = number(i - 1, 4);
+        if (sigCount < 0 || sigCount > keyCount) {
+            throw new ScriptException("Signature count out of range");
+        }
+        int sig = ++i;
+        i += (int) sigCount;
+        need(i);
+
+        byte[] scriptCode = Arrays.copyOfRange(script.script, codeStart, script.script.length);
+        if (version == SigVersion.BASE) {
+            for (int k = 0; k < sigCount; k++) {
+                scriptCode = findAndDelete(scriptCode, pushEncoding(stack.toArray(sig + k - 1)));
+            }
+        }
+        boolean success = true;
+        int keysRemaining = (int) keyCount;
+        int sigsRemaining = (int) sigCount;
+        while (success && sigsRemaining > 0) {
+            byte[] signature = stack.toArray(sig - 1);
+            byte[] pubKey = stack.toArray(key - 1);
+            // A signature normally fails against the keys before its own, so NULLFAIL only applies once all failed.
+            checkEcdsaEncoding(signature, pubKey, version);
+            if (checker.checkEcdsa(signature, pubKey, scriptCode, version)) {
+                sig++;
+                sigsRemaining--;
+            }
+            key++;
+            keysRemaining--;
+            // More signatures left than keys means some can't match.
+            if (sigsRemaining > keysRemaining) {
+                success = false;
+            }
+        }
+
+        while (i-- > 1) {
+            if (!success && (flags & ScriptFlags.NULLFAIL) != 0 && keysLeft == 0 && stack.length(0) > 0) {
+                throw new ScriptException("Signature must be zero for failed CHECK(MULTI)SIG operation");
+            }
+            if (keysLeft > 0) {
+                keysLeft--;
+            }
+            stack.pop();
+        }
+        // An extra element is popped, once by mistake, now as a dummy that must be empty under NULLDUMMY.
+        need(1);
+        if ((flags & ScriptFlags.NULLDUMMY) != 0 && stack.length(0) > 0) {
+            throw new ScriptException("Dummy CHECKMULTISIG argument must be zero");
+        }
+        stack.pop();
+        stack.pushBool(success);
+        if (opcode == OP_CHECKMULTISIGVERIFY) {
+            if (!success) {
+                throw new ScriptException("Script failed an OP_CHECKMULTISIGVERIFY operation");
+            }
+            stack.pop();
+        }
+        return opCount;
+    }
+
+    /** The version of a witness program script, or -1 if it isn't one: a version opcode and a 2 to 40 byte push. */
+    static int witnessVersion(byte[] script) {
+        if (script.length < 4 || script.length > 42) {
+            return -1;
+        }
+        int opcode = script[0] & 0xFF;
+        if (opcode != OP_0 && (opcode < OP_1 || opcode > OP_16)) {
+            return -1;
+        }
+        if ((script[1] & 0xFF) + 2 != script.length) {
+            return -1;
+        }
+        return opcode == OP_0 ? 0 : opcode - (OP_1 - 1);
+    }
+
+    /** The data as a script push with the shortest push opcode, as Core's {@code CScript() << data}. */
+    static byte[] pushEncoding(byte[] data) {
+        int header;
+        if (data.length < OP_PUSHDATA1) {
+            header = 1;
+        } else if (data.length <= 0xFF) {
+            header = 2;
+        } else if (data.length <= 0xFFFF) {
+            header = 3;
+        } else {
+            header = 5;
+        }
+        byte[] push = new byte[header + data.length];
+        switch (header) {
+            case 1:
+                push[0] = (byte) data.length;
+                break;
+            case 2:
+                push[0] = (byte) OP_PUSHDATA1;
+                push[1] = (byte) data.length;
+                break;
+            case 3:
+                push[0] = (byte) OP_PUSHDATA2;
+                push[1] = (byte) data.length;
+                push[2] = (byte) (data.length >> 8);
+                break;
+            default:
+                push[0] = (byte) OP_PUSHDATA4;
+                for (int k = 0; k < 4; k++) {
+                    push[1 + k] = (byte) (data.length >> (8 * k));
+                }
+                break;
+        }
+        System.arraycopy(data, 0, push, header, data.length);
+        return push;
+    }
+
+    /**
+     * Removes every occurrence of the pattern starting at an operation boundary, as Core's {@code FindAndDelete}
+     * does to legacy script codes so a signature never signs itself.
+     */
+    static byte[] findAndDelete(byte[] script, byte[] pattern) {
+        byte[] result = null;
+        int length = 0;
+        int pc = 0;
+        int copied = 0;
+        while (true) {
+            int start = pc;
+            while (script.length - pc >= pattern.length
+                    && Arrays.equals(script, pc, pc + pattern.length, pattern, 0, pattern.length)) {
+                pc += pattern.length;
+            }
+            if (pc != start) {
+                if (result == null) {
+                    result = new byte[script.length];
+                }
+                System.arraycopy(script, copied, result, length, start - copied);
+                length += start - copied;
+                copied = pc;
+            }
+            int next = CompiledScript.nextOperation(script, pc);
+            if (next < 0) {
+                break;
+            }
+            pc = next;
+        }
+        if (result == null) {
+            return script;
+        }
+        System.arraycopy(script, copied, result, length, script.length - copied);
+        length += script.length - copied;
+        return Arrays.copyOf(result, length);
+    }
+}
@@ -0,0 +1,126 @@
+package org.hma.bitcoin.script;
+
+import org.hma.bitcoin.crypto.Sha256;
+import org.hma.bitcoin.model.Transaction;
+import org.hma.bitcoin.model.TransactionInput;
+import org.hma.bitcoin.model.TransactionOutput;
+import org.hma.bitcoin.util.ByteCodec;
+import org.hma.bitcoin.util.VarInt;
+
+/**
+ * The hashes of a transaction's prevouts, sequences, outputs and spent outputs that BIP-143 and BIP-341 signature
+ * hashes include for every input, as Core's {@code PrecomputedTransactionData}. Each is computed on first use and
+ * then shared by the inputs, so hashing an n input transaction costs O(n) rather than O(n²). BIP-143 commits to the
+ * double SHA-256 of the same data BIP-341 hashes once, so both derive from one pass.
+ * <p>
+ * Not thread-safe, made for the inputs of one transaction verified in turn.
+ */
+final class PrecomputedTransactionData {
+    private final Transaction tx;
+    private final TransactionOutput[] spent;
+
+    // Single SHA-256, as BIP-341 uses them
+    private byte[] prevouts;
+    private byte[] sequences;
+    private byte[] outputs;
+    private byte[] amounts;
+    private byte[] scriptPubKeys;
+    // Double SHA-256, as BIP-143 uses them
+    private byte[] hashPrevouts;
+    private byte[] hashSequence;
+    private byte[] hashOutputs;
+
+    /**
+     * @param spent the outputs spent by every input of the transaction, in input order
+     */
+    PrecomputedTransactionData(Transaction tx, TransactionOutput[] spent) {
+        this.tx = tx;
+        this.spent = spent;
+    }
+
+    Transaction getTransaction() {
+        return tx;
+    }
+
+    TransactionOutput getSpent(int index) {
+        return spent[index];
+    }
+
+    /** Single SHA-256 of all outpoints. */
+    byte[] prevouts() {
+        if (prevouts == null) {
+            prevouts = SignatureHash.digest(Sha256.newDigest(), stream -> {
+                for (TransactionInput input : tx.getInputs()) {
+                    input.getOutpoint().serialize(stream);
+                }
+            });
+        }
+        return prevouts;
+    }
+
+    /** Single SHA-256 of all input sequence numbers. */
+    byte[] sequences() {
+        if (sequences == null) {
+            sequences = SignatureHash.digest(Sha256.newDigest(), stream -> {
+                for (TransactionInput input : tx.getInputs()) {
+                    ByteCodec.writeInt32LE(stream, input.getSequence());
+                }
+            });
+        }
+        return sequences;
+    }
+
+    /** Single SHA-256 of all outputs. */
+    byte[] outputs() {
+        if (outputs == null) {
+            outputs = SignatureHash.outputs(tx.getOutputs(), 0, tx.getOutputs().size());
+        }
+        return outputs;
+    }
+
+    /** Single SHA-256 of the values of all spent outputs. */
+    byte[] amounts() {
+        if (amounts == null) {
+            amounts = SignatureHash.digest(Sha256.newDigest(), stream -> {
+                for (TransactionOutput output : spent) {
+                    ByteCodec.writeInt64LE(stream, output.getValue());
+                }
+            });
+        }
+        return amounts;
+    }
+
+    /** Single SHA-256 of the scriptPubKeys of all spent outputs, each with its length. */
+    byte[] scriptPubKeys() {
+        if (scriptPubKeys == null) {
+            scriptPubKeys = SignatureHash.digest(Sha256.newDigest(), stream -> {
+                for (TransactionOutput output : spent) {
+                    VarInt.write(stream, output.getScriptPubKey().length);
+                    stream.write(output.getScriptPubKey());
+                }
+            });
+        }
+        return scriptPubKeys;
+    }
+
+    byte[] hashPrevouts() {
+        if (hashPrevouts == null) {
+            hashPrevouts = Sha256.newDigest().digest(prevouts());
+        }
+        return hashPrevouts;
+    }
+
+    byte[] hashSequence() {
+        if (hashSequence == null) {
+            hashSequence = Sha256.newDigest().digest(sequences());
+        }
+        return hashSequence;
+    }
+
+    byte[] hashOutputs() {
+        if (hashOutputs == null) {
+            hashOutputs = Sha256.newDigest().digest(outputs());
+        }
+        return hashOutputs;
+    }
+}
@@ -0,0 +1,46 @@
+package org.hma.bitcoin.script;
+
+import org.hma.bitcoin.crypto.Sha256;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compiled scripts by a hash the spend already commits to: the SHA-256 of P2SH redeem and P2WSH witness scripts, the
+ * leaf hash of tapscripts. Popular multisig and covenant scripts are then split into operations once rather than at
+ * every spend, and looking one up costs no hashing of its own. Least recently used scripts are dropped.
+ */
+final class ScriptCache {
+    private final Map<Sha256, CompiledScript> scripts;
+
+    ScriptCache(int capacity) {
+        this.scripts = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Sha256, CompiledScript> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /** Returns the compiled script, compiling it if it isn't cached. The key must be a hash of the script. */
+    CompiledScript get(byte[] key, byte[] script) {
+        Sha256 hash = Sha256.wrap(key);
+        synchronized (scripts) {
+            CompiledScript compiled = scripts.get(hash);
+            if (compiled != null) {
+                return compiled;
+            }
+        }
+        CompiledScript compiled = CompiledScript.compile(script);
+        synchronized (scripts) {
+            scripts.put(hash, compiled);
+        }
+        return compiled;
+    }
+
+    int size() {
+        synchronized (scripts) {
+            return scripts.size();
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package org.hma.bitcoin.script;
+
+import org.hma.bitcoin.chain.VerificationException;
+
+/** Thrown when an input's scripts fail to verify. */
+public class ScriptException extends VerificationException {
+    public ScriptException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,45 @@
+package org.hma.bitcoin.script;
+
+/** Script verification flags, a subset of Bitcoin Core's with the same meaning. */
+public final class ScriptFlags {
+    /** Evaluate BIP-16 pay-to-script-hash redeem scripts. */
+    public static final int P2SH = 1;
+    /** Require defined hash types and well formed public keys. */
+    public static final int STRICTENC = 1 << 1;
+    /** Require strict DER signatures (BIP-66). */
+    public static final int DERSIG = 1 << 2;
+    /** Require S at most half the group order (BIP-146). */
+    public static final int LOW_S = 1 << 3;
+    /** Require the extra CHECKMULTISIG argument to be empty (BIP-147). */
+    public static final int NULLDUMMY = 1 << 4;
+    /** Require scriptSigs to only push data. */
+    public static final int SIGPUSHONLY = 1 << 5;
+    /** Require pushes and numbers to be minimally encoded. */
+    public static final int MINIMALDATA = 1 << 6;
+    /** Require exactly one element left on the stack after a P2SH or witness evaluation. */
+    public static final int CLEANSTACK = 1 << 8;
+    /** Enable OP_CHECKLOCKTIMEVERIFY (BIP-65). */
+    public static final int CHECKLOCKTIMEVERIFY = 1 << 9;
+    /** Enable OP_CHECKSEQUENCEVERIFY (BIP-112). */
+    public static final int CHECKSEQUENCEVERIFY = 1 << 10;
+    /** Evaluate segwit witness programs (BIP-141). */
+    public static final int WITNESS = 1 << 11;
+    /** Require the argument of OP_IF and OP_NOTIF in segwit v0 scripts to be empty or 0x01. */
+    public static final int MINIMALIF = 1 << 13;
+    /** Require failing signature checks to have empty signatures (BIP-146). */
+    public static final int NULLFAIL = 1 << 14;
+    /** Require compressed public keys in segwit v0 scripts. */
+    public static final int WITNESS_PUBKEYTYPE = 1 << 15;
+    /** Evaluate taproot outputs and tapscripts (BIP-341, BIP-342). */
+    public static final int TAPROOT = 1 << 17;
+
+    /** The consensus rules of a block at the current tip. */
+    public static final int MANDATORY = P2SH | DERSIG | NULLDUMMY | CHECKLOCKTIMEVERIFY | CHECKSEQUENCEVERIFY
+            | WITNESS | TAPROOT;
+    /** What the mempool relays: the consensus rules and the policy ones on top. */
+    public static final int STANDARD = MANDATORY | STRICTENC | LOW_S | SIGPUSHONLY | MINIMALDATA | CLEANSTACK
+            | MINIMALIF | NULLFAIL | WITNESS_PUBKEYTYPE;
+
+    private ScriptFlags() {
+    }
+}
@@ -0,0 +1,228 @@
+package org.hma.bitcoin.script;
+
+import java.util.Arrays;
+
+/**
+ * The stack of a script evaluation, reused from one evaluation to the next.
+ * <p>
+ * Elements are slices (array, offset, length) rather than arrays of their own: pushes point into the script or
+ * witness bytes, and duplicating or moving an element copies three words. Values computed by the script, such as
+ * hashes and numbers, are written into an arena that is reset with the stack; a full arena is replaced, not grown,
+ * so slices into the old one stay valid. Once the arrays have grown to fit the largest evaluation seen, evaluating
+ * allocates nothing. Depths count from the top, 0 being the top element.
+ */
+final class ScriptStack {
+    private static final int ARENA_SIZE = 16384;
+    private static final byte[] EMPTY = new byte[0];
+    private static final byte[] ONE = {1};
+
+    private byte[][] arrays = new byte[32][];
+    private int[] offsets = new int[32];
+    private int[] lengths = new int[32];
+    private int size;
+    private byte[] arena = new byte[ARENA_SIZE];
+    private int arenaUsed;
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** Empties the stack and its arena. */
+    void clear() {
+        Arrays.fill(arrays, 0, size, null);
+        size = 0;
+        arenaUsed = 0;
+    }
+
+    /**
+     * Replaces the contents with those of the other stack, sharing the element bytes. The arena is kept, as elements
+     * of either stack may point into it.
+     */
+    void copyFrom(ScriptStack other) {
+        Arrays.fill(arrays, 0, size, null);
+        size = 0;
+        for (int i = 0; i < other.size; i++) {
+            push(other.arrays[i], other.offsets[i], other.lengths[i]);
+        }
+    }
+
+    void push(byte[] array, int offset, int length) {
+        if (size == arrays.length) {
+            int capacity = size * 2;
+            arrays = Arrays.copyOf(arrays, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+        }
+        arrays[size] = array;
+        offsets[size] = offset;
+        lengths[size] = length;
+        size++;
+    }
+
+    void push(byte[] array) {
+        push(array, 0, array.length);
+    }
+
+    void pushBool(boolean value) {
+        push(value ? ONE : EMPTY, 0, value ? 1 : 0);
+    }
+
+    /** Pushes a number in the script encoding: little endian sign and magnitude, as short as possible. */
+    void pushNumber(long value) {
+        if (value == 0) {
+            push(EMPTY, 0, 0);
+            return;
+        }
+        boolean negative = value < 0;
+        long magnitude = Math.abs(value);
+        int offset = allocate(9);
+        int length = 0;
+        while (magnitude != 0) {
+            arena[offset + length++] = (byte) magnitude;
+            magnitude >>>= 8;
+        }
+        if ((arena[offset + length - 1] & 0x80) != 0) {
+            arena[offset + length++] = (byte) (negative ? 0x80 : 0);
+        } else if (negative) {
+            arena[offset + length - 1] |= (byte) 0x80;
+        }
+        push(arena, offset, length);
+    }
+
+    /**
+     * Reserves room for a computed value in the arena and returns its offset in {@link #arena()}. The caller fills it
+     * and pushes it; the arena must be read after this call, as it may have been replaced.
+     */
+    int allocate(int length) {
+        if (arenaUsed + length > arena.length) {
+            arena = new byte[Math.max(ARENA_SIZE, length)];
+            arenaUsed = 0;
+        }
+        int offset = arenaUsed;
+        arenaUsed += length;
+        return offset;
+    }
+
+    byte[] arena() {
+        return arena;
+    }
+
+    void pop() {
+        arrays[--size] = null;
+    }
+
+    /** Pushes the element at the depth again. */
+    void pushCopy(int depth) {
+        int i = size - 1 - depth;
+        push(arrays[i], offsets[i], lengths[i]);
+    }
+
+    /** Removes the element at the depth. */
+    void remove(int depth) {
+        int i = size - 1 - depth;
+        int moved = size - 1 - i;
+        System.arraycopy(arrays, i + 1, arrays, i, moved);
+        System.arraycopy(offsets, i + 1, offsets, i, moved);
+        System.arraycopy(lengths, i + 1, lengths, i, moved);
+        arrays[--size] = null;
+    }
+
+    /** Moves the element at the depth to the top. */
+    void roll(int depth) {
+        int i = size - 1 - depth;
+        byte[] array = arrays[i];
+        int offset = offsets[i];
+        int length = lengths[i];
+        remove(depth);
+        push(array, offset, length);
+    }
+
+    /** Inserts a copy of the top element below the element at the depth. */
+    void insertTopBelow(int depth) {
+        int top = size - 1;
+        byte[] array = arrays[top];
+        int offset = offsets[top];
+        int length = lengths[top];
+        int i = size - 1 - depth;
+        push(array, offset, length);
+        int moved = size - 1 - i;
+        System.arraycopy(arrays, i, arrays, i + 1, moved);
+        System.arraycopy(offsets, i, offsets, i + 1, moved);
+        System.arraycopy(lengths, i, lengths, i + 1, moved);
+        arrays[i] = array;
+        offsets[i] = offset;
+        lengths[i] = length;
+    }
+
+    void swap(int depth1, int depth2) {
+        int i = size - 1 - depth1;
+        int j = size - 1 - depth2;
+        byte[] array = arrays[i];
+        arrays[i] = arrays[j];
+        arrays[j] = array;
+        int offset = offsets[i];
+        offsets[i] = offsets[j];
+        offsets[j] = offset;
+        int length = lengths[i];
+        lengths[i] = lengths[j];
+        lengths[j] = length;
+    }
+
+    /** Moves the top element to the top of the other stack. */
+    void moveTo(ScriptStack other) {
+        int top = size - 1;
+        other.push(arrays[top], offsets[top], lengths[top]);
+        pop();
+    }
+
+    byte[] array(int depth) {
+        return arrays[size - 1 - depth];
+    }
+
+    int offset(int depth) {
+        return offsets[size - 1 - depth];
+    }
+
+    int length(int depth) {
+        return lengths[size - 1 - depth];
+    }
+
+    byte byteAt(int depth, int index) {
+        int i = size - 1 - depth;
+        return arrays[i][offsets[i] + index];
+    }
+
+    /** Returns a copy of the element, for code that needs an array of its own, such as signature checks. */
+    byte[] toArray(int depth) {
+        int i = size - 1 - depth;
+        return Arrays.copyOfRange(arrays[i], offsets[i], offsets[i] + lengths[i]);
+    }
+
+    boolean elementEquals(int depth1, int depth2) {
+        int i = size - 1 - depth1;
+        int j = size - 1 - depth2;
+        return Arrays.equals(arrays[i], offsets[i], offsets[i] + lengths[i],
+                arrays[j], offsets[j], offsets[j] + lengths[j]);
+    }
+
+    /** Script truthiness: any non-zero byte, except a sole sign bit in the last byte ("negative zero"). */
+    boolean toBool(int depth) {
+        int i = size - 1 - depth;
+        return castToBool(arrays[i], offsets[i], lengths[i]);
+    }
+
+    /** {@link #toBool} for a range of an array, such as a push within a script. */
+    static boolean castToBool(byte[] array, int offset, int length) {
+        int end = offset + length;
+        for (int k = offset; k < end; k++) {
+            if (array[k] != 0) {
+                return k != end - 1 || array[k] != (byte) 0x80;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,57 @@
+package org.hma.bitcoin.script;
+
+import static org.hma.bitcoin.script.Opcodes.OP_0;
+import static org.hma.bitcoin.script.Opcodes.OP_1;
+import static org.hma.bitcoin.script.Opcodes.OP_CHECKSIG;
+import static org.hma.bitcoin.script.Opcodes.OP_DUP;
+import static org.hma.bitcoin.script.Opcodes.OP_EQUAL;
+import static org.hma.bitcoin.script.Opcodes.OP_EQUALVERIFY;
+import static org.hma.bitcoin.script.Opcodes.OP_HASH160;
+
+/** The standard scriptPubKey forms with a verifier of their own, recognized from the script bytes alone. */
+public enum ScriptTemplate {
+    /** {@code OP_DUP OP_HASH160 <20 bytes> OP_EQUALVERIFY OP_CHECKSIG} */
+    P2PKH,
+    /** {@code OP_HASH160 <20 bytes> OP_EQUAL} */
+    P2SH,
+    /** {@code OP_0 <20 bytes>} */
+    P2WPKH,
+    /** {@code OP_0 <32 bytes>} */
+    P2WSH,
+    /** {@code OP_1 <32 bytes>} */
+    P2TR,
+    /** Anything else, run by the generic interpreter. */
+    NONSTANDARD;
+
+    public static ScriptTemplate of(byte[] script) {
+        switch (script.length) {
+            case 25:
+                if ((script[0] & 0xFF) == OP_DUP && (script[1] & 0xFF) == OP_HASH160 && script[2] == 20
+                        && (script[23] & 0xFF) == OP_EQUALVERIFY && (script[24] & 0xFF) == OP_CHECKSIG) {
+                    return P2PKH;
+                }
+                break;
+            case 23:
+                if ((script[0] & 0xFF) == OP_HASH160 && script[1] == 20 && (script[22] & 0xFF) == OP_EQUAL) {
+                    return P2SH;
+                }
+                break;
+            case 22:
+                if (script[0] == OP_0 && script[1] == 20) {
+                    return P2WPKH;
+                }
+                break;
+            case 34:
+                if (script[0] == OP_0 && script[1] == 32) {
+                    return P2WSH;
+                }
+                if ((script[0] & 0xFF) == OP_1 && script[1] == 32) {
+                    return P2TR;
+                }
+                break;
+            default:
+                break;
+        }
+        return NONSTANDARD;
+    }
+}
@@ -0,0 +1,89 @@
+package org.hma.bitcoin.script;
+
+import org.hma.bitcoin.model.Transaction;
+import org.hma.bitcoin.model.TransactionInput;
+import org.hma.bitcoin.model.TransactionOutput;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Verifies the scripts of transaction inputs.
+ * <p>
+ * Each input is dispatched on the template of the output it spends: P2PKH, P2SH, P2WPKH, P2WSH and P2TR outputs go
+ * to verifiers checking hashes and signatures directly, and only other scripts, or standard ones spent in unusual
+ * ways, are evaluated opcode by opcode. Redeem, witness and tapscript leaf scripts are compiled once and cached by
+ * the hash that commits to them, which the spend has to compute anyway. The BIP-143 and BIP-341 hashes over all
+ * inputs and outputs are computed once per transaction and shared by its inputs.
+ * <p>
+ * Thread-safe: each thread verifies with an interpreter of its own.
+ */
+@Component
+public class ScriptVerifier {
+    private final ScriptCache cache;
+    private final ThreadLocal<Interpreter> interpreters;
+
+    public ScriptVerifier(@Value("${node.script.cache-entries:50000}") int cacheEntries) {
+        this.cache = new ScriptCache(cacheEntries);
+        this.interpreters = ThreadLocal.withInitial(() -> new Interpreter(cache));
+    }
+
+    /**
+     * Verifies every input of the transaction.
+     *
+     * @param spent the outputs spent by the inputs, in input order
+     * @param flags the {@link ScriptFlags} to verify with
+     * @throws ScriptException naming the first input failing verification
+     */
+    public void verify(Transaction tx, TransactionOutput[] spent, int flags) {
+        Interpreter interpreter = interpreters.get();
+        List<TransactionInput> inputs = tx.getInputs();
+        PrecomputedTransactionData txData = new PrecomputedTransactionData(tx, spent);
+        for (int i = 0; i < inputs.size(); i++) {
+            TransactionInput input = inputs.get(i);
+            byte[] scriptSig = input.getScriptSig();
+            byte[] scriptPubKey = spent[i].getScriptPubKey();
+            byte[][] witness = input.getWitness();
+            SignatureChecker checker = new SignatureChecker(txData, i);
+            try {
+                verify(interpreter, scriptSig, scriptPubKey, witness, flags, checker);
+            } catch (ScriptException e) {
+                throw new ScriptException(tx.getTxId() + " input " + i + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static void verify(Interpreter interpreter, byte[] scriptSig, byte[] scriptPubKey, byte[][] witness,
+                               int flags, SignatureChecker checker) {
+        switch (ScriptTemplate.of(scriptPubKey)) {
+            case P2PKH:
+                if (interpreter.verifyPayToPubKeyHash(scriptSig, scriptPubKey, witness, flags, checker)) {
+                    return;
+                }
+                break;
+            case P2SH:
+                if ((flags & ScriptFlags.P2SH) != 0
+                        && interpreter.verifyPayToScriptHash(scriptSig, scriptPubKey, witness, flags, checker)) {
+                    return;
+                }
+                break;
+            case P2WPKH:
+            case P2WSH:
+            case P2TR:
+                if ((flags & ScriptFlags.WITNESS) != 0 && scriptSig.length == 0) {
+                    interpreter.verifyWitnessOutput(scriptPubKey, witness, flags, checker);
+                    return;
+                }
+                break;
+            default:
+                break;
+        }
+        interpreter.verify(scriptSig, scriptPubKey, witness, flags, checker);
+    }
+
+    /** Number of compiled scripts cached. */
+    public int getCacheSize() {
+        return cache.size();
+    }
+}
@@ -0,0 +1,13 @@
+package org.hma.bitcoin.script;
+
+/** The rules a script runs under, which decide how signatures are hashed and checked. */
+enum SigVersion {
+    /** Scripts outside witnesses: scriptSigs, scriptPubKeys and P2SH redeem scripts. */
+    BASE,
+    /** Segwit v0 witness scripts, including the implied script of P2WPKH (BIP-143). */
+    WITNESS_V0,
+    /** Taproot key path spends (BIP-341). */
+    TAPROOT,
+    /** Taproot script path spends (BIP-342). */
+    TAPSCRIPT
+}
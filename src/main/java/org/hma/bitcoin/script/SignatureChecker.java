@@ -0,0 +1,92 @@
+package org.hma.bitcoin.script;
+
+import org.hma.bitcoin.crypto.Secp256k1;
+import org.hma.bitcoin.model.Transaction;
+import org.hma.bitcoin.model.TransactionInput;
+
+/** Checks signatures and time locks of one input against the transaction spending it. */
+final class SignatureChecker {
+    private static final long LOCKTIME_THRESHOLD = 500_000_000L;
+    private static final long SEQUENCE_DISABLE_FLAG = 1L << 31;
+    private static final long SEQUENCE_TYPE_FLAG = 1L << 22;
+    private static final long SEQUENCE_MASK = 0x0000ffffL;
+
+    private final PrecomputedTransactionData txData;
+    private final Transaction tx;
+    private final int index;
+
+    /**
+     * @param txData the transaction with the outputs spent by all its inputs, shared by the checkers of its inputs
+     */
+    SignatureChecker(PrecomputedTransactionData txData, int index) {
+        this.txData = txData;
+        this.tx = txData.getTransaction();
+        this.index = index;
+    }
+
+    /** Checks an ECDSA signature, followed by its hash type byte, over the script code. */
+    boolean checkEcdsa(byte[] sig, byte[] pubKey, byte[] scriptCode, SigVersion version) {
+        if (sig.length == 0) {
+            return false;
+        }
+        int hashType = sig[sig.length - 1] & 0xFF;
+        byte[] hash = version == SigVersion.WITNESS_V0
+                ? SignatureHash.witnessV0(txData, index, scriptCode, txData.getSpent(index).getValue(), hashType)
+                : SignatureHash.legacy(tx, index, scriptCode, hashType);
+        return Secp256k1.verifyEcdsa(pubKey, sig, hash);
+    }
+
+    /**
+     * Checks a Schnorr signature, optionally followed by a hash type byte, of a taproot key path ({@code leafHash}
+     * null) or tapscript spend.
+     *
+     * @throws ScriptException if the signature is invalid; unlike ECDSA, a failed Schnorr check always fails the script
+     */
+    void checkSchnorr(byte[] sig, byte[] pubKey, byte[] annex, byte[] leafHash, long codeSeparatorPos) {
+        if (sig.length != 64 && sig.length != 65) {
+            throw new ScriptException("Invalid Schnorr signature size");
+        }
+        int hashType = SignatureHash.SIGHASH_DEFAULT;
+        if (sig.length == 65) {
+            hashType = sig[64] & 0xFF;
+            if (hashType == SignatureHash.SIGHASH_DEFAULT) {
+                throw new ScriptException("Invalid Schnorr signature hash type");
+            }
+        }
+        byte[] hash = SignatureHash.taproot(txData, index, hashType, annex, leafHash, codeSeparatorPos);
+        if (hash == null) {
+            throw new ScriptException("Invalid Schnorr signature hash type");
+        }
+        if (!Secp256k1.verifySchnorr(pubKey, sig, hash)) {
+            throw new ScriptException("Invalid Schnorr signature");
+        }
+    }
+
+    /** OP_CHECKLOCKTIMEVERIFY: whether the transaction's lock time is of the same kind and at least the operand. */
+    boolean checkLockTime(long lockTime) {
+        long txLockTime = tx.getLockTime();
+        if ((txLockTime < LOCKTIME_THRESHOLD) != (lockTime < LOCKTIME_THRESHOLD)) {
+            return false;
+        }
+        if (lockTime > txLockTime) {
+            return false;
+        }
+        // A final input would let the lock time be bypassed.
+        return tx.getInputs().get(index).getSequence() != TransactionInput.NO_SEQUENCE;
+    }
+
+    /** OP_CHECKSEQUENCEVERIFY: whether the input's relative lock is of the same kind and at least the operand. */
+    boolean checkSequence(long sequence) {
+        long txSequence = tx.getInputs().get(index).getSequence();
+        if (tx.getVersion() < 2 || (txSequence & SEQUENCE_DISABLE_FLAG) != 0) {
+            return false;
+        }
+        long mask = SEQUENCE_TYPE_FLAG | SEQUENCE_MASK;
+        long txMasked = txSequence & mask;
+        long masked = sequence & mask;
+        if ((txMasked < SEQUENCE_TYPE_FLAG) != (masked < SEQUENCE_TYPE_FLAG)) {
+            return false;
+        }
+        return masked <= txMasked;
+    }
+}
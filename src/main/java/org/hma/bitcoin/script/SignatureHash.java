@@ -0,0 +1,240 @@
+package org.hma.bitcoin.script;
+
+import org.hma.bitcoin.crypto.Sha256;
+import org.hma.bitcoin.crypto.TaggedHash;
+import org.hma.bitcoin.model.Transaction;
+import org.hma.bitcoin.model.TransactionInput;
+import org.hma.bitcoin.model.TransactionOutput;
+import org.hma.bitcoin.util.ByteCodec;
+import org.hma.bitcoin.util.VarInt;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The message a signature commits to: the original algorithm for legacy scripts, BIP-143 for segwit v0 and BIP-341
+ * for taproot. Transactions are serialized straight into the digest.
+ */
+final class SignatureHash {
+    static final int SIGHASH_DEFAULT = 0x00;
+    static final int SIGHASH_ALL = 0x01;
+    static final int SIGHASH_NONE = 0x02;
+    static final int SIGHASH_SINGLE = 0x03;
+    static final int SIGHASH_ANYONECANPAY = 0x80;
+
+    /** What the legacy algorithm signs for SIGHASH_SINGLE without a matching output, uint256 one. */
+    private static final byte[] ONE = new byte[Sha256.LENGTH];
+    /** What BIP-143 commits to in place of the hashes a hash type leaves out. */
+    private static final byte[] ZERO = new byte[Sha256.LENGTH];
+
+    static {
+        ONE[0] = 1;
+    }
+
+    private SignatureHash() {
+    }
+
+    /**
+     * The legacy signature hash: the transaction with the script code in the signed input, other scriptSigs emptied
+     * and inputs and outputs dropped as the hash type says.
+     */
+    static byte[] legacy(Transaction tx, int index, byte[] scriptCode, int hashType) {
+        List<TransactionInput> inputs = tx.getInputs();
+        List<TransactionOutput> outputs = tx.getOutputs();
+        int base = hashType & 0x1f;
+        boolean anyoneCanPay = (hashType & SIGHASH_ANYONECANPAY) != 0;
+        if (base == SIGHASH_SINGLE && index >= outputs.size()) {
+            return ONE.clone();
+        }
+        byte[] code = removeCodeSeparators(scriptCode);
+        MessageDigest digest = Sha256.newDigest();
+        byte[] single = digest(digest, stream -> {
+            ByteCodec.writeInt32LE(stream, tx.getVersion());
+            VarInt.write(stream, anyoneCanPay ? 1 : inputs.size());
+            for (int i = anyoneCanPay ? index : 0; i < (anyoneCanPay ? index + 1 : inputs.size()); i++) {
+                TransactionInput input = inputs.get(i);
+                input.getOutpoint().serialize(stream);
+                if (i == index) {
+                    VarInt.write(stream, code.length);
+                    stream.write(code);
+                } else {
+                    VarInt.write(stream, 0);
+                }
+                boolean zeroSequence = i != index && (base == SIGHASH_NONE || base == SIGHASH_SINGLE);
+                ByteCodec.writeInt32LE(stream, zeroSequence ? 0 : input.getSequence());
+            }
+            if (base == SIGHASH_NONE) {
+                VarInt.write(stream, 0);
+            } else if (base == SIGHASH_SINGLE) {
+                VarInt.write(stream, index + 1);
+                for (int i = 0; i < index; i++) {
+                    ByteCodec.writeInt64LE(stream, -1);
+                    VarInt.write(stream, 0);
+                }
+                outputs.get(index).serialize(stream);
+            } else {
+                VarInt.write(stream, outputs.size());
+                for (TransactionOutput output : outputs) {
+                    output.serialize(stream);
+                }
+            }
+            ByteCodec.writeInt32LE(stream, tx.getLockTime());
+            ByteCodec.writeInt32LE(stream, hashType);
+        });
+        return digest.digest(single);
+    }
+
+    /**
+     * The BIP-143 signature hash of a segwit v0 input spending the amount. The hashes of prevouts, sequences and
+     * outputs come from the transaction data, computed once for all inputs.
+     */
+    static byte[] witnessV0(PrecomputedTransactionData txData, int index, byte[] scriptCode, long amount,
+                            int hashType) {
+        Transaction tx = txData.getTransaction();
+        List<TransactionOutput> outputs = tx.getOutputs();
+        int base = hashType & 0x1f;
+        boolean anyoneCanPay = (hashType & SIGHASH_ANYONECANPAY) != 0;
+        byte[] hashPrevouts = anyoneCanPay ? ZERO : txData.hashPrevouts();
+        byte[] hashSequence = anyoneCanPay || base == SIGHASH_SINGLE || base == SIGHASH_NONE
+                ? ZERO : txData.hashSequence();
+        byte[] hashOutputs;
+        if (base != SIGHASH_SINGLE && base != SIGHASH_NONE) {
+            hashOutputs = txData.hashOutputs();
+        } else if (base == SIGHASH_SINGLE && index < outputs.size()) {
+            hashOutputs = Sha256.newDigest().digest(outputs(outputs, index, index + 1));
+        } else {
+            hashOutputs = ZERO;
+        }
+        TransactionInput input = tx.getInputs().get(index);
+        MessageDigest digest = Sha256.newDigest();
+        byte[] single = digest(digest, stream -> {
+            ByteCodec.writeInt32LE(stream, tx.getVersion());
+            stream.write(hashPrevouts);
+            stream.write(hashSequence);
+            input.getOutpoint().serialize(stream);
+            VarInt.write(stream, scriptCode.length);
+            stream.write(scriptCode);
+            ByteCodec.writeInt64LE(stream, amount);
+            ByteCodec.writeInt32LE(stream, input.getSequence());
+            stream.write(hashOutputs);
+            ByteCodec.writeInt32LE(stream, tx.getLockTime());
+            ByteCodec.writeInt32LE(stream, hashType);
+        });
+        return digest.digest(single);
+    }
+
+    /**
+     * The BIP-341 signature hash of a taproot input, with the leaf hash and code separator position for script path
+     * spends (null and ignored for key path spends). Returns null if the hash type is undefined or SIGHASH_SINGLE has no
+     * matching output. The hashes over all inputs and outputs come from the transaction data.
+     */
+    static byte[] taproot(PrecomputedTransactionData txData, int index, int hashType, byte[] annex,
+                          byte[] leafHash, long codeSeparatorPos) {
+        Transaction tx = txData.getTransaction();
+        List<TransactionOutput> outputs = tx.getOutputs();
+        int base = hashType & 0x03;
+        boolean anyoneCanPay = (hashType & SIGHASH_ANYONECANPAY) != 0;
+        if (hashType > 0x03 && (hashType < 0x81 || hashType > 0x83)) {
+            return null;
+        }
+        if (base == SIGHASH_SINGLE && index >= outputs.size()) {
+            return null;
+        }
+        return digest(TaggedHash.TAP_SIGHASH.begin(), stream -> {
+            stream.write(0);  // Epoch
+            stream.write(hashType);
+            ByteCodec.writeInt32LE(stream, tx.getVersion());
+            ByteCodec.writeInt32LE(stream, tx.getLockTime());
+            if (!anyoneCanPay) {
+                stream.write(txData.prevouts());
+                stream.write(txData.amounts());
+                stream.write(txData.scriptPubKeys());
+                stream.write(txData.sequences());
+            }
+            if (base != SIGHASH_NONE && base != SIGHASH_SINGLE) {
+                stream.write(txData.outputs());
+            }
+            int spendType = (leafHash != null ? 2 : 0) | (annex != null ? 1 : 0);
+            stream.write(spendType);
+            if (anyoneCanPay) {
+                TransactionInput input = tx.getInputs().get(index);
+                input.getOutpoint().serialize(stream);
+                txData.getSpent(index).serialize(stream);
+                ByteCodec.writeInt32LE(stream, input.getSequence());
+            } else {
+                ByteCodec.writeInt32LE(stream, index);
+            }
+            if (annex != null) {
+                stream.write(digest(Sha256.newDigest(), annexStream -> {
+                    VarInt.write(annexStream, annex.length);
+                    annexStream.write(annex);
+                }));
+            }
+            if (base == SIGHASH_SINGLE) {
+                stream.write(outputs(outputs, index, index + 1));
+            }
+            if (leafHash != null) {
+                stream.write(leafHash);
+                stream.write(0);  // Key version
+                ByteCodec.writeInt32LE(stream, codeSeparatorPos);
+            }
+        });
+    }
+
+    /** Single SHA-256 of the outputs in the range. */
+    static byte[] outputs(List<TransactionOutput> outputs, int from, int to) {
+        return digest(Sha256.newDigest(), stream -> {
+            for (int i = from; i < to; i++) {
+                outputs.get(i).serialize(stream);
+            }
+        });
+    }
+
+    /** Writes the data straight into the digest and returns the digest of it. */
+    static byte[] digest(MessageDigest digest, Serializer serializer) {
+        try (OutputStream stream = new DigestOutputStream(OutputStream.nullOutputStream(), digest)) {
+            serializer.writeTo(stream);
+        } catch (IOException e) {
+            throw new RuntimeException(e);  // Can't happen.
+        }
+        return digest.digest();
+    }
+
+    /** The script without its OP_CODESEPARATORs, as the legacy algorithm signs it. */
+    private static byte[] removeCodeSeparators(byte[] script) {
+        CompiledScript compiled = null;
+        for (byte b : script) {
+            if ((b & 0xFF) == Opcodes.OP_CODESEPARATOR) {
+                compiled = CompiledScript.compile(script);
+                break;
+            }
+        }
+        if (compiled == null) {
+            return script;
+        }
+        byte[] result = new byte[script.length];
+        int length = 0;
+        int start = 0;
+        for (int i = 0; i < compiled.size; i++) {
+            if (compiled.opcodes[i] != Opcodes.OP_CODESEPARATOR) {
+                System.arraycopy(script, start, result, length, compiled.ends[i] - start);
+                length += compiled.ends[i] - start;
+            }
+            start = compiled.ends[i];
+        }
+        // A truncated push at the end is signed as it is.
+        System.arraycopy(script, start, result, length, script.length - start);
+        length += script.length - start;
+        return Arrays.copyOf(result, length);
+    }
+
+    /** Writes data to a stream that only feeds a digest, so its IOExceptions can't happen. */
+    @FunctionalInterface
+    interface Serializer {
+        void writeTo(OutputStream stream) throws IOException;
+    }
+}
@@ -0,0 +1,57 @@
+package org.hma.bitcoin.storage;
+
+import jakarta.annotation.PreDestroy;
+import org.hma.bitcoin.model.Block;
+import org.hma.bitcoin.network.Network;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/** Raw blocks in bitcoind compatible {@code blocks/blk?????.dat} files. */
+@Component
+public class BlockFileStore {
+    public static final long MAX_BLOCKFILE_SIZE = 0x8000000; // 128 MiB, as Bitcoin Core
+
+    private final FlatFileStore files;
+
+    public BlockFileStore(DataDirectory dataDirectory, Network network) throws IOException {
+        this.files = new FlatFileStore(dataDirectory.resolve("blocks"), "blk", MAX_BLOCKFILE_SIZE, network.getMagic());
+    }
+
+    public FilePosition writeBlock(byte[] rawBlock) throws IOException {
+        return files.append(rawBlock);
+    }
+
+    public byte[] readBlock(FilePosition position) throws IOException {
+        return files.read(position);
+    }
+
+    /** Returns a read-only view of a stored range, e.g. a transaction inside a block, see {@link FlatFileStore#map}. */
+    public ByteBuffer map(FilePosition position) throws IOException {
+        return files.map(position);
+    }
+
+    public Block loadBlock(FilePosition position) throws IOException {
+        try {
+            return new Block(readBlock(position));
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Corrupt block at " + position, e);
+        }
+    }
+
+    public FlatFileStore getFiles() {
+        return files;
+    }
+
+    public void flush() throws IOException {
+        files.flush();
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        files.close();
+    }
+}
@@ -0,0 +1,36 @@
+package org.hma.bitcoin.storage;
+
+import org.hma.bitcoin.network.Network;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/** Root directory of the node's files, with one subdirectory per network. */
+@Component
+public class DataDirectory {
+    private final Path root;
+
+    public DataDirectory(@Value("${node.data-dir:${user.home}/.javabitcoin}") String dataDir, Network network) {
+        this.root = Path.of(dataDir, network.getName().toLowerCase(Locale.ROOT));
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /** Returns the named subdirectory, creating it if needed. */
+    public Path resolve(String name) {
+        Path dir = root.resolve(name);
+        try {
+            Files.createDirectories(dir);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return dir;
+    }
+}
@@ -0,0 +1,46 @@
+package org.hma.bitcoin.storage;
+
+import java.util.Objects;
+
+/** Location of a record in a numbered flat file: file number, offset of the record data and its length. */
+public class FilePosition {
+    private final int file;
+    private final long offset;
+    private final int length;
+
+    public FilePosition(int file, long offset, int length) {
+        this.file = file;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public int getFile() {
+        return file;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        FilePosition other = (FilePosition) o;
+        return file == other.file && offset == other.offset && length == other.length;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(file, offset, length);
+    }
+
+    @Override
+    public String toString() {
+        return file + ":" + offset + "+" + length;
+    }
+}
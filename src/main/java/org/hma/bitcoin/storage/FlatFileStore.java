@@ -0,0 +1,162 @@
+package org.hma.bitcoin.storage;
+
+import org.hma.bitcoin.util.ByteCodec;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Append-only sequence of numbered files ({@code blk00000.dat}, {@code blk00001.dat}, ...) in the layout Bitcoin
+ * Core uses: each record is the network magic, a 4 byte little endian length and the data. Files roll over once
+ * they would grow past the maximum size.
+ */
+public class FlatFileStore implements AutoCloseable {
+    public static final int RECORD_HEADER_SIZE = 8;
+
+    private final Path directory;
+    private final String prefix;
+    private final long maxFileSize;
+    private final int magic;
+    private final Map<Integer, FileChannel> channels = new HashMap<>();
+    private final Map<Integer, MappedByteBuffer> mappings = new ConcurrentHashMap<>();
+    private int currentFile;
+    private long currentSize;
+
+    public FlatFileStore(Path directory, String prefix, long maxFileSize, int magic) throws IOException {
+        this.directory = directory;
+        this.prefix = prefix;
+        this.maxFileSize = maxFileSize;
+        this.magic = magic;
+        while (Files.exists(path(currentFile + 1))) {
+            currentFile++;
+        }
+        currentSize = Files.exists(path(currentFile)) ? Files.size(path(currentFile)) : 0;
+    }
+
+    public Path path(int file) {
+        return directory.resolve(String.format("%s%05d.dat", prefix, file));
+    }
+
+    /** Appends a record to the current file, starting a new one if it doesn't fit. */
+    public synchronized FilePosition append(byte[] data) throws IOException {
+        if (currentSize > 0 && currentSize + RECORD_HEADER_SIZE + data.length > maxFileSize) {
+            currentFile++;
+            currentSize = 0;
+        }
+        FilePosition position = appendTo(currentFile, data);
+        currentSize = position.getOffset() + data.length;
+        return position;
+    }
+
+    /** Appends a record to the given file, regardless of its size. Used to keep undo data next to its block. */
+    public synchronized FilePosition appendTo(int file, byte[] data) throws IOException {
+        FileChannel channel = channel(file);
+        long start = channel.size();
+        channel.position(start);
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        ByteCodec.writeInt32BE(header, magic);
+        ByteCodec.writeInt32LE(header, data.length);
+        header.flip();
+        ByteBuffer[] record = {header, ByteBuffer.wrap(data)};
+        long position = start;
+        while (record[1].hasRemaining()) {
+            position += channel.write(record, 0, 2);
+        }
+        if (file > currentFile) {
+            currentFile = file;
+            currentSize = position;
+        } else if (file == currentFile) {
+            currentSize = position;
+        }
+        return new FilePosition(file, start + RECORD_HEADER_SIZE, data.length);
+    }
+
+    /** Reads the data of the record at the position. */
+    public byte[] read(FilePosition position) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(position.getLength());
+        readFully(channel(position.getFile()), buf, position.getOffset());
+        return buf.array();
+    }
+
+    /**
+     * Returns the data of a record as a read-only buffer. Records of files that are no longer appended to are served
+     * from a memory mapping of the whole file, without a copy; records of the current file are read.
+     */
+    public ByteBuffer map(FilePosition position) throws IOException {
+        int file = position.getFile();
+        if (file >= getCurrentFile() || position.getOffset() + position.getLength() > Integer.MAX_VALUE) {
+            return ByteBuffer.wrap(read(position)).asReadOnlyBuffer();
+        }
+        MappedByteBuffer mapping = mappings.get(file);
+        if (mapping == null) {
+            FileChannel channel = channel(file);
+            mapping = mappings.computeIfAbsent(file, f -> {
+                try {
+                    return channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), Integer.MAX_VALUE));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        if (position.getOffset() + position.getLength() > mapping.capacity()) {
+            // Appended to after it was mapped, e.g. undo data of a block connected again in a reorg.
+            return ByteBuffer.wrap(read(position)).asReadOnlyBuffer();
+        }
+        return mapping.slice((int) position.getOffset(), position.getLength()).asReadOnlyBuffer();
+    }
+
+    /** Returns the channel of a file for positional reads, e.g. to map or transfer a record without copying it. */
+    public synchronized FileChannel channel(int file) throws IOException {
+        FileChannel channel = channels.get(file);
+        if (channel == null) {
+            channel = FileChannel.open(path(file), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            channels.put(file, channel);
+        }
+        return channel;
+    }
+
+    /** Forces the current file to disk. */
+    public synchronized void flush() throws IOException {
+        FileChannel channel = channels.get(currentFile);
+        if (channel != null) {
+            channel.force(false);
+        }
+    }
+
+    public synchronized int getCurrentFile() {
+        return currentFile;
+    }
+
+    public int getMagic() {
+        return magic;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (FileChannel channel : channels.values()) {
+            channel.close();
+        }
+        channels.clear();
+        mappings.clear();
+    }
+
+    public static void readFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            int read = channel.read(buf, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of file at " + position);
+            }
+            position += read;
+        }
+    }
+}
@@ -0,0 +1,485 @@
+package org.hma.bitcoin.storage;
+
+import org.hma.bitcoin.crypto.Sha256;
+import org.hma.bitcoin.util.ByteCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Append-mostly key-value store for fixed size records, organized like a small LSM tree.
+ * <p>
+ * Batches are appended to a write-ahead log with one write and collected in a sorted in-memory table. Once the table
+ * is full it is written out as an immutable sorted run by a background thread, and runs are merged into one when
+ * there are too many. Runs are memory mapped and searched in place, newest first, so a lookup costs a binary search
+ * per run and no reads through the heap. Later writes of a key shadow earlier ones; there are no deletes.
+ * <p>
+ * The log is not forced per batch: after a crash the store may miss the last batches, which is fine for indexes that
+ * can be rebuilt from block data.
+ */
+public class SortedRunStore implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(SortedRunStore.class);
+
+    private static final int RUN_MAGIC = 0x7372756e; // "srun"
+    private static final int RUN_HEADER_SIZE = 4 + 4 + 4 + 8;
+    private static final int WAL_HEADER_SIZE = 4;
+    private static final int WAL_CHECKSUM_SIZE = 4;
+    private static final Pattern FILE_NAME = Pattern.compile("(run|wal)-(\\d+)\\.(dat|log)");
+
+    private final Path directory;
+    private final int keySize;
+    private final int valueSize;
+    private final int recordSize;
+    private final int memtableLimit;
+    private final int maxRuns;
+    private final ExecutorService writer;
+
+    private volatile NavigableMap<byte[], byte[]> memtable = newMemtable();
+    private volatile NavigableMap<byte[], byte[]> flushing;
+    private volatile List<Run> runs;   // newest first, replaced on change
+    private FileChannel wal;
+    private long walSeq;
+    private long nextSeq;
+
+    public SortedRunStore(Path directory, int keySize, int valueSize, int memtableLimit, int maxRuns)
+            throws IOException {
+        this.directory = directory;
+        this.keySize = keySize;
+        this.valueSize = valueSize;
+        this.recordSize = keySize + valueSize;
+        this.memtableLimit = memtableLimit;
+        this.maxRuns = maxRuns;
+        this.writer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "run-writer-" + directory.getFileName());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Map<Long, Path> runFiles = new TreeMap<>(Comparator.reverseOrder());
+        Map<Long, Path> walFiles = new TreeMap<>();
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Matcher matcher = FILE_NAME.matcher(file.getFileName().toString());
+                if (!matcher.matches()) {
+                    if (file.getFileName().toString().endsWith(".tmp")) {
+                        Files.delete(file);
+                    }
+                    continue;
+                }
+                long seq = Long.parseLong(matcher.group(2));
+                (matcher.group(1).equals("run") ? runFiles : walFiles).put(seq, file);
+                nextSeq = Math.max(nextSeq, seq + 1);
+            }
+        }
+        List<Run> opened = new ArrayList<>(runFiles.size());
+        for (Map.Entry<Long, Path> run : runFiles.entrySet()) {
+            opened.add(new Run(run.getKey(), run.getValue()));
+        }
+        this.runs = List.copyOf(opened);
+        for (Path log : walFiles.values()) {
+            replay(log);
+        }
+        openWal(nextSeq++);
+        LOG.info("Opened {} with {} runs and {} logged records", directory, opened.size(), memtable.size());
+    }
+
+    /**
+     * Appends a batch of records, each {@code keySize + valueSize} bytes, with a single log write.
+     */
+    public synchronized void writeBatch(byte[] records) throws IOException {
+        if (records.length % recordSize != 0) {
+            throw new IllegalArgumentException("Batch of " + records.length + " bytes is not a multiple of "
+                    + recordSize);
+        }
+        ByteBuffer header = ByteBuffer.allocate(WAL_HEADER_SIZE);
+        ByteCodec.writeInt32LE(header, records.length);
+        header.flip();
+        ByteBuffer checksum = ByteBuffer.wrap(Sha256.hashTwice(records), 0, WAL_CHECKSUM_SIZE);
+        ByteBuffer[] entry = {header, ByteBuffer.wrap(records), checksum};
+        while (checksum.hasRemaining()) {
+            wal.write(entry);
+        }
+        insert(memtable, records, records.length);
+        if (memtable.size() >= memtableLimit && flushing == null) {
+            freeze();
+        }
+    }
+
+    /** Returns the value stored under the key, or null. */
+    public byte[] get(byte[] key) {
+        byte[] value = memtable.get(key);
+        if (value != null) {
+            return value;
+        }
+        NavigableMap<byte[], byte[]> frozen = flushing;
+        if (frozen != null && (value = frozen.get(key)) != null) {
+            return value;
+        }
+        for (Run run : runs) {
+            if ((value = run.get(key)) != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    /** Forces the log to disk. */
+    public synchronized void sync() throws IOException {
+        wal.force(false);
+    }
+
+    public int getRunCount() {
+        return runs.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (wal.isOpen()) {
+                wal.force(false);
+                wal.close();
+            }
+        }
+    }
+
+    /** Hands the memtable to the writer thread and starts a new one, with a new log. Caller holds the lock. */
+    private void freeze() throws IOException {
+        NavigableMap<byte[], byte[]> frozen = memtable;
+        long runSeq = walSeq;
+        flushing = frozen;
+        memtable = newMemtable();
+        openWal(nextSeq++);
+        writer.execute(() -> {
+            try {
+                flush(frozen, runSeq);
+            } catch (IOException | RuntimeException e) {
+                LOG.error("Failed to write run {} of {}, records stay in the log", runSeq, directory, e);
+                restore(frozen);
+                return;
+            }
+            try {
+                if (runs.size() > maxRuns) {
+                    compact();
+                }
+            } catch (IOException | RuntimeException e) {
+                LOG.error("Failed to compact the runs of {}", directory, e);
+            }
+        });
+    }
+
+    /**
+     * Returns the records of a memtable that failed to flush to the live one, under the newer records written since,
+     * so that the next freeze writes them again. Does nothing if the run was written and only a later step failed.
+     */
+    private synchronized void restore(NavigableMap<byte[], byte[]> frozen) {
+        if (flushing == frozen) {
+            frozen.forEach(memtable::putIfAbsent);
+            flushing = null;
+        }
+    }
+
+    /** Writes a frozen memtable as a run and drops the logs it covers. Runs on the writer thread. */
+    private void flush(NavigableMap<byte[], byte[]> frozen, long runSeq) throws IOException {
+        Path tmp = directory.resolve("run-" + runSeq + ".tmp");
+        try (RunWriter out = new RunWriter(tmp)) {
+            for (Map.Entry<byte[], byte[]> record : frozen.entrySet()) {
+                out.add(record.getKey(), record.getValue());
+            }
+        }
+        Path path = runPath(runSeq);
+        Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE);
+        Run run = new Run(runSeq, path);
+        List<Run> updated = new ArrayList<>(runs.size() + 1);
+        updated.add(run);
+        updated.addAll(runs);
+        runs = List.copyOf(updated);
+        synchronized (this) {
+            flushing = null;
+            try (DirectoryStream<Path> logs = Files.newDirectoryStream(directory, "wal-*.log")) {
+                for (Path log : logs) {
+                    Matcher matcher = FILE_NAME.matcher(log.getFileName().toString());
+                    if (matcher.matches() && Long.parseLong(matcher.group(2)) <= runSeq) {
+                        Files.delete(log);
+                    }
+                }
+            }
+            if (memtable.size() >= memtableLimit) {
+                freeze();
+            }
+        }
+        LOG.debug("Wrote run {} of {} with {} records", runSeq, directory, run.count);
+    }
+
+    /**
+     * Merges all runs into one, keeping the newest value of every key. The merged run takes the sequence number of
+     * the newest input, so it still sorts before any run written later. Runs on the writer thread, which is also the
+     * only thread adding runs.
+     */
+    private void compact() throws IOException {
+        List<Run> inputs = runs;
+        long seq = inputs.get(0).seq;
+        Path tmp = directory.resolve("run-" + seq + ".tmp");
+        long written;
+        try (RunWriter out = new RunWriter(tmp)) {
+            PriorityQueue<Cursor> heads = new PriorityQueue<>();
+            for (Run run : inputs) {
+                Cursor cursor = new Cursor(run);
+                if (cursor.advance()) {
+                    heads.add(cursor);
+                }
+            }
+            byte[] last = null;
+            while (!heads.isEmpty()) {
+                Cursor head = heads.poll();
+                if (last == null || Arrays.compareUnsigned(last, head.key) != 0) {
+                    out.add(head.key, head.value);
+                    last = head.key.clone();
+                }
+                if (head.advance()) {
+                    heads.add(head);
+                }
+            }
+            written = out.count;
+        }
+        Files.move(tmp, runPath(seq), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        runs = List.of(new Run(seq, runPath(seq)));
+        for (Run input : inputs) {
+            if (input.seq != seq) {
+                Files.deleteIfExists(input.path);
+            }
+        }
+        LOG.info("Compacted {} runs of {} into one with {} records", inputs.size(), directory, written);
+    }
+
+    private void openWal(long seq) throws IOException {
+        if (wal != null) {
+            wal.close();
+        }
+        walSeq = seq;
+        wal = FileChannel.open(directory.resolve("wal-" + seq + ".log"), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /** Loads a log into the memtable, cutting it off at the first torn or corrupt batch. */
+    private void replay(Path log) throws IOException {
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            long position = 0;
+            ByteBuffer header = ByteBuffer.allocate(WAL_HEADER_SIZE);
+            while (position + WAL_HEADER_SIZE <= size) {
+                header.clear();
+                FlatFileStore.readFully(channel, header, position);
+                header.flip();
+                long length = ByteCodec.readUint32LE(header);
+                if (length % recordSize != 0 || position + WAL_HEADER_SIZE + length + WAL_CHECKSUM_SIZE > size) {
+                    break;
+                }
+                ByteBuffer batch = ByteBuffer.allocate((int) length + WAL_CHECKSUM_SIZE);
+                FlatFileStore.readFully(channel, batch, position + WAL_HEADER_SIZE);
+                byte[] data = batch.array();
+                byte[] checksum = Sha256.hashTwice(data, 0, (int) length);
+                if (!Arrays.equals(checksum, 0, WAL_CHECKSUM_SIZE, data, (int) length, data.length)) {
+                    break;
+                }
+                insert(memtable, data, (int) length);
+                position += WAL_HEADER_SIZE + length + WAL_CHECKSUM_SIZE;
+            }
+            if (position < size) {
+                LOG.warn("Truncating {} at {} of {} bytes", log, position, size);
+                channel.truncate(position);
+            }
+        }
+    }
+
+    private void insert(NavigableMap<byte[], byte[]> table, byte[] records, int length) {
+        for (int offset = 0; offset < length; offset += recordSize) {
+            table.put(Arrays.copyOfRange(records, offset, offset + keySize),
+                    Arrays.copyOfRange(records, offset + keySize, offset + recordSize));
+        }
+    }
+
+    private Path runPath(long seq) {
+        return directory.resolve("run-" + seq + ".dat");
+    }
+
+    private static NavigableMap<byte[], byte[]> newMemtable() {
+        return new ConcurrentSkipListMap<>(Arrays::compareUnsigned);
+    }
+
+    /** An immutable sorted run, mapped in segments of whole records since a mapping is limited to 2 GiB. */
+    private final class Run {
+        final long seq;
+        final Path path;
+        final long count;
+        final int recordsPerSegment;
+        final MappedByteBuffer[] segments;
+
+        Run(long seq, Path path) throws IOException {
+            this.seq = seq;
+            this.path = path;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                ByteBuffer header = ByteBuffer.allocate(RUN_HEADER_SIZE);
+                FlatFileStore.readFully(channel, header, 0);
+                header.flip();
+                if (ByteCodec.readUint32BE(header) != RUN_MAGIC || ByteCodec.readUint32LE(header) != keySize
+                        || ByteCodec.readUint32LE(header) != valueSize) {
+                    throw new IOException("Not a run of " + keySize + "+" + valueSize + " byte records: " + path);
+                }
+                count = ByteCodec.readInt64LE(header);
+                if (channel.size() != RUN_HEADER_SIZE + count * recordSize) {
+                    throw new IOException("Run " + path + " is truncated");
+                }
+                recordsPerSegment = Integer.MAX_VALUE / recordSize;
+                segments = new MappedByteBuffer[(int) ((count + recordsPerSegment - 1) / recordsPerSegment)];
+                for (int i = 0; i < segments.length; i++) {
+                    long first = (long) i * recordsPerSegment;
+                    long records = Math.min(recordsPerSegment, count - first);
+                    segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, RUN_HEADER_SIZE + first * recordSize,
+                            records * recordSize);
+                }
+            }
+        }
+
+        byte[] get(byte[] key) {
+            long low = 0;
+            long high = count - 1;
+            while (low <= high) {
+                long mid = (low + high) >>> 1;
+                MappedByteBuffer segment = segments[(int) (mid / recordsPerSegment)];
+                int position = (int) (mid % recordsPerSegment) * recordSize;
+                int cmp = compareKey(segment, position, key);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    byte[] value = new byte[valueSize];
+                    segment.get(position + keySize, value);
+                    return value;
+                }
+            }
+            return null;
+        }
+
+        void read(long record, byte[] key, byte[] value) {
+            MappedByteBuffer segment = segments[(int) (record / recordsPerSegment)];
+            int position = (int) (record % recordsPerSegment) * recordSize;
+            segment.get(position, key);
+            segment.get(position + keySize, value);
+        }
+
+        private int compareKey(ByteBuffer segment, int position, byte[] key) {
+            for (int i = 0; i < keySize; i++) {
+                int cmp = Integer.compare(segment.get(position + i) & 0xff, key[i] & 0xff);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return 0;
+        }
+    }
+
+    /** Position in a run during a merge. Equal keys order the newer run first. */
+    private final class Cursor implements Comparable<Cursor> {
+        final Run run;
+        final byte[] key = new byte[keySize];
+        final byte[] value = new byte[valueSize];
+        long next;
+
+        Cursor(Run run) {
+            this.run = run;
+        }
+
+        boolean advance() {
+            if (next >= run.count) {
+                return false;
+            }
+            run.read(next++, key, value);
+            return true;
+        }
+
+        @Override
+        public int compareTo(Cursor other) {
+            int cmp = Arrays.compareUnsigned(key, other.key);
+            return cmp != 0 ? cmp : Long.compare(other.run.seq, run.seq);
+        }
+    }
+
+    /** Streams sorted records into a new run file, writing the header once the count is known. */
+    private final class RunWriter implements AutoCloseable {
+        final FileChannel channel;
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+        long position = RUN_HEADER_SIZE;
+        long count;
+
+        RunWriter(Path path) throws IOException {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE);
+        }
+
+        void add(byte[] key, byte[] value) throws IOException {
+            if (buffer.remaining() < recordSize) {
+                drain();
+            }
+            buffer.put(key).put(value);
+            count++;
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                drain();
+                ByteBuffer header = ByteBuffer.allocate(RUN_HEADER_SIZE);
+                ByteCodec.writeInt32BE(header, RUN_MAGIC);
+                ByteCodec.writeInt32LE(header, keySize);
+                ByteCodec.writeInt32LE(header, valueSize);
+                ByteCodec.writeInt64LE(header, count);
+                header.flip();
+                while (header.hasRemaining()) {
+                    channel.write(header, RUN_HEADER_SIZE - header.remaining());
+                }
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package org.hma.bitcoin.storage;
+
+import jakarta.annotation.PreDestroy;
+import org.hma.bitcoin.crypto.Sha256;
+import org.hma.bitcoin.network.Network;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Undo records in {@code blocks/rev?????.dat} files. The undo data of a block goes to the rev file with the same
+ * number as the blk file holding the block, and is followed by a checksum over the block hash and the data so a
+ * record can't be applied to the wrong block.
+ */
+@Component
+public class UndoFileStore {
+    private final FlatFileStore files;
+
+    public UndoFileStore(DataDirectory dataDirectory, Network network) throws IOException {
+        this.files = new FlatFileStore(dataDirectory.resolve("blocks"), "rev", Long.MAX_VALUE, network.getMagic());
+    }
+
+    public FilePosition writeUndo(int blockFile, Sha256 blockHash, byte[] undo) throws IOException {
+        byte[] record = Arrays.copyOf(undo, undo.length + Sha256.LENGTH);
+        byte[] checksum = Sha256.hashTwice(blockHash.getBytes(), 0, Sha256.LENGTH, undo, 0, undo.length);
+        System.arraycopy(checksum, 0, record, undo.length, Sha256.LENGTH);
+        return files.appendTo(blockFile, record);
+    }
+
+    /** Reads an undo record and verifies it belongs to the block. */
+    public ByteBuffer readUndo(FilePosition position, Sha256 blockHash) throws IOException {
+        byte[] record = files.read(position);
+        int length = record.length - Sha256.LENGTH;
+        if (length < 0) {
+            throw new IOException("Truncated undo record at " + position);
+        }
+        byte[] checksum = Sha256.hashTwice(blockHash.getBytes(), 0, Sha256.LENGTH, record, 0, length);
+        if (!Arrays.equals(checksum, 0, Sha256.LENGTH, record, length, record.length)) {
+            throw new IOException("Undo record checksum mismatch at " + position + " for block " + blockHash);
+        }
+        return ByteBuffer.wrap(record, 0, length);
+    }
+
+    public void flush() throws IOException {
+        files.flush();
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        files.close();
+    }
+}
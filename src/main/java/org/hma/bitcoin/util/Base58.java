@@ -0,0 +1,173 @@
+package org.hma.bitcoin.util;
+
+import org.hma.bitcoin.crypto.Sha256;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * Base58 and Base58Check, as used by legacy addresses and BIP-32 extended keys.
+ * <p>
+ * Base conversion works on words rather than single digits: the number is held as 58^5 limbs while encoding and as
+ * 32 bit limbs while decoding, so each step of the quadratic conversion moves four bytes or five digits at once, and
+ * the carry of a step still fits a long. No {@link java.math.BigInteger} is involved.
+ */
+public final class Base58 {
+    private static final char[] ALPHABET = "123456789ABCDEFGHJKLMNPQRSTUVWXYZabcdefghijkmnopqrstuvwxyz".toCharArray();
+    private static final int[] INDEXES = new int[128];
+    private static final int DIGITS_PER_LIMB = 5;
+    /** 58^5, the largest power of 58 below 2^30. */
+    private static final long LIMB_BASE = 656_356_768L;
+    private static final int CHECKSUM_SIZE = 4;
+
+    static {
+        Arrays.fill(INDEXES, -1);
+        for (int i = 0; i < ALPHABET.length; i++) {
+            INDEXES[ALPHABET[i]] = i;
+        }
+    }
+
+    private Base58() {
+    }
+
+    public static String encode(byte[] input) {
+        int zeros = 0;
+        while (zeros < input.length && input[zeros] == 0) {
+            zeros++;
+        }
+        // log(256) / log(58^5) < 0.28, so a limb per 3.6 bytes.
+        int[] limbs = new int[(input.length - zeros) * 28 / 100 + 1];
+        int used = 0;
+        int position = zeros;
+        // Leading bytes that don't make a whole word first, then a word at a time.
+        int first = (input.length - zeros) % 4;
+        while (position < input.length) {
+            int size = first > 0 ? first : 4;
+            first = 0;
+            long carry = 0;
+            for (int i = 0; i < size; i++) {
+                carry = carry << 8 | (input[position++] & 0xFF);
+            }
+            for (int j = 0; j < used; j++) {
+                carry += (long) limbs[j] << (8 * size);
+                limbs[j] = (int) (carry % LIMB_BASE);
+                carry /= LIMB_BASE;
+            }
+            while (carry > 0) {
+                limbs[used++] = (int) (carry % LIMB_BASE);
+                carry /= LIMB_BASE;
+            }
+        }
+
+        char[] output = new char[zeros + used * DIGITS_PER_LIMB];
+        int length = 0;
+        for (int i = 0; i < zeros; i++) {
+            output[length++] = ALPHABET[0];
+        }
+        for (int j = used - 1; j >= 0; j--) {
+            int limb = limbs[j];
+            int start = length;
+            for (int k = DIGITS_PER_LIMB - 1; k >= 0; k--) {
+                output[start + k] = ALPHABET[limb % 58];
+                limb /= 58;
+            }
+            length += DIGITS_PER_LIMB;
+            if (j == used - 1) {
+                // The most significant limb without its leading zero digits.
+                int skip = 0;
+                while (skip < DIGITS_PER_LIMB - 1 && output[start + skip] == ALPHABET[0]) {
+                    skip++;
+                }
+                System.arraycopy(output, start + skip, output, start, DIGITS_PER_LIMB - skip);
+                length -= skip;
+            }
+        }
+        return new String(output, 0, length);
+    }
+
+    /**
+     * Decodes a Base58 string.
+     *
+     * @throws IllegalArgumentException if the string has a character outside the alphabet
+     */
+    public static byte[] decode(String input) {
+        int zeros = 0;
+        while (zeros < input.length() && input.charAt(zeros) == ALPHABET[0]) {
+            zeros++;
+        }
+        // log(58^5) / log(2^32) < 0.92, so a 32 bit limb per 5.4 digits.
+        int[] limbs = new int[(input.length() - zeros) * 19 / 100 + 1];
+        int used = 0;
+        int position = zeros;
+        int first = (input.length() - zeros) % DIGITS_PER_LIMB;
+        while (position < input.length()) {
+            int size = first > 0 ? first : DIGITS_PER_LIMB;
+            first = 0;
+            long carry = 0;
+            long multiplier = 1;
+            for (int i = 0; i < size; i++) {
+                char c = input.charAt(position++);
+                int digit = c < 128 ? INDEXES[c] : -1;
+                if (digit < 0) {
+                    throw new IllegalArgumentException("Invalid Base58 character '" + c + "'");
+                }
+                carry = carry * 58 + digit;
+                multiplier *= 58;
+            }
+            for (int j = 0; j < used; j++) {
+                carry += (limbs[j] & 0xFFFFFFFFL) * multiplier;
+                limbs[j] = (int) carry;
+                carry >>>= 32;
+            }
+            while (carry > 0) {
+                limbs[used++] = (int) carry;
+                carry >>>= 32;
+            }
+        }
+
+        byte[] output = new byte[zeros + used * 4];
+        int length = zeros;
+        for (int j = used - 1; j >= 0; j--) {
+            ByteCodec.writeInt32BE(output, length, limbs[j] & 0xFFFFFFFFL);
+            length += 4;
+        }
+        // The most significant limb without its leading zero bytes.
+        int skip = 0;
+        while (skip < 3 && used > 0 && output[zeros + skip] == 0) {
+            skip++;
+        }
+        System.arraycopy(output, zeros + skip, output, zeros, length - zeros - skip);
+        return Arrays.copyOf(output, length - skip);
+    }
+
+    /** Encodes the payload followed by the first four bytes of its double SHA-256. */
+    public static String encodeChecked(byte[] payload) {
+        byte[] data = Arrays.copyOf(payload, payload.length + CHECKSUM_SIZE);
+        System.arraycopy(checksum(payload, payload.length), 0, data, payload.length, CHECKSUM_SIZE);
+        return encode(data);
+    }
+
+    /**
+     * Decodes a Base58Check string to its payload.
+     *
+     * @throws IllegalArgumentException if the string isn't Base58 or the checksum doesn't match
+     */
+    public static byte[] decodeChecked(String input) {
+        byte[] data = decode(input);
+        if (data.length < CHECKSUM_SIZE) {
+            throw new IllegalArgumentException("Base58Check string too short");
+        }
+        int length = data.length - CHECKSUM_SIZE;
+        byte[] checksum = checksum(data, length);
+        if (!Arrays.equals(checksum, 0, CHECKSUM_SIZE, data, length, data.length)) {
+            throw new IllegalArgumentException("Invalid Base58Check checksum");
+        }
+        return Arrays.copyOf(data, length);
+    }
+
+    private static byte[] checksum(byte[] data, int length) {
+        MessageDigest digest = Sha256.newDigest();
+        digest.update(data, 0, length);
+        return digest.digest(digest.digest());
+    }
+}
@@ -0,0 +1,202 @@
+package org.hma.bitcoin.util;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Bech32 (BIP-173) and Bech32m (BIP-350) strings: a human readable part, a separator and 5 bit values followed by a
+ * six character checksum. Segwit v0 addresses use Bech32, later witness versions Bech32m.
+ * <p>
+ * The BCH checksum is computed a character at a time, with the generator terms for the five bits shifted out of each
+ * step looked up in a 32 entry table instead of tested bit by bit.
+ */
+public final class Bech32 {
+    public enum Encoding {
+        BECH32(1),
+        BECH32M(0x2bc830a3);
+
+        final int constant;
+
+        Encoding(int constant) {
+            this.constant = constant;
+        }
+    }
+
+    /** A decoded string: its human readable part in lower case and its values without the checksum. */
+    public static class Decoded {
+        private final Encoding encoding;
+        private final String hrp;
+        private final byte[] data;
+
+        Decoded(Encoding encoding, String hrp, byte[] data) {
+            this.encoding = encoding;
+            this.hrp = hrp;
+            this.data = data;
+        }
+
+        public Encoding getEncoding() {
+            return encoding;
+        }
+
+        public String getHrp() {
+            return hrp;
+        }
+
+        /** 5 bit values. */
+        public byte[] getData() {
+            return data;
+        }
+    }
+
+    private static final String CHARSET = "qpzry9x8gf2tvdw0s3jn54khce6mua7l";
+    private static final int[] CHARSET_REV = new int[128];
+    private static final int[] GENERATOR = {0x3b6a57b2, 0x26508e6d, 0x1ea119fa, 0x3d4233dd, 0x2a1462b3};
+    /** XOR of the generator terms for every value of the five bits a checksum step shifts out. */
+    private static final int[] GENERATOR_TABLE = new int[32];
+    private static final int CHECKSUM_LENGTH = 6;
+    private static final int MAX_LENGTH = 90;
+
+    static {
+        Arrays.fill(CHARSET_REV, -1);
+        for (int i = 0; i < CHARSET.length(); i++) {
+            CHARSET_REV[CHARSET.charAt(i)] = i;
+            CHARSET_REV[Character.toUpperCase(CHARSET.charAt(i))] = i;
+        }
+        for (int top = 0; top < 32; top++) {
+            int terms = 0;
+            for (int bit = 0; bit < 5; bit++) {
+                if ((top >>> bit & 1) != 0) {
+                    terms ^= GENERATOR[bit];
+                }
+            }
+            GENERATOR_TABLE[top] = terms;
+        }
+    }
+
+    private Bech32() {
+    }
+
+    /** Encodes the 5 bit values under the human readable part, which must be lower case. */
+    public static String encode(Encoding encoding, String hrp, byte[] data) {
+        int checksum = hrpChecksum(hrp);
+        for (byte value : data) {
+            checksum = step(checksum, value);
+        }
+        for (int i = 0; i < CHECKSUM_LENGTH; i++) {
+            checksum = step(checksum, 0);
+        }
+        checksum ^= encoding.constant;
+
+        char[] output = new char[hrp.length() + 1 + data.length + CHECKSUM_LENGTH];
+        hrp.getChars(0, hrp.length(), output, 0);
+        int position = hrp.length();
+        output[position++] = '1';
+        for (byte value : data) {
+            output[position++] = CHARSET.charAt(value);
+        }
+        for (int i = 0; i < CHECKSUM_LENGTH; i++) {
+            output[position++] = CHARSET.charAt(checksum >>> 5 * (CHECKSUM_LENGTH - 1 - i) & 31);
+        }
+        return new String(output);
+    }
+
+    /**
+     * Decodes a Bech32 or Bech32m string, whichever its checksum matches.
+     *
+     * @throws IllegalArgumentException if the string is malformed, mixes cases or has an invalid checksum
+     */
+    public static Decoded decode(String input) {
+        if (input.length() > MAX_LENGTH) {
+            throw new IllegalArgumentException("Bech32 string too long");
+        }
+        boolean lower = false;
+        boolean upper = false;
+        for (int i = 0; i < input.length(); i++) {
+            char c = input.charAt(i);
+            if (c < 33 || c > 126) {
+                throw new IllegalArgumentException("Invalid Bech32 character");
+            }
+            lower |= c >= 'a' && c <= 'z';
+            upper |= c >= 'A' && c <= 'Z';
+        }
+        if (lower && upper) {
+            throw new IllegalArgumentException("Mixed case Bech32 string");
+        }
+        int separator = input.lastIndexOf('1');
+        if (separator < 1 || separator + 1 + CHECKSUM_LENGTH > input.length()) {
+            throw new IllegalArgumentException("Missing Bech32 separator or checksum");
+        }
+        String hrp = input.substring(0, separator).toLowerCase(Locale.ROOT);
+        byte[] values = new byte[input.length() - separator - 1];
+        int checksum = hrpChecksum(hrp);
+        for (int i = 0; i < values.length; i++) {
+            char c = input.charAt(separator + 1 + i);
+            int value = CHARSET_REV[c];
+            if (value < 0) {
+                throw new IllegalArgumentException("Invalid Bech32 character '" + c + "'");
+            }
+            values[i] = (byte) value;
+            checksum = step(checksum, value);
+        }
+        Encoding encoding;
+        if (checksum == Encoding.BECH32.constant) {
+            encoding = Encoding.BECH32;
+        } else if (checksum == Encoding.BECH32M.constant) {
+            encoding = Encoding.BECH32M;
+        } else {
+            throw new IllegalArgumentException("Invalid Bech32 checksum");
+        }
+        return new Decoded(encoding, hrp, Arrays.copyOf(values, values.length - CHECKSUM_LENGTH));
+    }
+
+    /**
+     * Regroups bits, e.g. bytes into the 5 bit values of a segwit program. Converting to 5 bits pads the last value
+     * with zeros; converting back rejects more than 4 bits of padding and padding that isn't zero.
+     *
+     * @return the values, or null if the input can't be converted without padding
+     */
+    public static byte[] convertBits(byte[] data, int offset, int length, int fromBits, int toBits, boolean pad) {
+        int maxValue = (1 << toBits) - 1;
+        byte[] output = new byte[(length * fromBits + toBits - 1) / toBits];
+        int outLength = 0;
+        int accumulator = 0;
+        int bits = 0;
+        for (int i = offset; i < offset + length; i++) {
+            int value = data[i] & 0xFF;
+            if (value >>> fromBits != 0) {
+                return null;
+            }
+            accumulator = accumulator << fromBits | value;
+            bits += fromBits;
+            while (bits >= toBits) {
+                bits -= toBits;
+                output[outLength++] = (byte) (accumulator >>> bits & maxValue);
+            }
+        }
+        if (pad) {
+            if (bits > 0) {
+                output[outLength++] = (byte) (accumulator << toBits - bits & maxValue);
+            }
+        } else if (bits >= fromBits || (accumulator << toBits - bits & maxValue) != 0) {
+            return null;
+        }
+        return Arrays.copyOf(output, outLength);
+    }
+
+    /** The checksum state after the expanded human readable part. */
+    private static int hrpChecksum(String hrp) {
+        int checksum = 1;
+        for (int i = 0; i < hrp.length(); i++) {
+            checksum = step(checksum, hrp.charAt(i) >>> 5);
+        }
+        checksum = step(checksum, 0);
+        for (int i = 0; i < hrp.length(); i++) {
+            checksum = step(checksum, hrp.charAt(i) & 31);
+        }
+        return checksum;
+    }
+
+    private static int step(int checksum, int value) {
+        return (checksum & 0x1ffffff) << 5 ^ value ^ GENERATOR_TABLE[checksum >>> 25];
+    }
+}
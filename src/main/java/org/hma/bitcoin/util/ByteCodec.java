@@ -0,0 +1,222 @@
+package org.hma.bitcoin.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Little and big endian integer codec for byte arrays, {@link ByteBuffer}s and streams.
+ * <p>
+ * Array and buffer access goes through {@link MethodHandles#byteArrayViewVarHandle} and
+ * {@link MethodHandles#byteBufferViewVarHandle}, which the JIT compiles to a single (possibly byte swapped) load or
+ * store instead of one shift and mask per byte. Stream writes assemble the value first and hand it to the stream
+ * with one call.
+ * <p>
+ * Unsigned 32-bit values are returned as a non-negative {@code long}. Unsigned 64-bit values are carried in a
+ * {@code long} holding the same bits: use {@link Long#compareUnsigned(long, long)} and
+ * {@link Long#toUnsignedString(long)} where the sign matters.
+ * <p>
+ * Out of range offsets throw {@link IndexOutOfBoundsException}.
+ */
+public final class ByteCodec {
+    private static final VarHandle SHORT_LE = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle SHORT_BE = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle INT_LE = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INT_BE = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle LONG_LE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle LONG_BE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private static final VarHandle BUF_SHORT_LE = MethodHandles.byteBufferViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle BUF_SHORT_BE = MethodHandles.byteBufferViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle BUF_INT_LE = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle BUF_INT_BE = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle BUF_LONG_LE = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private ByteCodec() {
+    }
+
+    // byte[] reads
+
+    public static int readUint16LE(byte[] bytes, int offset) {
+        return (short) SHORT_LE.get(bytes, offset) & 0xFFFF;
+    }
+
+    public static int readUint16BE(byte[] bytes, int offset) {
+        return (short) SHORT_BE.get(bytes, offset) & 0xFFFF;
+    }
+
+    public static int readInt32LE(byte[] bytes, int offset) {
+        return (int) INT_LE.get(bytes, offset);
+    }
+
+    public static long readUint32LE(byte[] bytes, int offset) {
+        return Integer.toUnsignedLong((int) INT_LE.get(bytes, offset));
+    }
+
+    public static long readUint32BE(byte[] bytes, int offset) {
+        return Integer.toUnsignedLong((int) INT_BE.get(bytes, offset));
+    }
+
+    /** Reads a signed or unsigned 64-bit little endian value. */
+    public static long readInt64LE(byte[] bytes, int offset) {
+        return (long) LONG_LE.get(bytes, offset);
+    }
+
+    public static long readInt64BE(byte[] bytes, int offset) {
+        return (long) LONG_BE.get(bytes, offset);
+    }
+
+    // byte[] writes
+
+    public static void writeInt16LE(byte[] bytes, int offset, int value) {
+        SHORT_LE.set(bytes, offset, (short) value);
+    }
+
+    public static void writeInt16BE(byte[] bytes, int offset, int value) {
+        SHORT_BE.set(bytes, offset, (short) value);
+    }
+
+    /** Writes the low 32 bits of the value, signed or unsigned, in little endian. */
+    public static void writeInt32LE(byte[] bytes, int offset, long value) {
+        INT_LE.set(bytes, offset, (int) value);
+    }
+
+    public static void writeInt32BE(byte[] bytes, int offset, long value) {
+        INT_BE.set(bytes, offset, (int) value);
+    }
+
+    public static void writeInt64LE(byte[] bytes, int offset, long value) {
+        LONG_LE.set(bytes, offset, value);
+    }
+
+    public static void writeInt64BE(byte[] bytes, int offset, long value) {
+        LONG_BE.set(bytes, offset, value);
+    }
+
+    // ByteBuffer relative reads, independent of the buffer's own byte order
+
+    public static int readUint16LE(ByteBuffer buf) {
+        int position = buf.position();
+        int value = (short) BUF_SHORT_LE.get(buf, position) & 0xFFFF;
+        buf.position(position + 2);
+        return value;
+    }
+
+    public static int readUint16BE(ByteBuffer buf) {
+        int position = buf.position();
+        int value = (short) BUF_SHORT_BE.get(buf, position) & 0xFFFF;
+        buf.position(position + 2);
+        return value;
+    }
+
+    public static long readUint32LE(ByteBuffer buf) {
+        int position = buf.position();
+        long value = Integer.toUnsignedLong((int) BUF_INT_LE.get(buf, position));
+        buf.position(position + 4);
+        return value;
+    }
+
+    public static long readUint32BE(ByteBuffer buf) {
+        int position = buf.position();
+        long value = Integer.toUnsignedLong((int) BUF_INT_BE.get(buf, position));
+        buf.position(position + 4);
+        return value;
+    }
+
+    /** Reads a signed or unsigned 64-bit little endian value. */
+    public static long readInt64LE(ByteBuffer buf) {
+        int position = buf.position();
+        long value = (long) BUF_LONG_LE.get(buf, position);
+        buf.position(position + 8);
+        return value;
+    }
+
+    // ByteBuffer relative writes
+
+    public static void writeInt16LE(ByteBuffer buf, int value) {
+        int position = buf.position();
+        BUF_SHORT_LE.set(buf, position, (short) value);
+        buf.position(position + 2);
+    }
+
+    public static void writeInt16BE(ByteBuffer buf, int value) {
+        int position = buf.position();
+        BUF_SHORT_BE.set(buf, position, (short) value);
+        buf.position(position + 2);
+    }
+
+    public static void writeInt32LE(ByteBuffer buf, long value) {
+        int position = buf.position();
+        BUF_INT_LE.set(buf, position, (int) value);
+        buf.position(position + 4);
+    }
+
+    public static void writeInt32BE(ByteBuffer buf, long value) {
+        int position = buf.position();
+        BUF_INT_BE.set(buf, position, (int) value);
+        buf.position(position + 4);
+    }
+
+    public static void writeInt64LE(ByteBuffer buf, long value) {
+        int position = buf.position();
+        BUF_LONG_LE.set(buf, position, value);
+        buf.position(position + 8);
+    }
+
+    // Streams
+
+    public static void writeInt16LE(OutputStream stream, int value) throws IOException {
+        byte[] bytes = new byte[2];
+        writeInt16LE(bytes, 0, value);
+        stream.write(bytes, 0, 2);
+    }
+
+    public static void writeInt16BE(OutputStream stream, int value) throws IOException {
+        byte[] bytes = new byte[2];
+        writeInt16BE(bytes, 0, value);
+        stream.write(bytes, 0, 2);
+    }
+
+    public static void writeInt32LE(OutputStream stream, long value) throws IOException {
+        byte[] bytes = new byte[4];
+        writeInt32LE(bytes, 0, value);
+        stream.write(bytes, 0, 4);
+    }
+
+    public static void writeInt32BE(OutputStream stream, long value) throws IOException {
+        byte[] bytes = new byte[4];
+        writeInt32BE(bytes, 0, value);
+        stream.write(bytes, 0, 4);
+    }
+
+    public static void writeInt64LE(OutputStream stream, long value) throws IOException {
+        byte[] bytes = new byte[8];
+        writeInt64LE(bytes, 0, value);
+        stream.write(bytes, 0, 8);
+    }
+
+    public static int readUint16LE(InputStream stream) throws IOException {
+        return readUint16LE(readFully(stream, 2), 0);
+    }
+
+    public static long readUint32LE(InputStream stream) throws IOException {
+        return readUint32LE(readFully(stream, 4), 0);
+    }
+
+    public static long readInt64LE(InputStream stream) throws IOException {
+        return readInt64LE(readFully(stream, 8), 0);
+    }
+
+    private static byte[] readFully(InputStream stream, int length) throws IOException {
+        byte[] bytes = stream.readNBytes(length);
+        if (bytes.length < length) {
+            throw new EOFException("Expected " + length + " bytes, got " + bytes.length);
+        }
+        return bytes;
+    }
+}
@@ -59,137 +59,86 @@ public class ByteUtils {
 
     /** Write 2 bytes to the byte array (starting at the offset) as unsigned 16-bit integer in little endian format. */
     public static void uint16ToByteArrayLE(int val, byte[] out, int offset) {
-        out[offset] = (byte) (0xFF & val);
-        out[offset + 1] = (byte) (0xFF & (val >> 8));
+        ByteCodec.writeInt16LE(out, offset, val);
     }
 
     /** Write 4 bytes to the byte array (starting at the offset) as unsigned 32-bit integer in little endian format. */
     public static void uint32ToByteArrayLE(long val, byte[] out, int offset) {
-        out[offset] = (byte) (0xFF & val);
-        out[offset + 1] = (byte) (0xFF & (val >> 8));
-        out[offset + 2] = (byte) (0xFF & (val >> 16));
-        out[offset + 3] = (byte) (0xFF & (val >> 24));
+        ByteCodec.writeInt32LE(out, offset, val);
     }
 
     /** Write 4 bytes to the byte array (starting at the offset) as unsigned 32-bit integer in big endian format. */
     public static void uint32ToByteArrayBE(long val, byte[] out, int offset) {
-        out[offset] = (byte) (0xFF & (val >> 24));
-        out[offset + 1] = (byte) (0xFF & (val >> 16));
-        out[offset + 2] = (byte) (0xFF & (val >> 8));
-        out[offset + 3] = (byte) (0xFF & val);
+        ByteCodec.writeInt32BE(out, offset, val);
     }
 
     /** Write 8 bytes to the byte array (starting at the offset) as signed 64-bit integer in little endian format. */
     public static void int64ToByteArrayLE(long val, byte[] out, int offset) {
-        out[offset] = (byte) (0xFF & val);
-        out[offset + 1] = (byte) (0xFF & (val >> 8));
-        out[offset + 2] = (byte) (0xFF & (val >> 16));
-        out[offset + 3] = (byte) (0xFF & (val >> 24));
-        out[offset + 4] = (byte) (0xFF & (val >> 32));
-        out[offset + 5] = (byte) (0xFF & (val >> 40));
-        out[offset + 6] = (byte) (0xFF & (val >> 48));
-        out[offset + 7] = (byte) (0xFF & (val >> 56));
+        ByteCodec.writeInt64LE(out, offset, val);
     }
 
     /** Write 2 bytes to the output stream as unsigned 16-bit integer in little endian format. */
     public static void uint16ToByteStreamLE(int val, OutputStream stream) throws IOException {
-        stream.write(0xFF & val);
-        stream.write(0xFF & (val >> 8));
+        ByteCodec.writeInt16LE(stream, val);
     }
 
     /** Write 2 bytes to the output stream as unsigned 16-bit integer in big endian format. */
     public static void uint16ToByteStreamBE(int val, OutputStream stream) throws IOException {
-        stream.write(0xFF & (val >> 8));
-        stream.write(0xFF & val);
+        ByteCodec.writeInt16BE(stream, val);
     }
 
     /** Write 4 bytes to the output stream as unsigned 32-bit integer in little endian format. */
     public static void uint32ToByteStreamLE(long val, OutputStream stream) throws IOException {
-        stream.write((int) (0xFF & val));
-        stream.write((int) (0xFF & (val >> 8)));
-        stream.write((int) (0xFF & (val >> 16)));
-        stream.write((int) (0xFF & (val >> 24)));
+        ByteCodec.writeInt32LE(stream, val);
     }
 
     /** Write 4 bytes to the output stream as unsigned 32-bit integer in big endian format. */
     public static void uint32ToByteStreamBE(long val, OutputStream stream) throws IOException {
-        stream.write((int) (0xFF & (val >> 24)));
-        stream.write((int) (0xFF & (val >> 16)));
-        stream.write((int) (0xFF & (val >> 8)));
-        stream.write((int) (0xFF & val));
+        ByteCodec.writeInt32BE(stream, val);
     }
 
     /** Write 8 bytes to the output stream as signed 64-bit integer in little endian format. */
     public static void int64ToByteStreamLE(long val, OutputStream stream) throws IOException {
-        stream.write((int) (0xFF & val));
-        stream.write((int) (0xFF & (val >> 8)));
-        stream.write((int) (0xFF & (val >> 16)));
-        stream.write((int) (0xFF & (val >> 24)));
-        stream.write((int) (0xFF & (val >> 32)));
-        stream.write((int) (0xFF & (val >> 40)));
-        stream.write((int) (0xFF & (val >> 48)));
-        stream.write((int) (0xFF & (val >> 56)));
+        ByteCodec.writeInt64LE(stream, val);
     }
 
     /** Write 8 bytes to the output stream as unsigned 64-bit integer in little endian format. */
     public static void uint64ToByteStreamLE(BigInteger val, OutputStream stream) throws IOException {
-        byte[] bytes = val.toByteArray();
-        if (bytes.length > 8) {
+        if (val.signum() < 0 || val.bitLength() > 64) {
             throw new RuntimeException("Input too large to encode into a uint64");
         }
-        bytes = reverseBytes(bytes);
-        stream.write(bytes);
-        if (bytes.length < 8) {
-            for (int i = 0; i < 8 - bytes.length; i++)
-                stream.write(0);
-        }
+        ByteCodec.writeInt64LE(stream, val.longValue());
     }
 
     /** Parse 2 bytes from the byte array (starting at the offset) as unsigned 16-bit integer in little endian format. */
     public static int readUint16(byte[] bytes, int offset) {
-        return (bytes[offset] & 0xff) |
-                ((bytes[offset + 1] & 0xff) << 8);
+        return ByteCodec.readUint16LE(bytes, offset);
     }
 
     /** Parse 4 bytes from the byte array (starting at the offset) as unsigned 32-bit integer in little endian format. */
     public static long readUint32(byte[] bytes, int offset) {
-        return (bytes[offset] & 0xffL) |
-                ((bytes[offset + 1] & 0xffL) << 8) |
-                ((bytes[offset + 2] & 0xffL) << 16) |
-                ((bytes[offset + 3] & 0xffL) << 24);
+        return ByteCodec.readUint32LE(bytes, offset);
     }
 
     /** Parse 8 bytes from the byte array (starting at the offset) as signed 64-bit integer in little endian format. */
     public static long readInt64(byte[] bytes, int offset) {
-        return (bytes[offset] & 0xffL) |
-                ((bytes[offset + 1] & 0xffL) << 8) |
-                ((bytes[offset + 2] & 0xffL) << 16) |
-                ((bytes[offset + 3] & 0xffL) << 24) |
-                ((bytes[offset + 4] & 0xffL) << 32) |
-                ((bytes[offset + 5] & 0xffL) << 40) |
-                ((bytes[offset + 6] & 0xffL) << 48) |
-                ((bytes[offset + 7] & 0xffL) << 56);
+        return ByteCodec.readInt64LE(bytes, offset);
     }
 
     /** Parse 4 bytes from the byte array (starting at the offset) as unsigned 32-bit integer in big endian format. */
     public static long readUint32BE(byte[] bytes, int offset) {
-        return ((bytes[offset] & 0xffL) << 24) |
-                ((bytes[offset + 1] & 0xffL) << 16) |
-                ((bytes[offset + 2] & 0xffL) << 8) |
-                (bytes[offset + 3] & 0xffL);
+        return ByteCodec.readUint32BE(bytes, offset);
     }
 
     /** Parse 2 bytes from the byte array (starting at the offset) as unsigned 16-bit integer in big endian format. */
     public static int readUint16BE(byte[] bytes, int offset) {
-        return ((bytes[offset] & 0xff) << 8) |
-                (bytes[offset + 1] & 0xff);
+        return ByteCodec.readUint16BE(bytes, offset);
     }
 
     /** Parse 2 bytes from the stream as unsigned 16-bit integer in little endian format. */
     public static int readUint16FromStream(InputStream is) {
         try {
-            return (is.read() & 0xff) |
-                    ((is.read() & 0xff) << 8);
+            return ByteCodec.readUint16LE(is);
         } catch (IOException x) {
             throw new RuntimeException(x);
         }
@@ -198,10 +147,7 @@ public class ByteUtils {
     /** Parse 4 bytes from the stream as unsigned 32-bit integer in little endian format. */
     public static long readUint32FromStream(InputStream is) {
         try {
-            return (is.read() & 0xffL) |
-                    ((is.read() & 0xffL) << 8) |
-                    ((is.read() & 0xffL) << 16) |
-                    ((is.read() & 0xffL) << 24);
+            return ByteCodec.readUint32LE(is);
         } catch (IOException x) {
             throw new RuntimeException(x);
         }
@@ -2,7 +2,19 @@ package org.hma.bitcoin.util;
 
 import com.google.common.primitives.Ints;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
 
+/**
+ * Bitcoin's variable length integer (CompactSize).
+ * <p>
+ * The static {@code read}/{@code write} methods work on primitives and never allocate, prefer them on parse and
+ * serialization paths. Reads reject non-canonical encodings, i.e. values that would fit a shorter form, the same as
+ * Bitcoin Core does for consensus data. Since a canonical value always takes {@link #sizeOf(long)} bytes, that is
+ * also how far a caller advances after a read.
+ */
 public class VarInt {
     private final long value;
     private final int originallyEncodedSize;
@@ -29,13 +41,13 @@ public class VarInt {
             value = first;
             originallyEncodedSize = 1; // 1 data byte (8 bits)
         } else if (first == 253) {
-            value = ByteUtils.readUint16(buf, offset + 1);
+            value = ByteCodec.readUint16LE(buf, offset + 1);
             originallyEncodedSize = 3; // 1 marker + 2 data bytes (16 bits)
         } else if (first == 254) {
-            value = ByteUtils.readUint32(buf, offset + 1);
+            value = ByteCodec.readUint32LE(buf, offset + 1);
             originallyEncodedSize = 5; // 1 marker + 4 data bytes (32 bits)
         } else {
-            value = ByteUtils.readInt64(buf, offset + 1);
+            value = ByteCodec.readInt64LE(buf, offset + 1);
             originallyEncodedSize = 9; // 1 marker + 8 data bytes (64 bits)
         }
     }
@@ -77,6 +89,113 @@ public class VarInt {
         return 9; // 1 marker + 8 data bytes
     }
 
+    /**
+     * Reads a canonically encoded value from the array at the offset.
+     *
+     * @throws ProtocolException if the value is not minimally encoded
+     */
+    public static long read(byte[] buf, int offset) throws ProtocolException {
+        int first = 0xFF & buf[offset];
+        if (first < 253) {
+            return first;
+        }
+        long value;
+        if (first == 253) {
+            value = ByteCodec.readUint16LE(buf, offset + 1);
+        } else if (first == 254) {
+            value = ByteCodec.readUint32LE(buf, offset + 1);
+        } else {
+            value = ByteCodec.readInt64LE(buf, offset + 1);
+        }
+        return checkCanonical(first, value);
+    }
+
+    /**
+     * Reads a canonically encoded value at the buffer's position and advances past it.
+     *
+     * @throws ProtocolException if the value is not minimally encoded
+     */
+    public static long read(ByteBuffer buf) throws ProtocolException {
+        int first = 0xFF & buf.get();
+        if (first < 253) {
+            return first;
+        }
+        long value;
+        if (first == 253) {
+            value = ByteCodec.readUint16LE(buf);
+        } else if (first == 254) {
+            value = ByteCodec.readUint32LE(buf);
+        } else {
+            value = ByteCodec.readInt64LE(buf);
+        }
+        return checkCanonical(first, value);
+    }
+
+    private static long checkCanonical(int marker, long value) throws ProtocolException {
+        int expected = marker == 253 ? 3 : marker == 254 ? 5 : 9;
+        if (sizeOf(value) != expected) {
+            throw new ProtocolException("Non-canonical VarInt: " + Long.toUnsignedString(value)
+                    + " encoded in " + expected + " bytes");
+        }
+        return value;
+    }
+
+    /**
+     * Writes the minimal encoding of the value into the array at the offset.
+     *
+     * @return the number of bytes written, {@link #sizeOf(long)}
+     */
+    public static int write(byte[] buf, int offset, long value) {
+        switch (sizeOf(value)) {
+            case 1:
+                buf[offset] = (byte) value;
+                return 1;
+            case 3:
+                buf[offset] = (byte) 253;
+                ByteCodec.writeInt16LE(buf, offset + 1, (int) value);
+                return 3;
+            case 5:
+                buf[offset] = (byte) 254;
+                ByteCodec.writeInt32LE(buf, offset + 1, value);
+                return 5;
+            default:
+                buf[offset] = (byte) 255;
+                ByteCodec.writeInt64LE(buf, offset + 1, value);
+                return 9;
+        }
+    }
+
+    /** Writes the minimal encoding of the value at the buffer's position and advances past it. */
+    public static void write(ByteBuffer buf, long value) {
+        switch (sizeOf(value)) {
+            case 1:
+                buf.put((byte) value);
+                break;
+            case 3:
+                buf.put((byte) 253);
+                ByteCodec.writeInt16LE(buf, (int) value);
+                break;
+            case 5:
+                buf.put((byte) 254);
+                ByteCodec.writeInt32LE(buf, value);
+                break;
+            default:
+                buf.put((byte) 255);
+                ByteCodec.writeInt64LE(buf, value);
+                break;
+        }
+    }
+
+    /** Writes the minimal encoding of the value to the stream. */
+    public static void write(OutputStream stream, long value) throws IOException {
+        if (sizeOf(value) == 1) {
+            stream.write((int) value);
+            return;
+        }
+        byte[] bytes = new byte[9];
+        stream.write(bytes, 0, write(bytes, 0, value));
+    }
+
     /**
      * Encodes the value into its minimal representation.
      *
@@ -90,17 +209,17 @@ public class VarInt {
             case 3:
                 bytes = new byte[3];
                 bytes[0] = (byte) 253;
-                ByteUtils.uint16ToByteArrayLE((int) value, bytes, 1);
+                ByteCodec.writeInt16LE(bytes, 1, (int) value);
                 return bytes;
             case 5:
                 bytes = new byte[5];
                 bytes[0] = (byte) 254;
-                ByteUtils.uint32ToByteArrayLE(value, bytes, 1);
+                ByteCodec.writeInt32LE(bytes, 1, value);
                 return bytes;
             default:
                 bytes = new byte[9];
                 bytes[0] = (byte) 255;
-                ByteUtils.int64ToByteArrayLE(value, bytes, 1);
+                ByteCodec.writeInt64LE(bytes, 1, value);
                 return bytes;
         }
     }
@@ -0,0 +1,52 @@
+package org.hma.bitcoin.wallet;
+
+import org.hma.bitcoin.model.OutPoint;
+
+import java.util.List;
+
+/** The inputs chosen by the {@link CoinSelector} and what they cost. Amounts are in satoshis. */
+public class CoinSelection {
+    private final String algorithm;
+    private final List<OutPoint> inputs;
+    private final long inputValue;
+    private final long fee;
+    private final long change;
+    private final long waste;
+
+    CoinSelection(String algorithm, List<OutPoint> inputs, long inputValue, long fee, long change, long waste) {
+        this.algorithm = algorithm;
+        this.inputs = inputs;
+        this.inputValue = inputValue;
+        this.fee = fee;
+        this.change = change;
+        this.waste = waste;
+    }
+
+    /** "bnb", "knapsack" or "srd". */
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    public List<OutPoint> getInputs() {
+        return inputs;
+    }
+
+    public long getInputValue() {
+        return inputValue;
+    }
+
+    /** Fee of the whole transaction, including the change output if there is one. */
+    public long getFee() {
+        return fee;
+    }
+
+    /** Value of the change output, 0 for a changeless transaction. */
+    public long getChange() {
+        return change;
+    }
+
+    /** Cost of this selection compared to spending the same inputs at the long-term fee rate, see Bitcoin Core. */
+    public long getWaste() {
+        return waste;
+    }
+}
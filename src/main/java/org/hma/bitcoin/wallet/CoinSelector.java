@@ -0,0 +1,448 @@
+package org.hma.bitcoin.wallet;
+
+import com.google.common.base.Preconditions;
+import org.hma.bitcoin.chain.ChainState;
+import org.hma.bitcoin.model.OutPoint;
+import org.hma.bitcoin.model.Utxo;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Chooses the inputs of a payment, following Bitcoin Core's wallet: Branch-and-Bound looks for a changeless set whose
+ * excess is below the cost of creating and later spending change; knapsack and single random draw produce a
+ * selection with change. Of the solutions found the one with the least waste wins.
+ * <p>
+ * Fee rates are in satoshis per 1000 vbytes. Candidates are reduced to their effective values, value minus the fee of
+ * spending them, held in a {@code long[]} sorted descending, so the searches over wallets with hundreds of thousands
+ * of outputs run over primitive arrays. Branch-and-Bound is cut off after a number of tries and every search stops at
+ * a deadline, returning the best solution found so far.
+ */
+@Component
+public class CoinSelector {
+    /** Version, marker, flag, counts and lock time of a segwit transaction, rounded up. */
+    static final int TX_OVERHEAD_VSIZE = 11;
+    /** Both the payment and the change output are assumed to be P2WPKH. */
+    static final int OUTPUT_VSIZE = 31;
+    static final int P2WPKH_INPUT_VSIZE = 68;
+    static final int MAX_TX_VSIZE = 100_000;
+    /** Smallest change output worth creating, Bitcoin Core's CHANGE_LOWER. Less is added to the fee instead. */
+    static final long MIN_CHANGE = 50_000;
+    /** Highest fee rate accepted, Bitcoin Core's default -maxfeerate of 0.1 BTC/kvB. Keeps fees far from overflow. */
+    public static final long MAX_FEE_RATE = 10_000_000;
+    private static final int KNAPSACK_ITERATIONS = 1000;
+
+    private final int maxTries;
+    private final long timeBudgetNanos;
+    private final long longTermFeeRate;
+
+    public CoinSelector(@Value("${node.wallet.coin-selection.max-tries:100000}") int maxTries,
+                        @Value("${node.wallet.coin-selection.time-budget-ms:250}") long timeBudgetMillis,
+                        @Value("${node.wallet.coin-selection.long-term-fee-rate:10000}") long longTermFeeRate) {
+        this.maxTries = maxTries;
+        this.timeBudgetNanos = timeBudgetMillis * 1_000_000;
+        this.longTermFeeRate = longTermFeeRate;
+    }
+
+    /**
+     * Selects inputs paying {@code amount} to one output at the fee rate, from outputs spendable in a block at
+     * {@code spendHeight}. Returns null if the spendable outputs don't cover the amount and fee.
+     */
+    public CoinSelection select(Map<OutPoint, Utxo> utxos, long amount, long feeRate, int spendHeight) {
+        Preconditions.checkArgument(amount > 0, "Amount must be positive");
+        Preconditions.checkArgument(feeRate >= 0 && feeRate <= MAX_FEE_RATE, "Fee rate must be between 0 and %s",
+                MAX_FEE_RATE);
+        long deadline = System.nanoTime() + timeBudgetNanos;
+
+        // Gather the candidates worth spending at this fee rate.
+        int count = utxos.size();
+        OutPoint[] outpoints = new OutPoint[count];
+        long[] values = new long[count];
+        long[] effective = new long[count];
+        int[] vsizes = new int[count];
+        int n = 0;
+        for (Map.Entry<OutPoint, Utxo> entry : utxos.entrySet()) {
+            Utxo utxo = entry.getValue();
+            if (utxo.isCoinbase() && spendHeight - utxo.getHeight() < ChainState.COINBASE_MATURITY) {
+                continue;
+            }
+            int vsize = inputVSize(utxo.getScriptPubKey());
+            long value = utxo.getValue() - fee(feeRate, vsize);
+            if (value <= 0) {
+                continue;
+            }
+            outpoints[n] = entry.getKey();
+            values[n] = utxo.getValue();
+            effective[n] = value;
+            vsizes[n] = vsize;
+            n++;
+        }
+
+        // Lay the candidates out largest first, with the waste of spending each now instead of at the long-term rate.
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        sortDescending(effective, order);
+        Pool pool = new Pool(n);
+        for (int i = 0; i < n; i++) {
+            int j = order[i];
+            pool.outpoints[i] = outpoints[j];
+            pool.values[i] = values[j];
+            pool.effective[i] = effective[j];
+            pool.vsizes[i] = vsizes[j];
+            pool.waste[i] = fee(feeRate, vsizes[j]) - fee(longTermFeeRate, vsizes[j]);
+        }
+
+        long target = amount + fee(feeRate, TX_OVERHEAD_VSIZE + OUTPUT_VSIZE);
+        long changeFee = fee(feeRate, OUTPUT_VSIZE);
+        long costOfChange = changeFee + fee(longTermFeeRate, P2WPKH_INPUT_VSIZE);
+        SplittableRandom random = new SplittableRandom();
+
+        CoinSelection best = null;
+        int[] selected = branchAndBound(pool, target, costOfChange, deadline);
+        if (selected != null) {
+            best = result("bnb", pool, selected, amount, target, -1, costOfChange);
+        }
+        selected = singleRandomDraw(pool, target + changeFee + MIN_CHANGE, random);
+        if (selected != null) {
+            best = better(best, result("srd", pool, selected, amount, target, changeFee, costOfChange));
+        }
+        if (System.nanoTime() < deadline) {
+            selected = knapsack(pool, target + changeFee, random, deadline);
+            if (selected != null) {
+                best = better(best, result("knapsack", pool, selected, amount, target, changeFee, costOfChange));
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Depth-first search for a changeless selection with an effective value between the target and the target plus
+     * the cost of change, minimising waste. Every candidate is first tried included, then excluded; a branch is cut
+     * when it can't reach the target anymore, overshoots the window, or already wastes more than the best solution
+     * while spending now is more expensive than later. Returns the indexes of the best selection, or null.
+     */
+    int[] branchAndBound(Pool pool, long target, long costOfChange, long deadline) {
+        int n = pool.size;
+        long[] effective = pool.effective;
+        long[] waste = pool.waste;
+        // Candidates above the window can't be part of any solution. In a large wallet they are most of the tree.
+        int start = firstAtMost(effective, n, target + costOfChange);
+        long available = 0;
+        for (int i = start; i < n; i++) {
+            available += effective[i];
+        }
+        if (available < target) {
+            return null;
+        }
+        boolean feesRising = waste[start] > 0;
+
+        int[] selection = new int[n];
+        int depth = 0;
+        int[] best = null;
+        long bestWaste = Long.MAX_VALUE;
+        long value = 0;
+        long currentWaste = 0;
+        int index = start;
+        for (int tries = 0; tries < maxTries; tries++, index++) {
+            if ((tries & 0x3FF) == 0 && tries > 0 && System.nanoTime() >= deadline) {
+                break;
+            }
+            boolean backtrack = false;
+            if (value + available < target || value > target + costOfChange
+                    || (currentWaste > bestWaste && feesRising)) {
+                backtrack = true;
+            } else if (value >= target) {
+                long total = currentWaste + value - target;
+                if (total <= bestWaste) {
+                    best = Arrays.copyOf(selection, depth);
+                    bestWaste = total;
+                }
+                backtrack = true;
+            }
+            if (backtrack) {
+                if (depth == 0) {
+                    break; // Whole tree searched.
+                }
+                // Give back the candidates skipped after the last included one, then exclude that one.
+                for (index--; index > selection[depth - 1]; index--) {
+                    available += effective[index];
+                }
+                value -= effective[index];
+                currentWaste -= waste[index];
+                depth--;
+            } else {
+                available -= effective[index];
+                // Excluding a candidate and including an identical one next is a branch already searched.
+                if (depth == 0 || index - 1 == selection[depth - 1]
+                        || effective[index] != effective[index - 1] || waste[index] != waste[index - 1]) {
+                    selection[depth++] = index;
+                    value += effective[index];
+                    currentWaste += waste[index];
+                }
+            }
+        }
+        return best;
+    }
+
+    /** Adds candidates in random order until the target is reached. Linear, so it always runs. */
+    int[] singleRandomDraw(Pool pool, long target, SplittableRandom random) {
+        int n = pool.size;
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        long value = 0;
+        for (int i = 0; i < n; i++) {
+            int j = i + random.nextInt(n - i);
+            int pick = order[j];
+            order[j] = order[i];
+            order[i] = pick;
+            value += pool.effective[pick];
+            if (value >= target) {
+                return Arrays.copyOf(order, i + 1);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Bitcoin Core's knapsack solver: an exact single match wins, otherwise the smaller candidates are combined by
+     * randomized passes looking for the smallest total reaching the target, or failing that the target plus the minimum
+     * change, and compared to the smallest candidate that covers that alone.
+     */
+    int[] knapsack(Pool pool, long target, SplittableRandom random, long deadline) {
+        long[] effective = pool.effective;
+        int n = pool.size;
+        // Candidates below target + MIN_CHANGE are a suffix of the descending pool; the one before is the lowest larger.
+        int first = firstAtMost(effective, n, target + MIN_CHANGE - 1);
+        int lowestLarger = first - 1;
+        long total = 0;
+        for (int i = first; i < n; i++) {
+            if (effective[i] == target) {
+                return new int[] {i};
+            }
+            total += effective[i];
+        }
+        if (total < target) {
+            return lowestLarger >= 0 ? new int[] {lowestLarger} : null;
+        }
+        if (total == target) {
+            return range(first, n);
+        }
+        int[] subset = approximateBestSubset(effective, first, n, total, target, random, deadline);
+        long subsetValue = sum(effective, subset);
+        if (subsetValue != target && total >= target + MIN_CHANGE) {
+            subset = approximateBestSubset(effective, first, n, total, target + MIN_CHANGE, random, deadline);
+            subsetValue = sum(effective, subset);
+        }
+        if (lowestLarger >= 0 && ((subsetValue != target && subsetValue < target + MIN_CHANGE)
+                || effective[lowestLarger] <= subsetValue)) {
+            return new int[] {lowestLarger};
+        }
+        return subset;
+    }
+
+    /**
+     * Randomized passes over {@code values[from, to)} looking for the subset with the smallest sum reaching the target.
+     * A pass keeps the included indexes on a stack, so remembering a better subset costs its size rather than the
+     * number of candidates. Returns the indexes of the best subset found, all of them if none was better.
+     */
+    private static int[] approximateBestSubset(long[] values, int from, int to, long total, long target,
+                                               SplittableRandom random, long deadline) {
+        int[] best = null;
+        long bestValue = total;
+        boolean[] included = new boolean[to - from];
+        int[] stack = new int[to - from];
+        for (int rep = 0; rep < KNAPSACK_ITERATIONS && bestValue != target; rep++) {
+            if (rep > 0 && System.nanoTime() >= deadline) {
+                break;
+            }
+            int depth = 0;
+            long value = 0;
+            boolean reached = false;
+            for (int pass = 0; pass < 2 && !reached; pass++) {
+                long bits = 0;
+                for (int i = from; i < to; i++) {
+                    // The first pass includes each candidate at random, 64 coin flips per random long.
+                    if ((i - from & 63) == 0) {
+                        bits = random.nextLong();
+                    }
+                    if (pass == 0 ? (bits >>> (i - from & 63) & 1) != 0 : !included[i - from]) {
+                        if (value + values[i] >= target) {
+                            // Reached with this candidate; record that and go on without it, looking for a closer sum.
+                            reached = true;
+                            if (value + values[i] < bestValue) {
+                                bestValue = value + values[i];
+                                best = Arrays.copyOf(stack, depth + 1);
+                                best[depth] = i;
+                            }
+                        } else {
+                            value += values[i];
+                            included[i - from] = true;
+                            stack[depth++] = i;
+                        }
+                    }
+                }
+            }
+            for (int k = 0; k < depth; k++) {
+                included[stack[k] - from] = false;
+            }
+        }
+        return best != null ? best : range(from, to);
+    }
+
+    /**
+     * Builds the result of a selection. With a {@code changeFee} of -1 the selection is changeless and its excess goes
+     * to the fee; otherwise change is added unless it would be below the minimum.
+     */
+    private static CoinSelection result(String algorithm, Pool pool, int[] selected, long amount, long target,
+                                        long changeFee, long costOfChange) {
+        long inputValue = 0;
+        long effective = 0;
+        long waste = 0;
+        int vsize = TX_OVERHEAD_VSIZE + OUTPUT_VSIZE;
+        List<OutPoint> inputs = new ArrayList<>(selected.length);
+        for (int i : selected) {
+            inputs.add(pool.outpoints[i]);
+            inputValue += pool.values[i];
+            effective += pool.effective[i];
+            waste += pool.waste[i];
+            vsize += pool.vsizes[i];
+        }
+        if (vsize > MAX_TX_VSIZE) {
+            return null;
+        }
+        long change = changeFee < 0 ? 0 : effective - target - changeFee;
+        if (change < MIN_CHANGE) {
+            change = 0;
+            waste += effective - target;
+        } else {
+            waste += costOfChange;
+        }
+        return new CoinSelection(algorithm, inputs, inputValue, inputValue - amount - change, change, waste);
+    }
+
+    private static CoinSelection better(CoinSelection best, CoinSelection candidate) {
+        return best == null || (candidate != null && candidate.getWaste() < best.getWaste()) ? candidate : best;
+    }
+
+    /** Estimated vsize of an input spending the script, assuming single-key scripts where the type allows several. */
+    static int inputVSize(byte[] script) {
+        int length = script.length;
+        if (length == 22 && script[0] == 0x00 && script[1] == 0x14) {
+            return P2WPKH_INPUT_VSIZE;
+        } else if (length == 34 && script[0] == 0x51 && script[1] == 0x20) {
+            return 58; // P2TR key path
+        } else if (length == 23 && script[0] == (byte) 0xa9) {
+            return 91; // P2SH wrapping P2WPKH
+        } else if (length == 34 && script[0] == 0x00 && script[1] == 0x20) {
+            return 105; // P2WSH 2-of-3 multisig
+        }
+        return 148; // P2PKH, and a conservative guess for anything else
+    }
+
+    static long fee(long feeRate, int vsize) {
+        return Math.ceilDiv(feeRate * vsize, 1000);
+    }
+
+    /** Heap sorts the keys descending, permuting the payload alongside, without boxing either. */
+    static void sortDescending(long[] keys, int[] payload) {
+        int n = payload.length;
+        long[] sorted = new long[n];
+        for (int i = 0; i < n; i++) {
+            sorted[i] = keys[payload[i]];
+        }
+        for (int i = n / 2 - 1; i >= 0; i--) {
+            siftDown(sorted, payload, i, n);
+        }
+        // A min-heap moves the smallest key to the end first, leaving the array descending.
+        for (int end = n - 1; end > 0; end--) {
+            swap(sorted, payload, 0, end);
+            siftDown(sorted, payload, 0, end);
+        }
+    }
+
+    private static void siftDown(long[] keys, int[] payload, int i, int n) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= n) {
+                return;
+            }
+            if (child + 1 < n && keys[child + 1] < keys[child]) {
+                child++;
+            }
+            if (keys[i] <= keys[child]) {
+                return;
+            }
+            swap(keys, payload, i, child);
+            i = child;
+        }
+    }
+
+    private static void swap(long[] keys, int[] payload, int i, int j) {
+        long key = keys[i];
+        keys[i] = keys[j];
+        keys[j] = key;
+        int value = payload[i];
+        payload[i] = payload[j];
+        payload[j] = value;
+    }
+
+    /** Binary search for the first index whose value is at most the bound, in an array sorted descending. */
+    static int firstAtMost(long[] descending, int n, long bound) {
+        int low = 0;
+        int high = n;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (descending[mid] > bound) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int[] range(int from, int to) {
+        int[] result = new int[to - from];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = from + i;
+        }
+        return result;
+    }
+
+    private static long sum(long[] values, int[] indexes) {
+        long total = 0;
+        for (int i : indexes) {
+            total += values[i];
+        }
+        return total;
+    }
+
+    /** Candidates as parallel arrays, sorted by effective value descending. */
+    static final class Pool {
+        final int size;
+        final OutPoint[] outpoints;
+        final long[] values;
+        final long[] effective;
+        final int[] vsizes;
+        /** Fee at the current rate minus fee at the long-term rate. */
+        final long[] waste;
+
+        Pool(int size) {
+            this.size = size;
+            this.outpoints = new OutPoint[size];
+            this.values = new long[size];
+            this.effective = new long[size];
+            this.vsizes = new int[size];
+            this.waste = new long[size];
+        }
+    }
+}
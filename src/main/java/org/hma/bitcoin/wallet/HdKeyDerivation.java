@@ -0,0 +1,145 @@
+package org.hma.bitcoin.wallet;
+
+import jakarta.annotation.PreDestroy;
+import org.hma.bitcoin.crypto.ExtendedKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Derives the P2WPKH scripts of BIP-32 key chains for the {@link Wallet}.
+ * <p>
+ * Account and chain keys are cached by parent key and path, so deriving an address costs a single child derivation
+ * from its chain key instead of a walk from the root. Address ranges are split into batches derived in parallel, each
+ * batch normalizing its points together. Gap-limit scanning watches whole batches at once, so a scan costs one pass
+ * over the UTXO set per batch rather than per address.
+ */
+@Component
+public class HdKeyDerivation {
+    private static final Logger LOG = LoggerFactory.getLogger(HdKeyDerivation.class);
+
+    public static final int RECEIVE_CHAIN = 0;
+    public static final int CHANGE_CHAIN = 1;
+
+    private final Wallet wallet;
+    private final ExecutorService derivers;
+    private final int batchSize;
+    private final Map<String, ExtendedKey> cache = new ConcurrentHashMap<>();
+
+    public HdKeyDerivation(Wallet wallet,
+                           @Value("${node.wallet.hd.threads:0}") int threads,
+                           @Value("${node.wallet.hd.batch-size:1000}") int batchSize) {
+        this.wallet = wallet;
+        this.batchSize = batchSize;
+        this.derivers = Executors.newFixedThreadPool(
+                threads > 0 ? threads : Runtime.getRuntime().availableProcessors(), runnable -> {
+                    Thread thread = new Thread(runnable, "hd-deriver");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    @PreDestroy
+    public void close() {
+        derivers.shutdownNow();
+    }
+
+    /**
+     * Returns the key at the path below the parent, deriving and caching every intermediate key not seen before. A
+     * private parent and its public counterpart are cached apart, so each gets children of its own kind.
+     */
+    public ExtendedKey derive(ExtendedKey parent, int... path) {
+        ExtendedKey key = parent;
+        StringBuilder id = new StringBuilder(parent.hasPrivateKey() ? "prv:" : "pub:")
+                .append(HexFormat.of().formatHex(parent.getPubKey()))
+                .append(HexFormat.of().formatHex(parent.getChainCode()));
+        for (int index : path) {
+            ExtendedKey current = key;
+            id.append('/').append(Integer.toUnsignedString(index));
+            key = cache.computeIfAbsent(id.toString(), unused -> current.deriveChild(index));
+        }
+        return key;
+    }
+
+    /**
+     * Derives the P2WPKH scripts of children {@code from} to {@code from + count - 1} of the chain key, in parallel
+     * batches. Invalid children, which BIP-32 skips, are returned as null to keep indexes aligned.
+     */
+    public List<byte[]> deriveScripts(ExtendedKey chainKey, int from, int count) {
+        List<Future<byte[][]>> batches = new ArrayList<>();
+        for (int start = from; start < from + count; start += batchSize) {
+            int batchFrom = start;
+            int batchCount = Math.min(batchSize, from + count - start);
+            batches.add(derivers.submit(() -> {
+                byte[][] keys = chainKey.derivePublicKeys(batchFrom, batchCount);
+                for (int i = 0; i < keys.length; i++) {
+                    if (keys[i] != null) {
+                        keys[i] = p2wpkh(ExtendedKey.hash160(keys[i]));
+                    }
+                }
+                return keys;
+            }));
+        }
+        List<byte[]> scripts = new ArrayList<>(count);
+        try {
+            for (Future<byte[][]> batch : batches) {
+                scripts.addAll(Arrays.asList(batch.get()));
+            }
+        } catch (InterruptedException e) {
+            batches.forEach(batch -> batch.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted deriving scripts", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to derive scripts", e.getCause());
+        }
+        return scripts;
+    }
+
+    /**
+     * Watches the scripts of the chain key until {@code gapLimit} consecutive ones hold no coins, and returns the
+     * index after the last used one. An address counts as used while it holds unspent outputs; the wallet keeps no
+     * history, so addresses that were emptied look unused.
+     */
+    public int scan(ExtendedKey chainKey, int gapLimit) {
+        int nextUnused = 0;
+        int derived = 0;
+        while (derived < nextUnused + gapLimit) {
+            int count = Math.max(batchSize, nextUnused + gapLimit - derived);
+            List<byte[]> scripts = deriveScripts(chainKey, derived, count);
+            List<byte[]> valid = new ArrayList<>(scripts.size());
+            for (byte[] script : scripts) {
+                if (script != null) {
+                    valid.add(script);
+                }
+            }
+            wallet.watch(valid);
+            for (int i = 0; i < scripts.size(); i++) {
+                if (scripts.get(i) != null && wallet.getBalance(scripts.get(i)) > 0) {
+                    nextUnused = derived + i + 1;
+                }
+            }
+            derived += count;
+        }
+        LOG.info("Scanned {} addresses of {}, {} in use", derived, chainKey, nextUnused);
+        return nextUnused;
+    }
+
+    static byte[] p2wpkh(byte[] pubKeyHash) {
+        byte[] script = new byte[22];
+        script[1] = 0x14;
+        System.arraycopy(pubKeyHash, 0, script, 2, 20);
+        return script;
+    }
+}
@@ -0,0 +1,98 @@
+package org.hma.bitcoin.wallet;
+
+import org.hma.bitcoin.crypto.SipHash;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Set of scriptPubKeys that assigns each script a dense id, for checking millions of watched scripts against every
+ * output of a block.
+ * <p>
+ * Scripts are looked up by a keyed SipHash in an open addressing table of primitive arrays, so a lookup allocates
+ * nothing and touches two arrays plus the script it compares against. The key is random per instance so nobody can
+ * craft outputs that collide in the table. Not thread-safe.
+ */
+public class ScriptSet {
+    private static final int EMPTY = -1;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final long k0 = RANDOM.nextLong();
+    private final long k1 = RANDOM.nextLong();
+    private final List<byte[]> scripts = new ArrayList<>();
+    private long[] hashes;
+    private int[] ids;
+    private int mask;
+
+    public ScriptSet(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(16, expectedSize * 2 - 1)) << 1;
+        allocate(capacity);
+    }
+
+    /** Adds the script if absent and returns its id. */
+    public int add(byte[] script) {
+        long hash = SipHash.hash24(k0, k1, script);
+        int id = find(hash, script);
+        if (id != EMPTY) {
+            return id;
+        }
+        if ((scripts.size() + 1) * 4L > hashes.length * 3L) {
+            rehash(hashes.length * 2);
+        }
+        id = scripts.size();
+        scripts.add(script.clone());
+        insert(hash, id);
+        return id;
+    }
+
+    /** Returns the id of the script, or -1 if it isn't in the set. */
+    public int indexOf(byte[] script) {
+        return find(SipHash.hash24(k0, k1, script), script);
+    }
+
+    public byte[] get(int id) {
+        return scripts.get(id);
+    }
+
+    public int size() {
+        return scripts.size();
+    }
+
+    private int find(long hash, byte[] script) {
+        for (int slot = (int) hash & mask; ids[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (hashes[slot] == hash && Arrays.equals(scripts.get(ids[slot]), script)) {
+                return ids[slot];
+            }
+        }
+        return EMPTY;
+    }
+
+    private void insert(long hash, int id) {
+        int slot = (int) hash & mask;
+        while (ids[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        hashes[slot] = hash;
+        ids[slot] = id;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldHashes = hashes;
+        int[] oldIds = ids;
+        allocate(capacity);
+        for (int slot = 0; slot < oldIds.length; slot++) {
+            if (oldIds[slot] != EMPTY) {
+                insert(oldHashes[slot], oldIds[slot]);
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        hashes = new long[capacity];
+        ids = new int[capacity];
+        Arrays.fill(ids, EMPTY);
+        mask = capacity - 1;
+    }
+}
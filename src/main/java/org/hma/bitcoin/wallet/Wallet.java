@@ -0,0 +1,274 @@
+package org.hma.bitcoin.wallet;
+
+import org.hma.bitcoin.chain.BlockIndex;
+import org.hma.bitcoin.chain.BlockUndo;
+import org.hma.bitcoin.chain.ChainListener;
+import org.hma.bitcoin.chain.ChainState;
+import org.hma.bitcoin.crypto.Sha256;
+import org.hma.bitcoin.model.Block;
+import org.hma.bitcoin.model.OutPoint;
+import org.hma.bitcoin.model.Transaction;
+import org.hma.bitcoin.model.TransactionOutput;
+import org.hma.bitcoin.model.Utxo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Watch-only wallet: the unspent outputs and balances of a set of watched scriptPubKeys, kept up to date as blocks
+ * are connected and disconnected.
+ * <p>
+ * Every output and every spent output of a block is looked up once in a {@link ScriptSet}; only matches touch the
+ * per-script index. Spent outputs come from the block's undo data, so spends are detected by script without a lookup
+ * per input.
+ */
+@Component
+public class Wallet implements ChainListener {
+    private static final Logger LOG = LoggerFactory.getLogger(Wallet.class);
+
+    private final ChainState chain;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ScriptSet scripts;
+    private final Map<OutPoint, Utxo> utxos = new HashMap<>();
+    /** Confirmation height and number of unspent watched outputs, by transaction. */
+    private final Map<Sha256, int[]> heights = new HashMap<>();
+    private final List<Set<OutPoint>> utxosByScript = new ArrayList<>();
+    private long[] balances = new long[64];
+
+    public Wallet(ChainState chain, @Value("${node.wallet.expected-scripts:65536}") int expectedScripts) {
+        this.chain = chain;
+        this.scripts = new ScriptSet(expectedScripts);
+        chain.addListener(this);
+    }
+
+    /**
+     * Starts watching the scripts and picks up their outputs from the current UTXO set, in one pass over it for the
+     * whole batch. Returns the number of scripts that weren't watched before.
+     */
+    public int watch(List<byte[]> newScripts) {
+        // Hold the chain lock so no block is connected between the scan and the next notification.
+        synchronized (chain) {
+            lock.writeLock().lock();
+            try {
+                int firstNew = scripts.size();
+                for (byte[] script : newScripts) {
+                    scripts.add(script);
+                }
+                int added = scripts.size() - firstNew;
+                if (added > 0) {
+                    balances = Arrays.copyOf(balances, Math.max(balances.length, scripts.size()));
+                    chain.getUtxos().forEach((outpoint, utxo) -> {
+                        int id = scripts.indexOf(utxo.getScriptPubKey());
+                        if (id >= firstNew) {
+                            addOutput(id, outpoint, utxo);
+                        }
+                    });
+                    LOG.info("Watching {} more scripts, {} in total", added, scripts.size());
+                }
+                return added;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    public boolean isWatched(byte[] script) {
+        lock.readLock().lock();
+        try {
+            return scripts.indexOf(script) >= 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Returns the confirmed balance of the script in satoshis, or -1 if it isn't watched. */
+    public long getBalance(byte[] script) {
+        lock.readLock().lock();
+        try {
+            int id = scripts.indexOf(script);
+            return id >= 0 ? balances[id] : -1;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Returns the unspent outputs paying to the script, or null if it isn't watched. */
+    public Map<OutPoint, Utxo> getUtxos(byte[] script) {
+        lock.readLock().lock();
+        try {
+            int id = scripts.indexOf(script);
+            if (id < 0) {
+                return null;
+            }
+            Map<OutPoint, Utxo> result = new HashMap<>();
+            Set<OutPoint> outpoints = id < utxosByScript.size() ? utxosByScript.get(id) : null;
+            if (outpoints != null) {
+                for (OutPoint outpoint : outpoints) {
+                    result.put(outpoint, utxos.get(outpoint));
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getTotalBalance() {
+        lock.readLock().lock();
+        try {
+            long total = 0;
+            for (Utxo utxo : utxos.values()) {
+                total += utxo.getValue();
+            }
+            return total;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Returns a copy of all unspent outputs paying to watched scripts. */
+    public Map<OutPoint, Utxo> getAllUtxos() {
+        lock.readLock().lock();
+        try {
+            return new HashMap<>(utxos);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Returns the height of the block confirming an unspent watched output of the transaction, or -1. */
+    public int getHeight(Sha256 txId) {
+        lock.readLock().lock();
+        try {
+            int[] confirmed = heights.get(txId);
+            return confirmed != null ? confirmed[0] : -1;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getScriptCount() {
+        lock.readLock().lock();
+        try {
+            return scripts.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getUtxoCount() {
+        lock.readLock().lock();
+        try {
+            return utxos.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void onBlockConnected(Block block, BlockIndex index, BlockUndo undo) {
+        lock.writeLock().lock();
+        try {
+            if (scripts.size() == 0) {
+                return;
+            }
+            List<Transaction> txs = block.getTransactions();
+            for (int i = 0; i < txs.size(); i++) {
+                Transaction tx = txs.get(i);
+                if (i > 0) {
+                    Utxo[] spent = undo.getSpent().get(i - 1);
+                    for (int j = 0; j < spent.length; j++) {
+                        int id = scripts.indexOf(spent[j].getScriptPubKey());
+                        if (id >= 0) {
+                            removeOutput(id, tx.getInputs().get(j).getOutpoint());
+                        }
+                    }
+                }
+                List<TransactionOutput> outputs = tx.getOutputs();
+                for (int j = 0; j < outputs.size(); j++) {
+                    TransactionOutput output = outputs.get(j);
+                    int id = scripts.indexOf(output.getScriptPubKey());
+                    if (id >= 0) {
+                        addOutput(id, new OutPoint(tx.getTxId(), j),
+                                new Utxo(output.getValue(), output.getScriptPubKey(), index.getHeight(), i == 0));
+                    }
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void onBlockDisconnected(Block block, BlockIndex index, BlockUndo undo) {
+        lock.writeLock().lock();
+        try {
+            if (scripts.size() == 0) {
+                return;
+            }
+            List<Transaction> txs = block.getTransactions();
+            for (int i = txs.size() - 1; i >= 0; i--) {
+                Transaction tx = txs.get(i);
+                List<TransactionOutput> outputs = tx.getOutputs();
+                for (int j = 0; j < outputs.size(); j++) {
+                    int id = scripts.indexOf(outputs.get(j).getScriptPubKey());
+                    if (id >= 0) {
+                        removeOutput(id, new OutPoint(tx.getTxId(), j));
+                    }
+                }
+                if (i > 0) {
+                    Utxo[] spent = undo.getSpent().get(i - 1);
+                    for (int j = 0; j < spent.length; j++) {
+                        int id = scripts.indexOf(spent[j].getScriptPubKey());
+                        if (id >= 0) {
+                            addOutput(id, tx.getInputs().get(j).getOutpoint(), spent[j]);
+                        }
+                    }
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void addOutput(int id, OutPoint outpoint, Utxo utxo) {
+        if (utxos.put(outpoint, utxo) != null) {
+            return;
+        }
+        balances[id] += utxo.getValue();
+        while (utxosByScript.size() <= id) {
+            utxosByScript.add(null);
+        }
+        Set<OutPoint> outpoints = utxosByScript.get(id);
+        if (outpoints == null) {
+            outpoints = new HashSet<>(4);
+            utxosByScript.set(id, outpoints);
+        }
+        outpoints.add(outpoint);
+        heights.computeIfAbsent(outpoint.getHash(), txId -> new int[]{utxo.getHeight(), 0})[1]++;
+    }
+
+    private void removeOutput(int id, OutPoint outpoint) {
+        Utxo utxo = utxos.remove(outpoint);
+        if (utxo == null) {
+            return;
+        }
+        balances[id] -= utxo.getValue();
+        utxosByScript.get(id).remove(outpoint);
+        int[] confirmed = heights.get(outpoint.getHash());
+        if (--confirmed[1] == 0) {
+            heights.remove(outpoint.getHash());
+        }
+    }
+}
@@ -0,0 +1,61 @@
+-- Blocks of the active chain with their transactions, inputs and outputs. Rows are keyed by height and position in
+-- the block, so a disconnected block is removed by deleting its height. Hashes are stored in internal byte order.
+
+CREATE TABLE blocks (
+    height     INT        NOT NULL,
+    hash       BINARY(32) NOT NULL,
+    prev_hash  BINARY(32) NOT NULL,
+    version    BIGINT     NOT NULL,
+    time       BIGINT     NOT NULL,
+    bits       BIGINT     NOT NULL,
+    nonce      BIGINT     NOT NULL,
+    size       INT        NOT NULL,
+    tx_count   INT        NOT NULL,
+    PRIMARY KEY (height)
+);
+
+CREATE INDEX blocks_hash ON blocks (hash);
+
+CREATE TABLE transactions (
+    height       INT        NOT NULL,
+    position     INT        NOT NULL,
+    txid         BINARY(32) NOT NULL,
+    version      BIGINT     NOT NULL,
+    lock_time    BIGINT     NOT NULL,
+    size         INT        NOT NULL,
+    input_count  INT        NOT NULL,
+    output_count INT        NOT NULL,
+    -- Null for coinbase transactions
+    fee          BIGINT,
+    PRIMARY KEY (height, position)
+);
+
+CREATE INDEX transactions_txid ON transactions (txid);
+
+CREATE TABLE inputs (
+    height      INT        NOT NULL,
+    position    INT        NOT NULL,
+    vin         INT        NOT NULL,
+    prev_txid   BINARY(32) NOT NULL,
+    prev_vout   BIGINT     NOT NULL,
+    sequence    BIGINT     NOT NULL,
+    script_sig  MEDIUMBLOB NOT NULL,
+    -- The spent output, from the block's undo data; null for the coinbase input
+    value       BIGINT,
+    prev_height INT,
+    PRIMARY KEY (height, position, vin)
+);
+
+CREATE INDEX inputs_prev ON inputs (prev_txid, prev_vout);
+
+CREATE TABLE outputs (
+    height        INT        NOT NULL,
+    position      INT        NOT NULL,
+    vout          INT        NOT NULL,
+    txid          BINARY(32) NOT NULL,
+    value         BIGINT     NOT NULL,
+    script_pubkey MEDIUMBLOB NOT NULL,
+    PRIMARY KEY (height, position, vout)
+);
+
+CREATE INDEX outputs_txid ON outputs (txid, vout);
@@ -0,0 +1,177 @@
+package org.hma.bitcoin.analytics;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.hma.bitcoin.chain.BlockIndex;
+import org.hma.bitcoin.chain.ChainState;
+import org.hma.bitcoin.chain.HeaderIndex;
+import org.hma.bitcoin.chain.UtxoSet;
+import org.hma.bitcoin.metrics.NodeMetrics;
+import org.hma.bitcoin.model.Block;
+import org.hma.bitcoin.model.Transaction;
+import org.hma.bitcoin.network.Network;
+import org.hma.bitcoin.script.ScriptVerifier;
+import org.hma.bitcoin.storage.BlockFileStore;
+import org.hma.bitcoin.storage.DataDirectory;
+import org.hma.bitcoin.storage.UndoFileStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.hma.bitcoin.chain.Blocks.coinbase;
+import static org.hma.bitcoin.chain.Blocks.extend;
+import static org.hma.bitcoin.chain.Blocks.mine;
+import static org.hma.bitcoin.chain.Blocks.spend;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Runs the ingester against an in-memory H2 database in MySQL mode, with a regtest chain on disk. */
+class AnalyticsIngesterTest {
+    private static final Network NETWORK = Network.regtest();
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    @TempDir
+    Path dataDir;
+
+    private final String url = "jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MySQL;NON_KEYWORDS=VALUE;DB_CLOSE_DELAY=-1";
+    private BlockFileStore blockStore;
+    private UndoFileStore undoStore;
+    private ChainState chain;
+    private Connection connection;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        DataDirectory directory = new DataDirectory(dataDir.toString(), NETWORK);
+        NodeMetrics metrics = new NodeMetrics(new SimpleMeterRegistry());
+        blockStore = new BlockFileStore(directory, NETWORK);
+        undoStore = new UndoFileStore(directory, NETWORK);
+        chain = new ChainState(NETWORK, new HeaderIndex(NETWORK), new UtxoSet(metrics), blockStore, undoStore, metrics,
+                new ScriptVerifier(100), "");
+        connection = DriverManager.getConnection(url);
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        connection.close();
+    }
+
+    @Test
+    void backfillsEarlierBlocksAndFollowsTheChain() throws Exception {
+        chain.connectBlock(NETWORK.getGenesisBlock());
+        // Coinbases mature after 100 blocks, so the first one is spendable at height 101.
+        Transaction mature = extend(chain, ChainState.COINBASE_MATURITY).get(0);
+        chain.connectBlock(mine(chain.getTip().getHash(), List.of(coinbase(101, 50), spend(mature, 30))));
+
+        AnalyticsIngester ingester = newIngester(3);
+        Block block102 = mine(chain.getTip().getHash(), List.of(coinbase(102, 50)));
+        chain.connectBlock(block102);
+        chain.connectBlock(mine(block102.getHash(), List.of(coinbase(103, 50))));
+        chain.disconnectTip();
+        awaitHeights(IntStream.rangeClosed(0, 102).toArray());
+        ingester.close();
+
+        assertArrayEquals(block102.getHash().getBytes(), bytes("SELECT hash FROM blocks WHERE height = 102"));
+        assertEquals(List.of(0), ints("SELECT COUNT(*) FROM transactions WHERE height = 103"));
+        // The spend pays 30 of the 50 it spends.
+        assertEquals(List.of(20), ints("SELECT fee FROM transactions WHERE height = 101 AND position = 1"));
+        assertEquals(List.of(1), ints("SELECT prev_height FROM inputs WHERE height = 101 AND position = 1"));
+    }
+
+    @Test
+    void replacesStaleBlocksOnStartup() throws Exception {
+        Block genesis = NETWORK.getGenesisBlock();
+        chain.connectBlock(genesis);
+        AnalyticsIngester first = newIngester(3);
+        awaitHeights(0);
+        first.close();
+        String zeros = "X'" + "00".repeat(32) + "'";
+        update("INSERT INTO blocks VALUES (5, " + zeros + ", " + zeros + ", 1, 0, 0, 0, 81, 1)");
+        update("UPDATE blocks SET hash = X'" + "11".repeat(32) + "' WHERE height = 0");
+
+        AnalyticsIngester second = newIngester(3);
+        await(() -> Arrays.equals(genesis.getHash().getBytes(), bytes("SELECT hash FROM blocks WHERE height = 0")));
+        second.close();
+
+        assertEquals(List.of(0), ints("SELECT height FROM blocks"));
+    }
+
+    @Test
+    void dropsBlocksWhileTheDatabaseFailsAndBackfillsThemAfter() throws Exception {
+        BlockIndex tip = chain.connectBlock(NETWORK.getGenesisBlock());
+        AnalyticsIngester ingester = newIngester(1);
+        awaitHeights(0);
+        update("ALTER TABLE outputs RENAME TO outputs_away");
+
+        // More blocks than the queues hold: with the writers stuck the chain would block for good.
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            BlockIndex walk = tip;
+            for (int height = 1; height <= 20; height++) {
+                walk = chain.connectBlock(mine(walk.getHash(), List.of(coinbase(height, 50))));
+            }
+        });
+        update("ALTER TABLE outputs_away RENAME TO outputs");
+        chain.connectBlock(mine(chain.getTip().getHash(), List.of(coinbase(21, 50))));
+
+        awaitHeights(IntStream.rangeClosed(0, 21).toArray());
+        ingester.close();
+        assertEquals(List.of(22), ints("SELECT COUNT(*) FROM outputs"));
+    }
+
+    private AnalyticsIngester newIngester(int maxRetries) throws SQLException {
+        return new AnalyticsIngester(chain, blockStore, undoStore, url, "", "", 2, 4, 3, maxRetries, 50);
+    }
+
+    private void awaitHeights(int... heights) {
+        List<Integer> expected = IntStream.of(heights).boxed().collect(Collectors.toList());
+        await(() -> ints("SELECT height FROM blocks ORDER BY height").equals(expected));
+    }
+
+    /** Waits for the writers to make the condition true. */
+    private static void await(Callable<Boolean> condition) {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            while (!condition.call()) {
+                Thread.sleep(10);
+            }
+        });
+    }
+
+    private void update(String sql) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate(sql);
+        }
+    }
+
+    private List<Integer> ints(String query) throws SQLException {
+        List<Integer> values = new ArrayList<>();
+        try (Statement statement = connection.createStatement(); ResultSet rows = statement.executeQuery(query)) {
+            while (rows.next()) {
+                values.add(rows.getInt(1));
+            }
+        }
+        return values;
+    }
+
+    private byte[] bytes(String query) throws SQLException {
+        try (Statement statement = connection.createStatement(); ResultSet rows = statement.executeQuery(query)) {
+            assertTrue(rows.next());
+            return rows.getBytes(1);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package org.hma.bitcoin.chain;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.hma.bitcoin.crypto.Sha256;
+import org.hma.bitcoin.metrics.NodeMetrics;
+import org.hma.bitcoin.model.Block;
+import org.hma.bitcoin.network.Network;
+import org.hma.bitcoin.script.ScriptVerifier;
+import org.hma.bitcoin.storage.BlockFileStore;
+import org.hma.bitcoin.storage.DataDirectory;
+import org.hma.bitcoin.storage.FilePosition;
+import org.hma.bitcoin.storage.UndoFileStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hma.bitcoin.chain.Blocks.coinbase;
+import static org.hma.bitcoin.chain.Blocks.mine;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Imports a regtest chain of twelve blocks from blk files holding them out of chain order, together with a shorter
+ * fork and a block whose parent is in no file.
+ */
+class BlockImporterTest {
+    private static final Network NETWORK = Network.regtest();
+
+    @TempDir
+    Path dataDir;
+
+    /** Blocks 1 to 12 on the genesis block. */
+    private final List<Block> main = new ArrayList<>();
+    /** Blocks 6 and 7 of a fork from block 5. */
+    private final List<Block> fork = new ArrayList<>();
+    private Block orphan;
+    private final List<BlockImporter> importers = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        Sha256 prev = NETWORK.getGenesisBlock().getHash();
+        for (int height = 1; height <= 12; height++) {
+            Block block = mine(prev, List.of(coinbase(height, 50)));
+            main.add(block);
+            prev = block.getHash();
+        }
+        prev = main.get(4).getHash();
+        for (int height = 6; height <= 7; height++) {
+            Block block = mine(prev, List.of(coinbase(height, 60)));
+            fork.add(block);
+            prev = block.getHash();
+        }
+        orphan = mine(Sha256.wrap(Sha256.hashTwice(new byte[]{1})), List.of(coinbase(3, 50)));
+    }
+
+    @AfterEach
+    void tearDown() {
+        importers.forEach(BlockImporter::close);
+    }
+
+    @Test
+    void loadsTheLongestChainFromFilesOutOfOrder() throws IOException {
+        // The second half of the chain first, newest first, then the fork; the first half and the orphan follow in
+        // another file.
+        BlockFileStore first = store("first");
+        for (int i = 11; i >= 6; i--) {
+            write(first, main.get(i));
+        }
+        fork.forEach(block -> write(first, block));
+        first.flush();
+        BlockFileStore second = store("second");
+        write(second, orphan);
+        for (int i = 5; i >= 0; i--) {
+            write(second, main.get(i));
+        }
+        second.flush();
+        BlockFileStore store = store("node");
+        ChainState chain = newChain(store);
+        chain.connectBlock(NETWORK.getGenesisBlock());
+        BlockImporter importer = importer(chain, store);
+
+        List<Path> files = List.of(first.getFiles().path(0), second.getFiles().path(0));
+        assertEquals(12, importer.load(files));
+        assertEquals(main.get(11).getHash(), chain.getTip().getHash());
+        assertEquals(main.get(6).getHash(), chain.getByHeight(7).getHash());
+        // Nothing in them extends the new tip.
+        assertEquals(0, importer.load(files));
+    }
+
+    @Test
+    void reindexesBlocksOutOfOrderWhereTheyAre() throws IOException {
+        BlockFileStore store = store("node");
+        Map<Sha256, FilePosition> positions = new HashMap<>();
+        List<Block> written = new ArrayList<>(fork);
+        for (int i = 11; i >= 6; i--) {
+            written.add(main.get(i));
+        }
+        written.add(NETWORK.getGenesisBlock());
+        written.add(orphan);
+        for (int i = 5; i >= 0; i--) {
+            written.add(main.get(i));
+        }
+        for (Block block : written) {
+            positions.put(block.getHash(), write(store, block));
+        }
+        store.flush();
+        long size = Files.size(store.getFiles().path(0));
+        ChainState chain = newChain(store);
+
+        assertEquals(13, importer(chain, store).reindex());
+        assertEquals(main.get(11).getHash(), chain.getTip().getHash());
+        for (int height = 0; height <= 12; height++) {
+            BlockIndex index = chain.getByHeight(height);
+            FilePosition position = positions.get(index.getHash());
+            assertEquals(position.getOffset(), index.getBlockPosition().getOffset(), "offset of block " + height);
+        }
+        assertEquals(size, Files.size(store.getFiles().path(0)));
+    }
+
+    /** The block store of a data directory of its own. */
+    private BlockFileStore store(String name) throws IOException {
+        return new BlockFileStore(new DataDirectory(dataDir.resolve(name).toString(), NETWORK), NETWORK);
+    }
+
+    private ChainState newChain(BlockFileStore store) throws IOException {
+        DataDirectory directory = new DataDirectory(dataDir.resolve("node").toString(), NETWORK);
+        NodeMetrics metrics = new NodeMetrics(new SimpleMeterRegistry());
+        return new ChainState(NETWORK, new HeaderIndex(NETWORK), new UtxoSet(metrics), store,
+                new UndoFileStore(directory, NETWORK), metrics, new ScriptVerifier(100), "");
+    }
+
+    private BlockImporter importer(ChainState chain, BlockFileStore store) {
+        BlockImporter importer = new BlockImporter(chain, store, NETWORK, 2, 4);
+        importers.add(importer);
+        return importer;
+    }
+
+    private static FilePosition write(BlockFileStore store, Block block) {
+        try {
+            return store.writeBlock(block.deserialize());
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
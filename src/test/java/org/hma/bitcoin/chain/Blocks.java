@@ -0,0 +1,68 @@
+package org.hma.bitcoin.chain;
+
+import org.hma.bitcoin.crypto.Sha256;
+import org.hma.bitcoin.model.Block;
+import org.hma.bitcoin.model.OutPoint;
+import org.hma.bitcoin.model.Transaction;
+import org.hma.bitcoin.model.TransactionInput;
+import org.hma.bitcoin.model.TransactionOutput;
+import org.hma.bitcoin.util.ByteUtils;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Regtest blocks and transactions for tests, paying to OP_TRUE so any input spends them. */
+public final class Blocks {
+    public static final long BITS = 0x207fffffL;
+    public static final byte[] OP_TRUE = {0x51};
+
+    private Blocks() {
+    }
+
+    /** A coinbase paying the value, its scriptSig made unique by the height. */
+    public static Transaction coinbase(int height, long value) {
+        byte[] scriptSig = {3, (byte) height, (byte) (height >> 8), (byte) (height >> 16)};
+        return new Transaction(1, List.of(new TransactionInput(new OutPoint(Sha256.ZERO_HASH, 0xFFFFFFFFL),
+                scriptSig, 0xFFFFFFFFL)), List.of(new TransactionOutput(value, OP_TRUE)), 0);
+    }
+
+    /** Spends the first output of the parent to a single output of the value. */
+    public static Transaction spend(Transaction parent, long value) {
+        return new Transaction(2, List.of(new TransactionInput(new OutPoint(parent.getTxId(), 0), new byte[0], 0)),
+                List.of(new TransactionOutput(value, OP_TRUE)), 0);
+    }
+
+    /** Connects coinbase-only blocks paying 50 satoshis on top of the tip, returning the coinbases. */
+    public static List<Transaction> extend(ChainState chain, int count) {
+        List<Transaction> coinbases = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Transaction coinbase = coinbase(chain.getHeight() + 1, 50);
+            chain.connectBlock(mine(chain.getTip().getHash(), List.of(coinbase)));
+            coinbases.add(coinbase);
+        }
+        return coinbases;
+    }
+
+    /** A block on the parent meeting the regtest target, which about every other nonce does. */
+    public static Block mine(Sha256 prevHash, List<Transaction> txs) {
+        List<byte[]> level = new ArrayList<>();
+        txs.forEach(tx -> level.add(tx.getTxId().getBytes()));
+        while (level.size() > 1) {
+            List<byte[]> next = new ArrayList<>();
+            for (int i = 0; i < level.size(); i += 2) {
+                next.add(Sha256.hashTwice(level.get(i), level.get(Math.min(i + 1, level.size() - 1))));
+            }
+            level.clear();
+            level.addAll(next);
+        }
+        Sha256 merkleRoot = Sha256.wrap(level.get(0));
+        BigInteger target = ByteUtils.decodeCompactBits(BITS);
+        for (long nonce = 0; ; nonce++) {
+            Block block = new Block(1, prevHash, merkleRoot, 1_600_000_000L, BITS, nonce, txs);
+            if (new BigInteger(1, block.getHash().getReversedBytes()).compareTo(target) <= 0) {
+                return block;
+            }
+        }
+    }
+}
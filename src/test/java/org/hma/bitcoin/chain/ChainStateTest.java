@@ -0,0 +1,155 @@
+package org.hma.bitcoin.chain;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.hma.bitcoin.crypto.Sha256;
+import org.hma.bitcoin.metrics.NodeMetrics;
+import org.hma.bitcoin.model.Block;
+import org.hma.bitcoin.model.OutPoint;
+import org.hma.bitcoin.model.Transaction;
+import org.hma.bitcoin.model.TransactionInput;
+import org.hma.bitcoin.model.TransactionOutput;
+import org.hma.bitcoin.network.Network;
+import org.hma.bitcoin.script.ScriptException;
+import org.hma.bitcoin.script.ScriptVerifier;
+import org.hma.bitcoin.storage.BlockFileStore;
+import org.hma.bitcoin.storage.DataDirectory;
+import org.hma.bitcoin.storage.UndoFileStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.hma.bitcoin.chain.Blocks.OP_TRUE;
+import static org.hma.bitcoin.chain.Blocks.coinbase;
+import static org.hma.bitcoin.chain.Blocks.extend;
+import static org.hma.bitcoin.chain.Blocks.mine;
+import static org.hma.bitcoin.chain.Blocks.spend;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/** Connects regtest blocks on the network's genesis block and checks what the chain rejects. */
+class ChainStateTest {
+    private static final Network NETWORK = Network.regtest();
+    private static final long SUBSIDY = NETWORK.getBlockSubsidy(1);
+
+    @TempDir
+    Path dataDir;
+
+    private ChainState chain;
+    /** A coinbase of height 1, spendable from height 101. */
+    private Transaction matureCoinbase;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        chain = newChain(dataDir.resolve("verifying"), "");
+        matureCoinbase = extend(chain, ChainState.COINBASE_MATURITY).get(0);
+    }
+
+    @Test
+    void rejectsAGenesisBlockOfAnotherChain() {
+        HeaderIndex headers = new HeaderIndex(NETWORK);
+
+        assertThrows(VerificationException.class, () -> headers.accept(mine(Sha256.ZERO_HASH,
+                List.of(coinbase(0, 50)))));
+        assertEquals(NETWORK.getGenesisHeader().getHash(), headers.accept(NETWORK.getGenesisHeader()).getHash());
+    }
+
+    @Test
+    void neverAddsTheGenesisCoinbaseToTheUtxoSet() {
+        Transaction genesisCoinbase = NETWORK.getGenesisBlock().getTransactions().get(0);
+
+        assertNull(chain.getUtxos().get(new OutPoint(genesisCoinbase.getTxId(), 0)));
+    }
+
+    @Test
+    void spendsACoinbaseOnceItMatures() {
+        // At height 101 the coinbase of height 2 is only 99 blocks deep.
+        assertRejected(spend(coinbase(2, 50), 10));
+
+        connect(spend(matureCoinbase, 10));
+        assertNotNull(chain.getUtxos().get(new OutPoint(spend(matureCoinbase, 10).getTxId(), 0)));
+    }
+
+    @Test
+    void rejectsSpendingMoreThanTheInputs() {
+        assertRejected(spend(matureCoinbase, 51));
+    }
+
+    @Test
+    void rejectsOutputValuesOutOfRange() {
+        assertRejected(spend(matureCoinbase, -1));
+        assertRejected(new Transaction(2, List.of(new TransactionInput(new OutPoint(matureCoinbase.getTxId(), 0),
+                new byte[0], 0)), List.of(new TransactionOutput(ChainState.MAX_MONEY, OP_TRUE),
+                new TransactionOutput(ChainState.MAX_MONEY, OP_TRUE)), 0));
+        assertRejected(spend(matureCoinbase, ChainState.MAX_MONEY + 1));
+    }
+
+    @Test
+    void capsTheCoinbaseAtSubsidyPlusFees() {
+        int height = chain.getHeight() + 1;
+        Block greedy = mine(chain.getTip().getHash(), List.of(coinbase(height, SUBSIDY + 21),
+                spend(matureCoinbase, 30)));
+        assertThrows(VerificationException.class, () -> chain.connectBlock(greedy));
+
+        // The spend pays 20 of its 50 in fees, all of which the coinbase may claim.
+        chain.connectBlock(mine(chain.getTip().getHash(), List.of(coinbase(height, SUBSIDY + 20),
+                spend(matureCoinbase, 30))));
+        assertEquals(height, chain.getHeight());
+    }
+
+    @Test
+    void verifiesScriptsUnlessBelowTheAssumeValidBlock() throws Exception {
+        // The first spend pays to OP_0, which the second can't satisfy.
+        Transaction unspendable = new Transaction(2, List.of(new TransactionInput(new OutPoint(
+                matureCoinbase.getTxId(), 0), new byte[0], 0)), List.of(new TransactionOutput(40, new byte[]{0})), 0);
+        Transaction invalid = spend(unspendable, 30);
+        Block block = mine(chain.getTip().getHash(), List.of(coinbase(chain.getHeight() + 1, 50), unspendable,
+                invalid));
+        assertThrows(ScriptException.class, () -> chain.connectBlock(block));
+
+        ChainState trusting = newChain(dataDir.resolve("trusting"), block.getHash().toDisplayString());
+        extend(trusting, ChainState.COINBASE_MATURITY);
+        trusting.connectBlock(block);
+        assertEquals(block.getHash(), trusting.getTip().getHash());
+    }
+
+    @Test
+    void halvesTheSubsidy() {
+        assertEquals(50 * 100_000_000L, NETWORK.getBlockSubsidy(149));
+        assertEquals(25 * 100_000_000L, NETWORK.getBlockSubsidy(150));
+        assertEquals(0, NETWORK.getBlockSubsidy(150 * 64));
+        assertEquals(50 * 100_000_000L, Network.mainnet().getBlockSubsidy(209_999));
+    }
+
+    /** A regtest chain holding just the genesis block, storing its blocks in the directory. */
+    private static ChainState newChain(Path dir, String assumeValid) throws Exception {
+        DataDirectory directory = new DataDirectory(dir.toString(), NETWORK);
+        NodeMetrics metrics = new NodeMetrics(new SimpleMeterRegistry());
+        ChainState chain = new ChainState(NETWORK, new HeaderIndex(NETWORK), new UtxoSet(metrics),
+                new BlockFileStore(directory, NETWORK), new UndoFileStore(directory, NETWORK), metrics,
+                new ScriptVerifier(100), assumeValid);
+        chain.connectBlock(NETWORK.getGenesisBlock());
+        return chain;
+    }
+
+    /** Checks that a block with the transaction is rejected and leaves the tip and the spent output alone. */
+    private void assertRejected(Transaction tx) {
+        BlockIndex tip = chain.getTip();
+        OutPoint spent = tx.getInputs().get(0).getOutpoint();
+        boolean unspent = chain.getUtxos().get(spent) != null;
+        Block block = mine(tip.getHash(), List.of(coinbase(tip.getHeight() + 1, 50), tx));
+
+        assertThrows(VerificationException.class, () -> chain.connectBlock(block));
+        assertEquals(tip, chain.getTip());
+        assertEquals(unspent, chain.getUtxos().get(spent) != null);
+    }
+
+    private void connect(Transaction tx) {
+        BlockIndex tip = chain.getTip();
+        chain.connectBlock(mine(tip.getHash(), List.of(coinbase(tip.getHeight() + 1, 50), tx)));
+    }
+}
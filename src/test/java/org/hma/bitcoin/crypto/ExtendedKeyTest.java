@@ -0,0 +1,115 @@
+package org.hma.bitcoin.crypto;
+
+import org.hma.bitcoin.util.Base58;
+import org.hma.bitcoin.util.ByteUtils;
+import org.junit.jupiter.api.Test;
+
+import static org.hma.bitcoin.crypto.ExtendedKey.HARDENED_BIT;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/** BIP-32 test vectors 1 and 2, each key checked in both serializations. */
+class ExtendedKeyTest {
+
+    @Test
+    void derivesVector1() {
+        ExtendedKey master = ExtendedKey.fromSeed(ByteUtils.HEX.decode("000102030405060708090a0b0c0d0e0f"));
+        assertKey(master,
+                "xpub661MyMwAqRbcFtXgS5sYJABqqG9YLmC4Q1Rdap9gSE8NqtwybGhePY2gZ29ESFjqJoCu1Rupje8YtGqsefD265TMg7usU"
+                        + "DFdp6W1EGMcet8",
+                "xprv9s21ZrQH143K3QTDL4LXw2F7HEK3wJUD2nW2nRk4stbPy6cq3jPPqjiChkVvvNKmPGJxWUtg6LnF5kejMRNNU3TGtRBeJ"
+                        + "gk33yuGBxrMPHi");
+        ExtendedKey key = master.deriveChild(HARDENED_BIT);
+        assertKey(key,
+                "xpub68Gmy5EdvgibQVfPdqkBBCHxA5htiqg55crXYuXoQRKfDBFA1WEjWgP6LHhwBZeNK1VTsfTFUHCdrfp1bgwQ9xv5ski8P"
+                        + "X9rL2dZXvgGDnw",
+                "xprv9uHRZZhk6KAJC1avXpDAp4MDc3sQKNxDiPvvkX8Br5ngLNv1TxvUxt4cV1rGL5hj6KCesnDYUhd7oWgT11eZG7XnxHrnY"
+                        + "eSvkzY7d2bhkJ7");
+        key = key.deriveChild(1);
+        assertKey(key,
+                "xpub6ASuArnXKPbfEwhqN6e3mwBcDTgzisQN1wXN9BJcM47sSikHjJf3UFHKkNAWbWMiGj7Wf5uMash7SyYq527Hqck2AxYys"
+                        + "AA7xmALppuCkwQ",
+                "xprv9wTYmMFdV23N2TdNG573QoEsfRrWKQgWeibmLntzniatZvR9BmLnvSxqu53Kw1UmYPxLgboyZQaXwTCg8MSY3H2EU4pWc"
+                        + "QDnRnrVA1xe8fs");
+        key = key.deriveChild(2 | HARDENED_BIT);
+        assertKey(key,
+                "xpub6D4BDPcP2GT577Vvch3R8wDkScZWzQzMMUm3PWbmWvVJrZwQY4VUNgqFJPMM3No2dFDFGTsxxpG5uJh7n7epu4trkrX7x"
+                        + "7DogT5Uv6fcLW5",
+                "xprv9z4pot5VBttmtdRTWfWQmoH1taj2axGVzFqSb8C9xaxKymcFzXBDptWmT7FwuEzG3ryjH4ktypQSAewRiNMjANTtpgP4m"
+                        + "LTj34bhnZX7UiM");
+        key = key.deriveChild(2);
+        assertKey(key,
+                "xpub6FHa3pjLCk84BayeJxFW2SP4XRrFd1JYnxeLeU8EqN3vDfZmbqBqaGJAyiLjTAwm6ZLRQUMv1ZACTj37sR62cfN7fe5Jn"
+                        + "J7dh8zL4fiyLHV",
+                "xprvA2JDeKCSNNZky6uBCviVfJSKyQ1mDYahRjijr5idH2WwLsEd4Hsb2Tyh8RfQMuPh7f7RtyzTtdrbdqqsunu5Mm3wDvUAK"
+                        + "RHSC34sJ7in334");
+        key = key.deriveChild(1_000_000_000);
+        assertKey(key,
+                "xpub6H1LXWLaKsWFhvm6RVpEL9P4KfRZSW7abD2ttkWP3SSQvnyA8FSVqNTEcYFgJS2UaFcxupHiYkro49S8yGasTvXEYBVPa"
+                        + "mhGW6cFJodrTHy",
+                "xprvA41z7zogVVwxVSgdKUHDy1SKmdb533PjDz7J6N6mV6uS3ze1ai8FHa8kmHScGpWmj4WggLyQjgPie1rFSruoUihUZREPS"
+                        + "L39UNdE3BBDu76");
+        // Non-hardened children follow from the public key alone.
+        ExtendedKey xpub = master.derivePath(HARDENED_BIT, 1, 2 | HARDENED_BIT).neuter();
+        assertEquals(encode(key, ExtendedKey.XPUB), encode(xpub.derivePath(2, 1_000_000_000), ExtendedKey.XPUB));
+    }
+
+    @Test
+    void derivesVector2() {
+        ExtendedKey master = ExtendedKey.fromSeed(ByteUtils.HEX.decode("fffcf9f6f3f0edeae7e4e1dedbd8d5d2cfccc9c6c3"
+                + "c0bdbab7b4b1aeaba8a5a29f9c999693908d8a8784817e7b7875726f6c696663605d5a5754514e4b484542"));
+        assertKey(master,
+                "xpub661MyMwAqRbcFW31YEwpkMuc5THy2PSt5bDMsktWQcFF8syAmRUapSCGu8ED9W6oDMSgv6Zz8idoc4a6mr8BDzTJY47LJ"
+                        + "hkJ8UB7WEGuduB",
+                "xprv9s21ZrQH143K31xYSDQpPDxsXRTUcvj2iNHm5NUtrGiGG5e2DtALGdso3pGz6ssrdK4PFmM8NSpSBHNqPqm55Qn3LqFtT"
+                        + "2emdEXVYsCzC2U");
+        assertKey(master.derivePath(0),
+                "xpub69H7F5d8KSRgmmdJg2KhpAK8SR3DjMwAdkxj3ZuxV27CprR9LgpeyGmXUbC6wb7ERfvrnKZjXoUmmDznezpbZb7ap6r1D"
+                        + "3tgFxHmwMkQTPH",
+                "xprv9vHkqa6EV4sPZHYqZznhT2NPtPCjKuDKGY38FBWLvgaDx45zo9WQRUT3dKYnjwih2yJD9mkrocEZXo1ex8G81dwSM1fwq"
+                        + "WpWkeS3v86pgKt");
+        assertKey(master.derivePath(0, 2147483647 | HARDENED_BIT),
+                "xpub6ASAVgeehLbnwdqV6UKMHVzgqAG8Gr6riv3Fxxpj8ksbH9ebxaEyBLZ85ySDhKiLDBrQSARLq1uNRts8RuJiHjaDMBU4Z"
+                        + "n9h8LZNnBC5y4a",
+                "xprv9wSp6B7kry3Vj9m1zSnLvN3xH8RdsPP1Mh7fAaR7aRLcQMKTR2vidYEeEg2mUCTAwCd6vnxVrcjfy2kRgVsFawNzmjuHc"
+                        + "2YmYRmagcEPdU9");
+        assertKey(master.derivePath(0, 2147483647 | HARDENED_BIT, 1),
+                "xpub6DF8uhdarytz3FWdA8TvFSvvAh8dP3283MY7p2V4SeE2wyWmG5mg5EwVvmdMVCQcoNJxGoWaU9DCWh89LojfZ537wTfun"
+                        + "Kau47EL2dhHKon",
+                "xprv9zFnWC6h2cLgpmSA46vutJzBcfJ8yaJGg8cX1e5StJh45BBciYTRXSd25UEPVuesF9yog62tGAQtHjXajPPdbRCHuWS6T"
+                        + "8XA2ECKADdw4Ef");
+        assertKey(master.derivePath(0, 2147483647 | HARDENED_BIT, 1, 2147483646 | HARDENED_BIT),
+                "xpub6ERApfZwUNrhLCkDtcHTcxd75RbzS1ed54G1LkBUHQVHQKqhMkhgbmJbZRkrgZw4koxb5JaHWkY4ALHY2grBGRjaDMzQL"
+                        + "cgJvLJuZZvRcEL",
+                "xprvA1RpRA33e1JQ7ifknakTFpgNXPmW2YvmhqLQYMmrj4xJXXWYpDPS3xz7iAxn8L39njGVyuoseXzU6rcxFLJ8HFsTjSyQb"
+                        + "LYnMpCqE2VbFWc");
+        assertKey(master.derivePath(0, 2147483647 | HARDENED_BIT, 1, 2147483646 | HARDENED_BIT, 2),
+                "xpub6FnCn6nSzZAw5Tw7cgR9bi15UV96gLZhjDstkXXxvCLsUXBGXPdSnLFbdpq8p9HmGsApME5hQTZ3emM2rnY5agb9rXpVG"
+                        + "yy3bdW6EEgAtqt",
+                "xprvA2nrNbFZABcdryreWet9Ea4LvTJcGsqrMzxHx98MMrotbir7yrKCEXw7nadnHM8Dq38EGfSh6dqA9QWTyefMLEcBYJUue"
+                        + "kgW4BYPJcr9E7j");
+    }
+
+    @Test
+    void refusesHardenedDerivationWithoutThePrivateKey() {
+        ExtendedKey xpub = ExtendedKey.fromSeed(new byte[16]).neuter();
+
+        assertFalse(xpub.hasPrivateKey());
+        assertThrows(IllegalStateException.class, () -> xpub.deriveChild(HARDENED_BIT));
+        assertThrows(IllegalStateException.class, () -> xpub.serialize(ExtendedKey.XPRV));
+    }
+
+    /** Checks both serializations of the key, and that parsing them gives the key back. */
+    private static void assertKey(ExtendedKey key, String xpub, String xprv) {
+        assertEquals(xpub, encode(key, ExtendedKey.XPUB));
+        assertEquals(xprv, encode(key, ExtendedKey.XPRV));
+        assertEquals(xpub, encode(key.neuter(), ExtendedKey.XPUB));
+        assertEquals(xpub, encode(ExtendedKey.parse(Base58.decodeChecked(xpub)), ExtendedKey.XPUB));
+        assertEquals(xprv, encode(ExtendedKey.parse(Base58.decodeChecked(xprv)), ExtendedKey.XPRV));
+    }
+
+    private static String encode(ExtendedKey key, int version) {
+        return Base58.encodeChecked(key.serialize(version));
+    }
+}
@@ -0,0 +1,65 @@
+package org.hma.bitcoin.index;
+
+import org.hma.bitcoin.chain.BlockUndo;
+import org.hma.bitcoin.crypto.Sha256;
+import org.hma.bitcoin.model.Block;
+import org.hma.bitcoin.model.OutPoint;
+import org.hma.bitcoin.model.Transaction;
+import org.hma.bitcoin.model.TransactionInput;
+import org.hma.bitcoin.model.TransactionOutput;
+import org.hma.bitcoin.model.Utxo;
+import org.hma.bitcoin.network.Network;
+import org.hma.bitcoin.util.ByteUtils;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/** Checks the basic filter against the BIP-158 vector of the testnet genesis block and the items it leaves out. */
+class BlockFilterTest {
+    /** The coinbase of the genesis block, the same on every network. */
+    private static final String GENESIS_COINBASE = "0100000001000000000000000000000000000000000000000000000000000000"
+            + "0000000000ffffffff4d04ffff001d0104455468652054696d65732030332f4a616e2f32303039204368616e63656c6c6f72"
+            + "206f6e206272696e6b206f66207365636f6e64206261696c6f757420666f722062616e6b73ffffffff0100f2052a01000000"
+            + "434104678afdb0fe5548271967f1a67130b7105cd6a828e03909a67962e0ea1f61deb649f6bc3f4cef38c4f35504e51ec112"
+            + "de5c384df7ba0b8d578a4c702b6bf11d5fac00000000";
+
+    @Test
+    void matchesTheTestnetGenesisVector() throws Exception {
+        Block header = Network.testnet().getGenesisHeader();
+        byte[] coinbase = ByteUtils.HEX.decode(GENESIS_COINBASE);
+        byte[] payload = new byte[Block.HEADER_SIZE + 1 + coinbase.length];
+        System.arraycopy(header.serializeHeader(), 0, payload, 0, Block.HEADER_SIZE);
+        payload[Block.HEADER_SIZE] = 1;
+        System.arraycopy(coinbase, 0, payload, Block.HEADER_SIZE + 1, coinbase.length);
+        Block genesis = new Block(payload);
+        assertEquals("000000000933ea01ad0ee984209779baaec3ced90fa3f408719526f8d77f4943",
+                genesis.getHash().toDisplayString());
+
+        BlockFilter filter = BlockFilter.buildBasic(genesis, new BlockUndo(List.of()));
+
+        assertEquals("019dfca8", ByteUtils.HEX.encode(filter.getEncoded()));
+        assertEquals("21584579b7eb08997773e5aeff3a7f932700042d0ed2a6129012b7d7ae81b750",
+                filter.computeHeader(Sha256.ZERO_HASH).toDisplayString());
+    }
+
+    @Test
+    void leavesOutEmptyAndOpReturnScriptsAndDuplicates() {
+        byte[] script = {0x51};
+        Transaction coinbase = new Transaction(1, List.of(new TransactionInput(new OutPoint(Sha256.ZERO_HASH,
+                0xFFFFFFFFL), new byte[]{1, 1}, 0xFFFFFFFFL)), List.of(new TransactionOutput(50, script),
+                new TransactionOutput(0, new byte[]{0x6a, 1, 2}), new TransactionOutput(0, new byte[0])), 0);
+        Block block = new Block(1, Sha256.ZERO_HASH, coinbase.getTxId(), 1_600_000_000L, 0x207fffffL, 0,
+                List.of(coinbase));
+
+        byte[] outputsOnly = BlockFilter.buildBasic(block, new BlockUndo(List.of())).getEncoded();
+        // Spending the same script again, and an empty one, adds nothing.
+        Utxo[] spent = {new Utxo(50, script, 0, true), new Utxo(10, new byte[0], 0, false)};
+        byte[] withSpent = BlockFilter.buildBasic(block, new BlockUndo(List.<Utxo[]>of(spent))).getEncoded();
+
+        assertEquals(1, outputsOnly[0]);
+        assertArrayEquals(outputsOnly, withSpent);
+    }
+}
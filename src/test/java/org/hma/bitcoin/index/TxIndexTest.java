@@ -0,0 +1,114 @@
+package org.hma.bitcoin.index;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.hma.bitcoin.chain.BlockIndex;
+import org.hma.bitcoin.chain.ChainState;
+import org.hma.bitcoin.chain.HeaderIndex;
+import org.hma.bitcoin.chain.UtxoSet;
+import org.hma.bitcoin.metrics.NodeMetrics;
+import org.hma.bitcoin.model.Block;
+import org.hma.bitcoin.model.Transaction;
+import org.hma.bitcoin.network.Network;
+import org.hma.bitcoin.script.ScriptVerifier;
+import org.hma.bitcoin.storage.BlockFileStore;
+import org.hma.bitcoin.storage.DataDirectory;
+import org.hma.bitcoin.storage.UndoFileStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.hma.bitcoin.chain.Blocks.coinbase;
+import static org.hma.bitcoin.chain.Blocks.extend;
+import static org.hma.bitcoin.chain.Blocks.mine;
+import static org.hma.bitcoin.chain.Blocks.spend;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Indexes regtest blocks connected on the genesis block, with a memtable small enough to write runs. */
+class TxIndexTest {
+    private static final Network NETWORK = Network.regtest();
+
+    @TempDir
+    Path dataDir;
+
+    private ChainState chain;
+    private TxIndex index;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        DataDirectory directory = new DataDirectory(dataDir.toString(), NETWORK);
+        NodeMetrics metrics = new NodeMetrics(new SimpleMeterRegistry());
+        BlockFileStore blockStore = new BlockFileStore(directory, NETWORK);
+        chain = new ChainState(NETWORK, new HeaderIndex(NETWORK), new UtxoSet(metrics), blockStore,
+                new UndoFileStore(directory, NETWORK), metrics, new ScriptVerifier(100), "");
+        index = new TxIndex(chain, blockStore, directory, 4, 2);
+        chain.connectBlock(NETWORK.getGenesisBlock());
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        index.close();
+    }
+
+    @Test
+    void findsTransactionsInTheirBlocks() throws IOException {
+        List<Transaction> coinbases = extend(chain, 120);
+        Transaction spend = spend(coinbases.get(0), 40);
+        BlockIndex block = connect(spend);
+
+        assertFalse(index.hasFailed());
+        assertEquals(block, index.getBestBlock());
+        assertEquals(block.getHash(), index.find(spend.getTxId()).getBlockHash());
+        assertArrayEquals(spend.serialize(), index.getTransaction(spend.getTxId()).serialize());
+        for (int height = 1; height <= 120; height++) {
+            Transaction coinbase = coinbases.get(height - 1);
+            assertEquals(chain.getByHeight(height).getHash(), index.find(coinbase.getTxId()).getBlockHash());
+            assertEquals(coinbase.getTxId(), index.getTransaction(coinbase.getTxId()).getTxId());
+        }
+        assertNull(index.find(coinbase(500, 50).getTxId()));
+    }
+
+    @Test
+    void ignoresEntriesOfDisconnectedBlocks() throws IOException {
+        List<Transaction> coinbases = extend(chain, 101);
+        Transaction spend = spend(coinbases.get(0), 40);
+        BlockIndex block = connect(spend);
+
+        chain.disconnectTip();
+        assertNull(index.find(spend.getTxId()));
+        assertNull(index.getTransaction(spend.getTxId()));
+        assertEquals(block.getPrev(), index.getBestBlock());
+
+        // Confirmed again in another block, the entry points there.
+        BlockIndex other = chain.connectBlock(mine(chain.getTip().getHash(), List.of(
+                coinbase(chain.getHeight() + 1, 60), spend)));
+        assertEquals(other.getHash(), index.find(spend.getTxId()).getBlockHash());
+    }
+
+    @Test
+    void stopsAtTheLastIndexedBlockAfterAWriteFailure() throws IOException {
+        extend(chain, 3);
+        BlockIndex indexed = chain.getTip();
+        // Writes to the closed log fail.
+        index.close();
+        Transaction unindexed = extend(chain, 2).get(0);
+
+        assertTrue(index.hasFailed());
+        assertEquals(indexed, index.getBestBlock());
+        assertNull(index.find(unindexed.getTxId()));
+        assertEquals(5, chain.getHeight());
+    }
+
+    private BlockIndex connect(Transaction tx) {
+        Block block = mine(chain.getTip().getHash(), List.of(coinbase(chain.getHeight() + 1, 50), tx));
+        return chain.connectBlock(block);
+    }
+}
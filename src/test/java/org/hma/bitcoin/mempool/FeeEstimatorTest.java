@@ -0,0 +1,165 @@
+package org.hma.bitcoin.mempool;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.hma.bitcoin.chain.ChainState;
+import org.hma.bitcoin.chain.HeaderIndex;
+import org.hma.bitcoin.chain.UtxoSet;
+import org.hma.bitcoin.metrics.NodeMetrics;
+import org.hma.bitcoin.model.Transaction;
+import org.hma.bitcoin.network.MessageDispatcher;
+import org.hma.bitcoin.network.Network;
+import org.hma.bitcoin.script.ScriptVerifier;
+import org.hma.bitcoin.storage.BlockFileStore;
+import org.hma.bitcoin.storage.DataDirectory;
+import org.hma.bitcoin.storage.UndoFileStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.hma.bitcoin.chain.Blocks.coinbase;
+import static org.hma.bitcoin.chain.Blocks.extend;
+import static org.hma.bitcoin.chain.Blocks.mine;
+import static org.hma.bitcoin.chain.Blocks.spend;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Feeds the estimator transactions it is told were accepted at a fee rate, then confirms them in regtest blocks or
+ * evicts them after a known number of blocks. A decay of 0.9 makes about ten blocks of data enough for an estimate.
+ */
+class FeeEstimatorTest {
+    private static final Network NETWORK = Network.regtest();
+
+    @TempDir
+    Path dataDir;
+
+    private ChainState chain;
+    private FeeEstimator estimator;
+    /** Mature coinbases, each spent by one transaction fed to the estimator. */
+    private Iterator<Transaction> coinbases;
+    /** Transactions to confirm, by the height of the block confirming them. */
+    private final Map<Integer, List<Transaction>> confirmAt = new TreeMap<>();
+    /** Transactions to evict, by the height after which they leave the pool. */
+    private final Map<Integer, List<Transaction>> evictAt = new TreeMap<>();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        DataDirectory directory = new DataDirectory(dataDir.toString(), NETWORK);
+        NodeMetrics metrics = new NodeMetrics(new SimpleMeterRegistry());
+        chain = new ChainState(NETWORK, new HeaderIndex(NETWORK), new UtxoSet(metrics),
+                new BlockFileStore(directory, NETWORK), new UndoFileStore(directory, NETWORK), metrics,
+                new ScriptVerifier(100), "");
+        chain.connectBlock(NETWORK.getGenesisBlock());
+        Mempool mempool = new Mempool(chain, new MessageDispatcher(), metrics, new ScriptVerifier(100), 1_000_000,
+                1000);
+        estimator = new FeeEstimator(chain, mempool, 24, 0.9);
+        List<Transaction> spendable = extend(chain, 600);
+        coinbases = spendable.subList(0, 500).iterator();
+    }
+
+    @Test
+    void hasNoEstimateWithoutData() {
+        assertNull(estimator.estimateSmartFee(2, false));
+    }
+
+    @Test
+    void estimatesTheLowestFeeRateConfirmingInTime() {
+        for (int block = 0; block < 40; block++) {
+            accept(20_000, 1);
+            accept(2_000, 10);
+            mineBlock();
+        }
+
+        assertEstimate(20_000, 2, estimator.estimateSmartFee(1, false));
+        assertEstimate(20_000, 9, estimator.estimateSmartFee(9, true));
+        assertEstimate(2_000, 10, estimator.estimateSmartFee(10, false));
+        // Beyond the max target
+        assertEstimate(2_000, 24, estimator.estimateSmartFee(100, true));
+    }
+
+    @Test
+    void countsSlowConfirmationsAgainstTheConservativeEstimate() {
+        for (int block = 0; block < 40; block++) {
+            accept(20_000, 1);
+            // Nine in ten confirm in the next block, the tenth after three.
+            for (int i = 0; i < 9; i++) {
+                accept(5_000, 1);
+            }
+            accept(5_000, 3);
+            mineBlock();
+        }
+
+        assertEstimate(5_000, 2, estimator.estimateSmartFee(2, false));
+        assertEstimate(20_000, 2, estimator.estimateSmartFee(2, true));
+        assertEstimate(5_000, 3, estimator.estimateSmartFee(3, true));
+    }
+
+    @Test
+    void countsEvictionsAgainstTheTargetsTheyWaitedFor() {
+        for (int block = 0; block < 40; block++) {
+            accept(20_000, 1);
+            accept(5_000, 1);
+            evict(5_000, 3);
+            mineBlock();
+        }
+
+        // Half the transactions at 5 000 left after waiting three blocks, which only shorter targets hold against them.
+        assertEstimate(20_000, 2, estimator.estimateSmartFee(2, false));
+        assertEstimate(20_000, 3, estimator.estimateSmartFee(3, false));
+        assertEstimate(5_000, 4, estimator.estimateSmartFee(4, false));
+    }
+
+    @Test
+    void leavesOutTransactionsSpendingTrackedOnes() {
+        Transaction parent = accept(20_000, 1);
+        estimator.onTransactionAccepted(entry(spend(parent, 30), 50_000));
+
+        assertEquals(1, estimator.getTrackedCount());
+        mineBlock();
+        assertEquals(0, estimator.getTrackedCount());
+    }
+
+    /** Tells the estimator a new transaction arrived at the fee rate, to confirm after waiting the blocks. */
+    private Transaction accept(long feeRate, int blocks) {
+        Transaction tx = spend(coinbases.next(), 40);
+        estimator.onTransactionAccepted(entry(tx, feeRate));
+        confirmAt.computeIfAbsent(chain.getHeight() + blocks, unused -> new ArrayList<>()).add(tx);
+        return tx;
+    }
+
+    /** Tells the estimator a new transaction arrived at the fee rate, to leave the pool after waiting the blocks. */
+    private void evict(long feeRate, int blocks) {
+        Transaction tx = spend(coinbases.next(), 40);
+        estimator.onTransactionAccepted(entry(tx, feeRate));
+        evictAt.computeIfAbsent(chain.getHeight() + blocks, unused -> new ArrayList<>()).add(tx);
+    }
+
+    /** Connects the next block with the transactions due, then evicts those due. */
+    private void mineBlock() {
+        int height = chain.getHeight() + 1;
+        List<Transaction> txs = new ArrayList<>();
+        txs.add(coinbase(height, 50));
+        txs.addAll(confirmAt.getOrDefault(height, List.of()));
+        chain.connectBlock(mine(chain.getTip().getHash(), txs));
+        for (Transaction tx : evictAt.getOrDefault(height, List.of())) {
+            estimator.onTransactionRemoved(entry(tx, 0));
+        }
+    }
+
+    /** An entry of 1000 vbytes, so the fee is the fee rate. */
+    private static MempoolEntry entry(Transaction tx, long feeRate) {
+        return new MempoolEntry(tx, feeRate, 1000, 0, 0);
+    }
+
+    private static void assertEstimate(long feeRate, int blocks, FeeEstimate estimate) {
+        assertEquals(feeRate, estimate.getFeeRate(), "fee rate");
+        assertEquals(blocks, estimate.getBlocks(), "blocks");
+    }
+}
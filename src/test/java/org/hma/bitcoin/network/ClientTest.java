@@ -0,0 +1,98 @@
+package org.hma.bitcoin.network;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.hma.bitcoin.crypto.Sha256;
+import org.hma.bitcoin.metrics.NodeMetrics;
+import org.hma.bitcoin.network.message.Headers;
+import org.hma.bitcoin.util.ByteCodec;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Frames sent to an outbound connection by a peer on a local socket. */
+class ClientTest {
+    private static final Network NETWORK = Network.regtest();
+
+    private final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+    private final CountDownLatch disconnected = new CountDownLatch(1);
+    private ConnectionEngine engine;
+    private ServerSocket server;
+    private Client client;
+    private Socket peer;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        engine = new ConnectionEngine(new NodeMetrics(new SimpleMeterRegistry()), NETWORK, 65536, 16, 262144,
+                1048576, 67108864, 5000000, 1);
+        engine.start();
+        server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        client = new Client(server.getLocalSocketAddress(), engine, engine.newSendQueue(), new PeerListener() {
+            @Override
+            public void onMessage(Client peer, Headers header, byte[] payload) {
+                received.add(header.getCommand());
+            }
+
+            @Override
+            public void onDisconnected(Client peer) {
+                disconnected.countDown();
+            }
+        }, 1000).openConnection();
+        peer = server.accept();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        peer.close();
+        server.close();
+        engine.stop();
+    }
+
+    @Test
+    void dropsFramesWithABadChecksumAndKeepsThePeer() throws Exception {
+        peer.getOutputStream().write(frame(NETWORK.getMagic(), "ping", new byte[8], false));
+        peer.getOutputStream().write(frame(NETWORK.getMagic(), "pong", new byte[8], true));
+
+        // Frames are handled in order, so the bad one has been dropped by the time the good one arrives.
+        assertEquals("pong", received.poll(5, TimeUnit.SECONDS));
+        assertTrue(received.isEmpty());
+        assertFalse(client.isClosed());
+    }
+
+    @Test
+    void disconnectsOnFramesOfAnotherNetwork() throws Exception {
+        peer.getOutputStream().write(frame(Network.mainnet().getMagic(), "ping", new byte[8], true));
+
+        assertTrue(disconnected.await(5, TimeUnit.SECONDS));
+        assertTrue(client.isClosed());
+        assertTrue(received.isEmpty());
+    }
+
+    private static byte[] frame(int magic, String command, byte[] payload, boolean validChecksum) {
+        byte[] frame = new byte[Client.HEADER_SIZE + payload.length];
+        ByteCodec.writeInt32BE(frame, 0, magic);
+        byte[] name = command.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(name, 0, frame, 4, name.length);
+        ByteCodec.writeInt32LE(frame, 16, payload.length);
+        byte[] checksum = Sha256.hashTwice(payload);
+        if (!validChecksum) {
+            checksum[0] ^= 1;
+        }
+        System.arraycopy(checksum, 0, frame, 20, 4);
+        System.arraycopy(payload, 0, frame, Client.HEADER_SIZE, payload.length);
+        return frame;
+    }
+}
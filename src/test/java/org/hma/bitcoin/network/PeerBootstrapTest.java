@@ -0,0 +1,90 @@
+package org.hma.bitcoin.network;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.hma.bitcoin.metrics.NodeMetrics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Bootstraps from seeds answered by a stub resolver, with a listener on the loopback address as the only peer. */
+class PeerBootstrapTest {
+    private static final InetAddress LOOPBACK = InetAddress.getLoopbackAddress();
+
+    private final Set<String> resolved = ConcurrentHashMap.newKeySet();
+    private ConnectionEngine engine;
+    private ClientPool pool;
+    private ServerSocket server;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        Network regtest = Network.regtest();
+        engine = new ConnectionEngine(new NodeMetrics(new SimpleMeterRegistry()), regtest, 65536, 16, 262144,
+                1048576, 67108864, 5000000, 1);
+        engine.start();
+        pool = new ClientPool(engine, new MessageDispatcher());
+        server = new ServerSocket(0, 8, LOOPBACK);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        pool.getClients().forEach(Client::close);
+        server.close();
+        engine.stop();
+    }
+
+    @Test
+    void connectsToTheAddressesTheSeedsAnswer() throws Exception {
+        PeerBootstrap bootstrap = newBootstrap(1, host -> {
+            resolved.add(host);
+            if (host.equals("failing.seed")) {
+                throw new UnknownHostException(host);
+            }
+            return List.of(LOOPBACK);
+        });
+
+        assertEquals(1, bootstrap.bootstrap());
+        assertEquals(1, pool.getClients().size());
+        assertTrue(resolved.contains("working.seed"));
+    }
+
+    @Test
+    void triesAnAddressOnceEvenIfSeveralSeedsAnswerIt() throws Exception {
+        // Two peers wanted, but both seeds answer the same address.
+        PeerBootstrap bootstrap = newBootstrap(2, host -> List.of(LOOPBACK));
+
+        assertEquals(1, bootstrap.bootstrap());
+        assertEquals(1, pool.getClients().size());
+    }
+
+    @Test
+    void givesUpWhenNoSeedAnswers() throws Exception {
+        PeerBootstrap bootstrap = newBootstrap(1, host -> {
+            throw new UnknownHostException(host);
+        });
+
+        assertEquals(0, bootstrap.bootstrap());
+        assertTrue(pool.getClients().isEmpty());
+    }
+
+    /** A bootstrap on regtest with two seeds, connecting to the port of the local listener. */
+    private PeerBootstrap newBootstrap(int targetOutbound, SeedResolver resolver) {
+        Network regtest = Network.regtest();
+        Network network = new Network(server.getLocalPort(), regtest.getName(), regtest.getStartString(),
+                regtest.getMaxNbits(), 1296688602, 2, 150, List.of("working.seed", "failing.seed"), 0x6f, 0xc4, "bcrt");
+        StaticListableBeanFactory beans = new StaticListableBeanFactory(Map.of("resolver", resolver));
+        return new PeerBootstrap(network, pool, beans.getBeanProvider(SeedResolver.class), targetOutbound, 50);
+    }
+}
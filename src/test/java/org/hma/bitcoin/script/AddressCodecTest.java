@@ -0,0 +1,114 @@
+package org.hma.bitcoin.script;
+
+import org.hma.bitcoin.network.Network;
+import org.hma.bitcoin.util.ByteUtils;
+import org.junit.jupiter.api.Test;
+
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/** The segwit addresses of BIP-350 (which supersede BIP-173's), Base58Check addresses and random scripts. */
+class AddressCodecTest {
+    private static final String[][] VALID = {
+            {"BC1QW508D6QEJXTDG4Y5R3ZARVARY0C5XW7KV8F3T4", "0014751e76e8199196d454941c45d1b3a323f1433bd6"},
+            {"tb1qrp33g0q5c5txsp9arysrx4k6zdkfs4nce4xj0gdcccefvpysxf3q0sl5k7",
+                    "00201863143c14c5166804bd19203356da136c985678cd4d27a1b8c6329604903262"},
+            {"bc1pw508d6qejxtdg4y5r3zarvary0c5xw7kw508d6qejxtdg4y5r3zarvary0c5xw7kt5nd6y",
+                    "5128751e76e8199196d454941c45d1b3a323f1433bd6751e76e8199196d454941c45d1b3a323f1433bd6"},
+            {"BC1SW50QGDZ25J", "6002751e"},
+            {"bc1zw508d6qejxtdg4y5r3zarvaryvaxxpcs", "5210751e76e8199196d454941c45d1b3a323"},
+            {"tb1qqqqqp399et2xygdj5xreqhjjvcmzhxw4aywxecjdzew6hylgvsesrxh6hy",
+                    "0020000000c4a5cad46221b2a187905e5266362b99d5e91c6ce24d165dab93e86433"},
+            {"tb1pqqqqp399et2xygdj5xreqhjjvcmzhxw4aywxecjdzew6hylgvsesf3hn0c",
+                    "5120000000c4a5cad46221b2a187905e5266362b99d5e91c6ce24d165dab93e86433"},
+            {"bc1p0xlxvlhemja6c4dqv22uapctqupfhlxm9h8z3k2e72q4k9hcz7vqzk5jj0",
+                    "512079be667ef9dcbbac55a06295ce870b07029bfcdb2dce28d959f2815b16f81798"},
+            {"1BvBMSEYstWetqTFn5Au4m4GFg7xJaNVN2", "76a91477bff20c60e522dfaa3350c39b030a5d004e839a88ac"},
+            {"3J98t1WpEZ73CNmQviecrnyiWrnqRhWNLy", "a914b472a266d0bd89c13706a4132ccfb16f7c3b9fcb87"},
+    };
+    private static final String[] INVALID = {
+            // Wrong human readable part
+            "tc1p0xlxvlhemja6c4dqv22uapctqupfhlxm9h8z3k2e72q4k9hcz7vq5zuyut",
+            // Bech32 checksums on witness versions 1 and later
+            "bc1p0xlxvlhemja6c4dqv22uapctqupfhlxm9h8z3k2e72q4k9hcz7vqh2y7hd",
+            "tb1z0xlxvlhemja6c4dqv22uapctqupfhlxm9h8z3k2e72q4k9hcz7vqglt7rf",
+            "BC1S0XLXVLHEMJA6C4DQV22UAPCTQUPFHLXM9H8Z3K2E72Q4K9HCZ7VQ54WELL",
+            // Bech32m checksums on witness version 0
+            "bc1qw508d6qejxtdg4y5r3zarvary0c5xw7kemeawh",
+            "tb1q0xlxvlhemja6c4dqv22uapctqupfhlxm9h8z3k2e72q4k9hcz7vq24jc47",
+            // Character outside the charset
+            "bc1p38j9r5y49hruaue7wxjce0updqjuyyx0kh56v8s25huc6995vvpql3jow4",
+            // Witness version 17
+            "BC130XLXVLHEMJA6C4DQV22UAPCTQUPFHLXM9H8Z3K2E72Q4K9HCZ7VQ7ZWS8R",
+            // Programs of 1 and 41 bytes, and of 16 bytes for version 0
+            "bc1pw5dgrnzv",
+            "bc1p0xlxvlhemja6c4dqv22uapctqupfhlxm9h8z3k2e72q4k9hcz7v8n0nx0muaewav253zgeav",
+            "BC1QR508D6QEJXTDG4Y5R3ZARVARYV98GJ9P",
+            // Mixed case
+            "tb1p0xlxvlhemja6c4dqv22uapctqupfhlxm9h8z3k2e72q4k9hcz7vq47Zagq",
+            // More than 4 bits of padding, and padding that isn't zero
+            "bc1p0xlxvlhemja6c4dqv22uapctqupfhlxm9h8z3k2e72q4k9hcz7v07qwwzcrf",
+            "tb1p0xlxvlhemja6c4dqv22uapctqupfhlxm9h8z3k2e72q4k9hcz7vpggkg4j",
+            // No data
+            "bc1gmk9yu",
+            // Base58Check with a bad checksum, and a testnet address on mainnet
+            "1BvBMSEYstWetqTFn5Au4m4GFg7xJaNVN3",
+            "mipcBbFg9gMiCh81Kj8tqqdgoZub1ZJRfn",
+    };
+
+    private final AddressCodec mainnet = new AddressCodec(Network.mainnet(), 100);
+    private final AddressCodec testnet = new AddressCodec(Network.testnet(), 100);
+
+    @Test
+    void convertsValidAddresses() {
+        for (String[] vector : VALID) {
+            AddressCodec codec = codec(vector[0]);
+            String address = vector[0].startsWith("BC1") ? vector[0].toLowerCase(Locale.ROOT) : vector[0];
+            assertEquals(vector[1], ByteUtils.HEX.encode(codec.toScriptPubKey(vector[0])), vector[0]);
+            assertEquals(address, codec.toAddress(ByteUtils.HEX.decode(vector[1])), vector[0]);
+        }
+    }
+
+    @Test
+    void rejectsInvalidAddresses() {
+        for (String invalid : INVALID) {
+            assertThrows(IllegalArgumentException.class, () -> codec(invalid).toScriptPubKey(invalid), invalid);
+        }
+    }
+
+    @Test
+    void hasNoAddressForOtherScripts() {
+        // Bare multisig, OP_RETURN, and a version 0 program of 16 bytes
+        assertNull(mainnet.toAddress(ByteUtils.HEX.decode("5121" + "02".repeat(33) + "51ae")));
+        assertNull(mainnet.toAddress(ByteUtils.HEX.decode("6a0400000000")));
+        assertNull(mainnet.toAddress(ByteUtils.HEX.decode("0010" + "00".repeat(16))));
+    }
+
+    @Test
+    void roundTripsRandomWitnessPrograms() {
+        SplittableRandom random = new SplittableRandom(350);
+        for (int i = 0; i < 1000; i++) {
+            int version = random.nextInt(17);
+            int length = version == 0 ? (random.nextBoolean() ? 20 : 32) : 2 + random.nextInt(39);
+            byte[] script = new byte[length + 2];
+            script[0] = (byte) (version == 0 ? Opcodes.OP_0 : Opcodes.OP_1 + version - 1);
+            script[1] = (byte) length;
+            for (int j = 2; j < script.length; j++) {
+                script[j] = (byte) random.nextInt(256);
+            }
+
+            String address = testnet.toAddress(script);
+            assertEquals(ByteUtils.HEX.encode(script), ByteUtils.HEX.encode(testnet.toScriptPubKey(address)));
+            assertThrows(IllegalArgumentException.class, () -> mainnet.toScriptPubKey(address), address);
+        }
+    }
+
+    /** The testnet codec for addresses of its human readable part, the mainnet one for the rest. */
+    private AddressCodec codec(String address) {
+        return address.regionMatches(true, 0, "tb1", 0, 3) ? testnet : mainnet;
+    }
+}
@@ -0,0 +1,473 @@
+package org.hma.bitcoin.script;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.bouncycastle.asn1.x9.X9ECParameters;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.ec.CustomNamedCurves;
+import org.bouncycastle.crypto.params.ECDomainParameters;
+import org.bouncycastle.crypto.params.ECPrivateKeyParameters;
+import org.bouncycastle.crypto.signers.ECDSASigner;
+import org.bouncycastle.crypto.signers.HMacDSAKCalculator;
+import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.util.BigIntegers;
+import org.hma.bitcoin.crypto.ExtendedKey;
+import org.hma.bitcoin.crypto.Sha256;
+import org.hma.bitcoin.crypto.TaggedHash;
+import org.hma.bitcoin.model.OutPoint;
+import org.hma.bitcoin.model.Transaction;
+import org.hma.bitcoin.model.TransactionInput;
+import org.hma.bitcoin.model.TransactionOutput;
+import org.hma.bitcoin.util.ByteUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hma.bitcoin.script.Opcodes.OP_0;
+import static org.hma.bitcoin.script.Opcodes.OP_1;
+import static org.hma.bitcoin.script.Opcodes.OP_CHECKMULTISIG;
+import static org.hma.bitcoin.script.Opcodes.OP_CHECKSIG;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs the vectors of {@code script_tests.json}, in Bitcoin Core's format, and spends of every standard output type
+ * signed by keys of the test's own. Each spend is verified both through the template verifiers and opcode by opcode,
+ * which must agree.
+ */
+class ScriptVerifierTest {
+    private static final X9ECParameters PARAMS = CustomNamedCurves.getByName("secp256k1");
+    private static final ECDomainParameters DOMAIN = new ECDomainParameters(PARAMS);
+    private static final BigInteger N = PARAMS.getN();
+    private static final Map<String, Integer> OPCODES = opcodeNames();
+    private static final TaggedHash BIP340_NONCE = new TaggedHash("BIP0340/nonce");
+    private static final long NO_CODE_SEPARATOR = 0xFFFFFFFFL;
+    private static final TransactionOutput PAYMENT = new TransactionOutput(90_000, new byte[]{OP_1});
+
+    private static final BigInteger KEY1 = key("key1");
+    private static final BigInteger KEY2 = key("key2");
+    private static final BigInteger KEY3 = key("key3");
+
+    @Test
+    void matchesTheScriptTestVectors() throws Exception {
+        JsonNode vectors;
+        try (InputStream in = getClass().getResourceAsStream("script_tests.json")) {
+            vectors = new ObjectMapper().readTree(in);
+        }
+        List<String> failures = new ArrayList<>();
+        int run = 0;
+        for (JsonNode vector : vectors) {
+            if (vector.size() < 4) {
+                continue;  // A comment
+            }
+            int i = 0;
+            byte[][] witness = new byte[0][];
+            long amount = 0;
+            if (vector.get(0).isArray()) {
+                JsonNode items = vector.get(i++);
+                witness = new byte[items.size() - 1][];
+                for (int j = 0; j < witness.length; j++) {
+                    witness[j] = ByteUtils.HEX.decode(items.get(j).asText());
+                }
+                amount = items.get(witness.length).decimalValue().movePointRight(8).longValueExact();
+            }
+            byte[] scriptSig = parse(vector.get(i).asText());
+            byte[] scriptPubKey = parse(vector.get(i + 1).asText());
+            int flags = flags(vector.get(i + 2).asText());
+            boolean expected = vector.get(i + 3).asText().equals("OK");
+
+            Transaction credit = new Transaction(1, List.of(new TransactionInput(new OutPoint(Sha256.ZERO_HASH,
+                    0xFFFFFFFFL), new byte[]{OP_0, OP_0}, 0xFFFFFFFFL)),
+                    List.of(new TransactionOutput(amount, scriptPubKey)), 0);
+            Transaction spend = new Transaction(1, List.of(new TransactionInput(new OutPoint(credit.getTxId(), 0),
+                    scriptSig, 0xFFFFFFFFL)), List.of(new TransactionOutput(amount, new byte[0])), 0);
+            spend.getInputs().get(0).setWitness(witness);
+            TransactionOutput[] spent = {credit.getOutputs().get(0)};
+            boolean templates = verifies(spend, spent, flags);
+            boolean generic = verifiesGenerically(spend, spent, flags);
+            if (templates != expected || generic != expected) {
+                failures.add(vector + ": templates " + templates + ", generic " + generic);
+            }
+            run++;
+        }
+        assertEquals(List.of(), failures);
+        assertTrue(run > 100, run + " vectors");
+    }
+
+    @Test
+    void verifiesPayToPubKeyHash() {
+        byte[] scriptPubKey = payToPubKeyHash(pubKey(KEY1));
+        TransactionOutput spent = new TransactionOutput(100_000, scriptPubKey);
+        byte[] hash = SignatureHash.legacy(spending(new byte[0]), 0, scriptPubKey, SignatureHash.SIGHASH_ALL);
+
+        assertTrue(verifies(spending(pushes(signEcdsa(KEY1, hash), pubKey(KEY1))), spent));
+        assertFalse(verifies(spending(pushes(signEcdsa(KEY2, hash), pubKey(KEY1))), spent));
+        assertFalse(verifies(spending(pushes(signEcdsa(KEY2, hash), pubKey(KEY2))), spent));
+        // The signature commits to the outputs.
+        Transaction changed = new Transaction(2, spending(new byte[0]).getInputs(),
+                List.of(new TransactionOutput(90_001, new byte[]{OP_1})), 0);
+        byte[] changedHash = SignatureHash.legacy(changed, 0, scriptPubKey, SignatureHash.SIGHASH_ALL);
+        assertFalse(verifies(spending(pushes(signEcdsa(KEY1, changedHash), pubKey(KEY1))), spent));
+    }
+
+    @Test
+    void verifiesBareAndPayToScriptHashMultisig() {
+        byte[] multisig = multisig(2, pubKey(KEY1), pubKey(KEY2), pubKey(KEY3));
+        TransactionOutput bare = new TransactionOutput(100_000, multisig);
+        byte[] hash = SignatureHash.legacy(spending(new byte[0]), 0, multisig, SignatureHash.SIGHASH_ALL);
+        byte[] sig1 = signEcdsa(KEY1, hash);
+        byte[] sig3 = signEcdsa(KEY3, hash);
+
+        assertTrue(verifies(spending(pushes(new byte[0], sig1, sig3)), bare));
+        // Signatures must come in the order of their keys, after a dummy element that must be empty.
+        assertFalse(verifies(spending(pushes(new byte[0], sig3, sig1)), bare));
+        assertFalse(verifies(spending(pushes(new byte[]{1}, sig1, sig3)), bare));
+        assertFalse(verifies(spending(pushes(new byte[0], sig1)), bare));
+
+        TransactionOutput p2sh = new TransactionOutput(100_000, payToScriptHash(multisig));
+        assertTrue(verifies(spending(pushes(new byte[0], sig1, sig3, multisig)), p2sh));
+        assertFalse(verifies(spending(pushes(new byte[0], sig1, sig3, multisig(2, pubKey(KEY1), pubKey(KEY3)))),
+                p2sh));
+    }
+
+    @Test
+    void verifiesPayToWitnessPubKeyHash() {
+        byte[] pubKey = pubKey(KEY1);
+        byte[] program = witnessProgram(0, ExtendedKey.hash160(pubKey));
+        TransactionOutput spent = new TransactionOutput(100_000, program);
+        byte[] hash = witnessV0Hash(spent, payToPubKeyHash(pubKey));
+        byte[] sig = signEcdsa(KEY1, hash);
+
+        assertTrue(verifies(withWitness(spending(new byte[0]), sig, pubKey), spent));
+        assertFalse(verifies(withWitness(spending(new byte[0]), sig, pubKey(KEY2)), spent));
+        // BIP-143 signs the amount spent, so the same signature fails for another amount.
+        assertFalse(verifies(withWitness(spending(new byte[0]), sig, pubKey),
+                new TransactionOutput(100_001, program)));
+
+        TransactionOutput nested = new TransactionOutput(100_000, payToScriptHash(program));
+        assertTrue(verifies(withWitness(spending(pushes(program)), sig, pubKey), nested));
+    }
+
+    @Test
+    void verifiesPayToWitnessScriptHashMultisig() {
+        byte[] witnessScript = multisig(2, pubKey(KEY1), pubKey(KEY2), pubKey(KEY3));
+        TransactionOutput spent = new TransactionOutput(100_000,
+                witnessProgram(0, Sha256.newDigest().digest(witnessScript)));
+        byte[] hash = witnessV0Hash(spent, witnessScript);
+        byte[] sig1 = signEcdsa(KEY1, hash);
+        byte[] sig2 = signEcdsa(KEY2, hash);
+
+        assertTrue(verifies(withWitness(spending(new byte[0]), new byte[0], sig1, sig2, witnessScript), spent));
+        assertFalse(verifies(withWitness(spending(new byte[0]), new byte[0], sig2, sig1, witnessScript), spent));
+        assertFalse(verifies(withWitness(spending(new byte[0]), new byte[0], sig1, sig2,
+                multisig(2, pubKey(KEY1), pubKey(KEY2))), spent));
+    }
+
+    @Test
+    void verifiesTaprootKeyPathSpends() {
+        BigInteger tweaked = tweak(KEY1, new byte[0]);
+        TransactionOutput spent = new TransactionOutput(100_000, witnessProgram(1, xOnly(tweaked)));
+        byte[] hashDefault = taprootHash(spent, SignatureHash.SIGHASH_DEFAULT, null);
+        byte[] hashAll = taprootHash(spent, SignatureHash.SIGHASH_ALL, null);
+        byte[] sig = signSchnorr(tweaked, hashDefault);
+
+        assertTrue(verifies(withWitness(spending(new byte[0]), sig), spent));
+        assertTrue(verifies(withWitness(spending(new byte[0]), append(signSchnorr(tweaked, hashAll),
+                SignatureHash.SIGHASH_ALL)), spent));
+        // An explicit SIGHASH_ALL signs a different message than the default.
+        assertFalse(verifies(withWitness(spending(new byte[0]), append(sig, SignatureHash.SIGHASH_ALL)), spent));
+        assertFalse(verifies(withWitness(spending(new byte[0]), signSchnorr(KEY1, hashDefault)), spent));
+        sig[10] ^= 1;
+        assertFalse(verifies(withWitness(spending(new byte[0]), sig), spent));
+    }
+
+    @Test
+    void verifiesTaprootScriptPathSpends() {
+        byte[] leafScript = append(Interpreter.pushEncoding(xOnly(KEY2)), OP_CHECKSIG);
+        byte[] leafHash = TaggedHash.TAP_LEAF.hash(new byte[]{(byte) 0xc0, (byte) leafScript.length}, leafScript);
+        BigInteger tweaked = tweak(KEY1, leafHash);
+        boolean oddY = DOMAIN.getG().multiply(tweaked).normalize().getAffineYCoord().testBitZero();
+        TransactionOutput spent = new TransactionOutput(100_000, witnessProgram(1, xOnly(tweaked)));
+        byte[] control = append(new byte[]{(byte) (0xc0 | (oddY ? 1 : 0))}, xOnly(KEY1));
+        byte[] sig = signSchnorr(KEY2, taprootHash(spent, SignatureHash.SIGHASH_DEFAULT, leafHash));
+
+        assertTrue(verifies(withWitness(spending(new byte[0]), sig, leafScript, control), spent));
+        byte[] wrongParity = control.clone();
+        wrongParity[0] ^= 1;
+        assertFalse(verifies(withWitness(spending(new byte[0]), sig, leafScript, wrongParity), spent));
+        assertFalse(verifies(withWitness(spending(new byte[0]), signSchnorr(KEY3, taprootHash(spent,
+                SignatureHash.SIGHASH_DEFAULT, leafHash)), leafScript, control), spent));
+    }
+
+    @Test
+    void checksTimeLocksAgainstTheSpendingTransaction() {
+        // <operand> CHECKLOCKTIMEVERIFY DROP 1, and the same with CHECKSEQUENCEVERIFY
+        byte[] cltv = append(parse("500 CHECKLOCKTIMEVERIFY DROP"), OP_1);
+        byte[] csv = append(parse("10 CHECKSEQUENCEVERIFY DROP"), OP_1);
+
+        assertTrue(verifies(locked(2, 500, 0xFFFFFFFEL), new TransactionOutput(100_000, cltv)));
+        assertFalse(verifies(locked(2, 499, 0xFFFFFFFEL), new TransactionOutput(100_000, cltv)));
+        assertFalse(verifies(locked(2, 500, 0xFFFFFFFFL), new TransactionOutput(100_000, cltv)));
+        // A time based lock time doesn't satisfy a height based operand.
+        assertFalse(verifies(locked(2, 500_000_000, 0xFFFFFFFEL), new TransactionOutput(100_000, cltv)));
+
+        assertTrue(verifies(locked(2, 0, 10), new TransactionOutput(100_000, csv)));
+        assertFalse(verifies(locked(2, 0, 9), new TransactionOutput(100_000, csv)));
+        assertFalse(verifies(locked(1, 0, 10), new TransactionOutput(100_000, csv)));
+        // Nor does a time based sequence a height based operand.
+        assertFalse(verifies(locked(2, 0, (1 << 22) | 10), new TransactionOutput(100_000, csv)));
+    }
+
+    /** Verifies the only input with the standard flags, checking that both paths agree. */
+    private static boolean verifies(Transaction tx, TransactionOutput spent) {
+        TransactionOutput[] spentOutputs = {spent};
+        boolean templates = verifies(tx, spentOutputs, ScriptFlags.STANDARD);
+        assertEquals(templates, verifiesGenerically(tx, spentOutputs, ScriptFlags.STANDARD));
+        return templates;
+    }
+
+    private static boolean verifies(Transaction tx, TransactionOutput[] spent, int flags) {
+        try {
+            new ScriptVerifier(16).verify(tx, spent, flags);
+            return true;
+        } catch (ScriptException e) {
+            return false;
+        }
+    }
+
+    private static boolean verifiesGenerically(Transaction tx, TransactionOutput[] spent, int flags) {
+        TransactionInput input = tx.getInputs().get(0);
+        try {
+            new Interpreter(new ScriptCache(16)).verify(input.getScriptSig(), spent[0].getScriptPubKey(),
+                    input.getWitness(), flags, new SignatureChecker(new PrecomputedTransactionData(tx, spent), 0));
+            return true;
+        } catch (ScriptException e) {
+            return false;
+        }
+    }
+
+    /** A transaction spending one output to {@link #PAYMENT}. */
+    private static Transaction spending(byte[] scriptSig) {
+        OutPoint outpoint = new OutPoint(Sha256.twiceOf("funding".getBytes(StandardCharsets.US_ASCII)), 1);
+        return new Transaction(2, List.of(new TransactionInput(outpoint, scriptSig, 0xFFFFFFFEL)), List.of(PAYMENT),
+                0);
+    }
+
+    /** A transaction of the version and lock time spending one output with an empty scriptSig and the sequence. */
+    private static Transaction locked(int version, long lockTime, long sequence) {
+        OutPoint outpoint = new OutPoint(Sha256.twiceOf("funding".getBytes(StandardCharsets.US_ASCII)), 1);
+        return new Transaction(version, List.of(new TransactionInput(outpoint, new byte[0], sequence)),
+                List.of(PAYMENT), lockTime);
+    }
+
+    private static Transaction withWitness(Transaction tx, byte[]... witness) {
+        tx.getInputs().get(0).setWitness(witness);
+        return tx;
+    }
+
+    private static byte[] witnessV0Hash(TransactionOutput spent, byte[] scriptCode) {
+        PrecomputedTransactionData txData = new PrecomputedTransactionData(spending(new byte[0]),
+                new TransactionOutput[]{spent});
+        return SignatureHash.witnessV0(txData, 0, scriptCode, spent.getValue(), SignatureHash.SIGHASH_ALL);
+    }
+
+    private static byte[] taprootHash(TransactionOutput spent, int hashType, byte[] leafHash) {
+        PrecomputedTransactionData txData = new PrecomputedTransactionData(spending(new byte[0]),
+                new TransactionOutput[]{spent});
+        return SignatureHash.taproot(txData, 0, hashType, null, leafHash, NO_CODE_SEPARATOR);
+    }
+
+    private static BigInteger key(String seed) {
+        return new BigInteger(1, Sha256.newDigest().digest(seed.getBytes(StandardCharsets.US_ASCII))).mod(N);
+    }
+
+    private static byte[] pubKey(BigInteger key) {
+        return DOMAIN.getG().multiply(key).normalize().getEncoded(true);
+    }
+
+    private static byte[] xOnly(BigInteger key) {
+        return DOMAIN.getG().multiply(key).normalize().getAffineXCoord().getEncoded();
+    }
+
+    /** A low S, DER encoded ECDSA signature followed by SIGHASH_ALL. */
+    private static byte[] signEcdsa(BigInteger key, byte[] hash) {
+        ECDSASigner signer = new ECDSASigner(new HMacDSAKCalculator(new SHA256Digest()));
+        signer.init(true, new ECPrivateKeyParameters(key, DOMAIN));
+        BigInteger[] rs = signer.generateSignature(hash);
+        BigInteger s = rs[1].compareTo(N.shiftRight(1)) > 0 ? N.subtract(rs[1]) : rs[1];
+        byte[] r = rs[0].toByteArray();
+        byte[] sBytes = s.toByteArray();
+        ByteArrayOutputStream der = new ByteArrayOutputStream();
+        der.write(0x30);
+        der.write(4 + r.length + sBytes.length);
+        der.write(0x02);
+        der.write(r.length);
+        der.writeBytes(r);
+        der.write(0x02);
+        der.write(sBytes.length);
+        der.writeBytes(sBytes);
+        der.write(SignatureHash.SIGHASH_ALL);
+        return der.toByteArray();
+    }
+
+    /** A BIP-340 signature, with a nonce derived from the key and message alone. */
+    private static byte[] signSchnorr(BigInteger key, byte[] message) {
+        ECPoint p = DOMAIN.getG().multiply(key).normalize();
+        BigInteger d = p.getAffineYCoord().testBitZero() ? N.subtract(key) : key;
+        byte[] px = p.getAffineXCoord().getEncoded();
+        BigInteger k0 = new BigInteger(1, BIP340_NONCE.hash(BigIntegers.asUnsignedByteArray(32, d), px, message))
+                .mod(N);
+        ECPoint r = DOMAIN.getG().multiply(k0).normalize();
+        BigInteger k = r.getAffineYCoord().testBitZero() ? N.subtract(k0) : k0;
+        byte[] rx = r.getAffineXCoord().getEncoded();
+        BigInteger e = new BigInteger(1, TaggedHash.BIP340_CHALLENGE.hash(rx, px, message)).mod(N);
+        return append(rx, BigIntegers.asUnsignedByteArray(32, k.add(e.multiply(d)).mod(N)));
+    }
+
+    /** The BIP-341 output key's private key: the internal key, made even, plus the tweak by the merkle root. */
+    private static BigInteger tweak(BigInteger key, byte[] merkleRoot) {
+        ECPoint p = DOMAIN.getG().multiply(key).normalize();
+        BigInteger even = p.getAffineYCoord().testBitZero() ? N.subtract(key) : key;
+        BigInteger t = new BigInteger(1, TaggedHash.TAP_TWEAK.hash(p.getAffineXCoord().getEncoded(), merkleRoot));
+        return even.add(t).mod(N);
+    }
+
+    private static byte[] payToPubKeyHash(byte[] pubKey) {
+        return append(append(new byte[]{0x76, (byte) 0xa9, 0x14}, ExtendedKey.hash160(pubKey)),
+                new byte[]{(byte) 0x88, (byte) OP_CHECKSIG});
+    }
+
+    private static byte[] payToScriptHash(byte[] script) {
+        return append(append(new byte[]{(byte) 0xa9, 0x14}, ExtendedKey.hash160(script)), (byte) 0x87);
+    }
+
+    private static byte[] witnessProgram(int version, byte[] program) {
+        return append(new byte[]{(byte) (version == 0 ? OP_0 : OP_1 + version - 1), (byte) program.length},
+                program);
+    }
+
+    private static byte[] multisig(int required, byte[]... pubKeys) {
+        byte[] script = {(byte) (OP_1 + required - 1)};
+        for (byte[] pubKey : pubKeys) {
+            script = append(script, Interpreter.pushEncoding(pubKey));
+        }
+        return append(append(script, (byte) (OP_1 + pubKeys.length - 1)), (byte) OP_CHECKMULTISIG);
+    }
+
+    private static byte[] pushes(byte[]... items) {
+        byte[] script = new byte[0];
+        for (byte[] item : items) {
+            script = append(script, Interpreter.pushEncoding(item));
+        }
+        return script;
+    }
+
+    private static byte[] append(byte[] a, byte[] b) {
+        byte[] result = new byte[a.length + b.length];
+        System.arraycopy(a, 0, result, 0, a.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+    private static byte[] append(byte[] a, int b) {
+        return append(a, new byte[]{(byte) b});
+    }
+
+    /** Parses Bitcoin Core's script assembly, as its {@code ParseScript} does. */
+    private static byte[] parse(String asm) {
+        ByteArrayOutputStream script = new ByteArrayOutputStream();
+        for (String word : asm.trim().split("\\s+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            if (word.matches("-?[0-9]+")) {
+                long n = Long.parseLong(word);
+                if (n == -1) {
+                    script.write(Opcodes.OP_1NEGATE);
+                } else if (n == 0) {
+                    script.write(OP_0);
+                } else if (n >= 1 && n <= 16) {
+                    script.write(OP_1 + (int) n - 1);
+                } else {
+                    script.writeBytes(Interpreter.pushEncoding(scriptNum(n)));
+                }
+            } else if (word.startsWith("0x") && word.length() > 2) {
+                script.writeBytes(ByteUtils.HEX.decode(word.substring(2)));
+            } else if (word.length() >= 2 && word.startsWith("'") && word.endsWith("'")) {
+                byte[] data = word.substring(1, word.length() - 1).getBytes(StandardCharsets.US_ASCII);
+                script.writeBytes(data.length == 0 ? new byte[]{OP_0} : Interpreter.pushEncoding(data));
+            } else if (OPCODES.containsKey(word)) {
+                script.write(OPCODES.get(word));
+            } else {
+                throw new IllegalArgumentException("Unknown script word " + word);
+            }
+        }
+        return script.toByteArray();
+    }
+
+    /** The minimal little endian, sign and magnitude encoding of a script number. */
+    private static byte[] scriptNum(long n) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        long abs = Math.abs(n);
+        while (abs > 0) {
+            bytes.write((int) (abs & 0xff));
+            abs >>= 8;
+        }
+        byte[] result = bytes.toByteArray();
+        if ((result[result.length - 1] & 0x80) != 0) {
+            result = append(result, n < 0 ? 0x80 : 0);
+        } else if (n < 0) {
+            result[result.length - 1] |= (byte) 0x80;
+        }
+        return result;
+    }
+
+    private static int flags(String names) {
+        int flags = 0;
+        for (String name : names.split(",")) {
+            if (!name.isBlank() && !name.equals("NONE")) {
+                try {
+                    flags |= ScriptFlags.class.getField(name.trim()).getInt(null);
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalArgumentException("Unsupported flag " + name, e);
+                }
+            }
+        }
+        return flags;
+    }
+
+    /** Opcodes by their names in {@link Opcodes}, and the names Core also knows them by, with and without OP_. */
+    private static Map<String, Integer> opcodeNames() {
+        Map<String, Integer> opcodes = new HashMap<>();
+        try {
+            for (Field field : Opcodes.class.getFields()) {
+                opcodes.put(field.getName(), field.getInt(null));
+            }
+        } catch (IllegalAccessException e) {
+            throw new AssertionError(e);
+        }
+        for (int n = 2; n <= 15; n++) {
+            opcodes.put("OP_" + n, OP_1 + n - 1);
+        }
+        for (int n = 4; n <= 10; n++) {
+            opcodes.put("OP_NOP" + n, Opcodes.OP_NOP4 + n - 4);
+        }
+        opcodes.put("OP_NOP2", Opcodes.OP_CHECKLOCKTIMEVERIFY);
+        opcodes.put("OP_NOP3", Opcodes.OP_CHECKSEQUENCEVERIFY);
+        opcodes.put("OP_TRUE", OP_1);
+        opcodes.put("OP_FALSE", OP_0);
+        Map<String, Integer> unprefixed = new HashMap<>();
+        opcodes.forEach((name, opcode) -> unprefixed.put(name.substring(3), opcode));
+        opcodes.putAll(unprefixed);
+        return opcodes;
+    }
+}
@@ -0,0 +1,127 @@
+package org.hma.bitcoin.script;
+
+import org.hma.bitcoin.model.Transaction;
+import org.hma.bitcoin.model.TransactionOutput;
+import org.hma.bitcoin.util.ByteUtils;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/** Checks the segwit signature hashes against the BIP-143 examples and the BIP-341 key path spending vectors. */
+class SignatureHashTest {
+    /** BIP-143 native P2WPKH: the second input spends 6 BTC from a P2WPKH output. */
+    private static final String P2WPKH_TX = "0100000002fff7f7881a8099afa6940d42d1e7f6362bec38171ea3edf433541db4e4ad"
+            + "969f0000000000eeffffffef51e1b804cc89d182d279655c3aa89e815b1b309fe287d9b2b55d57b90ec68a0100000000ffff"
+            + "ffff02202cb206000000001976a9148280b37df378db99f66f85c95a783a76ac7a6d5988ac9093510d000000001976a9143b"
+            + "de42dbee7e4dbe6a21b2d50ce2f0167faa815988ac11000000";
+    /** BIP-143 P2SH-P2WPKH: the only input spends 10 BTC. */
+    private static final String P2SH_P2WPKH_TX = "0100000001db6b1b20aa0fd7b23880be2ecbd4a98130974cf4748fb66092ac4d3"
+            + "ceb1a54770100000000feffffff02b8b4eb0b000000001976a914a457b684d7f0d539a46a45bbc043f35b59d0d96388ac0008"
+            + "af2f000000001976a914fd270b1ee6abcaea97fea7ad0402e8bd8ad6d77c88ac92040000";
+    /** BIP-143 "no FindAndDelete": a P2WSH script pushing a signature, spending 200000 satoshis. */
+    private static final String FIND_AND_DELETE_TX = "010000000169c12106097dc2e0526493ef67f21269fe888ef05c7a3a5dacab3"
+            + "8e1ac8387f14c1d000000ffffffff0101000000000000000000000000";
+
+    /** The unsigned transaction of the BIP-341 key path spending vectors. */
+    private static final String TAPROOT_TX = "02000000097de20cbff686da83a54981d2b9bab3586f4ca7e48f57f5b55963115f3b33"
+            + "4e9c010000000000000000d7b7cab57b1393ace2d064f4d4a2cb8af6def61273e127517d44759b6dafdd990000000000ffff"
+            + "fffff8e1f583384333689228c5d28eac13366be082dc57441760d957275419a418420000000000fffffffff0689180aa63b3"
+            + "0cb162a73c6d2a38b7eeda2a83ece74310fda0843ad604853b0100000000feffffffaa5202bdf6d8ccd2ee0f0202afbbb746"
+            + "1d9264a25e5bfd3c5a52ee1239e0ba6c0000000000feffffff956149bdc66faa968eb2be2d2faa29718acbfe3941215893a2"
+            + "a3446d32acd050000000000000000000e664b9773b88c09c32cb70a2a3e4da0ced63b7ba3b22f848531bbb1d5d5f4c940100"
+            + "00000000000000e9aa6b8e6c9de67619e6a3924ae25696bb7b694bb677a632a74ef7eadfd4eabf0000000000ffffffffa778"
+            + "eb6a263dc090464cd125c466b5a99667720b1c110468831d058aa1b82af10100000000ffffffff0200ca9a3b000000001976"
+            + "a91406afd46bcdfd22ef94ac122aa11f241244a37ecc88ac807840cb0000000020ac9a87f5594be208f8532db38cff670c45"
+            + "0ed2fea8fcdefcc9a663f78bab962b0065cd1d";
+    private static final String[][] TAPROOT_SPENT = {
+            {"420000000", "512053a1f6e454df1aa2776a2814a721372d6258050de330b3c6d10ee8f4e0dda343"},
+            {"462000000", "5120147c9c57132f6e7ecddba9800bb0c4449251c92a1e60371ee77557b6620f3ea3"},
+            {"294000000", "76a914751e76e8199196d454941c45d1b3a323f1433bd688ac"},
+            {"504000000", "5120e4d810fd50586274face62b8a807eb9719cef49c04177cc6b76a9a4251d5450e"},
+            {"630000000", "512091b64d5324723a985170e4dc5a0f84c041804f2cd12660fa5dec09fc21783605"},
+            {"378000000", "00147dd65592d0ab2fe0d0257d571abf032cd9db93dc"},
+            {"672000000", "512075169f4001aa68f15bbed28b218df1d0a62cbbcf1188c6665110c293c907b831"},
+            {"546000000", "5120712447206d7a5238acc7ff53fbe94a3b64539ad291c7cdbc490b7577e4b17df5"},
+            {"588000000", "512077e30a5522dd9f894c3f8b8bd4c4b2cf82ca7da8a3ea6a239655c39c050ab220"},
+    };
+
+    @Test
+    void matchesTheNativeP2wpkhExample() throws Exception {
+        PrecomputedTransactionData txData = txData(P2WPKH_TX, 625_000_000, 600_000_000);
+
+        assertHex("96b827c8483d4e9b96712b6713a7b68d6e8003a781feba36c31143470b4efd37", txData.hashPrevouts());
+        assertHex("52b0a642eea2fb7ae638c36f6252b6750293dbe574a806984b8e4d8548339a3b", txData.hashSequence());
+        assertHex("863ef3e1a92afbfdb97f31ad0fc7683ee943e9abcf2501590ff8f6551f47e5e5", txData.hashOutputs());
+        assertHex("c37af31116d1b27caf68aae9e3ac82f1477929014d5b917657d0eb49478cb670", SignatureHash.witnessV0(txData,
+                1, hex("76a9141d0f172a0ecb48aee1be1f2687d2963ae33f71a188ac"), 600_000_000,
+                SignatureHash.SIGHASH_ALL));
+    }
+
+    @Test
+    void matchesTheP2shP2wpkhExample() throws Exception {
+        PrecomputedTransactionData txData = txData(P2SH_P2WPKH_TX, 1_000_000_000);
+
+        assertHex("b0287b4a252ac05af83d2dcef00ba313af78a3e9c329afa216eb3aa2a7b4613a", txData.hashPrevouts());
+        assertHex("18606b350cd8bf565266bc352f0caddcf01e8fa789dd8a15386327cf8cabe198", txData.hashSequence());
+        assertHex("de984f44532e2173ca0d64314fcefe6d30da6f8cf27bafa706da61df8a226c83", txData.hashOutputs());
+        assertHex("64f3b0f4dd2bb3aa1ce8566d220cc74dda9df97d8490cc81d89d735c92e59fb6", SignatureHash.witnessV0(txData,
+                0, hex("76a91479091972186c449eb1ded22b78e40d009bdf008988ac"), 1_000_000_000,
+                SignatureHash.SIGHASH_ALL));
+    }
+
+    @Test
+    void signsTheScriptCodeWithoutFindAndDelete() throws Exception {
+        PrecomputedTransactionData txData = txData(FIND_AND_DELETE_TX, 200_000);
+
+        // The script pushes the very signature checked against it, which legacy signature hashes would remove.
+        assertHex("71c9cd9b2869b9c70b01b1f0360c148f42dee72297db312638df136f43311f23", SignatureHash.witnessV0(txData,
+                0, hex("ad4830450220487fb382c4974de3f7d834c1b617fe15860828c7f96454490edd6d891556dcc9022100baf95feb"
+                        + "48f845d5bfc9882eb6aeefa1bc3790e39f59eaa46ff7f15ae626c53e01"), 200_000,
+                SignatureHash.SIGHASH_ALL));
+    }
+
+    @Test
+    void matchesTheTaprootKeyPathVectors() throws Exception {
+        Transaction tx = new Transaction(hex(TAPROOT_TX), 0);
+        TransactionOutput[] spent = new TransactionOutput[TAPROOT_SPENT.length];
+        for (int i = 0; i < spent.length; i++) {
+            spent[i] = new TransactionOutput(Long.parseLong(TAPROOT_SPENT[i][0]), hex(TAPROOT_SPENT[i][1]));
+        }
+        PrecomputedTransactionData txData = new PrecomputedTransactionData(tx, spent);
+
+        assertHex("58a6964a4f5f8f0b642ded0a8a553be7622a719da71d1f5befcefcdee8e0fde6", txData.amounts());
+        assertHex("a2e6dab7c1f0dcd297c8d61647fd17d821541ea69c3cc37dcbad7f90d4eb4bc5", txData.outputs());
+        assertHex("e3b33bb4ef3a52ad1fffb555c0d82828eb22737036eaeb02a235d82b909c4c3f", txData.prevouts());
+        assertHex("23ad0f61ad2bca5ba6a7693f50fce988e17c3780bf2b1e720cfbb38fbdd52e21", txData.scriptPubKeys());
+        assertHex("18959c7221ab5ce9e26c3cd67b22c24f8baa54bac281d8e6b05e400e6c3a957e", txData.sequences());
+
+        assertTaproot("2514a6272f85cfa0f45eb907fcb0d121b808ed37c6ea160a5a9046ed5526d555", txData, 0, 0x03);
+        assertTaproot("325a644af47e8a5a2591cda0ab0723978537318f10e6a63d4eed783b96a71a4d", txData, 1, 0x83);
+        assertTaproot("bf013ea93474aa67815b1b6cc441d23b64fa310911d991e713cd34c7f5d46669", txData, 3, 0x01);
+        assertTaproot("4f900a0bae3f1446fd48490c2958b5a023228f01661cda3496a11da502a7f7ef", txData, 4, 0x00);
+        assertTaproot("15f25c298eb5cdc7eb1d638dd2d45c97c4c59dcaec6679cfc16ad84f30876b85", txData, 6, 0x02);
+        assertTaproot("cd292de50313804dabe4685e83f923d2969577191a3e1d2882220dca88cbeb10", txData, 7, 0x82);
+        assertTaproot("cccb739eca6c13a8a89e6e5cd317ffe55669bbda23f2fd37b0f18755e008edd2", txData, 8, 0x81);
+    }
+
+    /** The transaction with an output of each amount spent by its inputs, the scriptPubKeys don't matter. */
+    private static PrecomputedTransactionData txData(String tx, long... amounts) throws Exception {
+        TransactionOutput[] spent = new TransactionOutput[amounts.length];
+        for (int i = 0; i < amounts.length; i++) {
+            spent[i] = new TransactionOutput(amounts[i], new byte[0]);
+        }
+        return new PrecomputedTransactionData(new Transaction(hex(tx), 0), spent);
+    }
+
+    private static void assertTaproot(String expected, PrecomputedTransactionData txData, int index, int hashType) {
+        assertHex(expected, SignatureHash.taproot(txData, index, hashType, null, null, 0xFFFFFFFFL));
+    }
+
+    private static void assertHex(String expected, byte[] actual) {
+        assertEquals(expected, ByteUtils.HEX.encode(actual));
+    }
+
+    private static byte[] hex(String hex) {
+        return ByteUtils.HEX.decode(hex);
+    }
+}
@@ -0,0 +1,163 @@
+package org.hma.bitcoin.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Writes 4 byte keys with 4 byte values through small memtables, so that a few records make runs. */
+class SortedRunStoreTest {
+    private static final int MEMTABLE_LIMIT = 4;
+
+    @TempDir
+    Path dir;
+
+    private SortedRunStore store;
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (store != null) {
+            store.close();
+        }
+    }
+
+    @Test
+    void replaysTheLogOnReopen() throws IOException {
+        store = open(100);
+        store.writeBatch(records(1, 10, 2, 20));
+        store.writeBatch(records(1, 11));
+        reopen(100);
+
+        assertEquals(0, store.getRunCount());
+        assertValue(1, 11);
+        assertValue(2, 20);
+        assertNull(store.get(key(3)));
+    }
+
+    @Test
+    void cutsTheLogAtATornBatch() throws IOException {
+        store = open(100);
+        store.writeBatch(records(1, 10));
+        store.close();
+        Path log;
+        try (var files = Files.list(dir)) {
+            log = files.filter(file -> file.getFileName().toString().endsWith(".log")).findFirst().orElseThrow();
+        }
+        long intact = Files.size(log);
+        // A batch announcing 8 bytes whose records and checksum never made it to disk
+        Files.write(log, new byte[]{8, 0, 0, 0, 2, 0}, StandardOpenOption.APPEND);
+        store = new SortedRunStore(dir, 4, 4, MEMTABLE_LIMIT, 100);
+
+        assertValue(1, 10);
+        assertEquals(intact, Files.size(log));
+    }
+
+    @Test
+    void looksUpAcrossRunsNewestFirst() throws IOException {
+        store = open(100);
+        for (int i = 0; i < 4 * MEMTABLE_LIMIT; i++) {
+            store.writeBatch(records(i % 6, i));
+        }
+        awaitRuns(2);
+
+        // Keys 0 to 3 were written last by i = 12 to 15, keys 4 and 5 by i = 10 and 11.
+        for (int key = 0; key < 6; key++) {
+            assertValue(key, key < 4 ? 12 + key : 6 + key);
+        }
+        reopen(100);
+        for (int key = 0; key < 6; key++) {
+            assertValue(key, key < 4 ? 12 + key : 6 + key);
+        }
+    }
+
+    @Test
+    void compactsRunsKeepingTheNewestValues() throws IOException {
+        store = open(2);
+        for (int i = 0; i < 40; i++) {
+            store.writeBatch(records(i % 10, i));
+        }
+        reopen(2);
+
+        // Some ten memtables were flushed; merging leaves at most one run past the limit, the last one flushed.
+        assertTrue(store.getRunCount() <= 3, store.getRunCount() + " runs");
+        for (int key = 0; key < 10; key++) {
+            assertValue(key, 30 + key);
+        }
+    }
+
+    @Test
+    void writesTheRecordsOfAFailedFlushWithTheNextRun() throws IOException {
+        store = open(100);
+        // The first flush writes run-0.tmp, which a directory in its place makes fail.
+        Path blocker = Files.createDirectories(dir.resolve("run-0.tmp").resolve("blocker"));
+        store.writeBatch(records(1, 10, 2, 20, 3, 30, 4, 40));
+
+        int key = 5;
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (store.getRunCount() == 0) {
+            assertTrue(System.nanoTime() < deadline, "No run written after the failed flush");
+            store.writeBatch(records(key, key * 10));
+            key++;
+            sleep();
+        }
+        for (int k = 1; k < key; k++) {
+            assertValue(k, k * 10);
+        }
+        Files.delete(blocker);
+        reopen(100);
+        for (int k = 1; k < key; k++) {
+            assertValue(k, k * 10);
+        }
+    }
+
+    private SortedRunStore open(int maxRuns) throws IOException {
+        return new SortedRunStore(dir, 4, 4, MEMTABLE_LIMIT, maxRuns);
+    }
+
+    private void reopen(int maxRuns) throws IOException {
+        store.close();
+        store = open(maxRuns);
+    }
+
+    private void awaitRuns(int count) {
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (store.getRunCount() < count) {
+            assertTrue(System.nanoTime() < deadline, "Only " + store.getRunCount() + " runs written");
+            sleep();
+        }
+    }
+
+    private void assertValue(int key, int value) {
+        assertArrayEquals(key(value), store.get(key(key)), "value of " + key);
+    }
+
+    /** Key and value pairs as one batch, each as a 4 byte big endian number. */
+    private static byte[] records(int... pairs) {
+        byte[] batch = new byte[pairs.length * 4];
+        for (int i = 0; i < pairs.length; i++) {
+            System.arraycopy(key(pairs[i]), 0, batch, i * 4, 4);
+        }
+        return batch;
+    }
+
+    private static byte[] key(int n) {
+        return new byte[]{(byte) (n >> 24), (byte) (n >> 16), (byte) (n >> 8), (byte) n};
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(10);
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
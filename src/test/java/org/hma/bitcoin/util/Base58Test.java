@@ -0,0 +1,93 @@
+package org.hma.bitcoin.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/** Bitcoin Core's base58_encode_decode vectors, Base58Check addresses and random bytes against a BigInteger codec. */
+class Base58Test {
+    private static final String ALPHABET = "123456789ABCDEFGHJKLMNPQRSTUVWXYZabcdefghijkmnopqrstuvwxyz";
+    private static final String[][] VECTORS = {
+            {"", ""},
+            {"61", "2g"},
+            {"626262", "a3gV"},
+            {"636363", "aPEr"},
+            {"73696d706c792061206c6f6e6720737472696e67", "2cFupjhnEsSn59qHXstmK2ffpLv2"},
+            {"00eb15231dfceb60925886b67d065299925915aeb172c06647", "1NS17iag9jJgTHD1VXjvLCEnZuQ3rJDE9L"},
+            {"516b6fcd0f", "ABnLTmg"},
+            {"bf4f89001e670274dd", "3SEo3LWLoPntC"},
+            {"572e4794", "3EFU7m"},
+            {"ecac89cad93923c02321", "EJDM8drfXA6uyA"},
+            {"10c8511e", "Rt5zm"},
+            {"00000000000000000000", "1111111111"},
+            {"000111d38e5fc9071ffcd20b4a763cc9ae4f252bb4e48fd66a835e252ada93ff480d6dd43dc62a641155a5", ALPHABET},
+    };
+
+    @Test
+    void encodesAndDecodesTheVectors() {
+        for (String[] vector : VECTORS) {
+            byte[] bytes = ByteUtils.HEX.decode(vector[0]);
+            assertEquals(vector[1], Base58.encode(bytes), vector[0]);
+            assertArrayEquals(bytes, Base58.decode(vector[1]), vector[1]);
+        }
+    }
+
+    @Test
+    void decodesChecked() {
+        assertEquals("0077bff20c60e522dfaa3350c39b030a5d004e839a",
+                ByteUtils.HEX.encode(Base58.decodeChecked("1BvBMSEYstWetqTFn5Au4m4GFg7xJaNVN2")));
+        assertEquals("05b472a266d0bd89c13706a4132ccfb16f7c3b9fcb",
+                ByteUtils.HEX.encode(Base58.decodeChecked("3J98t1WpEZ73CNmQviecrnyiWrnqRhWNLy")));
+        assertEquals("3J98t1WpEZ73CNmQviecrnyiWrnqRhWNLy",
+                Base58.encodeChecked(ByteUtils.HEX.decode("05b472a266d0bd89c13706a4132ccfb16f7c3b9fcb")));
+    }
+
+    @Test
+    void rejectsBadCharactersAndChecksums() {
+        for (String input : new String[]{"0", "O", "I", "l", "3mJr0", "3mJr7AoUXx2Wqd ", "é"}) {
+            assertThrows(IllegalArgumentException.class, () -> Base58.decode(input), input);
+        }
+        assertThrows(IllegalArgumentException.class, () -> Base58.decodeChecked("1BvBMSEYstWetqTFn5Au4m4GFg7xJaNVN3"));
+        assertThrows(IllegalArgumentException.class, () -> Base58.decodeChecked("3J98t"));
+    }
+
+    @Test
+    void roundTripsRandomBytes() {
+        SplittableRandom random = new SplittableRandom(58);
+        for (int i = 0; i < 2000; i++) {
+            byte[] bytes = new byte[random.nextInt(80)];
+            for (int j = 0; j < bytes.length; j++) {
+                bytes[j] = (byte) random.nextInt(256);
+            }
+            // Leading zero bytes, which encode as '1' each
+            Arrays.fill(bytes, 0, Math.min(bytes.length, random.nextInt(4)), (byte) 0);
+
+            String encoded = Base58.encode(bytes);
+            assertEquals(reference(bytes), encoded);
+            assertArrayEquals(bytes, Base58.decode(encoded));
+            assertArrayEquals(bytes, Base58.decodeChecked(Base58.encodeChecked(bytes)));
+        }
+    }
+
+    /** Base58 the slow way, through a BigInteger. */
+    private static String reference(byte[] bytes) {
+        StringBuilder encoded = new StringBuilder();
+        BigInteger value = new BigInteger(1, bytes);
+        BigInteger base = BigInteger.valueOf(58);
+        while (value.signum() > 0) {
+            BigInteger[] quotientAndRemainder = value.divideAndRemainder(base);
+            encoded.append(ALPHABET.charAt(quotientAndRemainder[1].intValue()));
+            value = quotientAndRemainder[0];
+        }
+        for (int i = 0; i < bytes.length && bytes[i] == 0; i++) {
+            encoded.append('1');
+        }
+        return encoded.reverse().toString();
+    }
+}
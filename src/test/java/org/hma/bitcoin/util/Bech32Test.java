@@ -0,0 +1,109 @@
+package org.hma.bitcoin.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/** The valid and invalid strings of BIP-173 and BIP-350, and random values round-tripped under both checksums. */
+class Bech32Test {
+    private static final String[] VALID_BECH32 = {
+            "A12UEL5L",
+            "a12uel5l",
+            "an83characterlonghumanreadablepartthatcontainsthenumber1andtheexcludedcharactersbio1tt5tgs",
+            "abcdef1qpzry9x8gf2tvdw0s3jn54khce6mua7lmqqqxw",
+            "split1checkupstagehandshakeupstreamerranterredcaperred2y9e3w",
+            "?1ezyfcl",
+    };
+    private static final String[] VALID_BECH32M = {
+            "A1LQFN3A",
+            "a1lqfn3a",
+            "an83characterlonghumanreadablepartthatcontainsthetheexcludedcharactersbioandnumber11sg7hg6",
+            "abcdef1l7aum6echk45nj3s0wdvt2fg8x9yrzpqzd3ryx",
+            "split1checkupstagehandshakeupstreamerranterredcaperredlc445v",
+            "?1v759aa",
+    };
+    private static final String[] INVALID = {
+            " 1nwldj5",
+            "\u007f1axkwrx",
+            "\u00801eym55h",
+            "an84characterslonghumanreadablepartthatcontainsthenumber1andtheexcludedcharactersbio1569pvx",
+            "pzry9x0s0muk",
+            "1pzry9x0s0muk",
+            "x1b4n0q5v",
+            "li1dgmt3",
+            "de1lg7wtÿ",
+            "A1G7SGD8",
+            "10a06t8",
+            "1qzzfhee",
+    };
+
+    @Test
+    void decodesAndReencodesValidStrings() {
+        for (String valid : VALID_BECH32) {
+            assertValid(Bech32.Encoding.BECH32, valid);
+        }
+        for (String valid : VALID_BECH32M) {
+            assertValid(Bech32.Encoding.BECH32M, valid);
+        }
+    }
+
+    @Test
+    void rejectsInvalidStrings() {
+        for (String invalid : INVALID) {
+            assertThrows(IllegalArgumentException.class, () -> Bech32.decode(invalid), invalid);
+        }
+    }
+
+    @Test
+    void roundTripsRandomValues() {
+        SplittableRandom random = new SplittableRandom(173);
+        for (int i = 0; i < 2000; i++) {
+            Bech32.Encoding encoding = random.nextBoolean() ? Bech32.Encoding.BECH32 : Bech32.Encoding.BECH32M;
+            String hrp = random.nextBoolean() ? "bc" : "tb";
+            byte[] data = new byte[random.nextInt(80)];
+            for (int j = 0; j < data.length; j++) {
+                data[j] = (byte) random.nextInt(32);
+            }
+
+            String encoded = Bech32.encode(encoding, hrp, data);
+            Bech32.Decoded decoded = Bech32.decode(encoded);
+            assertEquals(encoding, decoded.getEncoding());
+            assertEquals(hrp, decoded.getHrp());
+            assertArrayEquals(data, decoded.getData());
+            assertArrayEquals(data, Bech32.decode(encoded.toUpperCase(Locale.ROOT)).getData());
+
+            // The checksum catches any one substituted character.
+            int position = hrp.length() + 1 + random.nextInt(encoded.length() - hrp.length() - 1);
+            char[] corrupted = encoded.toCharArray();
+            corrupted[position] = corrupted[position] == 'q' ? 'p' : 'q';
+            assertThrows(IllegalArgumentException.class, () -> Bech32.decode(new String(corrupted)), encoded);
+        }
+    }
+
+    @Test
+    void convertsBitsBetweenBytesAndValues() {
+        SplittableRandom random = new SplittableRandom(350);
+        for (int i = 0; i < 500; i++) {
+            byte[] bytes = new byte[random.nextInt(65)];
+            for (int j = 0; j < bytes.length; j++) {
+                bytes[j] = (byte) random.nextInt(256);
+            }
+
+            byte[] values = Bech32.convertBits(bytes, 0, bytes.length, 8, 5, true);
+            assertEquals((bytes.length * 8 + 4) / 5, values.length);
+            assertArrayEquals(bytes, Bech32.convertBits(values, 0, values.length, 5, 8, false));
+        }
+    }
+
+    private static void assertValid(Bech32.Encoding encoding, String valid) {
+        Bech32.Decoded decoded = Bech32.decode(valid);
+        assertEquals(encoding, decoded.getEncoding(), valid);
+        assertEquals(valid.toLowerCase(Locale.ROOT),
+                Bech32.encode(encoding, decoded.getHrp(), decoded.getData()), valid);
+    }
+}
@@ -0,0 +1,119 @@
+package org.hma.bitcoin.wallet;
+
+import org.hma.bitcoin.chain.ChainState;
+import org.hma.bitcoin.crypto.Sha256;
+import org.hma.bitcoin.model.OutPoint;
+import org.hma.bitcoin.model.Utxo;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Selects from P2WPKH outputs at 1 sat/vbyte, the long-term rate too, so that an input costs 68 satoshis, change 99
+ * (31 to create, 68 to spend) and a payment without inputs 42. Each case leaves only one algorithm a solution, or
+ * solutions of equal waste, so the random ones don't make the result vary.
+ */
+class CoinSelectorTest {
+    private static final long FEE_RATE = 1000;
+    private static final byte[] P2WPKH = new byte[22];
+    private static final int HEIGHT = 1000;
+
+    private final CoinSelector selector = new CoinSelector(100_000, 10_000, FEE_RATE);
+
+    static {
+        P2WPKH[1] = 0x14;
+    }
+
+    @Test
+    void findsAnExactMatchWithBranchAndBound() {
+        Map<OutPoint, Utxo> utxos = utxos(100_000, 200_000, 500_000, 1_000_000);
+        // 500 000 and 200 000 less their input fees pay this and the 42 satoshis of the rest of the transaction.
+        long amount = 500_000 + 200_000 - 2 * 68 - 42;
+
+        CoinSelection selection = selector.select(utxos, amount, FEE_RATE, HEIGHT);
+
+        assertEquals("bnb", selection.getAlgorithm());
+        assertEquals(Set.of(outpoint(1), outpoint(2)), Set.copyOf(selection.getInputs()));
+        assertEquals(0, selection.getChange());
+        assertEquals(2 * 68 + 42, selection.getFee());
+        assertEquals(0, selection.getWaste());
+    }
+
+    @Test
+    void fallsBackToTheRandomDrawWhenNoSelectionIsChangeless() {
+        CoinSelection selection = selector.select(utxos(2_000_000), 500_000, FEE_RATE, HEIGHT);
+
+        // Knapsack picks the same input with the same waste, the draw found first stays.
+        assertEquals("srd", selection.getAlgorithm());
+        assertEquals(List.of(outpoint(0)), selection.getInputs());
+        assertEquals(68 + 42 + 31, selection.getFee());
+        assertEquals(2_000_000 - 500_000 - 141, selection.getChange());
+        assertEquals(99, selection.getWaste());
+    }
+
+    @Test
+    void fallsBackToKnapsackAddingChangeBelowTheMinimumToTheFee() {
+        // 10 000 too much for a changeless selection, and too little for change
+        long amount = 1_000_000 - 68 - 42 - 31 - 10_000;
+
+        CoinSelection selection = selector.select(utxos(1_000_000), amount, FEE_RATE, HEIGHT);
+
+        assertEquals("knapsack", selection.getAlgorithm());
+        assertEquals(0, selection.getChange());
+        assertEquals(68 + 42 + 31 + 10_000, selection.getFee());
+        assertEquals(31 + 10_000, selection.getWaste());
+    }
+
+    @Test
+    void createsChangeOfTheMinimum() {
+        long amount = 1_000_000 - 68 - 42 - 31 - CoinSelector.MIN_CHANGE;
+
+        CoinSelection selection = selector.select(utxos(1_000_000), amount, FEE_RATE, HEIGHT);
+
+        assertEquals(CoinSelector.MIN_CHANGE, selection.getChange());
+        assertEquals(68 + 42 + 31, selection.getFee());
+    }
+
+    @Test
+    void returnsNullForInsufficientFunds() {
+        Map<OutPoint, Utxo> utxos = utxos(300_000, 200_000);
+
+        assertNull(selector.select(utxos, 500_000, FEE_RATE, HEIGHT));
+        assertEquals(2, selector.select(utxos, 500_000 - 2 * 68 - 42, FEE_RATE, HEIGHT).getInputs().size());
+
+        // A coinbase 99 blocks deep isn't spendable yet, nor is an output worth less than its input fee.
+        utxos.put(outpoint(2), new Utxo(1_000_000, P2WPKH, HEIGHT - ChainState.COINBASE_MATURITY + 1, true));
+        utxos.put(outpoint(3), new Utxo(68, P2WPKH, 1, false));
+        assertNull(selector.select(utxos, 500_000, FEE_RATE, HEIGHT));
+    }
+
+    @Test
+    void rejectsFeeRatesOutOfRange() {
+        Map<OutPoint, Utxo> utxos = utxos(1_000_000);
+
+        assertThrows(IllegalArgumentException.class, () -> selector.select(utxos, 1000, -1, HEIGHT));
+        assertThrows(IllegalArgumentException.class, () -> selector.select(utxos, 1000,
+                CoinSelector.MAX_FEE_RATE + 1, HEIGHT));
+        assertThrows(IllegalArgumentException.class, () -> selector.select(utxos, 1000, Long.MAX_VALUE, HEIGHT));
+    }
+
+    /** P2WPKH outputs of the values, at outpoints 0, 1, ... */
+    private static Map<OutPoint, Utxo> utxos(long... values) {
+        Map<OutPoint, Utxo> utxos = new HashMap<>();
+        for (int i = 0; i < values.length; i++) {
+            utxos.put(outpoint(i), new Utxo(values[i], P2WPKH, 1, false));
+        }
+        return utxos;
+    }
+
+    private static OutPoint outpoint(int index) {
+        return new OutPoint(Sha256.wrap(Sha256.hashTwice(new byte[]{(byte) index})), 0);
+    }
+}
@@ -0,0 +1,39 @@
+package org.hma.bitcoin.wallet;
+
+import org.hma.bitcoin.crypto.ExtendedKey;
+import org.hma.bitcoin.util.ByteUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.hma.bitcoin.crypto.ExtendedKey.HARDENED_BIT;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Derives keys of the BIP-32 vector 1 master key through the cache, which doesn't need a wallet. */
+class HdKeyDerivationTest {
+    private final HdKeyDerivation derivation = new HdKeyDerivation(null, 1, 100);
+
+    @AfterEach
+    void tearDown() {
+        derivation.close();
+    }
+
+    @Test
+    void cachesPrivateAndPublicParentsApart() {
+        ExtendedKey account = ExtendedKey.fromSeed(ByteUtils.HEX.decode("000102030405060708090a0b0c0d0e0f"))
+                .deriveChild(HARDENED_BIT);
+        ExtendedKey xpub = account.neuter();
+
+        ExtendedKey fromPrivate = derivation.derive(account, 1, 2);
+        ExtendedKey fromPublic = derivation.derive(xpub, 1, 2);
+
+        assertTrue(fromPrivate.hasPrivateKey());
+        assertFalse(fromPublic.hasPrivateKey());
+        assertArrayEquals(fromPrivate.getPubKey(), fromPublic.getPubKey());
+        assertSame(fromPrivate, derivation.derive(account, 1, 2));
+        assertSame(fromPublic, derivation.derive(xpub, 1, 2));
+        assertFalse(derivation.derive(xpub, 1).hasPrivateKey());
+    }
+}